@@ -51,6 +51,8 @@ export class App {
   generationProgress: number = 0;
   generationStatus: string = '';
   currentJobId: string | null = null;
+  // Tier of the current job; a finished draft can be refined
+  currentTier: string = 'standard';
   resultImage: string | null = null;
 
   constructor(private imageService: ImageService, private snackBar: MatSnackBar, private changeDetectorRef: ChangeDetectorRef) {}
@@ -72,7 +74,7 @@ export class App {
     this.targetAge = age;
   }
 
-  startGeneration() {
+  startGeneration(tier: string = 'standard') {
     if (!this.selectedImage) {
       this.showError('Please select an image first');
       return;
@@ -86,9 +88,11 @@ export class App {
     const request: GenerationRequest = {
       image: this.selectedImage,
       profession: this.selectedProfession,
-      age: this.targetAge
+      age: this.targetAge,
+      tier
     };
 
+    this.currentTier = tier;
     this.isLoading = true;
     this.generationStatus = 'Starting generation...';
 
@@ -97,7 +101,7 @@ export class App {
         this.currentJobId = response.jobId;
         this.generationStatus = response.message!;
         this.generationProgress = 20; // Initial progress
-        this.pollStatus();
+        this.pollStatus(response.pollAfterSeconds ?? 25);
       },
       error: (error) => {
         this.isLoading = false;
@@ -106,64 +110,90 @@ export class App {
     });
   }
 
-  pollStatus() {
+  pollStatus(waitSeconds: number = 25) {
     if (!this.currentJobId) return;
+    const jobId = this.currentJobId;
+
+    // Each request returns when the job changes, or after the interval the server suggested
+    // from its completion estimate; ask again while it is processing
+    this.imageService.checkStatus(jobId, waitSeconds).subscribe({
+      next: (response) => {
+        this.generationStatus = response.message!;
+        if (response.estimatedSecondsRemaining !== undefined) {
+          this.generationStatus += ` About ${response.estimatedSecondsRemaining}s left.`;
+        }
+
+        if (response.progress !== undefined) {
+          this.generationProgress = response.progress;
+        }
+        
+        switch (response.status) {
+          case 'COMPLETED':
+            setTimeout(() => { 
+              this.isLoading = false;
+              this.generatedImageUrl = response.imageUrl || null;
+              this.generationProgress = 100;
+              this.generationStatus = 'Generation completed!';
+              this.showSuccess('Image generated successfully!');
 
-    const interval = setInterval(() => {
-      this.imageService.checkStatus(this.currentJobId!).subscribe({
-        next: (response) => {
-          this.generationStatus = response.message!;
-
-          if (response.progress !== undefined) {
-            this.generationProgress = response.progress;
-          }
-          
-          switch (response.status) {
-            case 'COMPLETED':
-              setTimeout(() => { 
-                this.isLoading = false;
-                this.generatedImageUrl = response.imageUrl || null;
-                this.generationProgress = 100;
-                this.generationStatus = 'Generation completed!';
-                this.showSuccess('Image generated successfully!');
-                clearInterval(interval);
-
-                this.changeDetectorRef.detectChanges();
-              });
-              break;
-
-              case 'FAILED':
-                setTimeout(() => {
-                  this.isLoading = false;
-                  this.generationProgress = 0;
-                  this.generationStatus = 'Generation failed';
-                  this.showError(response.message || 'Generation failed');
-                  clearInterval(interval);
-
-                  this.changeDetectorRef.detectChanges();
-                });
-                break;
-                
-              case 'PROCESSING':
-                setTimeout(() => {
-                  if (!response.progress && this.generationProgress < 90) {
-                    this.generationProgress += 5;
-                  }
-                });
-                break;
+              this.changeDetectorRef.detectChanges();
+            });
+            break;
+
+          case 'FAILED':
+          case 'CANCELLED':
+            setTimeout(() => {
+              const failed = response.status === 'FAILED' ? 'Generation failed' : 'Generation cancelled';
+              this.isLoading = false;
+              this.generationProgress = 0;
+              this.generationStatus = failed;
+              this.showError(response.message || failed);
+
+              this.changeDetectorRef.detectChanges();
+            });
+            break;
+
+          case 'PROCESSING':
+            setTimeout(() => {
+              if (!response.progress && this.generationProgress < 90) {
+                this.generationProgress += 5;
+              }
+            });
+            if (this.currentJobId === jobId) {
+              this.pollStatus(response.pollAfterSeconds ?? 25);
             }
-        },
-        error: (error) => {
-          clearInterval(interval);
-          this.isLoading = false;
-          this.showError('Error checking status');
+            break;
         }
-      });
-    }, 500); 
+      },
+      error: (error) => {
+        this.isLoading = false;
+        this.showError('Error checking status');
+      }
+    });
   }
 
   onRegenerate() {
-    this.startGeneration();
+    this.startGeneration(this.currentTier);
+  }
+
+  onRefine() {
+    if (!this.currentJobId) return;
+
+    this.isLoading = true;
+    this.generationStatus = 'Refining preview...';
+    this.imageService.refine(this.currentJobId, 'standard').subscribe({
+      next: (response) => {
+        this.currentJobId = response.jobId;
+        this.currentTier = 'standard';
+        this.generationStatus = response.message!;
+        this.generationProgress = 20;
+        this.pollStatus(response.pollAfterSeconds ?? 25);
+      },
+      error: (error) => {
+        this.isLoading = false;
+        this.showError('Failed to start refinement');
+      }
+    });
   }
 
   onDownload(imageUrl: string) {
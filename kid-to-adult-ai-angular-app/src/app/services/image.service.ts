@@ -1,7 +1,7 @@
 import { Injectable } from '@angular/core';
-import { HttpClient, HttpParams } from '@angular/common/http';
-import { BehaviorSubject, interval, Observable, of } from 'rxjs';
-import { catchError, map, switchMap, takeWhile } from 'rxjs/operators';
+import { HttpClient, HttpErrorResponse, HttpHeaders, HttpParams } from '@angular/common/http';
+import { BehaviorSubject, interval, Observable, of, throwError, timer } from 'rxjs';
+import { catchError, map, retry, switchMap, takeWhile } from 'rxjs/operators';
 
 export interface Profession {
   id: string;
@@ -14,6 +14,8 @@ export interface GenerationRequest {
   image: File;
   profession: string;
   age: number;
+  // draft (fast preview), standard or high
+  tier?: string;
 }
 
 export interface GenerationResponse {
@@ -28,6 +30,12 @@ export interface GenerationResponse {
   completedAt?: Date;
   errorCode?: string;
   errorDetails?: string;
+  // Server predictions while PROCESSING
+  queuePosition?: number;
+  estimatedWaitSeconds?: number;
+  estimatedSecondsRemaining?: number;
+  estimatedCompletionAt?: Date;
+  pollAfterSeconds?: number;
 }
 
 export interface JobStatus {
@@ -99,20 +107,50 @@ export class ImageService {
     formData.append('image', request.image);
     formData.append('profession', request.profession);
     formData.append('age', request.age.toString());
+    if (request.tier) {
+      formData.append('tier', request.tier);
+    }
     
+    // One key per upload: a retry after a dropped response gets the original job instead of a second one
+    const headers = new HttpHeaders({ 'Idempotency-Key': crypto.randomUUID() });
+
     return this.http.post<GenerationResponse>(
       `${this.apiUrl}/generate`, 
-      formData
+      formData,
+      { headers }
     ).pipe(
+      retry({
+        count: 2,
+        delay: (error: HttpErrorResponse, retryCount: number) =>
+          error.status === 0 || error.status >= 502 ? timer(1000 * retryCount) : throwError(() => error)
+      }),
       map(response => {
         return response;
       })
     );
   }
 
-  checkStatus(jobId: string): Observable<GenerationResponse> {
+  // Re-render a finished job (usually a draft) at a higher tier; starts a new job with the same seed
+  refine(jobId: string, tier: string = 'standard'): Observable<GenerationResponse> {
+    const formData = new FormData();
+    formData.append('jobId', jobId);
+    formData.append('tier', tier);
+    const headers = new HttpHeaders({ 'Idempotency-Key': crypto.randomUUID() });
+
+    return this.http.post<GenerationResponse>(`${this.apiUrl}/generate-refine`, formData, { headers }).pipe(
+      retry({
+        count: 2,
+        delay: (error: HttpErrorResponse, retryCount: number) =>
+          error.status === 0 || error.status >= 502 ? timer(1000 * retryCount) : throwError(() => error)
+      })
+    );
+  }
+
+  // With waitSeconds the server holds the request until the job changes (long poll)
+  checkStatus(jobId: string, waitSeconds?: number): Observable<GenerationResponse> {
+    const wait = waitSeconds ? `?wait=${waitSeconds}s` : '';
     return this.http.get<GenerationResponse>(
-      `${this.apiUrl}/status/${jobId}`
+      `${this.apiUrl}/status/${jobId}${wait}`
     );
   }
 
@@ -121,7 +159,7 @@ export class ImageService {
       switchMap(() => this.checkStatus(jobId)),
       takeWhile(response => 
         response.status === 'PROCESSING' || 
-        (response.status !== 'COMPLETED' && response.status !== 'FAILED'), 
+        (response.status !== 'COMPLETED' && response.status !== 'FAILED' && response.status !== 'CANCELLED'), 
         true
       ),
       catchError(error => {
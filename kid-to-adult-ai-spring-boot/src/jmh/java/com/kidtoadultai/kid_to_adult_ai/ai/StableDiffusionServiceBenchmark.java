@@ -0,0 +1,89 @@
+package com.kidtoadultai.kid_to_adult_ai.ai;
+
+import com.kidtoadultai.kid_to_adult_ai.benchmark.Fixtures;
+import com.kidtoadultai.kid_to_adult_ai.benchmark.ImagePayloads;
+import org.openjdk.jmh.annotations.*;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request CPU and allocation cost of building, serializing and decoding WebUI payloads.
+ * buildAndSerializeImg2ImgRequestAsMap is the former per-call HashMap and Jackson path, kept to compare against the
+ * pre-serialized bodies; run with -prof gc for the allocation side.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StableDiffusionServiceBenchmark {
+
+    @Param({ImagePayloads.PNG_512, ImagePayloads.PNG_768, ImagePayloads.RAW_10MB})
+    public String image;
+
+    private StableDiffusionService service;
+    private JsonMapper jsonMapper;
+    private String base64Image;
+    private Map<String, Object> webUiResponse;
+
+    @Setup
+    public void setUp() {
+        service = Fixtures.inject(new StableDiffusionService(), "metrics", Fixtures.metrics());
+        Fixtures.inject(service, "professionCatalog", Fixtures.professionCatalog());
+        jsonMapper = JsonMapper.builder().build();
+        base64Image = Base64.getEncoder().encodeToString(ImagePayloads.forName(image));
+
+        webUiResponse = new HashMap<>();
+        webUiResponse.put("images", Collections.singletonList(base64Image));
+        webUiResponse.put("parameters", new HashMap<>());
+        webUiResponse.put("info", "{}");
+    }
+
+    @Benchmark
+    public String extractImageFromResponse() {
+        return service.extractImageFromResponse(webUiResponse);
+    }
+
+    @Benchmark
+    public String generatePrompt() {
+        return service.generatePrompt("astronaut", 35);
+    }
+
+    @Benchmark
+    public byte[] buildAndSerializeImg2ImgRequest() {
+        return service.buildImg2ImgRequest(base64Image, "doctor", 30);
+    }
+
+    @Benchmark
+    public byte[] buildAndSerializeControlNetRequest() {
+        return service.buildControlNetRequest(base64Image, "doctor", 30);
+    }
+
+    @Benchmark
+    public byte[] buildAndSerializeImg2ImgRequestAsMap() {
+        GenerationProfile profile = GenerationProfile.standard();
+        String prompt = "professional doctor, white coat, stethoscope, hospital, medical setting, age {age}, detailed face, photorealistic"
+                .replace("{age}", String.valueOf(30)) + ", highly detailed, sharp focus, studio lighting, masterpiece, best quality";
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("init_images", Arrays.asList(base64Image));
+        requestBody.put("prompt", prompt);
+        requestBody.put("negative_prompt", "deformed, blurry, bad anatomy, disfigured, poorly drawn face, " +
+                "mutation, mutated, extra limb, ugly, poorly drawn hands, " +
+                "missing limb, floating limbs, disconnected limbs, malformed hands, " +
+                "out of focus, long neck, long body, unrealistic, doll, cartoon, " +
+                "anime, 3d, cgi, render, sketch, painting, drawing");
+        requestBody.put("denoising_strength", 0.75);
+        requestBody.put("steps", profile.img2imgSteps());
+        requestBody.put("width", profile.width());
+        requestBody.put("height", profile.height());
+        requestBody.put("cfg_scale", 7.5);
+        requestBody.put("sampler_index", profile.sampler());
+        requestBody.put("seed", -1L);
+        requestBody.put("batch_size", 1);
+        return jsonMapper.writeValueAsBytes(requestBody);
+    }
+}
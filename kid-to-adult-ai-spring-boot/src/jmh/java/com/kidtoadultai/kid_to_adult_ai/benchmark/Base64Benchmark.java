@@ -0,0 +1,50 @@
+package com.kidtoadultai.kid_to_adult_ai.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 cost of moving uploads to the WebUI and results back to disk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Base64Benchmark {
+
+    @Param({ImagePayloads.PNG_512, ImagePayloads.PNG_768, ImagePayloads.RAW_10MB})
+    public String image;
+
+    private byte[] imageBytes;
+    private String base64Image;
+    private String dataUrl;
+
+    @Setup
+    public void setUp() {
+        imageBytes = ImagePayloads.forName(image);
+        base64Image = Base64.getEncoder().encodeToString(imageBytes);
+        dataUrl = "data:image/png;base64," + base64Image;
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.getEncoder().encodeToString(imageBytes);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.getDecoder().decode(base64Image);
+    }
+
+    /**
+     * Matches ImageStorageService: strip the data URL prefix, then decode
+     */
+    @Benchmark
+    public byte[] decodeDataUrl() {
+        return Base64.getDecoder().decode(dataUrl.substring(dataUrl.indexOf(",") + 1));
+    }
+}
@@ -0,0 +1,104 @@
+package com.kidtoadultai.kid_to_adult_ai.benchmark;
+
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Compares a JMH JSON result file against a saved baseline and fails on regressions.
+ * Usage: BenchmarkComparison baseline.json result.json [scoreTolerance] [allocationTolerance]
+ * Timing is compared loosely since it depends on the machine; bytes allocated per op are
+ * deterministic, so allocation gets the tighter bound.
+ */
+public final class BenchmarkComparison {
+
+    private BenchmarkComparison() {
+    }
+
+    public static void main(String[] args) {
+        File baselineFile = new File(args[0]);
+        File resultFile = new File(args[1]);
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.50;
+        double allocationTolerance = args.length > 3 ? Double.parseDouble(args[3]) : 0.10;
+
+        if (!baselineFile.exists()) {
+            System.out.println("No baseline at " + baselineFile + "; copy " + resultFile + " there to start tracking");
+            return;
+        }
+
+        JsonMapper mapper = JsonMapper.builder().build();
+        Map<String, JsonNode> baseline = index(mapper.readTree(baselineFile));
+        Map<String, JsonNode> current = index(mapper.readTree(resultFile));
+
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println("NEW       " + entry.getKey());
+                continue;
+            }
+            JsonNode after = entry.getValue();
+
+            double oldScore = before.path("primaryMetric").path("score").asDouble();
+            double newScore = after.path("primaryMetric").path("score").asDouble();
+            boolean higherIsBetter = "thrpt".equals(after.path("mode").asString());
+            double change = oldScore == 0 ? 0 : (newScore - oldScore) / oldScore;
+            boolean slower = higherIsBetter ? change < -tolerance : change > tolerance;
+            report(regressions, slower, entry.getKey(), "score", oldScore, newScore, change);
+
+            double oldAlloc = allocationPerOp(before);
+            double newAlloc = allocationPerOp(after);
+            if (oldAlloc >= 0 && newAlloc >= 0) {
+                double allocChange = oldAlloc == 0 ? (newAlloc > 0 ? 1 : 0) : (newAlloc - oldAlloc) / oldAlloc;
+                // Ignore noise on benchmarks that allocate (almost) nothing
+                boolean allocRegressed = newAlloc - oldAlloc > 16 && allocChange > allocationTolerance;
+                report(regressions, allocRegressed, entry.getKey(), "B/op", oldAlloc, newAlloc, allocChange);
+            }
+        }
+        // Not a failure since -Djmh.include may have narrowed the run, but a renamed benchmark needs a new baseline
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.println("MISSING   " + key);
+            }
+        }
+
+        if (!regressions.isEmpty()) {
+            System.out.println(regressions.size() + " benchmark regression(s) beyond tolerance");
+            System.exit(1);
+        }
+        System.out.println("No benchmark regressions beyond tolerance");
+    }
+
+    private static void report(List<String> regressions, boolean regressed, String key, String metric,
+                               double before, double after, double change) {
+        String line = String.format("%-9s %s [%s] %.3f -> %.3f (%+.1f%%)",
+                regressed ? "REGRESSED" : "ok", key, metric, before, after, change * 100);
+        System.out.println(line);
+        if (regressed) {
+            regressions.add(line);
+        }
+    }
+
+    private static double allocationPerOp(JsonNode run) {
+        for (Map.Entry<String, JsonNode> metric : run.path("secondaryMetrics").properties()) {
+            if (metric.getKey().endsWith("gc.alloc.rate.norm")) {
+                return metric.getValue().path("score").asDouble();
+            }
+        }
+        return -1;
+    }
+
+    private static Map<String, JsonNode> index(JsonNode runs) {
+        Map<String, JsonNode> byKey = new TreeMap<>();
+        for (JsonNode run : runs) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asString());
+            for (Map.Entry<String, JsonNode> param : run.path("params").properties()) {
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asString());
+            }
+            byKey.put(key.toString(), run);
+        }
+        return byKey;
+    }
+}
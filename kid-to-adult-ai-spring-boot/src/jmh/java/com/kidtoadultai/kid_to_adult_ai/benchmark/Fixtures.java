@@ -0,0 +1,78 @@
+package com.kidtoadultai.kid_to_adult_ai.benchmark;
+
+import com.kidtoadultai.kid_to_adult_ai.ai.ProfessionCatalog;
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationMetrics;
+import com.kidtoadultai.kid_to_adult_ai.service.JobStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wires services by hand so benchmarks run without a Spring context or database
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    public static <T> T inject(T target, String fieldName, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+            return target;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot inject " + fieldName + " into " + target.getClass(), e);
+        }
+    }
+
+    public static GenerationMetrics metrics() {
+        GenerationMetrics metrics = inject(new GenerationMetrics(), "meterRegistry", new SimpleMeterRegistry());
+        return inject(metrics, "observationRegistry", ObservationRegistry.NOOP);
+    }
+
+    /**
+     * The catalog from professions.json on the classpath
+     */
+    public static ProfessionCatalog professionCatalog() {
+        ProfessionCatalog catalog = new ProfessionCatalog();
+        catalog.start();
+        return catalog;
+    }
+
+    /**
+     * Map-backed job store supporting save and findById, so no database is involved
+     */
+    public static JobStore jobStore() {
+        Map<String, JobStatus> store = new ConcurrentHashMap<>();
+        return (JobStore) Proxy.newProxyInstance(
+                JobStore.class.getClassLoader(),
+                new Class<?>[]{JobStore.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "save":
+                            JobStatus job = (JobStatus) args[0];
+                            if (job.getJobId() == null) {
+                                job.setJobId(UUID.randomUUID().toString());
+                            }
+                            store.put(job.getJobId(), job);
+                            return job;
+                        case "findById":
+                            return Optional.ofNullable(store.get((String) args[0]));
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,65 @@
+package com.kidtoadultai.kid_to_adult_ai.benchmark;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Deterministic image payloads of realistic size for benchmarks.
+ * PNGs get a gradient plus sensor-like noise so they compress like photos rather than flat colour.
+ */
+public final class ImagePayloads {
+
+    public static final String PNG_512 = "512px";
+    public static final String PNG_768 = "768px";
+    public static final String RAW_10MB = "10mb";
+
+    private ImagePayloads() {
+    }
+
+    public static byte[] forName(String name) {
+        switch (name) {
+            case PNG_512:
+                return png(512);
+            case PNG_768:
+                return png(768);
+            case RAW_10MB:
+                return randomBytes(10 * 1024 * 1024);
+            default:
+                throw new IllegalArgumentException("Unknown payload: " + name);
+        }
+    }
+
+    public static byte[] png(int size) {
+        Random random = new Random(size);
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int r = clamp(x * 255 / size + random.nextInt(24) - 12);
+                int g = clamp(y * 255 / size + random.nextInt(24) - 12);
+                int b = clamp((x + y) * 127 / size + random.nextInt(24) - 12);
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode benchmark image", e);
+        }
+    }
+
+    public static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
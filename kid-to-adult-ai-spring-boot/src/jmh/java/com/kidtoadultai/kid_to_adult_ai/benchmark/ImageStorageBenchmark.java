@@ -0,0 +1,54 @@
+package com.kidtoadultai.kid_to_adult_ai.benchmark;
+
+import com.kidtoadultai.kid_to_adult_ai.service.ImageStorageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Decode plus file write of a finished generation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageStorageBenchmark {
+
+    @Param({ImagePayloads.PNG_512, ImagePayloads.PNG_768})
+    public String image;
+
+    private Path uploadDir;
+    private ImageStorageService storage;
+    private String dataUrl;
+    private int counter;
+
+    @Setup
+    public void setUp() throws IOException {
+        uploadDir = Files.createTempDirectory("jmh-uploads");
+        storage = new ImageStorageService();
+        Fixtures.inject(storage, "metrics", Fixtures.metrics());
+        Fixtures.inject(storage, "uploadDir", uploadDir.toString());
+        dataUrl = "data:image/png;base64," + Base64.getEncoder().encodeToString(ImagePayloads.forName(image));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(uploadDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String saveGeneratedImage() {
+        // Rotate over a small set of names so the directory does not grow without bound
+        return storage.saveGeneratedImage(dataUrl, "bench-" + (counter++ & 63));
+    }
+}
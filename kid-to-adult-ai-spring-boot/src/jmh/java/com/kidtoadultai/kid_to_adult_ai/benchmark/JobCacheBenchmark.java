@@ -0,0 +1,60 @@
+package com.kidtoadultai.kid_to_adult_ai.benchmark;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.service.JobTrackingService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JobTrackingService cache under contention: status polls (get) racing status updates (put).
+ * The job store is an in-memory stub so only the cache and bookkeeping are measured.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobCacheBenchmark {
+
+    private JobTrackingService jobTrackingService;
+    private List<String> jobIds;
+
+    @Setup
+    public void setUp() {
+        jobTrackingService = new JobTrackingService();
+        Fixtures.inject(jobTrackingService, "jobStore", Fixtures.jobStore());
+        Fixtures.inject(jobTrackingService, "metrics", Fixtures.metrics());
+
+        jobIds = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            jobIds.add(jobTrackingService.createJob("doctor", 30, "child.png").getJobId());
+        }
+    }
+
+    @Benchmark
+    @Group("pollWhileSubmitting")
+    @GroupThreads(6)
+    public JobStatus getJobStatus() {
+        return jobTrackingService.getJobStatus(jobIds.get(ThreadLocalRandom.current().nextInt(jobIds.size())));
+    }
+
+    @Benchmark
+    @Group("pollWhileSubmitting")
+    @GroupThreads(2)
+    public void updateJobStatus() {
+        jobTrackingService.updateJobStatus(jobIds.get(ThreadLocalRandom.current().nextInt(jobIds.size())),
+                "PROCESSING", null);
+    }
+
+    @Benchmark
+    @Group("pollOnly")
+    @GroupThreads(8)
+    public JobStatus getJobStatusOnly() {
+        return jobTrackingService.getJobStatus(jobIds.get(ThreadLocalRandom.current().nextInt(jobIds.size())));
+    }
+}
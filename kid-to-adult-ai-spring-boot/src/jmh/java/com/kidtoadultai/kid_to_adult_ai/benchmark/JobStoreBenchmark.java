@@ -0,0 +1,101 @@
+package com.kidtoadultai.kid_to_adult_ai.benchmark;
+
+import com.kidtoadultai.kid_to_adult_ai.KidToAdultAiApplication;
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.service.JobStore;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Status lookups and status transitions against each job store, wired by the application context.
+ * The JPA store runs on in-memory H2, so the numbers leave out the network round trip to a PostgreSQL server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobStoreBenchmark {
+
+    private static final String[] STATUSES = {"PROCESSING", "COMPLETED"};
+
+    @Param({"embedded", "jpa"})
+    public String store;
+
+    private Path storeDir;
+    private ConfigurableApplicationContext context;
+    private JobStore jobStore;
+    private List<String> jobIds;
+
+    @Setup
+    public void setUp() throws IOException {
+        storeDir = Files.createTempDirectory("jmh-job-store");
+        context = new SpringApplicationBuilder(KidToAdultAiApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--job.store=" + store,
+                        "--job.store.dir=" + storeDir,
+                        "--spring.datasource.url=jdbc:h2:mem:jmh-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                        "--spring.jpa.show-sql=false",
+                        "--replicate.api.key=jmh",
+                        "--stable.diffusion.warmup.enabled=false",
+                        "--job.archive.dir=" + storeDir.resolve("archive"),
+                        "--image.upload.dir=" + storeDir.resolve("uploads"),
+                        "--logging.level.root=WARN");
+        jobStore = context.getBean(JobStore.class);
+
+        jobIds = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            JobStatus job = new JobStatus();
+            job.setStatus("PROCESSING");
+            job.setProfession("doctor");
+            job.setTargetAge(30);
+            job.setOriginalFilename("child-" + i + ".png");
+            job.setStartedAt(new Date());
+            job.getMetadata().put("tier", "standard");
+            job.getMetadata().put("mode", "txt2img");
+            jobIds.add(jobStore.save(job).getJobId());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(storeDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String lookup() {
+        return jobStore.findById(randomJobId()).orElseThrow().getStatus();
+    }
+
+    @Benchmark
+    public JobStatus transition() {
+        JobStatus job = jobStore.findById(randomJobId()).orElseThrow();
+        job.setStatus(STATUSES[ThreadLocalRandom.current().nextInt(STATUSES.length)]);
+        return jobStore.save(job);
+    }
+
+    private String randomJobId() {
+        return jobIds.get(ThreadLocalRandom.current().nextInt(jobIds.size()));
+    }
+}
@@ -0,0 +1,263 @@
+package com.kidtoadultai.kid_to_adult_ai.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the Replicate predictions API so the remote path can be load tested offline.
+ * Predictions run concurrently (no GPU limit) for a sampled time, then report succeeded with an
+ * output URL served by this server, or failed at fake.replicate.failure.rate. Create requests that
+ * carry a webhook get the finished prediction POSTed back, signed when a secret is given.
+ *
+ * Run standalone: java ... FakeReplicate [port], configured with -Dfake.replicate.* properties.
+ */
+public class FakeReplicate {
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final LatencyDistribution latency;
+    private final double failureRate;
+    private final String webhookSecret;
+    private final byte[] outputImage;
+    private final Map<String, Prediction> predictions = new ConcurrentHashMap<>();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong polled = new AtomicLong();
+    private final AtomicLong webhooksSent = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fake-replicate-webhook");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fake-replicate");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private HttpServer server;
+
+    public FakeReplicate(LatencyDistribution latency, double failureRate, String webhookSecret) {
+        this.latency = latency;
+        this.failureRate = failureRate;
+        this.webhookSecret = webhookSecret;
+        this.outputImage = png(768);
+    }
+
+    public static FakeReplicate fromSystemProperties() {
+        return fromSystemProperties(System.getProperty("fake.replicate.webhook.secret", ""));
+    }
+
+    public static FakeReplicate fromSystemProperties(String webhookSecret) {
+        return new FakeReplicate(
+                LatencyDistribution.parse(System.getProperty("fake.replicate.latency", "lognormal:6000:0.3")),
+                Double.parseDouble(System.getProperty("fake.replicate.failure.rate", "0")),
+                webhookSecret);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7861;
+        FakeReplicate replicate = fromSystemProperties();
+        replicate.start(port);
+        System.out.println("Fake Replicate listening on " + replicate.getUrl());
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        server.setExecutor(executor);
+        server.createContext("/v1/predictions", this::predictions);
+        server.createContext("/files/", this::file);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getPolled() {
+        return polled.get();
+    }
+
+    public long getWebhooksSent() {
+        return webhooksSent.get();
+    }
+
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    private void predictions(HttpExchange exchange) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        // /v1/predictions, /v1/predictions/{id}, /v1/predictions/{id}/cancel
+        if (path.length == 3 && "POST".equals(exchange.getRequestMethod())) {
+            create(exchange);
+            return;
+        }
+
+        Prediction prediction = path.length > 3 ? predictions.get(path[3]) : null;
+        if (prediction == null) {
+            send(exchange, 404, Map.of("detail", "Not found."));
+        } else if (path.length == 5 && "cancel".equals(path[4])) {
+            prediction.cancelled = true;
+            cancelled.incrementAndGet();
+            send(exchange, 200, view(prediction));
+        } else {
+            polled.incrementAndGet();
+            send(exchange, 200, view(prediction));
+        }
+    }
+
+    private void create(HttpExchange exchange) throws IOException {
+        JsonNode request = jsonMapper.readTree(exchange.getRequestBody());
+        if (request.path("input").path("prompt").asString("").isEmpty()) {
+            send(exchange, 422, Map.of("detail", "input.prompt is required"));
+            return;
+        }
+
+        Prediction prediction = new Prediction(UUID.randomUUID().toString().replace("-", ""),
+                latency.sampleMillis(), ThreadLocalRandom.current().nextDouble() < failureRate);
+        predictions.put(prediction.id, prediction);
+        created.incrementAndGet();
+
+        String webhook = request.path("webhook").asString("");
+        if (!webhook.isEmpty()) {
+            scheduler.schedule(() -> sendWebhook(webhook, prediction), prediction.durationMillis, TimeUnit.MILLISECONDS);
+        }
+
+        send(exchange, 201, view(prediction));
+    }
+
+    private void sendWebhook(String url, Prediction prediction) {
+        if (prediction.cancelled) {
+            return;
+        }
+        try {
+            String body = jsonMapper.writeValueAsString(view(prediction));
+            String id = "msg_" + prediction.id;
+            String timestamp = String.valueOf(System.currentTimeMillis() / 1000);
+
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                    .header("Content-Type", "application/json")
+                    .header("webhook-id", id)
+                    .header("webhook-timestamp", timestamp)
+                    .POST(HttpRequest.BodyPublishers.ofString(body));
+            if (!webhookSecret.isEmpty()) {
+                request.header("webhook-signature", "v1," + sign(id + "." + timestamp + "." + body));
+            }
+            http.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding());
+            webhooksSent.incrementAndGet();
+        } catch (Exception e) {
+            System.err.println("Fake Replicate webhook failed: " + e);
+        }
+    }
+
+    private String sign(String content) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        byte[] key = Base64.getDecoder().decode(webhookSecret.substring(webhookSecret.indexOf('_') + 1));
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return Base64.getEncoder().encodeToString(mac.doFinal(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void file(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        exchange.sendResponseHeaders(200, outputImage.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(outputImage);
+        }
+    }
+
+    private Map<String, Object> view(Prediction prediction) {
+        long elapsed = System.currentTimeMillis() - prediction.createdAt;
+        String status;
+        if (prediction.cancelled) {
+            status = "canceled";
+        } else if (elapsed < prediction.durationMillis / 10) {
+            status = "starting";
+        } else if (elapsed < prediction.durationMillis) {
+            status = "processing";
+        } else {
+            status = prediction.fails ? "failed" : "succeeded";
+        }
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("id", prediction.id);
+        body.put("status", status);
+        body.put("urls", Map.of(
+                "get", getUrl() + "/v1/predictions/" + prediction.id,
+                "cancel", getUrl() + "/v1/predictions/" + prediction.id + "/cancel"));
+        if ("succeeded".equals(status)) {
+            body.put("output", List.of(getUrl() + "/files/" + prediction.id + ".png"));
+        }
+        if ("failed".equals(status)) {
+            body.put("error", "CUDA out of memory (injected)");
+        }
+        return body;
+    }
+
+    private void send(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] json = jsonMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+
+    private static byte[] png(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                image.setRGB(x, y, (y * 255 / size) << 16 | (x * 255 / size));
+            }
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode output image", e);
+        }
+    }
+
+    private static class Prediction {
+        private final String id;
+        private final long createdAt = System.currentTimeMillis();
+        private final long durationMillis;
+        private final boolean fails;
+        private volatile boolean cancelled;
+
+        Prediction(String id, long durationMillis, boolean fails) {
+            this.id = id;
+            this.durationMillis = durationMillis;
+            this.fails = fails;
+        }
+    }
+}
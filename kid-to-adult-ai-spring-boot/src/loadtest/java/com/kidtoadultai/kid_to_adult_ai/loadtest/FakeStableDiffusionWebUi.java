@@ -0,0 +1,286 @@
+package com.kidtoadultai.kid_to_adult_ai.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the AUTOMATIC1111 WebUI API so the service can be load tested without a GPU.
+ * Generation endpoints hold one of gpuSlots permits for a sampled service time, mimicking the
+ * WebUI's internal queue lock. A ControlNet unit that still needs preprocessing (module other than
+ * "none") adds a detect time, as does /controlnet/detect. Failures (HTTP 500) and hangs can be
+ * injected by rate. With fake.scale-by-work the sampled time is for a standard img2img request
+ * (50 steps at denoising 0.75, 512x512) and scales with steps x denoising x pixels, so quality tiers differ.
+ *
+ * Run standalone: java ... FakeStableDiffusionWebUi [port], configured with -Dfake.* properties.
+ */
+public class FakeStableDiffusionWebUi {
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private final LatencyDistribution latency;
+    private final LatencyDistribution detectLatency;
+    private final Semaphore gpu;
+    private final double failureRate;
+    private final double hangRate;
+    private final String resultImage;
+    private volatile boolean scaleByWork;
+    private final Deque<Generation> active = new ConcurrentLinkedDeque<>();
+    private final Map<String, Object> options = new ConcurrentHashMap<>();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong interrupted = new AtomicLong();
+    private final AtomicLong detected = new AtomicLong();
+    private final ExecutorService executor = Executors.newCachedThreadPool(daemonThreads());
+    private HttpServer server;
+
+    public FakeStableDiffusionWebUi(LatencyDistribution latency, LatencyDistribution detectLatency,
+                                    int gpuSlots, double failureRate, double hangRate) {
+        this.latency = latency;
+        this.detectLatency = detectLatency;
+        this.gpu = new Semaphore(gpuSlots, true);
+        this.failureRate = failureRate;
+        this.hangRate = hangRate;
+        this.resultImage = Base64.getEncoder().encodeToString(png(512));
+        options.put("sd_model_checkpoint", "v1-5-pruned-emaonly.safetensors [6ce0161689]");
+    }
+
+    public static FakeStableDiffusionWebUi fromSystemProperties() {
+        FakeStableDiffusionWebUi webUi = new FakeStableDiffusionWebUi(
+                LatencyDistribution.parse(System.getProperty("fake.latency", "lognormal:2000:0.4")),
+                LatencyDistribution.parse(System.getProperty("fake.detect.latency", "lognormal:500:0.3")),
+                Integer.getInteger("fake.gpu.slots", 1),
+                Double.parseDouble(System.getProperty("fake.failure.rate", "0")),
+                Double.parseDouble(System.getProperty("fake.hang.rate", "0")));
+        webUi.setScaleByWork(Boolean.getBoolean("fake.scale-by-work"));
+        return webUi;
+    }
+
+    public void setScaleByWork(boolean scaleByWork) {
+        this.scaleByWork = scaleByWork;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7860;
+        FakeStableDiffusionWebUi webUi = fromSystemProperties();
+        webUi.start(port);
+        System.out.println("Fake Stable Diffusion WebUI listening on http://localhost:" + webUi.getPort());
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        server.setExecutor(executor);
+        server.createContext("/sdapi/v1/txt2img", exchange -> generate(exchange));
+        server.createContext("/sdapi/v1/img2img", exchange -> generate(exchange));
+        server.createContext("/sdapi/v1/progress", this::progress);
+        server.createContext("/sdapi/v1/options", this::options);
+        server.createContext("/sdapi/v1/sd-models", this::models);
+        server.createContext("/sdapi/v1/interrupt", this::interrupt);
+        server.createContext("/controlnet/detect", this::detect);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    public long getServed() {
+        return served.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getInterrupted() {
+        return interrupted.get();
+    }
+
+    public long getDetected() {
+        return detected.get();
+    }
+
+    private void generate(HttpExchange exchange) throws IOException {
+        JsonNode request = jsonMapper.readTree(exchange.getRequestBody());
+        int images = Math.max(1, request.path("batch_size").asInt(1)) * Math.max(1, request.path("n_iter").asInt(1));
+
+        try {
+            gpu.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, Map.of("error", "shutting down"));
+            return;
+        }
+
+        long durationMillis = latency.sampleMillis() * images;
+        if (scaleByWork) {
+            double work = request.path("steps").asInt(50) * request.path("denoising_strength").asDouble(1.0)
+                    * request.path("width").asInt(512) * request.path("height").asInt(512);
+            durationMillis = (long) (durationMillis * work / (50 * 0.75 * 512 * 512));
+        }
+        String module = request.path("alwayson_scripts").path("ControlNet").path("args").path(0).path("module").asString("none");
+        if (!"none".equals(module)) {
+            detected.incrementAndGet();
+            durationMillis += detectLatency.sampleMillis();
+        }
+
+        Generation generation = new Generation(durationMillis);
+        active.add(generation);
+        try {
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < hangRate) {
+                generation.done.await();
+            } else if (generation.done.await(generation.durationMillis, TimeUnit.MILLISECONDS)) {
+                interrupted.incrementAndGet();
+            }
+
+            if (roll >= hangRate && roll < hangRate + failureRate) {
+                failed.incrementAndGet();
+                send(exchange, 500, Map.of("error", "RuntimeError", "detail", "CUDA out of memory (injected)"));
+                return;
+            }
+
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < images; i++) {
+                result.add(resultImage);
+            }
+            served.incrementAndGet();
+            send(exchange, 200, Map.of("images", result, "parameters", Map.of(), "info", "{}"));
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.remove(generation);
+            gpu.release();
+        }
+    }
+
+    private void detect(HttpExchange exchange) throws IOException {
+        jsonMapper.readTree(exchange.getRequestBody());
+        try {
+            gpu.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, Map.of("error", "shutting down"));
+            return;
+        }
+
+        try {
+            Thread.sleep(detectLatency.sampleMillis());
+            detected.incrementAndGet();
+            send(exchange, 200, Map.of("images", List.of(resultImage), "info", "Success"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            gpu.release();
+        }
+    }
+
+    private void progress(HttpExchange exchange) throws IOException {
+        Generation current = active.peekFirst();
+        Map<String, Object> body = new HashMap<>();
+        if (current == null) {
+            body.put("progress", 0.0);
+            body.put("eta_relative", 0.0);
+            body.put("state", Map.of("job_count", 0));
+        } else {
+            long elapsed = System.currentTimeMillis() - current.startedAt;
+            double progress = Math.min(0.99, (double) elapsed / Math.max(1, current.durationMillis));
+            body.put("progress", progress);
+            body.put("eta_relative", Math.max(0, current.durationMillis - elapsed) / 1000.0);
+            body.put("state", Map.of("job_count", active.size() + gpu.getQueueLength()));
+        }
+        // Like a WebUI with live previews enabled: an image while generating, unless skip_current_image=true
+        String query = exchange.getRequestURI().getQuery();
+        boolean skipImage = query != null && query.contains("skip_current_image=true");
+        body.put("current_image", current != null && !skipImage ? resultImage : null);
+        send(exchange, 200, body);
+    }
+
+    private void options(HttpExchange exchange) throws IOException {
+        if ("POST".equals(exchange.getRequestMethod())) {
+            JsonNode request = jsonMapper.readTree(exchange.getRequestBody());
+            for (Map.Entry<String, JsonNode> option : request.properties()) {
+                options.put(option.getKey(), option.getValue().asString());
+            }
+        }
+        send(exchange, 200, options);
+    }
+
+    private void models(HttpExchange exchange) throws IOException {
+        send(exchange, 200, List.of(
+                Map.of("title", "v1-5-pruned-emaonly.safetensors [6ce0161689]", "model_name", "v1-5-pruned-emaonly"),
+                Map.of("title", "realisticVision_v51.safetensors [15012c538f]", "model_name", "realisticVision_v51")));
+    }
+
+    private void interrupt(HttpExchange exchange) throws IOException {
+        Generation current = active.peekFirst();
+        if (current != null) {
+            current.done.countDown();
+        }
+        send(exchange, 200, Map.of());
+    }
+
+    private void send(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] json = jsonMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+
+    private static byte[] png(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                image.setRGB(x, y, (x * 255 / size) << 16 | (y * 255 / size) << 8 | random.nextInt(32));
+            }
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode result image", e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return runnable -> {
+            Thread thread = new Thread(runnable, "fake-webui");
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class Generation {
+        private final long startedAt = System.currentTimeMillis();
+        private final long durationMillis;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Generation(long durationMillis) {
+            this.durationMillis = durationMillis;
+        }
+    }
+}
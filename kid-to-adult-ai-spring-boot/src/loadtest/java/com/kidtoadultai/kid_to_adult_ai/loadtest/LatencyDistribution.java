@@ -0,0 +1,50 @@
+package com.kidtoadultai.kid_to_adult_ai.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Service-time model for the fake WebUI.
+ * Spec formats: "fixed:2000", "uniform:1000-3000", "lognormal:2000:0.5" (median ms, sigma).
+ */
+public abstract class LatencyDistribution {
+
+    public abstract long sampleMillis();
+
+    public static LatencyDistribution parse(String spec) {
+        String[] parts = spec.split(":");
+        switch (parts[0]) {
+            case "fixed": {
+                long millis = Long.parseLong(parts[1]);
+                return new LatencyDistribution() {
+                    @Override
+                    public long sampleMillis() {
+                        return millis;
+                    }
+                };
+            }
+            case "uniform": {
+                String[] range = parts[1].split("-");
+                long min = Long.parseLong(range[0]);
+                long max = Long.parseLong(range[1]);
+                return new LatencyDistribution() {
+                    @Override
+                    public long sampleMillis() {
+                        return ThreadLocalRandom.current().nextLong(min, max + 1);
+                    }
+                };
+            }
+            case "lognormal": {
+                double median = Double.parseDouble(parts[1]);
+                double sigma = parts.length > 2 ? Double.parseDouble(parts[2]) : 0.5;
+                return new LatencyDistribution() {
+                    @Override
+                    public long sampleMillis() {
+                        return Math.round(median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.kidtoadultai.kid_to_adult_ai.loadtest;
+
+import com.kidtoadultai.kid_to_adult_ai.KidToAdultAiApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load driver: submits generations, polls them to completion and reports latency
+ * percentiles, completion throughput, error rate, and the app's heap/GC and ControlNet cache savings
+ * from /actuator/prometheus.
+ *
+ * Without -Dloadtest.app.url the app is booted in-process on H2 against a FakeStableDiffusionWebUi
+ * and a FakeReplicate, so the whole run is offline. System properties prefixed with "app." are passed
+ * to the app, e.g. -Dapp.generation.queue.workers=2. Fake settings use the "fake." prefix.
+ * -Dloadtest.endpoint=/api/stable-diffusion/generate-remote exercises Replicate; add
+ * -Dloadtest.replicate.webhook=true to complete predictions by webhook instead of polling.
+ * -Dloadtest.modes=platform,virtual runs the scenario once per thread mode for comparison.
+ * Each user sends its own X-API-Key. -Dloadtest.hog.jobs=N first fires N submissions from one extra
+ * client without polling, to see how well other users are shielded; rate limits are off unless
+ * -Dapp.ratelimit.enabled=true. Status polls send If-None-Match; -Dloadtest.status.wait=30s long-polls
+ * instead of polling every loadtest.poll.ms.
+ */
+public class LoadTest {
+
+    private static final Set<String> TERMINAL = Set.of("COMPLETED", "FAILED", "CANCELLED", "DELETED");
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final String appUrl;
+    private final String endpoint;
+    private final byte[] image;
+    private final long pollMillis;
+    private final long jobTimeoutMillis;
+    private final String statusWait = System.getProperty("loadtest.status.wait");
+
+    private final List<Long> submitLatencies = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> completionLatencies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong submitErrors = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong peakHeapBytes = new AtomicLong();
+    private final AtomicLong hogAccepted = new AtomicLong();
+    private final AtomicLong hogRejected = new AtomicLong();
+    private final AtomicLong statusRequests = new AtomicLong();
+    private final AtomicLong statusNotModified = new AtomicLong();
+
+    public LoadTest(String appUrl, String endpoint, byte[] image, long pollMillis, long jobTimeoutMillis) {
+        this.appUrl = appUrl;
+        this.endpoint = endpoint;
+        this.image = image;
+        this.pollMillis = pollMillis;
+        this.jobTimeoutMillis = jobTimeoutMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path reportFile = Paths.get(System.getProperty("loadtest.report", "target/loadtest-report.txt"));
+        String modes = System.getProperty("loadtest.modes");
+
+        StringBuilder report = new StringBuilder();
+        if (modes == null) {
+            report.append(runScenario(Map.of()));
+        } else {
+            // Same scenario once per thread mode, each against a fresh app and fake WebUI
+            for (String mode : modes.split(",")) {
+                if ("virtual".equals(mode) && Runtime.version().feature() < 21) {
+                    report.append(String.format("%nmode          virtual skipped: needs Java 21+, running on %s%n", Runtime.version()));
+                    continue;
+                }
+                report.append(String.format("%nmode          %s threads%n", mode));
+                report.append(runScenario(Map.of("spring.threads.virtual.enabled", "virtual".equals(mode))));
+            }
+        }
+
+        System.out.print(report);
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        Files.writeString(reportFile, report);
+        System.out.println("Report written to " + reportFile.toAbsolutePath());
+    }
+
+    private static String runScenario(Map<String, Object> appOverrides) throws Exception {
+        int users = Integer.getInteger("loadtest.users", 8);
+        int jobs = Integer.getInteger("loadtest.jobs", 100);
+        String endpoint = System.getProperty("loadtest.endpoint", "/api/stable-diffusion/generate");
+        long pollMillis = Long.getLong("loadtest.poll.ms", 500);
+        long jobTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.getLong("loadtest.job.timeout.s", 300));
+
+        FakeStableDiffusionWebUi webUi = null;
+        FakeReplicate replicate = null;
+        ConfigurableApplicationContext app = null;
+        String appUrl = System.getProperty("loadtest.app.url");
+
+        try {
+            if (appUrl == null) {
+                webUi = FakeStableDiffusionWebUi.fromSystemProperties();
+                webUi.start(Integer.getInteger("fake.port", 0));
+                Map<String, Object> overrides = new HashMap<>(appOverrides);
+                boolean webhook = Boolean.getBoolean("loadtest.replicate.webhook");
+                if (webhook) {
+                    // The app only accepts signed deliveries; both sides share a throwaway secret
+                    byte[] key = new byte[24];
+                    new Random().nextBytes(key);
+                    String secret = "whsec_" + Base64.getEncoder().encodeToString(key);
+                    replicate = FakeReplicate.fromSystemProperties(secret);
+                    overrides.put("replicate.webhook.secret", secret);
+                } else {
+                    replicate = FakeReplicate.fromSystemProperties();
+                }
+                replicate.start(0);
+
+                overrides.put("replicate.api.url", replicate.getUrl());
+                if (webhook) {
+                    // The webhook URL goes into each prediction, so the port must be known before startup
+                    int port = freePort();
+                    overrides.put("server.port", port);
+                    overrides.put("replicate.webhook.base-url", "http://localhost:" + port);
+                }
+                overrides.put("ratelimit.api-keys", apiKeyDigests(users));
+                app = startApp(webUi.getUrl(), overrides);
+                appUrl = "http://localhost:" + app.getEnvironment().getProperty("local.server.port");
+            }
+
+            LoadTest loadTest = new LoadTest(appUrl, endpoint, samplePhoto(), pollMillis, jobTimeoutMillis);
+            String report = loadTest.run(users, jobs, Integer.getInteger("loadtest.hog.jobs", 0));
+            if (webUi != null) {
+                report += String.format("fake webui     served=%d failed=%d interrupted=%d detected=%d%n",
+                        webUi.getServed(), webUi.getFailed(), webUi.getInterrupted(), webUi.getDetected());
+            }
+            if (replicate != null && replicate.getCreated() > 0) {
+                report += String.format("fake replicate created=%d polled=%d webhooks=%d cancelled=%d%n",
+                        replicate.getCreated(), replicate.getPolled(), replicate.getWebhooksSent(), replicate.getCancelled());
+            }
+            return report;
+
+        } finally {
+            if (app != null) {
+                app.close();
+            }
+            if (webUi != null) {
+                webUi.stop();
+            }
+            if (replicate != null) {
+                replicate.stop();
+            }
+        }
+    }
+
+    /**
+     * The app only tells clients apart by API keys it knows, so register every user's key and the hog's
+     */
+    private static String apiKeyDigests(int users) throws Exception {
+        List<String> keys = new ArrayList<>();
+        keys.add("loadtest-hog");
+        for (int i = 0; i < users; i++) {
+            keys.add("loadtest-user-" + i);
+        }
+        List<String> digests = new ArrayList<>();
+        for (String key : keys) {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            digests.add(HexFormat.of().formatHex(digest));
+        }
+        return String.join(",", digests);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Run users concurrent clients until jobs submissions are done, then build the report.
+     * hogJobs submissions from one greedy client go in first.
+     */
+    public String run(int users, int jobs, int hogJobs) throws Exception {
+        Map<String, Double> jvmBefore = scrapeMetrics();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(this::sampleHeap, 0, 1, TimeUnit.SECONDS);
+
+        for (int i = 0; i < hogJobs; i++) {
+            HttpResponse<String> response = http.send(multipartRequest("loadtest-hog"), HttpResponse.BodyHandlers.ofString());
+            (response.statusCode() == 202 ? hogAccepted : hogRejected).incrementAndGet();
+        }
+
+        AtomicInteger remaining = new AtomicInteger(jobs);
+        ExecutorService clients = Executors.newFixedThreadPool(users);
+        long start = System.nanoTime();
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            String apiKey = "loadtest-user-" + i;
+            running.add(clients.submit(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    runJob(apiKey);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> user : running) {
+            user.get();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        clients.shutdown();
+        sampler.shutdownNow();
+
+        Map<String, Double> jvmAfter = scrapeMetrics();
+        return report(users, jobs, elapsedNanos, jvmBefore, jvmAfter);
+    }
+
+    private void runJob(String apiKey) {
+        long submittedAt = System.nanoTime();
+        String jobId;
+        try {
+            HttpResponse<String> response = http.send(multipartRequest(apiKey), HttpResponse.BodyHandlers.ofString());
+            submitLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt));
+            if (response.statusCode() != 202) {
+                if (submitErrors.incrementAndGet() == 1) {
+                    System.err.println("First submit error: HTTP " + response.statusCode() + " " + response.body());
+                }
+                return;
+            }
+            jobId = jsonMapper.readTree(response.body()).path("jobId").asString();
+        } catch (Exception e) {
+            if (submitErrors.incrementAndGet() == 1) {
+                System.err.println("First submit error: " + e);
+            }
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + jobTimeoutMillis;
+        String statusUrl = appUrl + "/api/stable-diffusion/status/" + jobId + (statusWait != null ? "?wait=" + statusWait : "");
+        String eTag = null;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                if (statusWait == null) {
+                    Thread.sleep(pollMillis);
+                }
+                HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(statusUrl))
+                        .header("X-API-Key", apiKey).GET();
+                if (eTag != null) {
+                    request.header("If-None-Match", eTag);
+                }
+                HttpResponse<String> response = http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+                statusRequests.incrementAndGet();
+                if (response.statusCode() == 304) {
+                    statusNotModified.incrementAndGet();
+                    continue;
+                }
+                eTag = response.headers().firstValue("ETag").orElse(null);
+                JsonNode status = jsonMapper.readTree(response.body());
+                String state = status.path("status").asString();
+                if (TERMINAL.contains(state)) {
+                    completionLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt));
+                    (("COMPLETED".equals(state)) ? completed : failed).incrementAndGet();
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Transient poll failure; keep polling until the deadline
+            }
+        }
+        timedOut.incrementAndGet();
+    }
+
+    private HttpRequest multipartRequest(String apiKey) {
+        String boundary = "loadtest" + UUID.randomUUID().toString().replace("-", "");
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeField(body, boundary, "profession", "doctor");
+        writeField(body, boundary, "age", "30");
+        write(body, "--" + boundary + "\r\nContent-Disposition: form-data; name=\"image\"; filename=\"child.png\"\r\n"
+                + "Content-Type: image/png\r\n\r\n");
+        body.writeBytes(image);
+        write(body, "\r\n--" + boundary + "--\r\n");
+
+        return HttpRequest.newBuilder(URI.create(appUrl + endpoint))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .header("X-API-Key", apiKey)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    private void writeField(ByteArrayOutputStream body, String boundary, String name, String value) {
+        write(body, "--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n");
+    }
+
+    private void write(ByteArrayOutputStream body, String text) {
+        body.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sampleHeap() {
+        Double heap = scrapeMetrics().get("heap");
+        if (heap != null) {
+            peakHeapBytes.accumulateAndGet(heap.longValue(), Math::max);
+        }
+    }
+
+    /**
+     * Heap in use, cumulative GC pauses, routing decisions and ControlNet preprocessing saved,
+     * read from the app's Prometheus endpoint
+     */
+    private Map<String, Double> scrapeMetrics() {
+        Map<String, Double> values = new HashMap<>();
+        try {
+            HttpResponse<String> response = http.send(
+                    HttpRequest.newBuilder(URI.create(appUrl + "/actuator/prometheus")).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            for (String line : response.body().split("\n")) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                double value = Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                if (line.startsWith("jvm_memory_used_bytes{") && line.contains("area=\"heap\"")) {
+                    values.merge("heap", value, Double::sum);
+                } else if (line.startsWith("jvm_gc_pause_seconds_count{")) {
+                    values.merge("gcCount", value, Double::sum);
+                } else if (line.startsWith("jvm_gc_pause_seconds_sum{")) {
+                    values.merge("gcSeconds", value, Double::sum);
+                } else if (line.startsWith("generation_routing_decisions_total{")) {
+                    String engine = line.contains("reason=\"fallback\"") ? "fallback"
+                            : line.contains("engine=\"remote\"") ? "remote" : "local";
+                    values.merge("routed." + engine, value, Double::sum);
+                } else if (line.startsWith("controlnet_preprocess_saved_seconds_count{")) {
+                    values.merge("controlNetHits", value, Double::sum);
+                } else if (line.startsWith("controlnet_preprocess_saved_seconds_sum{")) {
+                    values.merge("controlNetSavedSeconds", value, Double::sum);
+                }
+            }
+        } catch (Exception e) {
+            // Actuator not reachable; JVM figures are left out of the report
+        }
+        return values;
+    }
+
+    private String report(int users, int jobs, long elapsedNanos, Map<String, Double> before, Map<String, Double> after) {
+        double seconds = elapsedNanos / 1e9;
+        long finished = completed.get() + failed.get();
+        long errors = submitErrors.get() + failed.get() + timedOut.get();
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%nload test     %s%s, users=%d, jobs=%d, %.1f s%n", appUrl, endpoint, users, jobs, seconds));
+        report.append(String.format("submit        %s%n", percentiles(submitLatencies)));
+        report.append(String.format("end-to-end    %s%n", percentiles(completionLatencies)));
+        report.append(String.format("throughput    %.2f completed jobs/s%n", completed.get() / seconds));
+        report.append(String.format("outcomes      completed=%d failed=%d submitErrors=%d timedOut=%d (finished=%d)%n",
+                completed.get(), failed.get(), submitErrors.get(), timedOut.get(), finished));
+        report.append(String.format("error rate    %.2f%%%n", jobs == 0 ? 0 : 100.0 * errors / jobs));
+        report.append(String.format("status polls  requests=%d (%.1f per finished job) notModified=%d%n",
+                statusRequests.get(), finished == 0 ? 0.0 : (double) statusRequests.get() / finished, statusNotModified.get()));
+        if (hogAccepted.get() + hogRejected.get() > 0) {
+            report.append(String.format("hog client    accepted=%d rejected=%d%n", hogAccepted.get(), hogRejected.get()));
+        }
+        if (after.containsKey("heap")) {
+            report.append(String.format("heap          end=%.1f MB peak=%.1f MB%n",
+                    after.get("heap") / 1048576, peakHeapBytes.get() / 1048576.0));
+            report.append(String.format("gc            pauses=%.0f total=%.0f ms%n",
+                    after.getOrDefault("gcCount", 0.0) - before.getOrDefault("gcCount", 0.0),
+                    (after.getOrDefault("gcSeconds", 0.0) - before.getOrDefault("gcSeconds", 0.0)) * 1000));
+        }
+        if (after.containsKey("routed.local") || after.containsKey("routed.remote")) {
+            report.append(String.format("routing       local=%.0f remote=%.0f fallback=%.0f%n",
+                    after.getOrDefault("routed.local", 0.0) - before.getOrDefault("routed.local", 0.0),
+                    after.getOrDefault("routed.remote", 0.0) - before.getOrDefault("routed.remote", 0.0),
+                    after.getOrDefault("routed.fallback", 0.0) - before.getOrDefault("routed.fallback", 0.0)));
+        }
+        if (after.containsKey("controlNetHits")) {
+            report.append(String.format("controlnet    cache hits=%.0f preprocessing saved=%.1f s%n",
+                    after.get("controlNetHits") - before.getOrDefault("controlNetHits", 0.0),
+                    after.getOrDefault("controlNetSavedSeconds", 0.0) - before.getOrDefault("controlNetSavedSeconds", 0.0)));
+        }
+        return report.toString();
+    }
+
+    private static String percentiles(List<Long> samples) {
+        List<Long> sorted;
+        synchronized (samples) {
+            sorted = new ArrayList<>(samples);
+        }
+        if (sorted.isEmpty()) {
+            return "no samples";
+        }
+        Collections.sort(sorted);
+        return String.format("n=%d p50=%d ms p90=%d ms p99=%d ms max=%d ms",
+                sorted.size(), percentile(sorted, 0.50), percentile(sorted, 0.90),
+                percentile(sorted, 0.99), sorted.get(sorted.size() - 1));
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    private static ConfigurableApplicationContext startApp(String webUiUrl, Map<String, Object> overrides) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", 0);
+        properties.put("stable.diffusion.api.url", webUiUrl);
+        properties.put("spring.datasource.url", "jdbc:h2:mem:loadtest-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.jpa.properties.hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("spring.jpa.show-sql", false);
+        properties.put("replicate.api.key", "loadtest");
+        properties.put("image.upload.dir", "target/loadtest-uploads");
+        properties.put("controlnet.cache.dir", "target/loadtest-controlnet-cache/" + UUID.randomUUID());
+        properties.put("logging.level.root", "WARN");
+        properties.put("ratelimit.enabled", false);
+        properties.putAll(overrides);
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("app.")) {
+                properties.put(name.substring(4), System.getProperty(name));
+            }
+        }
+
+        // Passed as command-line arguments so they override application.properties
+        List<String> args = new ArrayList<>();
+        properties.forEach((name, value) -> args.add("--" + name + "=" + value));
+        return new SpringApplicationBuilder(KidToAdultAiApplication.class)
+                .run(args.toArray(new String[0]));
+    }
+
+    private static byte[] samplePhoto() throws IOException {
+        BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(7);
+        for (int y = 0; y < 512; y++) {
+            for (int x = 0; x < 512; x++) {
+                image.setRGB(x, y, random.nextInt(0xFFFFFF));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,185 @@
+package com.kidtoadultai.kid_to_adult_ai.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local receiver for the app's job event webhooks. Verifies webhook-signature against the secrets it was
+ * given (any may match; none given skips verification), counts deliveries, events and duplicate event ids,
+ * and prints one line per event with its delivery lag. Failures (HTTP 500) can be injected by rate to
+ * exercise retries. GET /stats returns the counters.
+ *
+ * Run standalone: java ... WebhookReceiver [port], configured with -Dfake.webhook.secrets=whsec_a,whsec_b
+ * and -Dfake.webhook.failure.rate=0.2. The app only posts to localhost with
+ * webhook.allowed-private-hosts=localhost.
+ */
+public class WebhookReceiver {
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private final List<String> secrets;
+    private final double failureRate;
+    private final Set<String> seenEvents = ConcurrentHashMap.newKeySet();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Map<String, AtomicLong> eventTypes = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "webhook-receiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private HttpServer server;
+
+    public WebhookReceiver(List<String> secrets, double failureRate) {
+        this.secrets = secrets;
+        this.failureRate = failureRate;
+    }
+
+    public static WebhookReceiver fromSystemProperties() {
+        String secrets = System.getProperty("fake.webhook.secrets", "");
+        return new WebhookReceiver(
+                secrets.isBlank() ? List.of() : Arrays.asList(secrets.split(",")),
+                Double.parseDouble(System.getProperty("fake.webhook.failure.rate", "0")));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7870;
+        WebhookReceiver receiver = fromSystemProperties();
+        receiver.start(port);
+        System.out.println("Webhook receiver listening on " + receiver.getUrl());
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        server.setExecutor(executor);
+        server.createContext("/stats", this::stats);
+        server.createContext("/", this::receive);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long getEvents() {
+        return events.get();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    private void receive(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String id = exchange.getRequestHeaders().getFirst("webhook-id");
+        String timestamp = exchange.getRequestHeaders().getFirst("webhook-timestamp");
+        String signature = exchange.getRequestHeaders().getFirst("webhook-signature");
+
+        if (!secrets.isEmpty() && !isValidSignature(id, timestamp, signature, body)) {
+            rejected.incrementAndGet();
+            System.out.println("REJECTED " + id + ": bad signature");
+            send(exchange, 401, Map.of("error", "bad signature"));
+            return;
+        }
+        if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failed.incrementAndGet();
+            send(exchange, 500, Map.of("error", "injected failure"));
+            return;
+        }
+
+        deliveries.incrementAndGet();
+        long now = System.currentTimeMillis();
+        for (JsonNode event : jsonMapper.readTree(body).path("events")) {
+            events.incrementAndGet();
+            String type = event.path("type").asString("");
+            eventTypes.computeIfAbsent(type, t -> new AtomicLong()).incrementAndGet();
+            boolean duplicate = !seenEvents.add(event.path("id").asString(""));
+            if (duplicate) {
+                duplicates.incrementAndGet();
+            }
+            long lagMillis = now - Instant.parse(event.path("createdAt").asString()).toEpochMilli();
+            JsonNode data = event.path("data");
+            System.out.println(type + " " + data.path("jobId").asString("") + " " + data.path("status").asString("")
+                    + (data.has("progress") ? " " + data.path("progress").asInt() + "%" : "")
+                    + " lag=" + lagMillis + "ms" + (duplicate ? " DUPLICATE" : ""));
+        }
+        send(exchange, 204, null);
+    }
+
+    private boolean isValidSignature(String id, String timestamp, String signature, String body) {
+        if (id == null || timestamp == null || signature == null) {
+            return false;
+        }
+        for (String secret : secrets) {
+            byte[] expected = hmac(secret, id + "." + timestamp + "." + body);
+            for (String candidate : signature.split(" ")) {
+                if (candidate.startsWith("v1,") && MessageDigest.isEqual(expected,
+                        Base64.getDecoder().decode(candidate.substring(3)))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static byte[] hmac(String secret, String content) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(Base64.getDecoder().decode(secret.substring(secret.indexOf('_') + 1)), "HmacSHA256"));
+            return mac.doFinal(content.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("deliveries", deliveries.get());
+        stats.put("events", events.get());
+        stats.put("duplicates", duplicates.get());
+        stats.put("rejected", rejected.get());
+        stats.put("failed", failed.get());
+        Map<String, Long> types = new TreeMap<>();
+        eventTypes.forEach((type, count) -> types.put(type, count.get()));
+        stats.put("eventTypes", types);
+        send(exchange, 200, stats);
+    }
+
+    private void send(HttpExchange exchange, int status, Object body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] json = jsonMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+}
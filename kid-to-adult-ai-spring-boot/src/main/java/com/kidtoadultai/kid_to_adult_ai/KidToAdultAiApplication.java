@@ -3,9 +3,11 @@ package com.kidtoadultai.kid_to_adult_ai;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableAsync
+@EnableScheduling
 public class KidToAdultAiApplication {
 
 	public static void main(String[] args) {
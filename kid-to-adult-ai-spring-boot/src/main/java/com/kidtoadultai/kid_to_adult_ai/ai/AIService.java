@@ -1,93 +1,335 @@
 package com.kidtoadultai.kid_to_adult_ai.ai;
 
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationMetrics;
+import com.kidtoadultai.kid_to_adult_ai.service.ImageStorageService;
+import io.micrometer.context.ContextSnapshot;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.http.*;
-        import org.springframework.scheduling.annotation.Async;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Remote generation on Replicate.
+ * A prediction is created and then tracked without holding a thread: completion arrives through the
+ * webhook receiver when replicate.webhook.base-url and replicate.webhook.secret are set, otherwise through
+ * polls that back off from replicate.poll.initial-ms to replicate.poll.max-ms. The output is streamed into image storage.
+ * Created on first use; without replicate.api.key remote generation is unavailable but the app still starts.
+ */
 @Service
+@Lazy
 public class AIService {
 
-    @Value("${replicate.api.key}")
+    @Value("${replicate.api.key:}")
     private String replicateApiKey;
 
-    @Value("${stablediffusion.api.key}")
-    private String stableDiffusionKey;
+    @Value("${replicate.api.url:https://api.replicate.com}")
+    private String replicateApiUrl;
+
+    @Value("${replicate.model.version:39ed52f2a78e934b3ba6e2a89f5b1c712de7dfea535525255b1aa35c5565e08b}")
+    private String modelVersion;
+
+    // Public base URL Replicate can reach; blank means completion is detected by polling only
+    @Value("${replicate.webhook.base-url:}")
+    private String webhookBaseUrl;
+
+    // The receiver refuses deliveries without it, so no webhook is registered unless it is set
+    @Value("${replicate.webhook.secret:}")
+    private String webhookSecret;
+
+    @Value("${replicate.poll.initial-ms:1000}")
+    private long pollInitialMillis;
+
+    @Value("${replicate.poll.max-ms:10000}")
+    private long pollMaxMillis;
+
+    @Value("${replicate.timeout.seconds:600}")
+    private long timeoutSeconds;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor taskExecutor;
 
-    private final Map<String, String> professionPrompts = new HashMap<>();
+    @Autowired
+    private ObservationRegistry observationRegistry;
+
+    @Autowired
+    private ProfessionCatalog professionCatalog;
+
+    private static final ContextSnapshotFactory CONTEXT_SNAPSHOTS = ContextSnapshotFactory.builder().build();
+
+    // One client for all calls so connections to Replicate are reused
+    private final RestTemplate restTemplate;
+
+    private final ConcurrentHashMap<String, PendingPrediction> predictions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, PendingPrediction> predictionsByJob = new ConcurrentHashMap<>();
+    private ScheduledExecutorService poller;
 
     public AIService() {
-        initializePrompts();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(Duration.ofSeconds(60));
+        this.restTemplate = new RestTemplate(requestFactory);
     }
 
-    private void initializePrompts() {
-        professionPrompts.put("doctor", "professional doctor in white coat, medical setting, mature face, confident expression");
-        professionPrompts.put("engineer", "engineer wearing safety helmet, technical background, focused expression, professional attire");
-        professionPrompts.put("teacher", "teacher in classroom, holding books, warm smile, professional educator");
-        professionPrompts.put("astronaut", "astronaut in space suit, space background, heroic pose");
-        professionPrompts.put("scientist", "scientist in lab coat, laboratory setting, holding test tube, intelligent look");
-        professionPrompts.put("artist", "artist in studio, holding paintbrush, creative expression, artistic background");
-        professionPrompts.put("pilot", "airline pilot in uniform, cockpit background, confident and professional");
-        professionPrompts.put("firefighter", "firefighter in full gear, fire station background, heroic and strong");
-        professionPrompts.put("chef", "professional chef in kitchen, culinary setting, holding cooking utensils");
-        professionPrompts.put("athlete", "professional athlete in sportswear, stadium background, athletic build");
+    @PostConstruct
+    public void start() {
+        restTemplate.setObservationRegistry(observationRegistry);
+        // Only schedules polls; the HTTP calls run on the task executor
+        poller = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("replicate-poll-"));
+        if (!webhookBaseUrl.isBlank() && !isWebhookEnabled()) {
+            System.err.println("replicate.webhook.base-url is set without replicate.webhook.secret; completing predictions by polling");
+        }
     }
 
-    @Async
-    public CompletableFuture<String> generateAdultImage(String base64Image, String profession, int targetAge) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Prepare the prompt
-                String prompt = professionPrompts.getOrDefault(profession.toLowerCase(),
-                        "professional adult, office setting, mature appearance") +
-                        ", age " + targetAge + ", realistic face, high quality, detailed";
+    @PreDestroy
+    public void stop() {
+        poller.shutdownNow();
+    }
 
-                // Using Replicate API (or alternative)
-                return callReplicateAPI(base64Image, prompt);
+    /**
+     * Start a Replicate prediction for the job.
+     * The future completes with the stored image URL once the output has been downloaded.
+     */
+    public CompletableFuture<String> generateAdultImage(String jobId, String base64Image, String profession, int targetAge) {
+        // Prepare the prompt
+        String prompt = professionCatalog.remotePrompt(profession).render(targetAge);
+
+        if (!isConfigured()) {
+            return CompletableFuture.failedFuture(new RuntimeException("Remote generation is not configured (replicate.api.key)"));
+        }
 
+        PendingPrediction pending = new PendingPrediction(jobId);
+        predictionsByJob.put(jobId, pending);
+        taskExecutor.execute(() -> {
+            try {
+                String predictionId = createPrediction(base64Image, prompt);
+                pending.predictionId = predictionId;
+                predictions.put(predictionId, pending);
+                if (pending.result.isDone()) {
+                    // Cancelled while the prediction was being created
+                    cancelPrediction(predictionId);
+                    predictions.remove(predictionId);
+                    return;
+                }
+                // With a webhook the poll is only a fallback for lost deliveries
+                schedulePoll(pending, isWebhookEnabled() ? pollMaxMillis : pollInitialMillis);
             } catch (Exception e) {
-                throw new RuntimeException("AI generation failed", e);
+                System.err.println("Failed to create prediction for job " + jobId + ": " + e);
+                finish(pending, null, "error", new RuntimeException("AI generation failed", e));
             }
         });
+        return pending.result;
     }
 
-    private String callReplicateAPI(String base64Image, String prompt) {
-        RestTemplate restTemplate = new RestTemplate();
+    /**
+     * Cancel the job's prediction, if it is still running on Replicate
+     */
+    public boolean cancel(String jobId) {
+        PendingPrediction pending = predictionsByJob.get(jobId);
+        if (pending == null) {
+            return false;
+        }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Token " + replicateApiKey);
+        finish(pending, null, "cancelled", new CancellationException("Prediction cancelled"));
+        if (pending.predictionId != null) {
+            cancelPrediction(pending.predictionId);
+        }
+        return true;
+    }
+
+    private void cancelPrediction(String predictionId) {
+        try {
+            restTemplate.exchange(replicateApiUrl + "/v1/predictions/" + predictionId + "/cancel",
+                    HttpMethod.POST, new HttpEntity<>(authHeaders()), Map.class);
+        } catch (Exception e) {
+            System.err.println("Failed to cancel prediction " + predictionId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apply a prediction state pushed by the webhook receiver
+     */
+    public void onWebhook(Map<String, Object> prediction) {
+        PendingPrediction pending = predictions.get((String) prediction.get("id"));
+        if (pending != null) {
+            handleUpdate(pending, prediction, "webhook");
+        }
+    }
+
+    public boolean isConfigured() {
+        return replicateApiKey != null && !replicateApiKey.isBlank();
+    }
+
+    public boolean isWebhookEnabled() {
+        return webhookBaseUrl != null && !webhookBaseUrl.isBlank() && webhookSecret != null && !webhookSecret.isBlank();
+    }
+
+    public int getPendingCount() {
+        return predictions.size();
+    }
 
+    private String createPrediction(String base64Image, String prompt) {
         Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("version", "stability-ai/sdxl:39ed52f2a78e934b3ba6e2a89f5b1c712de7dfea535525255b1aa35c5565e08b");
-//        requestBody.put("version", "google/imagen-4");
+        requestBody.put("version", modelVersion);
 
         Map<String, Object> input = new HashMap<>();
         input.put("prompt", prompt);
-        input.put("image", base64Image);
+        input.put("image", "data:image/png;base64," + base64Image);
         input.put("num_outputs", 1);
         input.put("image_dimensions", "768x768");
         input.put("num_inference_steps", 50);
 
         requestBody.put("input", input);
 
+        if (isWebhookEnabled()) {
+            requestBody.put("webhook", webhookBaseUrl + "/api/replicate/webhook");
+            requestBody.put("webhook_events_filter", Arrays.asList("completed"));
+        }
+
+        HttpHeaders headers = authHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
         ResponseEntity<Map> response = restTemplate.exchange(
-                "https://api.replicate.com/v1/predictions",
+                replicateApiUrl + "/v1/predictions",
                 HttpMethod.POST,
                 entity,
                 Map.class
         );
 
         if (response.getStatusCode() == HttpStatus.CREATED) {
-            Map<String, Object> responseBody = response.getBody();
-            return (String) ((Map<String, Object>) responseBody.get("urls")).get("stream");
+            return (String) response.getBody().get("id");
+        }
+
+        throw new RuntimeException("Failed to create prediction: " + response.getStatusCode());
+    }
+
+    private void schedulePoll(PendingPrediction pending, long delayMillis) {
+        if (pending.result.isDone()) {
+            return;
+        }
+        pending.nextPollMillis = delayMillis;
+        // The poller thread has no context of its own; polls and the download stay in the submitting request's trace
+        poller.schedule(pending.context.wrap(() -> taskExecutor.execute(() -> poll(pending))), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(PendingPrediction pending) {
+        if (pending.result.isDone()) {
+            return;
         }
+        if (System.nanoTime() - pending.createdAt > TimeUnit.SECONDS.toNanos(timeoutSeconds)) {
+            finish(pending, null, "timeout",
+                    new RuntimeException("Prediction did not finish within " + timeoutSeconds + " seconds"));
+            return;
+        }
+
+        try {
+            ResponseEntity<Map> response = restTemplate.exchange(
+                    replicateApiUrl + "/v1/predictions/" + pending.predictionId,
+                    HttpMethod.GET, new HttpEntity<>(authHeaders()), Map.class);
+            pending.polls++;
+            handleUpdate(pending, response.getBody(), "poll");
+        } catch (Exception e) {
+            // Transient; try again on the normal schedule
+            System.err.println("Failed to poll prediction " + pending.predictionId + ": " + e.getMessage());
+        }
+
+        schedulePoll(pending, Math.min(pollMaxMillis, Math.round(pending.nextPollMillis * 1.5)));
+    }
+
+    private void handleUpdate(PendingPrediction pending, Map<String, Object> prediction, String completedBy) {
+        String status = (String) prediction.get("status");
+        if ("succeeded".equals(status)) {
+            if (pending.downloading.compareAndSet(false, true)) {
+                taskExecutor.execute(pending.context.wrap(() -> download(pending, outputUrl(prediction), completedBy)));
+            }
+        } else if ("failed".equals(status) || "canceled".equals(status)) {
+            finish(pending, null, status,
+                    new RuntimeException("Prediction " + status + ": " + prediction.get("error")));
+        }
+    }
 
-        throw new RuntimeException("Failed to generate image");
+    /**
+     * Stream the output image from Replicate straight into image storage
+     */
+    private void download(PendingPrediction pending, String outputUrl, String completedBy) {
+        try {
+            String imageUrl = restTemplate.execute(outputUrl, HttpMethod.GET, null,
+                    response -> imageStorageService.saveGeneratedImage(response.getBody(), pending.jobId));
+            finish(pending, imageUrl, "succeeded_" + completedBy, null);
+        } catch (Exception e) {
+            finish(pending, null, "download_failed", new RuntimeException("Failed to download prediction output", e));
+        }
+    }
+
+    private String outputUrl(Map<String, Object> prediction) {
+        Object output = prediction.get("output");
+        if (output instanceof List && !((List<?>) output).isEmpty()) {
+            return (String) ((List<?>) output).get(0);
+        }
+        if (output instanceof String) {
+            return (String) output;
+        }
+        throw new RuntimeException("No output in prediction " + prediction.get("id"));
+    }
+
+    private void finish(PendingPrediction pending, String imageUrl, String outcome, Throwable error) {
+        if (pending.predictionId != null) {
+            predictions.remove(pending.predictionId);
+        }
+        predictionsByJob.remove(pending.jobId, pending);
+
+        boolean first = error == null
+                ? pending.result.complete(imageUrl)
+                : pending.result.completeExceptionally(error);
+        if (first) {
+            metrics.recordRemotePrediction(System.nanoTime() - pending.createdAt, outcome, pending.polls);
+        }
+    }
+
+    private HttpHeaders authHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", "Token " + replicateApiKey);
+        return headers;
+    }
+
+    private static class PendingPrediction {
+        private final String jobId;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final long createdAt = System.nanoTime();
+        private final AtomicBoolean downloading = new AtomicBoolean();
+        private final ContextSnapshot context = CONTEXT_SNAPSHOTS.captureAll();
+        private volatile String predictionId;
+        private volatile long nextPollMillis;
+        private volatile int polls;
+
+        PendingPrediction(String jobId) {
+            this.jobId = jobId;
+        }
     }
 }
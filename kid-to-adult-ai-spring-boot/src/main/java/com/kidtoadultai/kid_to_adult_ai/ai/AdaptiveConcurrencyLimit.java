@@ -0,0 +1,230 @@
+package com.kidtoadultai.kid_to_adult_ai.ai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * How many generations one WebUI gets at a time, learned from its response times (gradient style).
+ * Each mode keeps a no-load latency: how long its calls take when nothing else is in flight.
+ * After every call the limit moves towards limit x (no-load / observed) + sqrt(limit), so it grows while calls
+ * take their no-load time and drops as soon as they start waiting behind each other inside the WebUI.
+ * Timeouts, connection errors and 5xx responses cut it by the backoff factor. Growth is smoothed, shrinking is not.
+ * With adaptive off the limit stays at its maximum.
+ * Waiting workers park on a ReentrantLock condition rather than a monitor, so virtual threads do not pin their carrier.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    // One slow call shrinks the limit by at most this factor, so a single outlier cannot collapse it
+    private static final double MIN_GRADIENT = 0.25;
+    // Weight of an uncontended sample in the no-load latency, so it follows model and resolution changes
+    private static final double NO_LOAD_ALPHA = 0.2;
+
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoff;
+    private final double smoothing;
+    private final LongSupplier nanoTime;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition belowLimit = lock.newCondition();
+    private final Map<String, Double> noLoadSeconds = new HashMap<>();
+    private double limit;
+    // Permits held by generation workers, including idle ones waiting for a job
+    private int acquired;
+    // WebUI calls under way, oldest first
+    private final List<Call> inFlight = new ArrayList<>();
+
+    public AdaptiveConcurrencyLimit(boolean adaptive, int minLimit, int initialLimit, int maxLimit,
+                                    double backoff, double smoothing) {
+        this(adaptive, minLimit, initialLimit, maxLimit, backoff, smoothing, System::nanoTime);
+    }
+
+    /**
+     * With the clock call latencies are measured on, so tests can set them
+     */
+    AdaptiveConcurrencyLimit(boolean adaptive, int minLimit, int initialLimit, int maxLimit,
+                             double backoff, double smoothing, LongSupplier nanoTime) {
+        this.adaptive = adaptive;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, Math.min(minLimit, this.maxLimit));
+        this.backoff = backoff;
+        this.smoothing = smoothing;
+        this.nanoTime = nanoTime;
+        this.limit = adaptive ? Math.max(this.minLimit, Math.min(initialLimit, this.maxLimit)) : this.maxLimit;
+    }
+
+    /**
+     * Wait until fewer generations than the limit are running, then take a slot
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (acquired >= (int) limit) {
+                belowLimit.await();
+            }
+            acquired++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            acquired--;
+            belowLimit.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Note a WebUI call going out; pass the result to exactly one of onSuccess, onDropped or onIgnored
+     */
+    public Call startCall() {
+        lock.lock();
+        try {
+            Call call = new Call(nanoTime.getAsLong(), inFlight.size() + 1);
+            inFlight.add(call);
+            return call;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A call that returned normally: its latency against the mode's no-load latency adjusts the limit
+     */
+    public void onSuccess(Call call, String mode) {
+        lock.lock();
+        try {
+            // Measured before this call leaves, so it counts itself
+            int busy = inFlight.size();
+            if (!finish(call) || !adaptive) {
+                return;
+            }
+
+            double seconds = (nanoTime.getAsLong() - call.startNanos) / 1e9;
+            Double noLoad = noLoadSeconds.get(mode);
+            if (call.inFlightAtStart == 1) {
+                noLoad = noLoad == null ? seconds : noLoad + NO_LOAD_ALPHA * (seconds - noLoad);
+            } else if (noLoad == null || seconds < noLoad) {
+                noLoad = seconds;
+            }
+            noLoadSeconds.put(mode, noLoad);
+
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, noLoad / seconds));
+            double target = limit * gradient + Math.sqrt(limit);
+            if (target < limit) {
+                limit = target;
+            } else if (busy * 2 >= limit) {
+                // Only grow while the WebUI is actually kept busy; idle workers hold permits too,
+                // so counting those would let a lightly loaded WebUI push the limit to the maximum
+                limit += smoothing * (target - limit);
+            }
+            limit = Math.max(minLimit, Math.min(maxLimit, limit));
+            belowLimit.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A call that timed out, could not connect or got a 5xx: the WebUI is overloaded
+     */
+    public void onDropped(Call call) {
+        lock.lock();
+        try {
+            if (finish(call) && adaptive) {
+                limit = Math.max(minLimit, limit * backoff);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A call whose failure says nothing about load (a rejected request)
+     */
+    public void onIgnored(Call call) {
+        lock.lock();
+        try {
+            finish(call);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The running generation was interrupted. The WebUI executes calls in arrival order, so that is the oldest call
+     * in flight; it returns early and is not a latency sample. Calls queued behind it are unaffected.
+     */
+    public void onInterrupt() {
+        lock.lock();
+        try {
+            if (!inFlight.isEmpty()) {
+                inFlight.get(0).interrupted = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Current limit, in-flight calls and no-load latency per mode, for the /routing endpoint
+     */
+    public Map<String, Object> getSnapshot() {
+        lock.lock();
+        try {
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("adaptive", adaptive);
+            snapshot.put("limit", (int) limit);
+            snapshot.put("minLimit", minLimit);
+            snapshot.put("maxLimit", maxLimit);
+            snapshot.put("permitsHeld", acquired);
+            snapshot.put("inFlight", inFlight.size());
+            snapshot.put("noLoadSeconds", new HashMap<>(noLoadSeconds));
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the call out of the in-flight list; false when it was interrupted and must not adjust the limit
+     */
+    private boolean finish(Call call) {
+        inFlight.remove(call);
+        return !call.interrupted;
+    }
+
+    /**
+     * One WebUI call, from startCall to its outcome
+     */
+    public static final class Call {
+        private final long startNanos;
+        private final int inFlightAtStart;
+        // Guarded by the limit's lock
+        private boolean interrupted;
+
+        private Call(long startNanos, int inFlightAtStart) {
+            this.startNanos = startNanos;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+    }
+}
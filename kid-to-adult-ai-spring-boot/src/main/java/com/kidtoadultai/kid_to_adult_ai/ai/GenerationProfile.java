@@ -0,0 +1,27 @@
+package com.kidtoadultai.kid_to_adult_ai.ai;
+
+/**
+ * Sampling settings of a quality tier. steps applies to txt2img and ControlNet; img2img only runs
+ * denoising_strength of its steps, so it has its own img2imgSteps. Higher priority is served first.
+ */
+public record GenerationProfile(String tier, int steps, int img2imgSteps, int width, int height,
+                                String sampler, int priority) {
+
+    public static final String DRAFT = "draft";
+    public static final String STANDARD = "standard";
+    public static final String HIGH = "high";
+
+    /**
+     * The settings every generation used before tiers existed
+     */
+    public static GenerationProfile standard() {
+        return new GenerationProfile(STANDARD, 30, 50, 512, 512, "DPM++ 2M Karras", 0);
+    }
+
+    /**
+     * Label for per-tier metrics and estimates: the method for the standard tier, method-tier otherwise
+     */
+    public String mode(String method) {
+        return STANDARD.equals(tier) ? method : method + "-" + tier;
+    }
+}
@@ -0,0 +1,51 @@
+package com.kidtoadultai.kid_to_adult_ai.ai;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * The quality tiers clients can ask for. Each setting can be overridden with
+ * generation.tier.{tier}.steps / img2img-steps / width / height / sampler / priority.
+ */
+@Component
+public class GenerationProfiles {
+
+    @Autowired
+    private Environment environment;
+
+    private final Map<String, GenerationProfile> profiles = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        // Draft: a few steps at low resolution, ahead of everything else in the queue
+        register(new GenerationProfile(GenerationProfile.DRAFT, 8, 10, 384, 384, "DPM++ 2M Karras", 10));
+        register(GenerationProfile.standard());
+        register(new GenerationProfile(GenerationProfile.HIGH, 50, 70, 768, 768, "DPM++ 2M Karras", -10));
+    }
+
+    /**
+     * The profile of a tier (case-insensitive), or null for an unknown tier
+     */
+    public GenerationProfile get(String tier) {
+        return tier != null ? profiles.get(tier.toLowerCase()) : null;
+    }
+
+    public Set<String> getTiers() {
+        return profiles.keySet();
+    }
+
+    private void register(GenerationProfile defaults) {
+        String prefix = "generation.tier." + defaults.tier() + ".";
+        profiles.put(defaults.tier(), new GenerationProfile(defaults.tier(),
+                environment.getProperty(prefix + "steps", Integer.class, defaults.steps()),
+                environment.getProperty(prefix + "img2img-steps", Integer.class, defaults.img2imgSteps()),
+                environment.getProperty(prefix + "width", Integer.class, defaults.width()),
+                environment.getProperty(prefix + "height", Integer.class, defaults.height()),
+                environment.getProperty(prefix + "sampler", defaults.sampler()),
+                environment.getProperty(prefix + "priority", Integer.class, defaults.priority())));
+    }
+}
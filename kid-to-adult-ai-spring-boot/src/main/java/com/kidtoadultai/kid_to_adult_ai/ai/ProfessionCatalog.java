@@ -0,0 +1,236 @@
+package com.kidtoadultai.kid_to_adult_ai.ai;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The professions clients can choose and their prompts, shared by validation, the WebUI and Replicate.
+ * Read from profession.catalog.file when set, and reloaded when that file changes; otherwise from professions.json
+ * on the classpath. Local (WebUI) and remote (Replicate) prompts are kept apart, since the models respond to
+ * different phrasing. Each prompt is compiled on load: the text around {age} is split out, and the rendered prompt
+ * for an age is kept, both as a String and as a JSON string literal, so requests neither format nor escape it.
+ */
+@Component
+public class ProfessionCatalog {
+
+    private static final String CLASSPATH_CATALOG = "professions.json";
+    private static final JsonMapper JSON = JsonMapper.builder().build();
+
+    // Blank: the catalog on the classpath, which never changes
+    @Value("${profession.catalog.file:}")
+    private String catalogFile;
+
+    private volatile Catalog catalog;
+    private long loadedModified;
+    private long loadedSize;
+
+    @PostConstruct
+    public void start() {
+        catalog = load();
+        System.out.println("Profession catalog: " + catalog.names().size() + " professions from "
+                + (isFileBacked() ? catalogFile : "classpath:" + CLASSPATH_CATALOG));
+    }
+
+    /**
+     * Swap in the catalog file when it has changed. A file that does not parse is reported and the catalog in use kept.
+     */
+    @Scheduled(fixedDelayString = "${profession.catalog.reload-ms:5000}")
+    public void reloadIfChanged() {
+        if (!isFileBacked()) {
+            return;
+        }
+        try {
+            Path path = Paths.get(catalogFile);
+            if (Files.getLastModifiedTime(path).toMillis() == loadedModified && Files.size(path) == loadedSize) {
+                return;
+            }
+            catalog = load();
+            System.out.println("Profession catalog reloaded: " + catalog.names());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Profession catalog not reloaded from " + catalogFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the profession (case-insensitive) is in the catalog
+     */
+    public boolean contains(String profession) {
+        return profession != null && catalog.find(profession) != null;
+    }
+
+    /**
+     * Profession names in catalog order
+     */
+    public List<String> getNames() {
+        return catalog.names();
+    }
+
+    /**
+     * The WebUI prompt of a profession, or the generic one for a profession not in the catalog
+     */
+    public Prompt localPrompt(String profession) {
+        Catalog current = catalog;
+        Entry entry = current.find(profession);
+        return entry != null ? entry.local() : current.localFallback();
+    }
+
+    /**
+     * The Replicate prompt of a profession, or the generic one for a profession not in the catalog
+     */
+    public Prompt remotePrompt(String profession) {
+        Catalog current = catalog;
+        Entry entry = current.find(profession);
+        return entry != null ? entry.remote() : current.remoteFallback();
+    }
+
+    public String negativePrompt() {
+        return catalog.negativePrompt();
+    }
+
+    /**
+     * The negative prompt as a JSON string literal, quotes included
+     */
+    public byte[] negativePromptJson() {
+        return catalog.negativePromptJson();
+    }
+
+    private boolean isFileBacked() {
+        return catalogFile != null && !catalogFile.isBlank();
+    }
+
+    private Catalog load() {
+        JsonNode root;
+        try {
+            if (isFileBacked()) {
+                Path path = Paths.get(catalogFile);
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                long size = Files.size(path);
+                try (InputStream in = Files.newInputStream(path)) {
+                    root = JSON.readTree(in);
+                }
+                loadedModified = modified;
+                loadedSize = size;
+            } else {
+                try (InputStream in = ProfessionCatalog.class.getClassLoader().getResourceAsStream(CLASSPATH_CATALOG)) {
+                    if (in == null) {
+                        throw new IllegalStateException(CLASSPATH_CATALOG + " not found on the classpath");
+                    }
+                    root = JSON.readTree(in);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read profession catalog", e);
+        }
+        return parse(root);
+    }
+
+    private static Catalog parse(JsonNode root) {
+        String localSuffix = root.path("local").path("suffix").asString("");
+        String remoteSuffix = root.path("remote").path("suffix").asString("");
+        String negativePrompt = required(root.path("local"), "negativePrompt");
+
+        Map<String, Entry> entries = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (JsonNode profession : root.path("professions")) {
+            String name = required(profession, "name").toLowerCase();
+            if (entries.containsKey(name)) {
+                throw new IllegalStateException("Profession listed twice: " + name);
+            }
+            String remote = profession.path("remote").asString(root.path("remote").path("fallback").asString(""));
+            entries.put(name, new Entry(new Prompt(required(profession, "local") + localSuffix),
+                    new Prompt(remote + remoteSuffix)));
+            names.add(name);
+        }
+        if (names.isEmpty()) {
+            throw new IllegalStateException("Profession catalog lists no professions");
+        }
+
+        return new Catalog(entries, List.copyOf(names),
+                new Prompt(required(root.path("local"), "fallback") + localSuffix),
+                new Prompt(required(root.path("remote"), "fallback") + remoteSuffix),
+                negativePrompt, jsonLiteral(negativePrompt));
+    }
+
+    private static String required(JsonNode node, String field) {
+        String value = node.path(field).asString("");
+        if (value.isBlank()) {
+            throw new IllegalStateException("Profession catalog is missing " + field);
+        }
+        return value;
+    }
+
+    private static byte[] jsonLiteral(String value) {
+        return JSON.writeValueAsString(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A prompt template with {age} placeholders. Renderings for ages 0 to MAX_CACHED_AGE are built on first use and kept.
+     */
+    public static final class Prompt {
+
+        private static final int MAX_CACHED_AGE = 120;
+
+        private final String[] parts;
+        private final AtomicReferenceArray<String> rendered = new AtomicReferenceArray<>(MAX_CACHED_AGE + 1);
+        private final AtomicReferenceArray<byte[]> renderedJson = new AtomicReferenceArray<>(MAX_CACHED_AGE + 1);
+
+        Prompt(String template) {
+            this.parts = template.split("\\{age}", -1);
+        }
+
+        public String render(int age) {
+            if (age < 0 || age > MAX_CACHED_AGE) {
+                return String.join(String.valueOf(age), parts);
+            }
+            String prompt = rendered.get(age);
+            if (prompt == null) {
+                prompt = String.join(String.valueOf(age), parts);
+                rendered.set(age, prompt);
+            }
+            return prompt;
+        }
+
+        /**
+         * The rendered prompt as a JSON string literal, quotes included; callers must not modify it
+         */
+        public byte[] renderJson(int age) {
+            if (age < 0 || age > MAX_CACHED_AGE) {
+                return jsonLiteral(render(age));
+            }
+            byte[] json = renderedJson.get(age);
+            if (json == null) {
+                json = jsonLiteral(render(age));
+                renderedJson.set(age, json);
+            }
+            return json;
+        }
+    }
+
+    private record Entry(Prompt local, Prompt remote) {
+    }
+
+    private record Catalog(Map<String, Entry> entries, List<String> names, Prompt localFallback,
+                           Prompt remoteFallback, String negativePrompt, byte[] negativePromptJson) {
+
+        /**
+         * Entries are keyed in lower case; most requests already send that, so lower-casing is the fallback
+         */
+        Entry find(String profession) {
+            Entry entry = entries.get(profession);
+            return entry != null ? entry : entries.get(profession.toLowerCase());
+        }
+    }
+}
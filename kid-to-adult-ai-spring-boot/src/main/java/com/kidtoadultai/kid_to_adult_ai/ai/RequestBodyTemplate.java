@@ -0,0 +1,125 @@
+package com.kidtoadultai.kid_to_adult_ai.ai;
+
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JSON request body serialized once, with slots for the fields that change per call.
+ * The body is described as a map in which those fields hold slot(name); render writes the constant JSON around
+ * the per-call values into one exactly sized array. A value is a byte[] holding ready JSON (such as a compiled
+ * prompt), a number, or a String, which is copied as is when it needs no escaping (base64 images).
+ */
+final class RequestBodyTemplate {
+
+    private static final JsonMapper JSON = JsonMapper.builder().build();
+    private static final String SLOT_OPEN = "\"{{slot:";
+    private static final String SLOT_CLOSE = "}}\"";
+
+    private final byte[][] literals;
+    private final String[] slots;
+
+    private RequestBodyTemplate(byte[][] literals, String[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+    }
+
+    /**
+     * Placeholder for a per-call field in the map passed to compile
+     */
+    static String slot(String name) {
+        return "{{slot:" + name + "}}";
+    }
+
+    static RequestBodyTemplate compile(Map<String, Object> body) {
+        String json = JSON.writeValueAsString(body);
+        List<byte[]> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int position = 0;
+        int open;
+        while ((open = json.indexOf(SLOT_OPEN, position)) >= 0) {
+            int close = json.indexOf(SLOT_CLOSE, open);
+            literals.add(json.substring(position, open).getBytes(StandardCharsets.UTF_8));
+            slots.add(json.substring(open + SLOT_OPEN.length(), close));
+            position = close + SLOT_CLOSE.length();
+        }
+        literals.add(json.substring(position).getBytes(StandardCharsets.UTF_8));
+        return new RequestBodyTemplate(literals.toArray(new byte[0][]), slots.toArray(new String[0]));
+    }
+
+    /**
+     * The body with every slot filled from values
+     */
+    byte[] render(Map<String, ?> values) {
+        Object[] fragments = new Object[slots.length];
+        int size = 0;
+        for (byte[] literal : literals) {
+            size += literal.length;
+        }
+        for (int i = 0; i < slots.length; i++) {
+            Object value = values.get(slots[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for request field " + slots[i]);
+            }
+            if (value instanceof String string && isPlain(string)) {
+                fragments[i] = string;
+                size += string.length() + 2;
+            } else {
+                byte[] json = toJson(value);
+                fragments[i] = json;
+                size += json.length;
+            }
+        }
+
+        byte[] body = new byte[size];
+        int position = 0;
+        for (int i = 0; i < slots.length; i++) {
+            System.arraycopy(literals[i], 0, body, position, literals[i].length);
+            position += literals[i].length;
+            position = write(fragments[i], body, position);
+        }
+        System.arraycopy(literals[slots.length], 0, body, position, literals[slots.length].length);
+        return body;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int write(Object fragment, byte[] body, int position) {
+        if (fragment instanceof String string) {
+            body[position++] = '"';
+            // Plain ASCII: the low byte of each char is the character, written straight into the body
+            string.getBytes(0, string.length(), body, position);
+            position += string.length();
+            body[position++] = '"';
+            return position;
+        }
+        byte[] json = (byte[]) fragment;
+        System.arraycopy(json, 0, body, position, json.length);
+        return position + json.length;
+    }
+
+    private static byte[] toJson(Object value) {
+        if (value instanceof byte[] json) {
+            return json;
+        }
+        if (value instanceof Number) {
+            return value.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+        return JSON.writeValueAsBytes(value);
+    }
+
+    /**
+     * Whether the string can go into JSON unescaped: printable ASCII without quotes or backslashes
+     */
+    private static boolean isPlain(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
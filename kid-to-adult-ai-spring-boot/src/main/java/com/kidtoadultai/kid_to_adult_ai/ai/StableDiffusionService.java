@@ -1,12 +1,26 @@
 package com.kidtoadultai.kid_to_adult_ai.ai;
 
+import com.kidtoadultai.kid_to_adult_ai.service.ControlNetMapCache;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.*;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.multipart.MultipartFile;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class StableDiffusionService {
@@ -17,196 +31,401 @@ public class StableDiffusionService {
     @Value("${stable.diffusion.model.path:./models/Stable-diffusion}")
     private String modelPath;
 
+    // ControlNet preprocessor: depth or openpose
+    @Value("${controlnet.module:depth}")
+    private String controlNetModule;
+
+    // Compute the annotation map once per input image instead of on every request
+    @Value("${controlnet.cache.enabled:true}")
+    private boolean controlNetCacheEnabled;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    // Lazy: the disk scan waits for the first ControlNet request instead of delaying startup
+    @Autowired
+    @Lazy
+    private ControlNetMapCache controlNetMapCache;
+
+    @Value("${stable.diffusion.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    // Read timeout of progress and interrupt calls; generations have none, they take as long as they take
+    @Value("${stable.diffusion.status.timeout-ms:3000}")
+    private long statusTimeoutMs;
+
+    // Contact the WebUI in the background once the app is ready
+    @Value("${stable.diffusion.warmup.enabled:true}")
+    private boolean warmupEnabled;
+
+    @Value("${stable.diffusion.warmup.attempts:5}")
+    private int warmupAttempts;
+
+    // How far a refine may move away from the draft it starts from
+    @Value("${generation.refine.denoising-strength:0.5}")
+    private double refineDenoisingStrength;
+
+    // Generations sent to the WebUI at once adapt to its response times, up to generation.queue.workers
+    @Value("${generation.concurrency.adaptive:true}")
+    private boolean adaptiveConcurrency;
+
+    @Value("${generation.concurrency.min-limit:1}")
+    private int minConcurrency;
+
+    @Value("${generation.concurrency.initial-limit:1}")
+    private int initialConcurrency;
+
+    @Value("${generation.queue.workers:1}")
+    private int maxConcurrency;
+
+    // Limit multiplier after a timeout, connection error or 5xx
+    @Value("${generation.concurrency.backoff:0.5}")
+    private double concurrencyBackoff;
+
+    // Share of the way to its target the limit moves per call when growing
+    @Value("${generation.concurrency.smoothing:0.2}")
+    private double concurrencySmoothing;
+
+    private static final Map<String, String> CONTROLNET_MODELS = Map.of(
+            "depth", "control_v11f1p_sd15_depth [cfd03158]",
+            "openpose", "control_v11p_sd15_openpose [cab727d4]"
+    );
+
+    @Autowired
+    private ObservationRegistry observationRegistry;
+
+    @Autowired
+    private ProfessionCatalog professionCatalog;
+
     private final RestTemplate restTemplate;
-    private final Map<String, String> professionPrompts;
+    // Progress and interrupt calls, so a stalled WebUI cannot hold the preview sampler or a cancel
+    private RestTemplate statusRestTemplate;
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+
+    // Request bodies serialized once per mode and settings; each call only writes the prompt, seed and image
+    private final Map<BodyKey, RequestBodyTemplate> bodyTemplates = new ConcurrentHashMap<>();
 
     public StableDiffusionService() {
         this.restTemplate = new RestTemplate();
-        this.professionPrompts = initializeProfessionPrompts();
     }
 
-    private Map<String, String> initializeProfessionPrompts() {
-        Map<String, String> prompts = new HashMap<>();
-        prompts.put("doctor", "professional doctor, white coat, stethoscope, hospital, medical setting, age {age}, detailed face, photorealistic");
-        prompts.put("engineer", "engineer, safety helmet, construction site, blueprint, technical, age {age}, professional");
-        prompts.put("teacher", "teacher, classroom, books, glasses, kind expression, age {age}, educator");
-        prompts.put("astronaut", "astronaut, space suit, NASA, space station, heroic, age {age}, detailed");
-        prompts.put("scientist", "scientist, lab coat, laboratory, test tubes, intelligent, age {age}");
-        prompts.put("artist", "artist, painter, studio, paintbrush, creative, age {age}, artistic");
-        prompts.put("pilot", "pilot, airline uniform, cockpit, professional, confident, age {age}");
-        prompts.put("firefighter", "firefighter, fire suit, helmet, heroic, strong, age {age}");
-        prompts.put("chef", "chef, kitchen uniform, restaurant, culinary, professional, age {age}");
-        prompts.put("athlete", "athlete, sports uniform, stadium, athletic, fit, age {age}");
-        return prompts;
+    /**
+     * Each WebUI call becomes a client span of the job's trace
+     */
+    @PostConstruct
+    public void start() {
+        restTemplate.setRequestFactory(requestFactory(null));
+        restTemplate.setObservationRegistry(observationRegistry);
+        statusRestTemplate = new RestTemplate(requestFactory(Duration.ofMillis(statusTimeoutMs)));
+        statusRestTemplate.setObservationRegistry(observationRegistry);
+
+        concurrencyLimit = new AdaptiveConcurrencyLimit(adaptiveConcurrency, minConcurrency, initialConcurrency,
+                maxConcurrency, concurrencyBackoff, concurrencySmoothing);
+        Gauge.builder("generation.concurrency.limit", concurrencyLimit, AdaptiveConcurrencyLimit::getLimit)
+                .description("Generations the WebUI may be sent at the same time")
+                .tag("backend", sdApiUrl)
+                .register(metrics.getRegistry());
+    }
+
+    private SimpleClientHttpRequestFactory requestFactory(Duration readTimeout) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(Duration.ofMillis(connectTimeoutMs));
+        if (readTimeout != null) {
+            requestFactory.setReadTimeout(readTimeout);
+        }
+        return requestFactory;
+    }
+
+    /**
+     * The WebUI's concurrency limit; GenerationQueue workers hold a slot of it for each job they run
+     */
+    public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
     }
 
     /**
-     * Generate adult version using txt2img (text to image)
+     * Generate adult version using txt2img (text to image).
+     * Blocks until the WebUI responds; callers schedule it through GenerationQueue.
      */
-    public CompletableFuture<String> generateAdultVersionTxt2Img(
+    public String generateAdultVersionTxt2Img(
             String profession, int targetAge, String base64InitImage) {
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                String prompt = generatePrompt(profession, targetAge);
-
-                Map<String, Object> requestBody = new HashMap<>();
-                requestBody.put("prompt", prompt);
-                requestBody.put("negative_prompt", getNegativePrompt());
-                requestBody.put("steps", 30);
-                requestBody.put("width", 512);
-                requestBody.put("height", 512);
-                requestBody.put("cfg_scale", 7.5);
-                requestBody.put("sampler_index", "DPM++ 2M Karras");
-                requestBody.put("seed", -1);
-                requestBody.put("batch_size", 1);
-                requestBody.put("n_iter", 1);
-
-                // Add init image for img2img-like effect
-                if (base64InitImage != null) {
-                    requestBody.put("init_images", Arrays.asList(base64InitImage));
-                    requestBody.put("denoising_strength", 0.75);
-                }
+        try {
+            return callWebUi("/sdapi/v1/txt2img", "txt2img",
+                    buildTxt2ImgRequest(profession, targetAge, base64InitImage));
+
+        } catch (Exception e) {
+            throw new RuntimeException("Stable Diffusion generation failed", e);
+        }
+    }
+
+    /**
+     * Generate adult version using img2img (better for transformations) with the tier's settings.
+     * seed -1 lets the WebUI pick one. Blocks until the WebUI responds; callers schedule it through GenerationQueue.
+     */
+    public String generateAdultVersionImg2Img(
+            String base64Image, String profession, int targetAge, GenerationProfile profile, long seed) {
 
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.APPLICATION_JSON);
+        try {
+            return callWebUi("/sdapi/v1/img2img", profile.mode("img2img"),
+                    buildImg2ImgRequest(base64Image, profession, targetAge, profile, seed, 0.75));
 
-                HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+        } catch (Exception e) {
+            throw new RuntimeException("Stable Diffusion generation failed", e);
+        }
+    }
 
-                ResponseEntity<Map> response = restTemplate.exchange(
-                        sdApiUrl + "/sdapi/v1/txt2img",
-                        HttpMethod.POST,
-                        entity,
-                        Map.class
-                );
+    /**
+     * Re-render a finished image (usually a draft) at the tier's settings.
+     * Same prompt and seed, and a lower denoising strength, so the composition carries over.
+     */
+    public String refine(String base64Draft, String profession, int targetAge, GenerationProfile profile, long seed) {
+        try {
+            return callWebUi("/sdapi/v1/img2img", profile.mode("refine"),
+                    buildImg2ImgRequest(base64Draft, profession, targetAge, profile, seed, refineDenoisingStrength));
 
-                if (response.getStatusCode() == HttpStatus.OK) {
-                    return extractImageFromResponse(response.getBody());
-                }
+        } catch (Exception e) {
+            throw new RuntimeException("Refine failed", e);
+        }
+    }
 
-                throw new RuntimeException("Failed to generate image: " + response.getStatusCode());
+    /**
+     * Using ControlNet for better face preservation, with the tier's settings.
+     * Blocks until the WebUI responds; callers schedule it through GenerationQueue.
+     */
+    public String generateWithControlNet(
+            String base64Image, String profession, int targetAge, GenerationProfile profile, long seed) {
 
-            } catch (Exception e) {
-                throw new RuntimeException("Stable Diffusion generation failed", e);
+        try {
+            return callWebUi("/sdapi/v1/txt2img", profile.mode("controlnet"),
+                    buildControlNetRequest(base64Image, profession, targetAge, controlNetModule, profile, seed));
+
+        } catch (Exception e) {
+            throw new RuntimeException("ControlNet generation failed", e);
+        }
+    }
+
+    /**
+     * Run a ControlNet preprocessor on the WebUI and return the annotation map as base64 PNG
+     */
+    public String detectControlNetMap(String base64Image, String module) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("controlnet_module", module);
+        requestBody.put("controlnet_input_images", Arrays.asList(base64Image));
+        requestBody.put("controlnet_processor_res", 512);
+
+        Map<String, Object> response = postToWebUi("/controlnet/detect", "detect", requestBody);
+        try {
+            List<String> images = (List<String>) response.get("images");
+            if (images != null && !images.isEmpty()) {
+                return images.get(0);
+            }
+            throw new RuntimeException("No annotation map in response");
+
+        } catch (ClassCastException e) {
+            throw new RuntimeException("Invalid detect response format", e);
+        }
+    }
+
+    /**
+     * Build the txt2img request body
+     */
+    byte[] buildTxt2ImgRequest(String profession, int targetAge, String base64InitImage) {
+        boolean withInitImage = base64InitImage != null;
+        RequestBodyTemplate template = bodyTemplates.computeIfAbsent(new BodyKey("txt2img", null, null, withInitImage), key -> {
+            Map<String, Object> requestBody = promptFields();
+            requestBody.put("steps", 30);
+            requestBody.put("width", 512);
+            requestBody.put("height", 512);
+            requestBody.put("cfg_scale", 7.5);
+            requestBody.put("sampler_index", "DPM++ 2M Karras");
+            requestBody.put("seed", -1);
+            requestBody.put("batch_size", 1);
+            requestBody.put("n_iter", 1);
+
+            // Add init image for img2img-like effect
+            if (withInitImage) {
+                requestBody.put("init_images", List.of(RequestBodyTemplate.slot("image")));
+                requestBody.put("denoising_strength", 0.75);
             }
+            return RequestBodyTemplate.compile(requestBody);
         });
+
+        ProfessionCatalog.Prompt prompt = professionCatalog.localPrompt(profession);
+        return template.render(withInitImage
+                ? Map.of("prompt", prompt.renderJson(targetAge), "negative_prompt", professionCatalog.negativePromptJson(),
+                        "image", base64InitImage)
+                : Map.of("prompt", prompt.renderJson(targetAge), "negative_prompt", professionCatalog.negativePromptJson()));
+    }
+
+    /**
+     * Build the img2img request body with the standard tier's settings
+     */
+    byte[] buildImg2ImgRequest(String base64Image, String profession, int targetAge) {
+        return buildImg2ImgRequest(base64Image, profession, targetAge, GenerationProfile.standard(), -1, 0.75);
     }
 
     /**
-     * Generate adult version using img2img (better for transformations)
+     * Build the img2img request body; denoisingStrength is how much to change the image
      */
-    public CompletableFuture<String> generateAdultVersionImg2Img(
-            MultipartFile childImage, String profession, int targetAge) {
+    byte[] buildImg2ImgRequest(String base64Image, String profession, int targetAge,
+                               GenerationProfile profile, long seed, double denoisingStrength) {
+        RequestBodyTemplate template = bodyTemplates.computeIfAbsent(new BodyKey("img2img", profile, null, false), key -> {
+            Map<String, Object> requestBody = promptFields();
+            requestBody.put("init_images", List.of(RequestBodyTemplate.slot("image")));
+            requestBody.put("denoising_strength", RequestBodyTemplate.slot("denoising_strength"));
+            requestBody.put("steps", profile.img2imgSteps());
+            requestBody.put("width", profile.width());
+            requestBody.put("height", profile.height());
+            requestBody.put("cfg_scale", 7.5);
+            requestBody.put("sampler_index", profile.sampler());
+            requestBody.put("seed", RequestBodyTemplate.slot("seed"));
+            requestBody.put("batch_size", 1);
+            return RequestBodyTemplate.compile(requestBody);
+        });
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Convert image to base64
-                String base64Image = Base64.getEncoder().encodeToString(childImage.getBytes());
-                String prompt = generatePrompt(profession, targetAge);
-
-                Map<String, Object> requestBody = new HashMap<>();
-                requestBody.put("init_images", Arrays.asList(base64Image));
-                requestBody.put("prompt", prompt);
-                requestBody.put("negative_prompt", getNegativePrompt());
-                requestBody.put("denoising_strength", 0.75); // How much to change the image
-                requestBody.put("steps", 50);
-                requestBody.put("width", 512);
-                requestBody.put("height", 512);
-                requestBody.put("cfg_scale", 7.5);
-                requestBody.put("sampler_index", "DPM++ 2M Karras");
-                requestBody.put("seed", -1);
-                requestBody.put("batch_size", 1);
-
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.APPLICATION_JSON);
-
-                HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-
-                ResponseEntity<Map> response = restTemplate.exchange(
-                        sdApiUrl + "/sdapi/v1/img2img",
-                        HttpMethod.POST,
-                        entity,
-                        Map.class
-                );
-
-                if (response.getStatusCode() == HttpStatus.OK) {
-                    return extractImageFromResponse(response.getBody());
-                }
+        return template.render(Map.of(
+                "prompt", professionCatalog.localPrompt(profession).renderJson(targetAge),
+                "negative_prompt", professionCatalog.negativePromptJson(),
+                "image", base64Image,
+                "denoising_strength", denoisingStrength,
+                "seed", seed));
+    }
 
-                throw new RuntimeException("Failed to generate image: " + response.getStatusCode());
+    /**
+     * Build the txt2img request body with a ControlNet depth unit that preprocesses the raw photo
+     */
+    byte[] buildControlNetRequest(String base64Image, String profession, int targetAge) {
+        return buildControlNetRequest(base64Image, false, "depth", profession, targetAge, GenerationProfile.standard(), -1);
+    }
 
-            } catch (Exception e) {
-                throw new RuntimeException("Stable Diffusion generation failed", e);
+    /**
+     * Build the ControlNet request, using a cached annotation map when one is available.
+     * Falls back to letting the WebUI preprocess the photo if the detect call fails.
+     */
+    private byte[] buildControlNetRequest(String base64Image, String profession, int targetAge, String module,
+                                          GenerationProfile profile, long seed) {
+        if (controlNetCacheEnabled) {
+            try {
+                String annotationMap = controlNetMapCache.getOrCompute(base64Image, module,
+                        () -> detectControlNetMap(base64Image, module));
+                return buildControlNetRequest(annotationMap, true, module, profession, targetAge, profile, seed);
+            } catch (RuntimeException e) {
+                System.err.println("ControlNet detect failed, sending raw image: " + e.getMessage());
             }
+        }
+        return buildControlNetRequest(base64Image, false, module, profession, targetAge, profile, seed);
+    }
+
+    /**
+     * Build the txt2img request body with a ControlNet unit.
+     * A preprocessed input is an annotation map and is sent with module "none".
+     */
+    byte[] buildControlNetRequest(String controlImage, boolean preprocessed, String module,
+                                  String profession, int targetAge, GenerationProfile profile, long seed) {
+        RequestBodyTemplate template = bodyTemplates.computeIfAbsent(new BodyKey("controlnet", profile, module, preprocessed), key -> {
+            Map<String, Object> requestBody = promptFields();
+            requestBody.put("steps", profile.steps());
+            requestBody.put("width", profile.width());
+            requestBody.put("height", profile.height());
+            requestBody.put("cfg_scale", 7.5);
+            requestBody.put("sampler_index", profile.sampler());
+            requestBody.put("seed", RequestBodyTemplate.slot("seed"));
+            requestBody.put("batch_size", 1);
+
+            // ControlNet unit for face preservation
+            Map<String, Object> controlNetUnit = new HashMap<>();
+            controlNetUnit.put("input_image", RequestBodyTemplate.slot("image"));
+            controlNetUnit.put("module", preprocessed ? "none" : module); // depth, or openpose for pose preservation
+            controlNetUnit.put("model", CONTROLNET_MODELS.getOrDefault(module, CONTROLNET_MODELS.get("depth")));
+            controlNetUnit.put("weight", 1.0);
+            controlNetUnit.put("guidance_start", 0.0);
+            controlNetUnit.put("guidance_end", 1.0);
+
+            Map<String, Object> alwaysonScripts = new HashMap<>();
+            Map<String, Object> controlNetArgs = new HashMap<>();
+            controlNetArgs.put("args", Arrays.asList(controlNetUnit));
+            alwaysonScripts.put("ControlNet", controlNetArgs);
+
+            requestBody.put("alwayson_scripts", alwaysonScripts);
+            return RequestBodyTemplate.compile(requestBody);
         });
+
+        return template.render(Map.of(
+                "prompt", professionCatalog.localPrompt(profession).renderJson(targetAge),
+                "negative_prompt", professionCatalog.negativePromptJson(),
+                "image", controlImage,
+                "seed", seed));
     }
 
     /**
-     * Using ControlNet for better face preservation
+     * The start of every generation body: prompt and negative prompt, written per call from the profession catalog
+     * so a catalog reload needs no new templates
      */
-    public CompletableFuture<String> generateWithControlNet(
-            MultipartFile childImage, String profession, int targetAge) {
+    private static Map<String, Object> promptFields() {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("prompt", RequestBodyTemplate.slot("prompt"));
+        requestBody.put("negative_prompt", RequestBodyTemplate.slot("negative_prompt"));
+        return requestBody;
+    }
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                String base64Image = Base64.getEncoder().encodeToString(childImage.getBytes());
-                String prompt = generatePrompt(profession, targetAge);
-
-                Map<String, Object> requestBody = new HashMap<>();
-                requestBody.put("prompt", prompt);
-                requestBody.put("negative_prompt", getNegativePrompt());
-                requestBody.put("steps", 30);
-                requestBody.put("width", 512);
-                requestBody.put("height", 512);
-                requestBody.put("cfg_scale", 7.5);
-                requestBody.put("sampler_index", "DPM++ 2M Karras");
-                requestBody.put("seed", -1);
-                requestBody.put("batch_size", 1);
-
-                // ControlNet unit for face preservation
-                Map<String, Object> controlNetUnit = new HashMap<>();
-                controlNetUnit.put("input_image", base64Image);
-                controlNetUnit.put("module", "depth"); // or "openpose" for pose preservation
-                controlNetUnit.put("model", "control_v11f1p_sd15_depth [cfd03158]");
-                controlNetUnit.put("weight", 1.0);
-                controlNetUnit.put("guidance_start", 0.0);
-                controlNetUnit.put("guidance_end", 1.0);
-
-                Map<String, Object> alwaysonScripts = new HashMap<>();
-                Map<String, Object> controlNetArgs = new HashMap<>();
-                controlNetArgs.put("args", Arrays.asList(controlNetUnit));
-                alwaysonScripts.put("ControlNet", controlNetArgs);
-
-                requestBody.put("alwayson_scripts", alwaysonScripts);
-
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.APPLICATION_JSON);
-
-                HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-
-                ResponseEntity<Map> response = restTemplate.exchange(
-                        sdApiUrl + "/sdapi/v1/txt2img",
-                        HttpMethod.POST,
-                        entity,
-                        Map.class
-                );
-
-                if (response.getStatusCode() == HttpStatus.OK) {
-                    return extractImageFromResponse(response.getBody());
-                }
+    /**
+     * POST a generation request to the WebUI and return the image as a data URL
+     */
+    private String callWebUi(String endpoint, String mode, byte[] requestBody) {
+        Map<String, Object> response = postToWebUi(endpoint, mode, requestBody);
+
+        try {
+            return metrics.stage("decode", () -> extractImageFromResponse(response));
+        } catch (RuntimeException e) {
+            metrics.recordWebUiError(endpoint, sdApiUrl, e);
+            throw e;
+        }
+    }
 
-                throw new RuntimeException("Failed to generate image: " + response.getStatusCode());
+    /**
+     * POST to the WebUI and return the JSON response body. requestBody is a map, or JSON already serialized.
+     */
+    private Map<String, Object> postToWebUi(String endpoint, String mode, Object requestBody) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
 
-            } catch (Exception e) {
-                throw new RuntimeException("ControlNet generation failed", e);
+        HttpEntity<Object> entity = new HttpEntity<>(requestBody, headers);
+
+        Timer.Sample callSample = metrics.start();
+        AdaptiveConcurrencyLimit.Call call = concurrencyLimit.startCall();
+        ResponseEntity<Map> response;
+        try {
+            response = restTemplate.exchange(
+                    sdApiUrl + endpoint,
+                    HttpMethod.POST,
+                    entity,
+                    Map.class
+            );
+        } catch (RuntimeException e) {
+            if (e instanceof ResourceAccessException || e instanceof HttpServerErrorException) {
+                concurrencyLimit.onDropped(call);
+            } else {
+                concurrencyLimit.onIgnored(call);
             }
-        });
+            metrics.recordWebUiCall(callSample, endpoint, mode, sdApiUrl, "error");
+            metrics.recordWebUiError(endpoint, sdApiUrl, e);
+            throw e;
+        }
+        concurrencyLimit.onSuccess(call, mode);
+        metrics.recordWebUiCall(callSample, endpoint, mode, sdApiUrl, "success");
+
+        if (response.getStatusCode() != HttpStatus.OK) {
+            throw new RuntimeException("Failed to generate image: " + response.getStatusCode());
+        }
+
+        return response.getBody();
     }
 
     /**
      * Extract base64 image from Stable Diffusion response
      */
-    private String extractImageFromResponse(Map<String, Object> response) {
+    String extractImageFromResponse(Map<String, Object> response) {
         try {
             List<String> images = (List<String>) response.get("images");
             if (images != null && !images.isEmpty()) {
@@ -225,23 +444,45 @@ public class StableDiffusionService {
     /**
      * Generate prompt with profession and age
      */
-    private String generatePrompt(String profession, int age) {
-        String basePrompt = professionPrompts.getOrDefault(profession.toLowerCase(),
-                "professional adult, office setting, age {age}, photorealistic");
-
-        return basePrompt.replace("{age}", String.valueOf(age)) +
-                ", highly detailed, sharp focus, studio lighting, masterpiece, best quality";
+    String generatePrompt(String profession, int age) {
+        return professionCatalog.localPrompt(profession).render(age);
     }
 
     /**
-     * Negative prompt to avoid common issues
+     * Open a connection to the WebUI and load its model list off the startup path, retrying with backoff
+     * while the WebUI is still starting. The first generation then does not pay for either, and a
+     * missing WebUI shows up in the log at startup rather than on the first request.
      */
-    private String getNegativePrompt() {
-        return "deformed, blurry, bad anatomy, disfigured, poorly drawn face, " +
-                "mutation, mutated, extra limb, ugly, poorly drawn hands, " +
-                "missing limb, floating limbs, disconnected limbs, malformed hands, " +
-                "out of focus, long neck, long body, unrealistic, doll, cartoon, " +
-                "anime, 3d, cgi, render, sketch, painting, drawing";
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!warmupEnabled) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        long delayMillis = 1000;
+        for (int attempt = 1; attempt <= warmupAttempts; attempt++) {
+            try {
+                List<?> models = restTemplate.getForObject(sdApiUrl + "/sdapi/v1/sd-models", List.class);
+                System.out.println("WebUI ready after " + (System.nanoTime() - start) / 1000000 + " ms, "
+                        + (models != null ? models.size() : 0) + " models available");
+                return;
+            } catch (Exception e) {
+                if (attempt == warmupAttempts) {
+                    System.err.println("WebUI not reachable at " + sdApiUrl + " after " + attempt + " attempts: " + e.getMessage());
+                    return;
+                }
+            }
+
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            delayMillis *= 2;
+        }
     }
 
     /**
@@ -304,9 +545,17 @@ public class StableDiffusionService {
      * Get generation progress
      */
     public Map<String, Object> getProgress() {
+        return getProgress(true);
+    }
+
+    /**
+     * Get generation progress; current_image (the in-progress image, base64 PNG) is only included when asked for,
+     * and only filled in when live previews are enabled in the WebUI's settings
+     */
+    public Map<String, Object> getProgress(boolean includeImage) {
         try {
-            ResponseEntity<Map> response = restTemplate.getForEntity(
-                    sdApiUrl + "/sdapi/v1/progress",
+            ResponseEntity<Map> response = statusRestTemplate.getForEntity(
+                    sdApiUrl + "/sdapi/v1/progress?skip_current_image=" + !includeImage,
                     Map.class
             );
 
@@ -321,4 +570,30 @@ public class StableDiffusionService {
 
         return new HashMap<>();
     }
-}
\ No newline at end of file
+
+    /**
+     * Interrupt the generation currently executing on the WebUI
+     */
+    public boolean interrupt() {
+        concurrencyLimit.onInterrupt();
+        try {
+            ResponseEntity<String> response = statusRestTemplate.postForEntity(
+                    sdApiUrl + "/sdapi/v1/interrupt",
+                    null,
+                    String.class
+            );
+
+            return response.getStatusCode() == HttpStatus.OK;
+
+        } catch (Exception e) {
+            System.err.println("Failed to interrupt generation: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Which serialized body a request uses: the method, the tier's settings and, for ControlNet, the unit's setup
+     */
+    private record BodyKey(String method, GenerationProfile profile, String module, boolean variant) {
+    }
+}
@@ -0,0 +1,164 @@
+package com.kidtoadultai.kid_to_adult_ai.config;
+
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationMetrics;
+import com.kidtoadultai.kid_to_adult_ai.service.RateLimitStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-client token buckets in front of the API, with a tighter limit for generation requests than for reads.
+ * Rejected requests get 429 with Retry-After. The client id is also stored as a request attribute
+ * so the generation queue can share WebUI time fairly between clients.
+ * Only API keys listed in ratelimit.api-keys identify a client; any other X-API-Key is ignored, so a caller
+ * cannot mint a fresh bucket and queue slot per request by changing the header.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    public static final String CLIENT_ID_ATTRIBUTE = "rateLimit.clientId";
+
+    @Autowired
+    private RateLimitStore rateLimitStore;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private JsonMapper jsonMapper;
+
+    @Value("${ratelimit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ratelimit.generate.capacity:5}")
+    private long generateCapacity;
+
+    @Value("${ratelimit.generate.refill-per-minute:6}")
+    private double generateRefillPerMinute;
+
+    @Value("${ratelimit.read.capacity:120}")
+    private long readCapacity;
+
+    @Value("${ratelimit.read.refill-per-minute:600}")
+    private double readRefillPerMinute;
+
+    @Value("${ratelimit.trust-forwarded-for:false}")
+    private boolean trustForwardedFor;
+
+    // SHA-256 (hex) of each accepted API key, comma separated; keys themselves never sit in the configuration
+    @Value("${ratelimit.api-keys:}")
+    private String apiKeys;
+
+    private final Set<String> acceptedKeyDigests = new HashSet<>();
+
+    @PostConstruct
+    public void loadApiKeys() {
+        for (String digest : apiKeys.split(",")) {
+            if (!digest.isBlank()) {
+                acceptedKeyDigests.add(digest.trim().toLowerCase());
+            }
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        // Replicate's webhook deliveries are not client traffic
+        return !path.startsWith("/api/") || path.startsWith("/api/replicate/webhook");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+
+        String clientId = resolveClientId(request);
+        request.setAttribute(CLIENT_ID_ATTRIBUTE, clientId);
+        if (!enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        boolean generate = "POST".equals(request.getMethod())
+                && request.getRequestURI().startsWith("/api/stable-diffusion/generate");
+        String limit = generate ? "generate" : "read";
+
+        long waitMillis;
+        try {
+            waitMillis = generate
+                    ? rateLimitStore.tryAcquire(limit + ":" + clientId, generateCapacity, generateRefillPerMinute / 60)
+                    : rateLimitStore.tryAcquire(limit + ":" + clientId, readCapacity, readRefillPerMinute / 60);
+        } catch (Exception e) {
+            // A broken shared store must not take the API down with it
+            System.err.println("Rate limit check failed, allowing request: " + e.getMessage());
+            waitMillis = 0;
+        }
+        metrics.recordRateLimit(limit, waitMillis == 0);
+
+        if (waitMillis > 0) {
+            long retryAfterSeconds = Math.max(1, (waitMillis + 999) / 1000);
+            Map<String, String> body = new HashMap<>();
+            body.put("status", "ERROR");
+            body.put("message", "Too many requests. Try again in " + retryAfterSeconds + " seconds.");
+
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write(jsonMapper.writeValueAsString(body));
+            return;
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Accepted API key (hashed, so keys never end up in the bucket table or logs), then session, then remote address
+     */
+    private String resolveClientId(HttpServletRequest request) {
+        String apiKey = request.getHeader("X-API-Key");
+        if (apiKey != null && !apiKey.isBlank()) {
+            String digest = sha256Hex(apiKey);
+            if (acceptedKeyDigests.contains(digest)) {
+                return "key:" + digest.substring(0, 16);
+            }
+        }
+
+        HttpSession session = request.getSession(false);
+        if (session != null) {
+            return "session:" + session.getId();
+        }
+
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (trustForwardedFor && forwardedFor != null && !forwardedFor.isBlank()) {
+            return "ip:" + forwardedFor.split(",")[0].trim();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+}
@@ -22,6 +22,7 @@ public class SecurityConfig {
                 .csrf(csrf -> csrf.disable()) // Disable CSRF for APIs
                 .authorizeHttpRequests(authz -> authz
                         .requestMatchers("/api/**").permitAll() // Allow all API endpoints
+                        .requestMatchers("/actuator/health", "/actuator/prometheus").permitAll() // Scraped by monitoring
                         .anyRequest().authenticated()
                 );
 
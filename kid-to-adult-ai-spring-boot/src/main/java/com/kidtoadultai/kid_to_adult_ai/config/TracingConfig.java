@@ -0,0 +1,19 @@
+package com.kidtoadultai.kid_to_adult_ai.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
+
+/**
+ * Trace context across thread hops. Boot applies the decorator to its task executor, so @Async methods and
+ * CompletableFuture stages run on applicationTaskExecutor continue the trace of the thread that submitted them.
+ * The generation queue workers and the Replicate poller capture the context themselves.
+ */
+@Configuration
+public class TracingConfig {
+
+    @Bean
+    public ContextPropagatingTaskDecorator contextPropagatingTaskDecorator() {
+        return new ContextPropagatingTaskDecorator();
+    }
+}
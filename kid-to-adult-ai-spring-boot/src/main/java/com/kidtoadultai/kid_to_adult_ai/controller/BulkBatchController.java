@@ -0,0 +1,393 @@
+package com.kidtoadultai.kid_to_adult_ai.controller;
+
+import com.kidtoadultai.kid_to_adult_ai.ai.GenerationProfile;
+import com.kidtoadultai.kid_to_adult_ai.ai.ProfessionCatalog;
+import com.kidtoadultai.kid_to_adult_ai.ai.StableDiffusionService;
+import com.kidtoadultai.kid_to_adult_ai.config.RateLimitFilter;
+import com.kidtoadultai.kid_to_adult_ai.dto.ImageResponse;
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.service.BulkBatchService;
+import com.kidtoadultai.kid_to_adult_ai.service.EtaEstimator;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationQueue;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService.Plan;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService.Started;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService.Submission;
+import com.kidtoadultai.kid_to_adult_ai.service.JobStatusResponses;
+import com.kidtoadultai.kid_to_adult_ai.service.JobTrackingService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk uploads (a ZIP or many images becoming child jobs of one batch), batch status and the results download
+ */
+@RestController
+@RequestMapping("/api/stable-diffusion")
+@CrossOrigin(origins = "*")
+public class BulkBatchController {
+
+    @Autowired
+    private StableDiffusionService stableDiffusionService;
+
+    @Autowired
+    private JobTrackingService jobTrackingService;
+
+    @Autowired
+    private GenerationQueue generationQueue;
+
+    @Autowired
+    private EtaEstimator etaEstimator;
+
+    @Autowired
+    private BulkBatchService bulkBatchService;
+
+    @Autowired
+    private ProfessionCatalog professionCatalog;
+
+    @Autowired
+    private GenerationSubmissionService submissionService;
+
+    @Autowired
+    private JobStatusResponses jobStatusResponses;
+
+    // Longest a batch download waits for unfinished children before closing the ZIP
+    @Value("${generation.bulk.download.max-wait-minutes:30}")
+    private long maxBulkDownloadWaitMinutes;
+
+    /**
+     * Bulk upload: a ZIP archive sent as the request body (Content-Type: application/zip), read entry by
+     * entry as it arrives. Each image becomes a child job of one batch and is queued as soon as it is read.
+     * profession and age apply to every image; an entry inside a profession folder and/or an age folder
+     * (doctor/35/anna.jpg) overrides them. Children are not cancelled for lack of polling: collect the
+     * results from /batches/{jobId}/download. With an Idempotency-Key the request must carry a Content-Digest
+     * (sha-256) of the body, which identifies the upload and is checked once the body has been read. An upload
+     * that breaks off or does not match its digest fails the batch, cancels its children and frees the key.
+     */
+    @PostMapping(value = "/generate-bulk", consumes = {"application/zip", "application/x-zip-compressed"})
+    public ResponseEntity<ImageResponse> generateBulk(
+            HttpServletRequest request,
+            @RequestParam(value = "profession", required = false) String profession,
+            @RequestParam(value = "age", defaultValue = "30") int targetAge,
+            @RequestParam(value = "controlnet", defaultValue = "false") boolean useControlNet,
+            @RequestParam(value = "tier", defaultValue = GenerationProfile.STANDARD) String tier,
+            @RequestParam(value = "name", defaultValue = "upload.zip") String archiveName,
+            @RequestParam(value = "callbackUrl", required = false) String callbackUrl,
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @RequestHeader(value = "Content-Digest", required = false) String contentDigest) {
+
+        // The body is read after the key is checked, so a retry can only be told apart by a digest sent up front
+        String expectedSha256 = contentDigestSha256(contentDigest);
+        if (idempotencyKey != null && !idempotencyKey.isBlank() && expectedSha256 == null) {
+            return ResponseEntity.badRequest()
+                    .body(new ImageResponse("ERROR", "An Idempotency-Key on a streamed bulk upload needs a Content-Digest: sha-256=:<base64>: header"));
+        }
+
+        return startBulk(archiveName, request.getContentLengthLong() + "|" + expectedSha256, profession, targetAge,
+                useControlNet, tier, callbackUrl, clientId, idempotencyKey,
+                (batchId, consumer, report) -> {
+                    if (expectedSha256 == null) {
+                        bulkBatchService.readArchive(request.getInputStream(), batchId, consumer, report);
+                        return;
+                    }
+                    DigestInputStream in = new DigestInputStream(request.getInputStream(), GenerationSubmissionService.sha256());
+                    bulkBatchService.readArchive(in, batchId, consumer, report);
+                    in.transferTo(OutputStream.nullOutputStream());
+                    if (!HexFormat.of().formatHex(in.getMessageDigest().digest()).equals(expectedSha256)) {
+                        throw new IOException("the body does not match its Content-Digest");
+                    }
+                });
+    }
+
+    /**
+     * Bulk upload as multipart: a ZIP in the archive part and/or loose images in image parts, with the same
+     * rules as the application/zip variant. Limited by spring.servlet.multipart.max-request-size; send larger
+     * archives as application/zip.
+     */
+    @PostMapping(value = "/generate-bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<ImageResponse> generateBulkMultipart(
+            @RequestParam(value = "archive", required = false) MultipartFile archive,
+            @RequestParam(value = "image", required = false) List<MultipartFile> images,
+            @RequestParam(value = "profession", required = false) String profession,
+            @RequestParam(value = "age", defaultValue = "30") int targetAge,
+            @RequestParam(value = "controlnet", defaultValue = "false") boolean useControlNet,
+            @RequestParam(value = "tier", defaultValue = GenerationProfile.STANDARD) String tier,
+            @RequestParam(value = "callbackUrl", required = false) String callbackUrl,
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+
+        List<MultipartFile> parts = images != null ? images : List.of();
+        if ((archive == null || archive.isEmpty()) && parts.isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(new ImageResponse("ERROR", "Upload a ZIP archive (archive) or images (image)"));
+        }
+
+        String name = archive != null ? archive.getOriginalFilename() : parts.get(0).getOriginalFilename();
+        String content;
+        try {
+            List<MultipartFile> all = new ArrayList<>();
+            if (archive != null) {
+                all.add(archive);
+            }
+            all.addAll(parts);
+            long size = all.stream().mapToLong(MultipartFile::getSize).sum();
+            content = idempotencyKey == null || idempotencyKey.isBlank()
+                    ? String.valueOf(size)
+                    : size + "|" + GenerationSubmissionService.sha256Hex(all.toArray(new MultipartFile[0]));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ImageResponse("ERROR", e.getMessage()));
+        }
+        return startBulk(name, content, profession, targetAge, useControlNet, tier, callbackUrl, clientId, idempotencyKey,
+                (batchId, consumer, report) -> {
+                    if (archive != null && !archive.isEmpty()) {
+                        try (InputStream in = archive.getInputStream()) {
+                            bulkBatchService.readArchive(in, batchId, consumer, report);
+                        }
+                    }
+                    for (MultipartFile image : parts) {
+                        try (InputStream in = image.getInputStream()) {
+                            if (!bulkBatchService.readEntry(in, image.getOriginalFilename(), batchId, consumer, report)) {
+                                break;
+                            }
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Status of a bulk (or fan-out) batch: combined progress, counts by status and every child with its entry
+     */
+    @GetMapping("/batches/{jobId}")
+    public ResponseEntity<ImageResponse> getBatchStatus(@PathVariable String jobId) {
+        JobStatus parent = jobTrackingService.getJobStatus(jobId);
+        if (parent == null || parent.getChildCount() == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ImageResponse("NOT_FOUND", "Batch not found: " + jobId));
+        }
+
+        List<JobStatus> children = jobTrackingService.getChildJobs(jobId);
+        ImageResponse response = jobStatusResponses.getFanOutStatus(parent, children);
+
+        List<Map<String, Object>> entries = new ArrayList<>();
+        Map<String, Integer> statusCounts = new TreeMap<>();
+        for (JobStatus child : children) {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("jobId", child.getJobId());
+            entry.put("entry", child.getOriginalFilename());
+            entry.put("profession", child.getProfession());
+            entry.put("age", child.getTargetAge());
+            entry.put("status", child.getStatus());
+            if (child.getImageUrl() != null) {
+                entry.put("imageUrl", child.getImageUrl());
+            }
+            if (child.getErrorMessage() != null) {
+                entry.put("error", child.getErrorMessage());
+            }
+            entries.add(entry);
+            statusCounts.merge(child.getStatus(), 1, Integer::sum);
+        }
+        response.getMetadata().put("children", entries);
+        response.getMetadata().put("statusCounts", statusCounts);
+        response.getMetadata().put("receiving", jobTrackingService.isReceiving(jobId));
+        response.getMetadata().put("downloadUrl", "/api/stable-diffusion/batches/" + jobId + "/download");
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(response);
+    }
+
+    /**
+     * The batch's images as a ZIP, streamed: images already generated are sent at once, the rest as their
+     * jobs complete, followed by results.csv with every entry's outcome. wait=false packages only what is
+     * done now; otherwise the download waits up to generation.bulk.download.max-wait-minutes.
+     */
+    @GetMapping("/batches/{jobId}/download")
+    public ResponseEntity<StreamingResponseBody> downloadBatch(
+            @PathVariable String jobId,
+            @RequestParam(value = "wait", defaultValue = "true") boolean wait) {
+
+        JobStatus parent = jobTrackingService.getJobStatus(jobId);
+        if (parent == null || parent.getChildCount() == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        long maxWaitMillis = wait ? TimeUnit.MINUTES.toMillis(maxBulkDownloadWaitMinutes) : 0;
+        StreamingResponseBody body = out -> bulkBatchService.writeResults(jobId, out, maxWaitMillis);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename("batch-" + jobId + ".zip").build().toString())
+                .body(body);
+    }
+
+
+
+    /**
+     * Create the batch's parent job, then read the upload: each image the source hands over becomes a
+     * child job queued right away. The parent stays open until the upload has been read.
+     */
+    private ResponseEntity<ImageResponse> startBulk(String archiveName, String content, String profession, int targetAge,
+                                                    boolean useControlNet, String tier, String callbackUrl,
+                                                    String clientId, String idempotencyKey, BulkSource source) {
+        String name = archiveName != null ? archiveName : "upload.zip";
+        String sharedProfession = profession != null ? profession.toLowerCase() : null;
+        Submission submission = new Submission("bulk", tier,
+                sharedProfession != null ? List.of(sharedProfession) : List.of(), List.of(targetAge), null,
+                "controlnet=" + useControlNet + "|" + name + "|" + content, clientId, idempotencyKey, callbackUrl);
+        return submissionService.submit(submission, new Plan() {
+            @Override
+            public JobStatus create(GenerationProfile profile, Map<String, String> webhooks) {
+                return jobTrackingService.createParentJob(
+                        List.of(sharedProfession != null ? sharedProfession : "bulk"), List.of(targetAge), name, 0, webhooks
+                );
+            }
+
+            @Override
+            public Started start(JobStatus parent, GenerationProfile profile, Map<String, String> webhooks) {
+                String batchId = parent.getJobId();
+                jobTrackingService.beginParentIngest(batchId);
+
+                List<String> childJobIds = new ArrayList<>();
+                Set<String> professions = new LinkedHashSet<>();
+                Set<Integer> ages = new LinkedHashSet<>();
+                BulkBatchService.IngestReport report = new BulkBatchService.IngestReport();
+                String readError = null;
+                try {
+                    source.read(batchId, entry -> {
+                        String entryProfession = sharedProfession;
+                        int entryAge = targetAge;
+                        // Folders of the entry's path: a profession and/or an age
+                        String[] segments = entry.name().split("/");
+                        for (int i = 0; i < segments.length - 1; i++) {
+                            String segment = segments[i].toLowerCase();
+                            if (professionCatalog.contains(segment)) {
+                                entryProfession = segment;
+                            } else if (segment.matches("\\d{1,3}")) {
+                                entryAge = Integer.parseInt(segment);
+                            }
+                        }
+                        if (entryProfession == null) {
+                            return "no profession (put it in a profession folder or pass profession)";
+                        }
+                        if (entryAge < 20 || entryAge > 60) {
+                            return "age " + entryAge + " is not between 20 and 60";
+                        }
+
+                        String childProfession = entryProfession;
+                        int childAge = entryAge;
+                        long seed = GenerationSubmissionService.newSeed();
+                        Map<String, String> childMetadata = GenerationSubmissionService.generationMetadata(profile, seed);
+                        childMetadata.putAll(webhooks);
+                        String entryName = entry.name().length() > 255 ? entry.name().substring(entry.name().length() - 255) : entry.name();
+                        JobStatus child = jobTrackingService.createJob(childProfession, childAge, entryName, batchId, childMetadata);
+                        String childJobId = child.getJobId();
+                        etaEstimator.track(childJobId, profile.mode(useControlNet ? "controlnet" : "img2img"), "local", childProfession);
+
+                        // The image stays on disk until a worker takes the job
+                        Path file = entry.file();
+                        submissionService.processGenerationAsync(childJobId, generationQueue.submitUnattended(childJobId, clientId, profile, () -> {
+                            String base64Image = bulkBatchService.encode(file);
+                            return useControlNet
+                                    ? stableDiffusionService.generateWithControlNet(base64Image, childProfession, childAge, profile, seed)
+                                    : stableDiffusionService.generateAdultVersionImg2Img(base64Image, childProfession, childAge, profile, seed);
+                        }));
+
+                        childJobIds.add(childJobId);
+                        professions.add(childProfession);
+                        ages.add(childAge);
+                        return null;
+                    }, report);
+                } catch (Exception e) {
+                    // A broken or altered upload (dropped connection, Content-Digest mismatch) is not the batch
+                    // the client sent: withdraw the children read so far, so a retry can start it over
+                    readError = "Upload could not be read after " + report.getAccepted() + " images: " + e.getMessage();
+                    System.err.println("Bulk upload " + batchId + ": " + readError);
+                    for (String childJobId : childJobIds) {
+                        generationQueue.cancel(childJobId);
+                        etaEstimator.finished(childJobId, false);
+                        jobTrackingService.cancelJob(childJobId, "The upload could not be read");
+                    }
+                }
+
+                Map<String, String> parentMetadata = new HashMap<>();
+                parentMetadata.put("bulk.accepted", String.valueOf(report.getAccepted()));
+                parentMetadata.put("bulk.skipped", String.valueOf(report.getSkippedCount()));
+                if (report.isTruncated()) {
+                    parentMetadata.put("bulk.truncated", "true");
+                }
+                if (readError != null) {
+                    parentMetadata.put("bulk.error", readError.length() > 1000 ? readError.substring(0, 1000) : readError);
+                }
+                // Failed while still receiving, so the cancelled children cannot finish it first
+                boolean failed = readError != null || childJobIds.isEmpty();
+                if (failed) {
+                    jobTrackingService.updateJobStatus(batchId, "FAILED", readError != null ? readError : "No images in the upload");
+                }
+                jobTrackingService.finishParentIngest(batchId, professions, ages, childJobIds.size(), parentMetadata);
+
+                Map<String, Object> metadata = new HashMap<>();
+                metadata.put("childJobIds", childJobIds);
+                metadata.put("accepted", report.getAccepted());
+                metadata.put("skippedCount", report.getSkippedCount());
+                metadata.put("skipped", report.getSkipped());
+                metadata.put("truncated", report.isTruncated());
+                metadata.put("statusUrl", "/api/stable-diffusion/batches/" + batchId);
+                metadata.put("downloadUrl", "/api/stable-diffusion/batches/" + batchId + "/download");
+                if (readError != null) {
+                    metadata.put("error", readError);
+                }
+
+                if (failed) {
+                    bulkBatchService.discard(batchId);
+                    return new Started(childJobIds, readError != null ? readError : "No images in the upload", metadata, null, true);
+                }
+                String message = report.getAccepted() + " images queued, " + report.getSkippedCount() + " skipped"
+                        + (report.isTruncated() ? "; stopped reading after " + report.getAccepted() + " images" : "")
+                        + ". Use the jobId to check the batch or download its results.";
+                return new Started(childJobIds, message, metadata, "/api/stable-diffusion/batches/" + batchId, false);
+            }
+        });
+    }
+
+    /**
+     * Where a bulk upload's images come from (a request body, an archive part, image parts)
+     */
+    @FunctionalInterface
+    private interface BulkSource {
+        void read(String batchId, BulkBatchService.EntryConsumer consumer, BulkBatchService.IngestReport report)
+                throws Exception;
+    }
+
+    /**
+     * The SHA-256 of a Content-Digest header (RFC 9530, sha-256=:<base64>:) as hex, or null when it has none
+     */
+    private static String contentDigestSha256(String header) {
+        if (header == null) {
+            return null;
+        }
+        for (String member : header.split(",")) {
+            String value = member.trim();
+            if (value.startsWith("sha-256=:") && value.endsWith(":") && value.length() > "sha-256=::".length()) {
+                try {
+                    byte[] digest = Base64.getDecoder().decode(value.substring("sha-256=:".length(), value.length() - 1));
+                    return digest.length == 32 ? HexFormat.of().formatHex(digest) : null;
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+}
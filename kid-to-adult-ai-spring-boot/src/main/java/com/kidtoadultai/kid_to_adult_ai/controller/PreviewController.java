@@ -0,0 +1,67 @@
+package com.kidtoadultai.kid_to_adult_ai.controller;
+
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationQueue;
+import com.kidtoadultai.kid_to_adult_ai.service.JobStatusResponses;
+import com.kidtoadultai.kid_to_adult_ai.service.PreviewService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Live previews of the job the WebUI is generating
+ */
+@RestController
+@RequestMapping("/api/stable-diffusion")
+@CrossOrigin(origins = "*")
+public class PreviewController {
+
+    @Autowired
+    private GenerationQueue generationQueue;
+
+    @Autowired
+    private PreviewService previewService;
+
+    /**
+     * Latest low-resolution preview (JPEG) of a job the WebUI is generating; 204 until the first one exists.
+     * Fetching it keeps the job's preview sampled for preview.interest-seconds. ETag and If-None-Match as on /status.
+     */
+    @GetMapping("/status/{jobId}/preview")
+    public ResponseEntity<byte[]> getPreview(
+            @PathVariable String jobId,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+
+        if (!generationQueue.isPending(jobId)) {
+            return ResponseEntity.notFound().build();
+        }
+        generationQueue.recordPoll(jobId);
+
+        PreviewService.Preview preview = previewService.getPreview(jobId);
+        if (preview == null) {
+            return ResponseEntity.noContent().cacheControl(CacheControl.noCache()).build();
+        }
+        String eTag = "\"p" + preview.sequence() + "\"";
+        if (ifNoneMatch != null && JobStatusResponses.matchesETag(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(CacheControl.noCache()).build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_JPEG)
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache())
+                .header("X-Preview-Progress", String.format("%.2f", preview.progress()))
+                .body(preview.jpeg());
+    }
+
+    /**
+     * Server-sent "preview" events ({progress, updatedAt, image as a JPEG data URL}) while the job is generated,
+     * ending when it leaves the WebUI. An open stream counts as polling, so the job is not cancelled as abandoned.
+     */
+    @GetMapping(value = "/status/{jobId}/preview/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamPreview(@PathVariable String jobId) {
+        if (!generationQueue.isPending(jobId)) {
+            return ResponseEntity.notFound().build();
+        }
+        generationQueue.recordPoll(jobId);
+        return ResponseEntity.ok(previewService.stream(jobId));
+    }
+}
@@ -0,0 +1,115 @@
+package com.kidtoadultai.kid_to_adult_ai.controller;
+
+import com.kidtoadultai.kid_to_adult_ai.ai.GenerationProfile;
+import com.kidtoadultai.kid_to_adult_ai.ai.StableDiffusionService;
+import com.kidtoadultai.kid_to_adult_ai.config.RateLimitFilter;
+import com.kidtoadultai.kid_to_adult_ai.dto.ImageResponse;
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.service.EtaEstimator;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationQueue;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService.Plan;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService.Started;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService.Submission;
+import com.kidtoadultai.kid_to_adult_ai.service.ImageStorageService;
+import com.kidtoadultai.kid_to_adult_ai.service.JobTrackingService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Refinement: a finished draft re-rendered at a higher tier
+ */
+@RestController
+@RequestMapping("/api/stable-diffusion")
+@CrossOrigin(origins = "*")
+public class RefineController {
+
+    @Autowired
+    private StableDiffusionService stableDiffusionService;
+
+    @Autowired
+    private JobTrackingService jobTrackingService;
+
+    @Autowired
+    private GenerationQueue generationQueue;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private EtaEstimator etaEstimator;
+
+    @Autowired
+    private GenerationSubmissionService submissionService;
+
+    /**
+     * Re-render a finished job (typically a draft) at a higher tier. The job's image becomes the init image
+     * and its seed is reused, so the result keeps the draft's composition. Creates a new job.
+     */
+    @PostMapping("/generate-refine")
+    public ResponseEntity<ImageResponse> refine(
+            @RequestParam("jobId") String sourceJobId,
+            @RequestParam(value = "tier", defaultValue = GenerationProfile.STANDARD) String tier,
+            @RequestParam(value = "callbackUrl", required = false) String callbackUrl,
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+
+        JobStatus source = jobTrackingService.getJobStatus(sourceJobId);
+        if (source == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ImageResponse("ERROR", "Job not found: " + sourceJobId));
+        }
+        if (!"COMPLETED".equals(source.getStatus()) || source.getGeneratedFilename() == null || source.getChildCount() != null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ImageResponse("ERROR", "Only a completed single-image job can be refined"));
+        }
+
+        String profession = source.getProfession();
+        int targetAge = source.getTargetAge();
+        // The source job identifies the request; its photo was fingerprinted when it was submitted
+        Submission submission = new Submission("refine", tier, List.of(), List.of(), null, sourceJobId,
+                clientId, idempotencyKey, callbackUrl);
+        return submissionService.submit(submission, new Plan() {
+            private Path draftPath;
+            private long seed;
+
+            @Override
+            public JobStatus create(GenerationProfile profile, Map<String, String> webhooks) {
+                draftPath = imageStorageService.resolve(source.getGeneratedFilename());
+                if (!Files.exists(draftPath)) {
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "The image of job " + sourceJobId + " is no longer stored");
+                }
+
+                // Same seed as the draft; jobs from before tiers existed have none stored
+                Map<String, String> sourceMetadata = jobTrackingService.getJobMetadata(sourceJobId);
+                String storedSeed = sourceMetadata != null ? sourceMetadata.get("generation.seed") : null;
+                seed = storedSeed != null ? Long.parseLong(storedSeed) : GenerationSubmissionService.newSeed();
+
+                Map<String, String> metadata = GenerationSubmissionService.generationMetadata(profile, seed);
+                metadata.put("refinedFrom", sourceJobId);
+                metadata.putAll(webhooks);
+                return jobTrackingService.createJob(profession, targetAge, source.getOriginalFilename(), null, metadata);
+            }
+
+            @Override
+            public Started start(JobStatus job, GenerationProfile profile, Map<String, String> webhooks) throws IOException {
+                String base64Draft = Base64.getEncoder().encodeToString(Files.readAllBytes(draftPath));
+
+                long refineSeed = seed;
+                etaEstimator.track(job.getJobId(), profile.mode("refine"), "local", profession);
+                submissionService.processGenerationAsync(job.getJobId(), generationQueue.submit(job.getJobId(), clientId, profile,
+                        () -> stableDiffusionService.refine(base64Draft, profession, targetAge, profile, refineSeed)));
+                return new Started(List.of(job.getJobId()), "Refinement started. Use the jobId to check status.",
+                        Map.of("tier", profile.tier(), "refinedFrom", sourceJobId), null, false);
+            }
+        });
+    }
+}
@@ -0,0 +1,92 @@
+package com.kidtoadultai.kid_to_adult_ai.controller;
+
+import com.kidtoadultai.kid_to_adult_ai.ai.AIService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives Replicate's "completed" webhook so predictions finish without waiting for the next poll.
+ * Deliveries must carry a webhook-signature made with replicate.webhook.secret; without a secret the receiver
+ * is off (404), since an unsigned delivery could point a job's output at any URL.
+ */
+@RestController
+@RequestMapping("/api/replicate")
+public class ReplicateWebhookController {
+
+    @Autowired
+    @Lazy
+    private AIService aiService;
+
+    @Autowired
+    private JsonMapper jsonMapper;
+
+    // Signing secret shown in Replicate's account settings (whsec_...); blank turns the receiver off
+    @Value("${replicate.webhook.secret:}")
+    private String webhookSecret;
+
+    private static final long MAX_CLOCK_SKEW_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+
+    @PostMapping("/webhook")
+    public ResponseEntity<Void> receiveWebhook(
+            @RequestHeader(value = "webhook-id", required = false) String webhookId,
+            @RequestHeader(value = "webhook-timestamp", required = false) String webhookTimestamp,
+            @RequestHeader(value = "webhook-signature", required = false) String webhookSignature,
+            @RequestBody String body) {
+
+        if (webhookSecret.isBlank()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!isValidSignature(webhookId, webhookTimestamp, webhookSignature, body)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        Map<String, Object> prediction = jsonMapper.readValue(body, Map.class);
+        aiService.onWebhook(prediction);
+
+        return ResponseEntity.noContent().build();
+    }
+
+    private boolean isValidSignature(String webhookId, String webhookTimestamp, String webhookSignature, String body) {
+        if (webhookId == null || webhookTimestamp == null || webhookSignature == null) {
+            return false;
+        }
+
+        try {
+            long sentAt = Long.parseLong(webhookTimestamp);
+            if (Math.abs(System.currentTimeMillis() / 1000 - sentAt) > MAX_CLOCK_SKEW_SECONDS) {
+                return false;
+            }
+
+            byte[] key = Base64.getDecoder().decode(webhookSecret.substring(webhookSecret.indexOf('_') + 1));
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            byte[] expected = mac.doFinal((webhookId + "." + webhookTimestamp + "." + body).getBytes(StandardCharsets.UTF_8));
+
+            // Header holds space-separated "v1,<base64>" entries, one per active secret
+            for (String candidate : webhookSignature.split(" ")) {
+                String signature = candidate.substring(candidate.indexOf(',') + 1);
+                if (MessageDigest.isEqual(expected, Base64.getDecoder().decode(signature))) {
+                    return true;
+                }
+            }
+            return false;
+
+        } catch (Exception e) {
+            System.err.println("Rejected Replicate webhook: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.kidtoadultai.kid_to_adult_ai.controller;
+
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationRouter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.*;
+
+/**
+ * How /generate chooses between the local WebUI and Replicate
+ */
+@RestController
+@RequestMapping("/api/stable-diffusion")
+@CrossOrigin(origins = "*")
+public class RoutingController {
+
+    @Autowired
+    private GenerationRouter generationRouter;
+
+    /**
+     * Routing inputs: local queue and latency, Replicate latency and today's remote budget
+     */
+    @GetMapping("/routing")
+    public ResponseEntity<Map<String, Object>> getRouting() {
+        return ResponseEntity.ok(generationRouter.getSnapshot());
+    }
+}
@@ -1,22 +1,51 @@
 package com.kidtoadultai.kid_to_adult_ai.controller;
 
+import com.kidtoadultai.kid_to_adult_ai.ai.AIService;
+import com.kidtoadultai.kid_to_adult_ai.ai.GenerationProfile;
+import com.kidtoadultai.kid_to_adult_ai.ai.GenerationProfiles;
 import com.kidtoadultai.kid_to_adult_ai.ai.StableDiffusionService;
+import com.kidtoadultai.kid_to_adult_ai.config.RateLimitFilter;
 import com.kidtoadultai.kid_to_adult_ai.dto.ImageResponse;
 import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.service.EtaEstimator;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationMetrics;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationQueue;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationRouter;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService.Plan;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService.Started;
+import com.kidtoadultai.kid_to_adult_ai.service.GenerationSubmissionService.Submission;
+import com.kidtoadultai.kid_to_adult_ai.service.ImageStorageService;
+import com.kidtoadultai.kid_to_adult_ai.service.JobArchiveService;
+import com.kidtoadultai.kid_to_adult_ai.service.JobStatusResponses;
+import com.kidtoadultai.kid_to_adult_ai.service.JobStatusWatcher;
 import com.kidtoadultai.kid_to_adult_ai.service.JobTrackingService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+/**
+ * Generate endpoints, job status and job management. Bulk uploads, refinement, previews, traces and routing
+ * have their own controllers under the same path.
+ */
 @RestController
 @RequestMapping("/api/stable-diffusion")
 @CrossOrigin(origins = "*")
@@ -25,115 +54,239 @@ public class StableDiffusionController {
     @Autowired
     private StableDiffusionService stableDiffusionService;
 
+    @Autowired
+    @Lazy
+    private AIService aiService;
+
     @Autowired
     private JobTrackingService jobTrackingService;
 
-    @Value("${image.upload.dir:./uploads}")
-    private String uploadDir;
+    @Autowired
+    private GenerationQueue generationQueue;
+
+    @Autowired
+    private GenerationRouter generationRouter;
+
+    @Autowired
+    private GenerationMetrics metrics;
 
-    private static final List<String> PROFESSIONS = Arrays.asList(
-            "doctor", "engineer", "teacher", "astronaut",
-            "scientist", "artist", "pilot", "firefighter",
-            "chef", "athlete"
-    );
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private JobStatusWatcher jobStatusWatcher;
+
+    @Autowired
+    private JobArchiveService jobArchiveService;
+
+    @Autowired
+    private EtaEstimator etaEstimator;
+
+    @Autowired
+    private GenerationProfiles generationProfiles;
+
+    @Autowired
+    private GenerationSubmissionService submissionService;
+
+    @Autowired
+    private JobStatusResponses jobStatusResponses;
+
+    // Upper bound on professions x ages in one fan-out request
+    @Value("${generation.fanout.max:12}")
+    private int maxFanout;
+
+    // Longest a status request may be held open with ?wait=
+    @Value("${status.long-poll.max-seconds:60}")
+    private long maxLongPollSeconds;
 
     /**
-     * Generate adult version using img2img
+     * Generate adult version using img2img.
+     * tier is draft (fast, low resolution, served first), standard or high; a draft can be refined later.
+     * With callbackUrl (any generate endpoint) the job's events are POSTed there, signed with the returned webhookSecret.
      */
     @PostMapping("/generate")
     public ResponseEntity<ImageResponse> generateAdultVersion(
             @RequestParam("image") MultipartFile file,
             @RequestParam("profession") String profession,
-            @RequestParam(value = "age", defaultValue = "30") int targetAge) {
-
-        try {
-            if (!PROFESSIONS.contains(profession.toLowerCase())) {
-                return ResponseEntity.badRequest()
-                        .body(new ImageResponse("ERROR", "Invalid profession. Choose from: " + PROFESSIONS));
+            @RequestParam(value = "age", defaultValue = "30") int targetAge,
+            @RequestParam(value = "tier", defaultValue = GenerationProfile.STANDARD) String tier,
+            @RequestParam(value = "callbackUrl", required = false) String callbackUrl,
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+
+        Submission submission = new Submission("generate", tier, List.of(profession), List.of(targetAge), file, "",
+                clientId, idempotencyKey, callbackUrl);
+        long seed = GenerationSubmissionService.newSeed();
+        return submissionService.submit(submission, new Plan() {
+            @Override
+            public JobStatus create(GenerationProfile profile, Map<String, String> webhooks) {
+                Map<String, String> metadata = GenerationSubmissionService.generationMetadata(profile, seed);
+                metadata.putAll(webhooks);
+                return jobTrackingService.createJob(profession, targetAge, file.getOriginalFilename(), null, metadata);
             }
 
-            // Validate age
-            if (targetAge < 20 || targetAge > 60) {
-                return ResponseEntity.badRequest()
-                        .body(new ImageResponse("ERROR", "Age must be between 20 and 60"));
+            @Override
+            public Started start(JobStatus job, GenerationProfile profile, Map<String, String> webhooks) throws IOException {
+                // Read the upload now; the multipart file is gone once this request returns
+                String base64Image = submissionService.encodeUpload(file);
+
+                // Queue locally, or spill to Replicate when the local queue is too long; completes with the stored image URL
+                etaEstimator.track(job.getJobId(), profile.mode("img2img"), "local", profession);
+                CompletableFuture<String> futureResult = generationRouter.route(job.getJobId(), clientId, base64Image,
+                        profession, targetAge, profile, seed);
+                submissionService.processResultAsync(job.getJobId(), futureResult, Function.identity());
+                return Started.job(job.getJobId(), "Image generation started. Use the jobId to check status.");
             }
+        });
+    }
 
-            // Validate file
-            if (file.isEmpty()) {
-                return ResponseEntity.badRequest()
-                        .body(new ImageResponse("ERROR", "Please upload an image"));
+    /**
+     * Generate using ControlNet (better face preservation), at the given quality tier
+     */
+    @PostMapping("/generate-with-controlnet")
+    public ResponseEntity<ImageResponse> generateWithControlNet(
+            @RequestParam("image") MultipartFile file,
+            @RequestParam("profession") String profession,
+            @RequestParam(value = "age", defaultValue = "30") int targetAge,
+            @RequestParam(value = "tier", defaultValue = GenerationProfile.STANDARD) String tier,
+            @RequestParam(value = "callbackUrl", required = false) String callbackUrl,
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+
+        Submission submission = new Submission("controlnet", tier, List.of(profession), List.of(targetAge), file, "",
+                clientId, idempotencyKey, callbackUrl);
+        long seed = GenerationSubmissionService.newSeed();
+        return submissionService.submit(submission, new Plan() {
+            @Override
+            public JobStatus create(GenerationProfile profile, Map<String, String> webhooks) {
+                Map<String, String> metadata = GenerationSubmissionService.generationMetadata(profile, seed);
+                metadata.putAll(webhooks);
+                return jobTrackingService.createJob(profession, targetAge, file.getOriginalFilename(), null, metadata);
             }
 
-            // Create job tracking entry
-            JobStatus jobStatus = jobTrackingService.createJob(
-                    profession, targetAge, file.getOriginalFilename()
-            );
-            String jobId = jobStatus.getJobId();
-
-            // Start async generation
-            CompletableFuture<String> futureResult = stableDiffusionService
-                    .generateAdultVersionImg2Img(file, profession, targetAge);
-
-            // Store future and process result
-            processGenerationAsync(jobId, futureResult);
-
-            // Return immediate response
-            ImageResponse response = new ImageResponse();
-            response.setJobId(jobId);
-            response.setStatus("PROCESSING");
-            response.setMessage("Image generation started. Use the jobId to check status.");
-            response.setProfession(profession);
-            response.setAge(targetAge);
-            response.setCreatedAt(new Date());
-
-            return ResponseEntity.accepted()
-                    .header("Location", "/api/stable-diffusion/status/" + jobId)
-                    .body(response);
-
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ImageResponse("ERROR", e.getMessage()));
-        }
+            @Override
+            public Started start(JobStatus job, GenerationProfile profile, Map<String, String> webhooks) throws IOException {
+                String base64Image = submissionService.encodeUpload(file);
+
+                etaEstimator.track(job.getJobId(), profile.mode("controlnet"), "local", profession);
+                submissionService.processGenerationAsync(job.getJobId(), generationQueue.submit(job.getJobId(), clientId, profile,
+                        () -> stableDiffusionService.generateWithControlNet(base64Image, profession, targetAge, profile, seed)));
+                return Started.job(job.getJobId(), "Image generation started. Use the jobId to check status.");
+            }
+        });
     }
 
     /**
-     * Generate using ControlNet (better face preservation)
+     * Generate on Replicate instead of the local WebUI.
+     * Does not use the local queue; the image is streamed into storage when the prediction finishes.
      */
-    @PostMapping("/generate-with-controlnet")
-    public ResponseEntity<ImageResponse> generateWithControlNet(
+    @PostMapping("/generate-remote")
+    public ResponseEntity<ImageResponse> generateRemote(
             @RequestParam("image") MultipartFile file,
             @RequestParam("profession") String profession,
-            @RequestParam(value = "age", defaultValue = "30") int targetAge) {
+            @RequestParam(value = "age", defaultValue = "30") int targetAge,
+            @RequestParam(value = "callbackUrl", required = false) String callbackUrl,
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+
+        Submission submission = new Submission("remote", null, List.of(profession), List.of(targetAge), file, "",
+                clientId, idempotencyKey, callbackUrl);
+        return submissionService.submit(submission, new Plan() {
+            @Override
+            public JobStatus create(GenerationProfile profile, Map<String, String> webhooks) {
+                return jobTrackingService.createJob(profession, targetAge, file.getOriginalFilename(), null, webhooks);
+            }
 
-        try {
-            // Create job tracking entry
-            JobStatus jobStatus = jobTrackingService.createJob(
-                    profession, targetAge, file.getOriginalFilename()
-            );
-            String jobId = jobStatus.getJobId();
-
-            CompletableFuture<String> futureResult = stableDiffusionService
-                    .generateWithControlNet(file, profession, targetAge);
-
-            processGenerationAsync(jobId, futureResult);
-
-            // Return immediate response
-            ImageResponse response = new ImageResponse();
-            response.setJobId(jobId);
-            response.setStatus("PROCESSING");
-            response.setMessage("Image generation started. Use the jobId to check status.");
-            response.setProfession(profession);
-            response.setAge(targetAge);
-            response.setCreatedAt(new Date());
-
-            return ResponseEntity.accepted()
-                    .header("Location", "/api/stable-diffusion/status/" + jobId)
-                    .body(response);
-
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ImageResponse("ERROR", e.getMessage()));
+            @Override
+            public Started start(JobStatus job, GenerationProfile profile, Map<String, String> webhooks) throws IOException {
+                String base64Image = submissionService.encodeUpload(file);
+
+                // Completes with the stored image URL
+                etaEstimator.track(job.getJobId(), "img2img", "remote", profession);
+                submissionService.processResultAsync(job.getJobId(),
+                        aiService.generateAdultImage(job.getJobId(), base64Image, profession, targetAge), Function.identity());
+                return Started.job(job.getJobId(), "Image generation started. Use the jobId to check status.");
+            }
+        });
+    }
+
+    /**
+     * Generate several professions and/or ages from one upload.
+     * The image is read and encoded once and shared by all child jobs, which are queued back-to-back
+     * under a parent job. Poll the parent's status for combined progress.
+     */
+    @PostMapping("/generate-batch")
+    public ResponseEntity<ImageResponse> generateBatch(
+            @RequestParam("image") MultipartFile file,
+            @RequestParam("professions") List<String> professions,
+            @RequestParam(value = "ages", defaultValue = "30") List<Integer> ages,
+            @RequestParam(value = "controlnet", defaultValue = "false") boolean useControlNet,
+            @RequestParam(value = "tier", defaultValue = GenerationProfile.STANDARD) String tier,
+            @RequestParam(value = "callbackUrl", required = false) String callbackUrl,
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+
+        Set<String> uniqueProfessions = new LinkedHashSet<>();
+        for (String profession : professions) {
+            uniqueProfessions.add(profession.toLowerCase());
+        }
+        Set<Integer> uniqueAges = new LinkedHashSet<>(ages);
+
+        int childCount = uniqueProfessions.size() * uniqueAges.size();
+        if (childCount == 0 || childCount > maxFanout) {
+            return ResponseEntity.badRequest()
+                    .body(new ImageResponse("ERROR", "Request between 1 and " + maxFanout + " images (professions x ages)"));
         }
+
+        Submission submission = new Submission("batch", tier, uniqueProfessions, uniqueAges, file,
+                "controlnet=" + useControlNet, clientId, idempotencyKey, callbackUrl);
+        return submissionService.submit(submission, new Plan() {
+            @Override
+            public JobStatus create(GenerationProfile profile, Map<String, String> webhooks) {
+                return jobTrackingService.createParentJob(
+                        uniqueProfessions, uniqueAges, file.getOriginalFilename(), childCount, webhooks
+                );
+            }
+
+            @Override
+            public Started start(JobStatus parent, GenerationProfile profile, Map<String, String> webhooks) throws IOException {
+                // One read and encode for all children; they share the same string
+                String base64Image = submissionService.encodeUpload(file);
+
+                // Profession-major order keeps each profession's prompts adjacent in the queue
+                Map<String, Callable<String>> tasks = new LinkedHashMap<>();
+                for (String profession : uniqueProfessions) {
+                    for (int targetAge : uniqueAges) {
+                        long seed = GenerationSubmissionService.newSeed();
+                        Map<String, String> childMetadata = GenerationSubmissionService.generationMetadata(profile, seed);
+                        childMetadata.putAll(webhooks);
+                        JobStatus child = jobTrackingService.createJob(
+                                profession, targetAge, file.getOriginalFilename(), parent.getJobId(), childMetadata
+                        );
+                        etaEstimator.track(child.getJobId(), profile.mode(useControlNet ? "controlnet" : "img2img"), "local", profession);
+                        tasks.put(child.getJobId(), useControlNet
+                                ? () -> stableDiffusionService.generateWithControlNet(base64Image, profession, targetAge, profile, seed)
+                                : () -> stableDiffusionService.generateAdultVersionImg2Img(base64Image, profession, targetAge, profile, seed));
+                    }
+                }
+                generationQueue.submitAll(clientId, profile, tasks).forEach(submissionService::processGenerationAsync);
+
+                List<String> childJobIds = new ArrayList<>(tasks.keySet());
+                return new Started(childJobIds,
+                        childCount + " image generations started. Use the jobId to check combined status.",
+                        Map.of("childJobIds", childJobIds), null, false);
+            }
+        });
+    }
+
+    /**
+     * Quality tiers and their settings
+     */
+    @GetMapping("/tiers")
+    public ResponseEntity<List<GenerationProfile>> getTiers() {
+        List<GenerationProfile> tiers = new ArrayList<>();
+        generationProfiles.getTiers().forEach(tier -> tiers.add(generationProfiles.get(tier)));
+        return ResponseEntity.ok(tiers);
     }
 
     /**
@@ -173,47 +326,71 @@ public class StableDiffusionController {
         return ResponseEntity.ok(progress);
     }
 
+    @GetMapping("/status/{jobId}")
+    public ResponseEntity<ImageResponse> getStatus(
+            @PathVariable String jobId,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+
+        generationQueue.recordPoll(jobId);
+        ResponseEntity<ImageResponse> response = statusResponse(jobId, ifNoneMatch);
+        metrics.recordStatusPoll(response.getStatusCode() == HttpStatus.NOT_MODIFIED ? "not_modified" : "full");
+        return response;
+    }
+
     /**
-     * Process generation asynchronously
+     * Long poll (?wait=30s): answers once the job differs from the version in If-None-Match (or from its
+     * state when the request arrived), or with the current state when the wait runs out.
+     * The request thread is released while waiting.
      */
-    private void processGenerationAsync(String jobId, CompletableFuture<String> future) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                String base64Image = future.get(); // Wait for completion
+    @GetMapping(value = "/status/{jobId}", params = "wait")
+    public DeferredResult<ResponseEntity<ImageResponse>> waitForStatus(
+            @PathVariable String jobId,
+            @RequestParam("wait") String wait,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
 
-                // Save to database or storage
-                String imageUrl = saveGeneratedImage(base64Image, jobId);
+        generationQueue.recordPoll(jobId);
 
-                // Update job status (you need to implement job tracking)
-                jobTrackingService.updateJobStatus(jobId, "COMPLETED", imageUrl);
+        long waitMillis;
+        try {
+            waitMillis = Math.min(DurationStyle.detectAndParse(wait, ChronoUnit.SECONDS).toMillis(),
+                    TimeUnit.SECONDS.toMillis(maxLongPollSeconds));
+        } catch (IllegalArgumentException e) {
+            DeferredResult<ResponseEntity<ImageResponse>> invalid = new DeferredResult<>();
+            invalid.setResult(ResponseEntity.badRequest()
+                    .body(new ImageResponse("ERROR", "Invalid wait: " + wait + " (e.g. wait=30s)")));
+            return invalid;
+        }
 
-            } catch (Exception e) {
-                jobTrackingService.updateJobStatus(jobId, "FAILED", "Generation failed: " + e.getMessage());
+        DeferredResult<ResponseEntity<ImageResponse>> result = new DeferredResult<>(Math.max(1, waitMillis));
+        Runnable onChange = () -> {
+            if (result.setResult(statusResponse(jobId, ifNoneMatch))) {
+                metrics.recordStatusPoll("woken");
             }
+        };
+        result.onTimeout(() -> {
+            generationQueue.recordPoll(jobId);
+            result.setResult(statusResponse(jobId, ifNoneMatch));
+            metrics.recordStatusPoll("timed_out");
         });
-    }
-
-    private String saveGeneratedImage(String base64Image, String jobId) {
-        try {
-            // Remove data URL prefix
-            String base64Data = base64Image.substring(base64Image.indexOf(",") + 1);
-            byte[] imageBytes = Base64.getDecoder().decode(base64Data);
+        result.onCompletion(() -> jobStatusWatcher.unwatch(jobId, onChange));
 
-            // Save to file
-            String fileName = "generated_" + jobId + ".png";
-            java.nio.file.Path filePath = java.nio.file.Paths.get(uploadDir, fileName);
-            java.nio.file.Files.createDirectories(filePath.getParent());
-            java.nio.file.Files.write(filePath, imageBytes);
-
-            return "/api/images/" + fileName;
-
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to save image", e);
+        // Watch before reading the state so a change in between is not missed
+        jobStatusWatcher.watch(jobId, onChange);
+        JobStatus jobStatus = jobTrackingService.getJobStatus(jobId);
+        ResponseEntity<ImageResponse> current = statusResponse(jobId, ifNoneMatch);
+        boolean clientBehind = ifNoneMatch != null && current.getStatusCode() != HttpStatus.NOT_MODIFIED;
+        if (jobStatus == null || !"PROCESSING".equals(jobStatus.getStatus()) || clientBehind) {
+            if (result.setResult(current)) {
+                metrics.recordStatusPoll(current.getStatusCode() == HttpStatus.NOT_MODIFIED ? "not_modified" : "full");
+            }
         }
+        return result;
     }
 
-    @GetMapping("/status/{jobId}")
-    public ResponseEntity<ImageResponse> getStatus(@PathVariable String jobId) {
+    /**
+     * Current status with its ETag, or 304 without a body when it matches ifNoneMatch
+     */
+    private ResponseEntity<ImageResponse> statusResponse(String jobId, String ifNoneMatch) {
         JobStatus jobStatus = jobTrackingService.getJobStatus(jobId);
 
         if (jobStatus == null) {
@@ -221,42 +398,49 @@ public class StableDiffusionController {
                     .body(new ImageResponse("NOT_FOUND", "Job not found: " + jobId));
         }
 
-        ImageResponse response = new ImageResponse();
-        response.setJobId(jobId);
-        response.setStatus(jobStatus.getStatus());
-        response.setProfession(jobStatus.getProfession());
-        response.setAge(jobStatus.getTargetAge());
-        response.setCreatedAt(jobStatus.getCreatedAt());
-
-        // Add appropriate message based on status
-        switch (jobStatus.getStatus()) {
-            case "PROCESSING":
-                response.setMessage("Image is being generated. Please wait...");
-                response.setProgress(50); // Estimated progress
-                break;
-            case "COMPLETED":
-                response.setMessage("Image generation completed successfully!");
-                response.setImageUrl(jobStatus.getImageUrl());
-                response.setProgress(100);
-                if (jobStatus.getCompletedAt() != null) {
-                    response.setCompletedAt(jobStatus.getCompletedAt());
-                }
-                break;
-            case "FAILED":
-                response.setMessage("Image generation failed: " + jobStatus.getErrorMessage());
-                response.setProgress(0);
-                break;
-            default:
-                response.setMessage("Unknown status");
+        // Versions are read before the body is built. Updates bump the version after changing the state,
+        // so a race costs at most one redundant full response, never a 304 for a state the client lacks.
+        List<JobStatus> children = null;
+        String eTag;
+        if (jobStatus.getChildCount() != null) {
+            children = jobTrackingService.getChildJobs(jobId);
+            long childVersions = 0;
+            for (JobStatus child : children) {
+                childVersions += versionOf(child);
+            }
+            eTag = "\"" + versionOf(jobStatus) + "." + childVersions + "\"";
+        } else {
+            eTag = "\"" + versionOf(jobStatus) + "\"";
         }
 
-        return ResponseEntity.ok(response);
+        if (ifNoneMatch != null && JobStatusResponses.matchesETag(ifNoneMatch, eTag)) {
+            if (children != null) {
+                // The client polls the parent only, so keep the children from being cancelled as abandoned
+                children.forEach(child -> generationQueue.recordPoll(child.getJobId()));
+            }
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(CacheControl.noCache()).build();
+        }
+
+        ImageResponse body = children != null
+                ? jobStatusResponses.getFanOutStatus(jobStatus, children) : jobStatusResponses.buildStatus(jobStatus);
+        return ResponseEntity.ok().eTag(eTag).cacheControl(CacheControl.noCache()).body(body);
     }
 
+    private static long versionOf(JobStatus jobStatus) {
+        return jobStatus.getVersion() != null ? jobStatus.getVersion() : 0;
+    }
+
+    /**
+     * Jobs matching the filters, newest first. archived=true appends matching jobs from the cold archive,
+     * which are all older than those still in job_status. from/to (yyyy-MM-dd, inclusive) narrow by creation date.
+     */
     @GetMapping("/jobs")
     public ResponseEntity<List<JobStatus>> getAllJobs(
             @RequestParam(required = false) String status,
-            @RequestParam(required = false) String profession) {
+            @RequestParam(required = false) String profession,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "false") boolean archived) {
 
         List<JobStatus> jobs;
 
@@ -277,15 +461,71 @@ public class StableDiffusionController {
             jobs = jobTrackingService.getAllJobs();
         }
 
+        Date fromDate = from != null ? Date.from(from.atStartOfDay(ZoneId.systemDefault()).toInstant()) : null;
+        Date toDate = to != null ? Date.from(to.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant()) : null;
+        if (fromDate != null || toDate != null) {
+            jobs = new ArrayList<>(jobs);
+            jobs.removeIf(job -> fromDate != null && job.getCreatedAt().before(fromDate)
+                    || toDate != null && !job.getCreatedAt().before(toDate));
+        }
+
+        if (archived) {
+            jobs = new ArrayList<>(jobs);
+            jobs.addAll(jobArchiveService.findJobs(status, profession, fromDate, toDate));
+        }
+
         return ResponseEntity.ok(jobs);
     }
 
     @GetMapping("/statistics")
-    public ResponseEntity<Map<String, Object>> getStatistics() {
-        Map<String, Object> stats = jobTrackingService.getStatistics();
+    public ResponseEntity<Map<String, Object>> getStatistics(
+            @RequestParam(defaultValue = "true") boolean archived) {
+        Map<String, Object> stats = jobTrackingService.getStatistics(archived);
         return ResponseEntity.ok(stats);
     }
 
+    /**
+     * Cancel a queued or running generation
+     */
+    @PostMapping("/jobs/{jobId}/cancel")
+    public ResponseEntity<Map<String, String>> cancelJob(@PathVariable String jobId) {
+        JobStatus jobStatus = jobTrackingService.getJobStatus(jobId);
+
+        if (jobStatus == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        // Cancelling a fan-out parent withdraws all of its children
+        if (jobStatus.getChildCount() != null) {
+            for (JobStatus child : jobTrackingService.getChildJobs(jobId)) {
+                generationQueue.cancel(child.getJobId());
+                jobTrackingService.cancelJob(child.getJobId(), "Cancelled by client");
+            }
+        }
+
+        GenerationQueue.Cancellation cancellation = generationQueue.cancel(jobId);
+        aiService.cancel(jobId);
+        boolean cancelled = jobTrackingService.cancelJob(jobId, "Cancelled by client");
+        jobTrackingService.updateParentJob(jobId);
+
+        Map<String, String> response = new HashMap<>();
+        if (cancelled) {
+            response.put("status", "SUCCESS");
+            if (cancellation == GenerationQueue.Cancellation.DEFERRED) {
+                // Only the generation the WebUI is executing can be interrupted
+                response.put("message", "Job cancelled; its generation is waiting inside the WebUI and will run to the end there, the result is discarded");
+            } else {
+                response.put("message", "Job cancelled");
+            }
+            response.put("generation", cancellation.name().toLowerCase());
+            return ResponseEntity.ok(response);
+        }
+
+        response.put("status", "ERROR");
+        response.put("message", "Job already finished with status: " + jobStatus.getStatus());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+    }
+
     @DeleteMapping("/jobs/{jobId}")
     public ResponseEntity<Map<String, String>> deleteJob(@PathVariable String jobId) throws IOException {
         JobStatus jobStatus = jobTrackingService.getJobStatus(jobId);
@@ -294,21 +534,34 @@ public class StableDiffusionController {
             return ResponseEntity.notFound().build();
         }
 
-        // Delete generated image
-        if (jobStatus.getGeneratedFilename() != null) {
-            Path generatedPath = Paths.get(uploadDir, jobStatus.getGeneratedFilename());
-            if (Files.exists(generatedPath)) {
-                Files.delete(generatedPath);
-                System.out.println("Deleted generated file: " + generatedPath);
-            }
+        // Deleting a fan-out parent deletes its children too
+        List<JobStatus> jobsToDelete = new ArrayList<>();
+        if (jobStatus.getChildCount() != null) {
+            jobsToDelete.addAll(jobTrackingService.getChildJobs(jobId));
         }
+        jobsToDelete.add(jobStatus);
+
+        for (JobStatus job : jobsToDelete) {
+            // Stop any work still queued or running for this job
+            generationQueue.cancel(job.getJobId());
+            aiService.cancel(job.getJobId());
+
+            // Delete generated image
+            if (job.getGeneratedFilename() != null) {
+                Path generatedPath = imageStorageService.resolve(job.getGeneratedFilename());
+                if (Files.exists(generatedPath)) {
+                    Files.delete(generatedPath);
+                    System.out.println("Deleted generated file: " + generatedPath);
+                }
+            }
 
-        Map<String, String> metadata = new HashMap<>();
-        metadata.put("deletedAt", new Date().toString());
-        metadata.put("deletedBy", "system"); // In real app, get from authentication
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put("deletedAt", new Date().toString());
+            metadata.put("deletedBy", "system"); // In real app, get from authentication
 
-        jobTrackingService.updateJobStatus(jobId, "DELETED",
-                jobStatus.getImageUrl(), jobStatus.getGeneratedFilename(), metadata);
+            jobTrackingService.updateJobStatus(job.getJobId(), "DELETED",
+                    job.getImageUrl(), job.getGeneratedFilename(), metadata);
+        }
 
         Map<String, String> response = new HashMap<>();
         response.put("status", "SUCCESS");
@@ -316,4 +569,4 @@ public class StableDiffusionController {
 
         return ResponseEntity.ok(response);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+package com.kidtoadultai.kid_to_adult_ai.controller;
+
+import com.kidtoadultai.kid_to_adult_ai.service.JobTrackingService;
+import com.kidtoadultai.kid_to_adult_ai.service.TraceRecorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.*;
+
+/**
+ * Recorded traces of the requests that created jobs
+ */
+@RestController
+@RequestMapping("/api/stable-diffusion")
+@CrossOrigin(origins = "*")
+public class TraceController {
+
+    @Autowired
+    private JobTrackingService jobTrackingService;
+
+    @Autowired
+    private TraceRecorder traceRecorder;
+
+    /**
+     * Spans of the request that created the job, with its queue wait, WebUI calls, storage and database work,
+     * while the trace is still held in memory
+     */
+    @GetMapping("/trace/{jobId}")
+    public ResponseEntity<Map<String, Object>> getTrace(@PathVariable String jobId) {
+        Map<String, String> metadata = jobTrackingService.getJobMetadata(jobId);
+        String traceId = metadata != null ? metadata.get("trace.id") : null;
+        List<TraceRecorder.RecordedSpan> spans = traceId != null ? traceRecorder.getTrace(traceId) : null;
+
+        Map<String, Object> response = new HashMap<>();
+        if (spans == null) {
+            response.put("status", "ERROR");
+            response.put("message", "No trace recorded for job: " + jobId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        response.put("jobId", jobId);
+        response.put("traceId", traceId);
+        response.put("spans", spans);
+        return ResponseEntity.ok(response);
+    }
+}
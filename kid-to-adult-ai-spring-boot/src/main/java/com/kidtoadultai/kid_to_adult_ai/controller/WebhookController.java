@@ -0,0 +1,124 @@
+package com.kidtoadultai.kid_to_adult_ai.controller;
+
+import com.kidtoadultai.kid_to_adult_ai.config.RateLimitFilter;
+import com.kidtoadultai.kid_to_adult_ai.model.WebhookSubscription;
+import com.kidtoadultai.kid_to_adult_ai.service.WebhookService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.*;
+
+/**
+ * Webhook subscriptions of an API key: every job submitted with the key (X-API-Key) sends its lifecycle
+ * events to the subscribed URLs. For a single job, pass callbackUrl to the generate endpoint instead.
+ */
+@RestController
+@RequestMapping("/api/webhooks")
+@CrossOrigin(origins = "*")
+public class WebhookController {
+
+    @Autowired
+    private WebhookService webhookService;
+
+    /**
+     * Subscribe to events (comma separated, default all). The response holds the signing secret; it is not shown again.
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> subscribe(
+            @RequestParam("url") String url,
+            @RequestParam(value = "events", required = false) String events,
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId) {
+
+        ResponseEntity<Map<String, Object>> rejected = checkApiKey(clientId);
+        if (rejected != null) {
+            return rejected;
+        }
+
+        String problem = webhookService.checkUrl(url);
+        if (problem == null) {
+            problem = webhookService.checkEvents(events);
+        }
+        if (problem != null) {
+            return ResponseEntity.badRequest().body(error(problem));
+        }
+
+        WebhookSubscription subscription = webhookService.subscribe(clientId, url, events);
+        Map<String, Object> response = describe(subscription);
+        response.put("secret", subscription.getSecret());
+        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+    }
+
+    /**
+     * The key's subscriptions with their undelivered (pending) and abandoned (dead) event counts
+     */
+    @GetMapping
+    public ResponseEntity<?> getSubscriptions(
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId) {
+
+        ResponseEntity<Map<String, Object>> rejected = checkApiKey(clientId);
+        if (rejected != null) {
+            return rejected;
+        }
+
+        List<Map<String, Object>> subscriptions = new ArrayList<>();
+        for (WebhookSubscription subscription : webhookService.getSubscriptions(clientId)) {
+            Map<String, Object> entry = describe(subscription);
+            entry.put("pendingEvents", webhookService.countPending(subscription.getId()));
+            entry.put("deadEvents", webhookService.countDead(subscription.getId()));
+            subscriptions.add(entry);
+        }
+        return ResponseEntity.ok(subscriptions);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Map<String, Object>> unsubscribe(
+            @PathVariable String id,
+            @RequestAttribute(value = RateLimitFilter.CLIENT_ID_ATTRIBUTE, required = false) String clientId) {
+
+        ResponseEntity<Map<String, Object>> rejected = checkApiKey(clientId);
+        if (rejected != null) {
+            return rejected;
+        }
+
+        if (!webhookService.unsubscribe(clientId, id)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error("Subscription not found"));
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "SUCCESS");
+        response.put("message", "Subscription deleted");
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Subscriptions belong to an API key; session and address based clients cannot own one
+     */
+    private ResponseEntity<Map<String, Object>> checkApiKey(String clientId) {
+        if (clientId == null || !clientId.startsWith("key:")) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(error("An X-API-Key header is required for webhook subscriptions"));
+        }
+        if (!webhookService.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error("Webhooks are disabled"));
+        }
+        return null;
+    }
+
+    private static Map<String, Object> describe(WebhookSubscription subscription) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("id", subscription.getId());
+        entry.put("url", subscription.getUrl());
+        entry.put("events", subscription.getEvents() != null
+                ? Arrays.asList(subscription.getEvents().split(",")) : WebhookService.EVENT_TYPES);
+        entry.put("createdAt", subscription.getCreatedAt());
+        return entry;
+    }
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "ERROR");
+        response.put("message", message);
+        return response;
+    }
+}
@@ -14,7 +14,7 @@ import java.util.Map;
 public class ImageResponse {
 
     private String jobId;
-    private String status; // PROCESSING, COMPLETED, FAILED, NOT_FOUND
+    private String status; // PROCESSING, COMPLETED, FAILED, CANCELLED, NOT_FOUND
     private String message;
     private String imageUrl;
     private String profession;
@@ -24,6 +24,14 @@ public class ImageResponse {
     private Date completedAt;
     private Map<String, Object> metadata;
 
+    // Predictions while PROCESSING: jobs ahead in the local queue (null once started), seconds until
+    // it starts and until it is done, the predicted completion time, and when to check back
+    private Integer queuePosition;
+    private Integer estimatedWaitSeconds;
+    private Integer estimatedSecondsRemaining;
+    private Date estimatedCompletionAt;
+    private Integer pollAfterSeconds;
+
     // Additional fields for error details
     private String errorCode;
     private String errorDetails;
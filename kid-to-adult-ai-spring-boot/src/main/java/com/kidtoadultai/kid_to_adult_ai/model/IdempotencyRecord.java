@@ -0,0 +1,56 @@
+package com.kidtoadultai.kid_to_adult_ai.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Persistable;
+
+import java.util.Date;
+
+@Entity
+@Table(name = "idempotency_key")
+@Data
+@NoArgsConstructor
+public class IdempotencyRecord implements Persistable<String> {
+
+    @Id
+    @Column(length = 64)
+    private String keyHash; // SHA-256 of client id + Idempotency-Key
+
+    @Column(nullable = false)
+    private String jobId;
+
+    @Column(nullable = false, length = 1000)
+    private String fingerprint; // endpoint and parameters of the original request
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = false)
+    private Date expiresAt;
+
+    // Always inserted, never merged, so a concurrent duplicate fails on the primary key
+    @Transient
+    private boolean newRecord = true;
+
+    public IdempotencyRecord(String keyHash, String jobId, String fingerprint, Date expiresAt) {
+        this.keyHash = keyHash;
+        this.jobId = jobId;
+        this.fingerprint = fingerprint;
+        this.expiresAt = expiresAt;
+    }
+
+    @Override
+    public String getId() {
+        return keyHash;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newRecord;
+    }
+
+    @PostLoad
+    @PostPersist
+    protected void markStored() {
+        newRecord = false;
+    }
+}
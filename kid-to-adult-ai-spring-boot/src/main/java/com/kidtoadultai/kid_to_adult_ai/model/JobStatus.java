@@ -20,7 +20,7 @@ public class JobStatus {
     private String jobId;
 
     @Column(nullable = false)
-    private String status; // PROCESSING, COMPLETED, FAILED
+    private String status; // PROCESSING, COMPLETED, FAILED, CANCELLED, DELETED
 
     private String imageUrl;
 
@@ -54,6 +54,12 @@ public class JobStatus {
 
     private int processingTime; // in seconds
 
+    private String parentJobId; // set on the children of a fan-out request
+
+    private Integer childCount; // set on fan-out parent jobs, null otherwise
+
+    private Long version; // bumped on every update; the status endpoint's ETag
+
     @ElementCollection
     @CollectionTable(name = "job_metadata",
             joinColumns = @JoinColumn(name = "job_id"))
@@ -64,5 +70,11 @@ public class JobStatus {
     @PrePersist
     protected void onCreate() {
         createdAt = new Date();
+        version = 0L;
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        version = version == null ? 1 : version + 1;
     }
 }
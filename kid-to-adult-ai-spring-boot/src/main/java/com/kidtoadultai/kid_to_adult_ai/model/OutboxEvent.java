@@ -0,0 +1,55 @@
+package com.kidtoadultai.kid_to_adult_ai.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+/**
+ * A job lifecycle event waiting to be delivered to one webhook subscription.
+ * Written in the same transaction as the job change; removed once delivered.
+ */
+@Entity
+@Table(name = "job_event_outbox", indexes = {
+        @Index(columnList = "status, nextAttemptAt"),
+        @Index(columnList = "jobId")
+})
+@Data
+@NoArgsConstructor
+public class OutboxEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String subscriptionId;
+
+    @Column(nullable = false)
+    private String jobId;
+
+    @Column(nullable = false, length = 50)
+    private String eventType; // job.queued, job.started, job.progress, job.completed, job.failed, job.cancelled, job.deleted
+
+    @Column(nullable = false, length = 4000)
+    private String payload; // the event as JSON, exactly as delivered
+
+    @Column(nullable = false, length = 20)
+    private String status; // PENDING, DEAD
+
+    @Column(nullable = false)
+    private int attempts;
+
+    // Earliest time of the next delivery attempt; pushed ahead while a dispatcher holds the event
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = false)
+    private Date nextAttemptAt;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = false)
+    private Date createdAt;
+
+    @Column(length = 1000)
+    private String lastError;
+}
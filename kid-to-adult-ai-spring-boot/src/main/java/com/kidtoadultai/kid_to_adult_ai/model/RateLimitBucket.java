@@ -0,0 +1,49 @@
+package com.kidtoadultai.kid_to_adult_ai.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Persistable;
+
+@Entity
+@Table(name = "rate_limit_bucket")
+@Data
+@NoArgsConstructor
+public class RateLimitBucket implements Persistable<String> {
+
+    @Id
+    @Column(name = "bucket_key", length = 200)
+    private String bucketKey; // limit name + client id
+
+    @Column(nullable = false)
+    private double tokens;
+
+    @Column(nullable = false)
+    private long updatedAtMillis; // epoch millis of the last refill
+
+    // A new bucket is inserted, never merged, so a concurrent first request fails on the primary key
+    @Transient
+    private boolean newBucket = true;
+
+    public RateLimitBucket(String bucketKey, double tokens, long updatedAtMillis) {
+        this.bucketKey = bucketKey;
+        this.tokens = tokens;
+        this.updatedAtMillis = updatedAtMillis;
+    }
+
+    @Override
+    public String getId() {
+        return bucketKey;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newBucket;
+    }
+
+    @PostLoad
+    @PostPersist
+    protected void markStored() {
+        newBucket = false;
+    }
+}
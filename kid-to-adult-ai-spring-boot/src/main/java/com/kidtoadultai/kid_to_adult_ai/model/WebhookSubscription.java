@@ -0,0 +1,44 @@
+package com.kidtoadultai.kid_to_adult_ai.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@Entity
+@Table(name = "webhook_subscription", indexes = @Index(columnList = "clientId"))
+@Data
+@NoArgsConstructor
+public class WebhookSubscription {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    private String clientId; // key:<hash> for an API key subscription, null for a single job's callbackUrl
+
+    @Column(nullable = false, length = 2000)
+    private String url;
+
+    @Column(nullable = false, length = 100)
+    private String secret; // whsec_<base64>, signs every delivery
+
+    private String events; // comma separated event types; null = all
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = false)
+    private Date createdAt;
+
+    public boolean accepts(String eventType) {
+        if (events == null || events.isBlank()) {
+            return true;
+        }
+        for (String event : events.split(",")) {
+            if (event.trim().equals(eventType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
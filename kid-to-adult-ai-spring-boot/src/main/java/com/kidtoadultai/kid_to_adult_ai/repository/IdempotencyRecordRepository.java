@@ -0,0 +1,15 @@
+package com.kidtoadultai.kid_to_adult_ai.repository;
+
+import com.kidtoadultai.kid_to_adult_ai.model.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+    long deleteByExpiresAtBefore(Date cutoff);
+
+    long deleteByKeyHashAndJobId(String keyHash, String jobId);
+}
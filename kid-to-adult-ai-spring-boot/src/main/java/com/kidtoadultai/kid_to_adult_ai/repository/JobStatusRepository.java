@@ -1,7 +1,9 @@
 package com.kidtoadultai.kid_to_adult_ai.repository;
 
 import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -20,12 +22,31 @@ public interface JobStatusRepository extends JpaRepository<JobStatus, String> {
 
     List<JobStatus> findByCreatedAtBefore(Date date);
 
+    List<JobStatus> findByCreatedAtBeforeOrderByCreatedAtAscJobIdAsc(Date date, Pageable pageable);
+
+    List<JobStatus> findByParentJobIdOrderByCreatedAtAsc(String parentJobId);
+
+    // Plain values rather than managed entities, so repeated reads in one persistence context see updates
+    List<ChildOutcome> findOutcomesByParentJobIdOrderByCreatedAtAsc(String parentJobId);
+
+    List<JobStatus> findByStatusAndChildCountIsNullOrderByCompletedAtDesc(String status, Pageable pageable);
+
     long countByStatus(String status);
 
-    @Query("SELECT AVG(j.processingTime) FROM JobStatus j WHERE j.status = 'COMPLETED' AND j.processingTime > 0")
+    // The row lock taken by the UPDATE makes a concurrent caller re-check the status after this one commits
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE JobStatus j SET j.status = :newStatus WHERE j.jobId = :jobId AND j.status = :expectedStatus")
+    int updateStatusIf(@Param("jobId") String jobId,
+                       @Param("expectedStatus") String expectedStatus,
+                       @Param("newStatus") String newStatus);
+
+    @Query("SELECT AVG(j.processingTime) FROM JobStatus j WHERE j.status = 'COMPLETED' AND j.processingTime > 0 AND j.childCount IS NULL")
     Double getAverageProcessingTime();
 
-    @Query("SELECT j.profession, COUNT(j) as count FROM JobStatus j GROUP BY j.profession ORDER BY count DESC")
+    @Query("SELECT COUNT(j) FROM JobStatus j WHERE j.status = 'COMPLETED' AND j.processingTime > 0 AND j.childCount IS NULL")
+    long countTimedJobs();
+
+    @Query("SELECT j.profession, COUNT(j) as count FROM JobStatus j WHERE j.childCount IS NULL GROUP BY j.profession ORDER BY count DESC")
     List<Object[]> getProfessionStatistics();
 
     @Query("SELECT j FROM JobStatus j WHERE j.createdAt >= :startDate AND j.createdAt <= :endDate")
@@ -34,4 +55,23 @@ public interface JobStatusRepository extends JpaRepository<JobStatus, String> {
 
     @Query("SELECT j FROM JobStatus j WHERE j.imageUrl IS NOT NULL ORDER BY j.createdAt DESC")
     List<JobStatus> findSuccessfulJobs();
+
+    /**
+     * What a fan-out child produced, for packaging a batch's results
+     */
+    interface ChildOutcome {
+        String getJobId();
+
+        String getStatus();
+
+        String getProfession();
+
+        int getTargetAge();
+
+        String getOriginalFilename();
+
+        String getGeneratedFilename();
+
+        String getErrorMessage();
+    }
 }
\ No newline at end of file
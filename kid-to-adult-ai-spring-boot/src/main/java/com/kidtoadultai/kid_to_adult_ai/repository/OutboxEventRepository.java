@@ -0,0 +1,49 @@
+package com.kidtoadultai.kid_to_adult_ai.repository;
+
+import com.kidtoadultai.kid_to_adult_ai.model.OutboxEvent;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // Lock timeout -2 is SKIP LOCKED where the database supports it, so dispatchers on several nodes claim disjoint rows.
+    // An event waits while an older one of its subscription is backing off or leased, to keep each subscription in order.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT e FROM OutboxEvent e WHERE e.status = 'PENDING' AND e.nextAttemptAt <= :now"
+            + " AND NOT EXISTS (SELECT o.id FROM OutboxEvent o WHERE o.subscriptionId = e.subscriptionId"
+            + " AND o.status = 'PENDING' AND o.id < e.id AND o.nextAttemptAt > :now) ORDER BY e.id")
+    List<OutboxEvent> findDueForUpdate(@Param("now") Date now, Pageable pageable);
+
+    long countByStatus(String status);
+
+    long countBySubscriptionIdAndStatus(String subscriptionId, String status);
+
+    @Modifying
+    @Query("DELETE FROM OutboxEvent e WHERE e.id IN :ids")
+    int deleteByIds(@Param("ids") List<Long> ids);
+
+    @Modifying
+    @Query("DELETE FROM OutboxEvent e WHERE e.jobId = :jobId")
+    int deleteByJobId(@Param("jobId") String jobId);
+
+    @Modifying
+    @Query("DELETE FROM OutboxEvent e WHERE e.subscriptionId = :subscriptionId")
+    int deleteBySubscriptionId(@Param("subscriptionId") String subscriptionId);
+
+    @Modifying
+    @Query("DELETE FROM OutboxEvent e WHERE e.status = 'DEAD' AND e.createdAt < :cutoff")
+    int deleteDeadBefore(@Param("cutoff") Date cutoff);
+}
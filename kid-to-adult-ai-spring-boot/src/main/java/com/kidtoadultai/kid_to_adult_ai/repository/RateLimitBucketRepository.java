@@ -0,0 +1,21 @@
+package com.kidtoadultai.kid_to_adult_ai.repository;
+
+import com.kidtoadultai.kid_to_adult_ai.model.RateLimitBucket;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface RateLimitBucketRepository extends JpaRepository<RateLimitBucket, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM RateLimitBucket b WHERE b.bucketKey = :bucketKey")
+    Optional<RateLimitBucket> findForUpdate(@Param("bucketKey") String bucketKey);
+
+    long deleteByUpdatedAtMillisBefore(long cutoffMillis);
+}
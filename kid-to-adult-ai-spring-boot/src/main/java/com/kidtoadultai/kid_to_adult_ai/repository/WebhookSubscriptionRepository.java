@@ -0,0 +1,23 @@
+package com.kidtoadultai.kid_to_adult_ai.repository;
+
+import com.kidtoadultai.kid_to_adult_ai.model.WebhookSubscription;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface WebhookSubscriptionRepository extends JpaRepository<WebhookSubscription, String> {
+
+    List<WebhookSubscription> findByClientIdOrderByCreatedAtAsc(String clientId);
+
+    // Single-job callbacks past their retention that have nothing left to deliver
+    @Modifying
+    @Query("DELETE FROM WebhookSubscription s WHERE s.clientId IS NULL AND s.createdAt < :cutoff " +
+           "AND NOT EXISTS (SELECT 1 FROM OutboxEvent e WHERE e.subscriptionId = s.id AND e.status = 'PENDING')")
+    int deleteExpiredCallbacks(@Param("cutoff") Date cutoff);
+}
@@ -0,0 +1,372 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.repository.JobStatusRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Bulk uploads: reads an archive entry by entry, spooling each image to generation.bulk.dir so that
+ * queued children hold a file path rather than an encoded image, and packages a batch's results into a
+ * ZIP that is written to the client as the children complete.
+ */
+@Service
+public class BulkBatchService {
+
+    private static final int MAX_REPORTED_SKIPS = 100;
+
+    @Autowired
+    private JobTrackingService jobTrackingService;
+
+    @Autowired
+    private JobStatusWatcher jobStatusWatcher;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Value("${generation.bulk.dir:./bulk-uploads}")
+    private String bulkDir;
+
+    @Value("${generation.bulk.max-images:500}")
+    private int maxImages;
+
+    @Value("${generation.bulk.max-image-bytes:10485760}")
+    private long maxImageBytes;
+
+    // Upper bound on how long a spooled image outlives its upload
+    @Value("${generation.bulk.spool-retention-hours:24}")
+    private long spoolRetentionHours;
+
+    /**
+     * Read a ZIP archive as it arrives and hand each image entry to the consumer, already written to disk.
+     * Directories and files added by archivers are ignored; non-images and oversized entries are skipped.
+     * Reading stops early once max-images entries were accepted or the batch was cancelled (report.truncated).
+     */
+    public void readArchive(InputStream archive, String batchId, EntryConsumer consumer, IngestReport report)
+            throws Exception {
+        ZipInputStream zip = new ZipInputStream(archive);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory() || isHidden(entry.getName())) {
+                continue;
+            }
+            if (!readEntry(zip, entry.getName(), batchId, consumer, report)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spool one image (an archive entry or a multipart part) and hand it to the consumer.
+     * Returns false when no more entries should be read.
+     */
+    public boolean readEntry(InputStream image, String name, String batchId, EntryConsumer consumer,
+                             IngestReport report) throws Exception {
+        JobStatus batch = jobTrackingService.getJobStatus(batchId);
+        if (report.accepted >= maxImages || batch == null || !"PROCESSING".equals(batch.getStatus())) {
+            report.truncated = true;
+            return false;
+        }
+
+        byte[] header = image.readNBytes(12);
+        if (!isImage(header)) {
+            skip(report, name, "not a JPEG, PNG or WebP image");
+            return true;
+        }
+
+        int index = report.accepted + report.skippedCount;
+        Path file = Paths.get(bulkDir, batchId, index + ".img");
+        Files.createDirectories(file.getParent());
+        long bytes;
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(header);
+            bytes = header.length + image.transferTo(new LimitedOutputStream(out, maxImageBytes - header.length));
+        } catch (LimitExceededException e) {
+            Files.deleteIfExists(file);
+            skip(report, name, "larger than " + maxImageBytes + " bytes");
+            return true;
+        }
+        metrics.recordImageSize("upload", bytes);
+
+        String skipReason = consumer.accept(new BulkEntry(index, name, file));
+        if (skipReason != null) {
+            Files.deleteIfExists(file);
+            skip(report, name, skipReason);
+            return true;
+        }
+        report.accepted++;
+        metrics.recordBulkEntry("accepted");
+        return true;
+    }
+
+    /**
+     * Read a spooled image for the WebUI and delete it; called by the child's queued task
+     */
+    public String encode(Path file) throws IOException {
+        try {
+            byte[] imageBytes = metrics.stage("upload_read", () -> Files.readAllBytes(file));
+            return metrics.stage("encode", () -> Base64.getEncoder().encodeToString(imageBytes));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Remove a batch's spool directory (a rejected upload)
+     */
+    public void discard(String batchId) {
+        try {
+            FileSystemUtils.deleteRecursively(Paths.get(bulkDir, batchId));
+        } catch (IOException e) {
+            System.err.println("Failed to remove bulk upload " + batchId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the batch's generated images to out as a ZIP, each as soon as its child completes, then
+     * results.csv with the outcome of every entry. Waits up to maxWaitMillis for children still processing;
+     * they are listed as PROCESSING in results.csv when the wait runs out.
+     */
+    public void writeResults(String batchId, OutputStream out, long maxWaitMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        Map<String, String> written = new HashMap<>();
+        Set<String> names = new HashSet<>();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        // Generated PNGs are already compressed
+        zip.setLevel(Deflater.NO_COMPRESSION);
+
+        List<JobStatusRepository.ChildOutcome> children = List.of();
+        while (true) {
+            // Watch before reading so a child finishing in between still wakes the loop
+            CountDownLatch changed = new CountDownLatch(1);
+            Runnable onChange = changed::countDown;
+            jobStatusWatcher.watch(batchId, onChange);
+            try {
+                boolean receiving = jobTrackingService.isReceiving(batchId);
+                // The download runs in the request's persistence context, where re-read entities would be stale
+                children = jobTrackingService.getChildOutcomes(batchId);
+                boolean pending = receiving;
+                for (JobStatusRepository.ChildOutcome child : children) {
+                    pending |= "PROCESSING".equals(child.getStatus());
+                    if ("COMPLETED".equals(child.getStatus()) && child.getGeneratedFilename() != null
+                            && !written.containsKey(child.getJobId())) {
+                        String name = writeImage(zip, child, names);
+                        written.put(child.getJobId(), name != null ? name : "");
+                    }
+                }
+                zip.flush();
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (!pending || remaining <= 0) {
+                    break;
+                }
+                changed.await(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                jobStatusWatcher.unwatch(batchId, onChange);
+            }
+        }
+
+        zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+        zip.putNextEntry(new ZipEntry("results.csv"));
+        StringBuilder csv = new StringBuilder("entry,jobId,profession,age,status,file,error\n");
+        for (JobStatusRepository.ChildOutcome child : children) {
+            csv.append(csv(child.getOriginalFilename())).append(',')
+                    .append(child.getJobId()).append(',')
+                    .append(csv(child.getProfession())).append(',')
+                    .append(child.getTargetAge()).append(',')
+                    .append(child.getStatus()).append(',')
+                    .append(csv(written.getOrDefault(child.getJobId(), ""))).append(',')
+                    .append(csv(child.getErrorMessage() != null ? child.getErrorMessage() : ""))
+                    .append('\n');
+        }
+        zip.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     * Remove spooled images left behind by jobs that never ran: those of finished (or cancelled) batches,
+     * and any older than spool-retention-hours
+     */
+    @Scheduled(fixedRate = 3600000) // Run every hour
+    public void cleanSpool() {
+        Path dir = Paths.get(bulkDir);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(spoolRetentionHours);
+        try (Stream<Path> batches = Files.list(dir)) {
+            for (Path batch : batches.toList()) {
+                String batchId = batch.getFileName().toString();
+                if (jobTrackingService.isReceiving(batchId)) {
+                    continue;
+                }
+                JobStatus parent = jobTrackingService.getJobStatus(batchId);
+                boolean finished = parent == null || !"PROCESSING".equals(parent.getStatus());
+                if (finished || Files.getLastModifiedTime(batch).toMillis() < cutoff) {
+                    FileSystemUtils.deleteRecursively(batch);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to clean bulk uploads: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copy a generated image into the archive as {profession}_{age}_{entry file name}.png; returns its name,
+     * or null when the file is gone
+     */
+    private String writeImage(ZipOutputStream zip, JobStatusRepository.ChildOutcome child, Set<String> names) throws IOException {
+        Path image = imageStorageService.resolve(child.getGeneratedFilename());
+        if (!Files.exists(image)) {
+            return null;
+        }
+
+        String entry = child.getOriginalFilename();
+        String base = entry.substring(entry.lastIndexOf('/') + 1).replaceAll("\\.[^.]*$", "").replaceAll("[^A-Za-z0-9._-]+", "_");
+        String name = child.getProfession().toLowerCase() + "_" + child.getTargetAge() + "_" + base + ".png";
+        for (int i = 2; !names.add(name); i++) {
+            name = child.getProfession().toLowerCase() + "_" + child.getTargetAge() + "_" + base + "_" + i + ".png";
+        }
+
+        zip.putNextEntry(new ZipEntry(name));
+        Files.copy(image, zip);
+        zip.closeEntry();
+        return name;
+    }
+
+    private void skip(IngestReport report, String name, String reason) {
+        report.skippedCount++;
+        if (report.skipped.size() < MAX_REPORTED_SKIPS) {
+            report.skipped.add(Map.of("entry", name, "reason", reason));
+        }
+        metrics.recordBulkEntry("skipped");
+    }
+
+    /**
+     * Folders and files that archivers add on their own (__MACOSX/, .DS_Store, ._*)
+     */
+    private static boolean isHidden(String name) {
+        for (String segment : name.split("/")) {
+            if (segment.startsWith(".") || segment.startsWith("__MACOSX")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * JPEG, PNG or WebP, by their leading bytes
+     */
+    private static boolean isImage(byte[] header) {
+        if (header.length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return true;
+        }
+        if (header.length >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+            return true;
+        }
+        return header.length >= 12
+                && new String(header, 0, 4, StandardCharsets.US_ASCII).equals("RIFF")
+                && new String(header, 8, 4, StandardCharsets.US_ASCII).equals("WEBP");
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * An image of a bulk upload: its position, its name in the archive and the spooled file
+     */
+    public record BulkEntry(int index, String name, Path file) {
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        /**
+         * Turn the entry into a child job; returns null when it did, otherwise why the entry was skipped
+         */
+        String accept(BulkEntry entry) throws Exception;
+    }
+
+    /**
+     * What an upload amounted to; skipped holds the first entries skipped and why
+     */
+    public static class IngestReport {
+        private int accepted;
+        private int skippedCount;
+        private boolean truncated;
+        private final List<Map<String, String>> skipped = new ArrayList<>();
+
+        public int getAccepted() {
+            return accepted;
+        }
+
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public List<Map<String, String>> getSkipped() {
+            return skipped;
+        }
+    }
+
+    private static class LimitExceededException extends IOException {
+    }
+
+    private static class LimitedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long remaining;
+
+        LimitedOutputStream(OutputStream out, long limit) {
+            this.out = out;
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                throw new LimitExceededException();
+            }
+            remaining -= len;
+            out.write(b, off, len);
+        }
+    }
+}
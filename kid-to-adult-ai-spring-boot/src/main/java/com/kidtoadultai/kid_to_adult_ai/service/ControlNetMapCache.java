@@ -0,0 +1,257 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import io.micrometer.core.instrument.Gauge;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * ControlNet annotation maps (depth, openpose) keyed by a hash of the input image.
+ * Repeat generations from the same photo reuse the map instead of having the WebUI preprocess it again.
+ * Recent maps stay in memory (LRU); every map is also written to disk, oldest evicted first.
+ */
+@Service
+@Lazy
+public class ControlNetMapCache {
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Value("${controlnet.cache.dir:./controlnet-cache}")
+    private String cacheDir;
+
+    @Value("${controlnet.cache.memory.max-bytes:33554432}") // 32MB
+    private long maxMemoryBytes;
+
+    @Value("${controlnet.cache.disk.max-bytes:268435456}") // 256MB
+    private long maxDiskBytes;
+
+    // Access-ordered for LRU eviction; guarded by this
+    private final LinkedHashMap<String, CachedMap> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private final ConcurrentHashMap<String, CompletableFuture<CachedMap>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // Mean detect time this run, used as the saving for maps loaded from disk
+    private final AtomicLong detectNanosTotal = new AtomicLong();
+    private final AtomicLong detectCount = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        Path dir = Paths.get(cacheDir);
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                diskBytes.set(files.mapToLong(this::sizeOf).sum());
+            } catch (IOException e) {
+                System.err.println("Failed to scan ControlNet cache: " + e.getMessage());
+            }
+        }
+
+        Gauge.builder("controlnet.cache.size", this, ControlNetMapCache::getMemoryBytes)
+                .description("Bytes of ControlNet annotation maps held in memory")
+                .baseUnit("bytes")
+                .tag("tier", "memory")
+                .register(metrics.getRegistry());
+        Gauge.builder("controlnet.cache.size", diskBytes, AtomicLong::get)
+                .description("Bytes of ControlNet annotation maps held on disk")
+                .baseUnit("bytes")
+                .tag("tier", "disk")
+                .register(metrics.getRegistry());
+    }
+
+    /**
+     * Return the annotation map for this image and module, running detector only if no tier has it.
+     * Concurrent requests for the same image share one detector call.
+     */
+    public String getOrCompute(String base64Image, String module, Supplier<String> detector) {
+        String key = metrics.stage("controlnet_hash", () -> hash(base64Image)) + "_" + module;
+
+        CachedMap cached = getFromMemory(key);
+        if (cached != null) {
+            recordHit(module, "hit_memory", cached.detectNanos);
+            return cached.base64Map;
+        }
+
+        cached = readFromDisk(key);
+        if (cached != null) {
+            putInMemory(key, cached);
+            recordHit(module, "hit_disk", cached.detectNanos);
+            return cached.base64Map;
+        }
+
+        CompletableFuture<CachedMap> computation = new CompletableFuture<>();
+        CompletableFuture<CachedMap> existing = inFlight.putIfAbsent(key, computation);
+        if (existing != null) {
+            try {
+                cached = existing.join();
+            } catch (CompletionException e) {
+                throw (RuntimeException) e.getCause();
+            }
+            recordHit(module, "shared", cached.detectNanos);
+            return cached.base64Map;
+        }
+
+        try {
+            metrics.recordControlNetLookup(module, "miss");
+            long start = System.nanoTime();
+            String base64Map = detector.get();
+            cached = new CachedMap(base64Map, System.nanoTime() - start);
+            detectNanosTotal.addAndGet(cached.detectNanos);
+            detectCount.incrementAndGet();
+
+            putInMemory(key, cached);
+            writeToDisk(key, base64Map);
+            computation.complete(cached);
+            return base64Map;
+
+        } catch (RuntimeException e) {
+            computation.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    private void recordHit(String module, String result, long detectNanos) {
+        metrics.recordControlNetLookup(module, result);
+        if (detectNanos > 0) {
+            metrics.recordControlNetSaved(module, detectNanos);
+        }
+    }
+
+    private synchronized CachedMap getFromMemory(String key) {
+        return memory.get(key);
+    }
+
+    private synchronized void putInMemory(String key, CachedMap cached) {
+        CachedMap previous = memory.put(key, cached);
+        if (previous != null) {
+            memoryBytes -= previous.size();
+        }
+        memoryBytes += cached.size();
+
+        Iterator<CachedMap> eldest = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    private CachedMap readFromDisk(String key) {
+        Path file = Paths.get(cacheDir, key + ".png");
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            // Touch so disk eviction treats it as recently used
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            long count = detectCount.get();
+            return new CachedMap(Base64.getEncoder().encodeToString(bytes), count == 0 ? 0 : detectNanosTotal.get() / count);
+        } catch (IOException e) {
+            // Not cached on disk (or evicted concurrently)
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, String base64Map) {
+        try {
+            Path file = Paths.get(cacheDir, key + ".png");
+            Files.createDirectories(file.getParent());
+            byte[] bytes = Base64.getDecoder().decode(base64Map);
+            Files.write(file, bytes);
+            if (diskBytes.addAndGet(bytes.length) > maxDiskBytes) {
+                evictFromDisk();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to write ControlNet cache entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete least recently used files until the disk tier is back under its limit
+     */
+    private void evictFromDisk() {
+        if (!evictionLock.tryLock()) {
+            return; // Another thread is already evicting
+        }
+        try (Stream<Path> files = Files.list(Paths.get(cacheDir))) {
+            List<Path> oldestFirst = new ArrayList<>(files.toList());
+            oldestFirst.sort(Comparator.comparingLong(this::lastModified));
+            for (Path file : oldestFirst) {
+                if (diskBytes.get() <= maxDiskBytes) {
+                    break;
+                }
+                long size = sizeOf(file);
+                if (Files.deleteIfExists(file)) {
+                    diskBytes.addAndGet(-size);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to evict ControlNet cache entries: " + e.getMessage());
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String hash(String base64Image) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(base64Image.getBytes(StandardCharsets.ISO_8859_1));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static class CachedMap {
+        private final String base64Map;
+        private final long detectNanos;
+
+        CachedMap(String base64Map, long detectNanos) {
+            this.base64Map = base64Map;
+            this.detectNanos = detectNanos;
+        }
+
+        long size() {
+            return base64Map.length();
+        }
+    }
+}
@@ -0,0 +1,745 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.repository.JobStatusRepository;
+import io.micrometer.core.instrument.Gauge;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Jobs in an append-only log on the local disk (job.store=embedded), for single-node installs without a
+ * database server. Every save appends the whole job as one record to a memory-mapped file; an in-memory index
+ * points each jobId at its latest record, and secondary indexes by status, profession, parent and creation time
+ * answer the listing queries without scanning the log.
+ * On startup the log is replayed to rebuild the indexes, stopping at the first record whose checksum does not
+ * match (a write cut short by a crash). Superseded and deleted records are reclaimed by compaction, which copies
+ * the live records to a new file and renames it over the log.
+ */
+@Component
+@ConditionalOnProperty(name = "job.store", havingValue = "embedded")
+public class EmbeddedJobStore implements JobStore {
+
+    private static final String LOG_FILE = "jobs.log";
+    private static final int MAGIC = 0x4B4A5331; // "KJS1"
+    private static final int FILE_HEADER_BYTES = 8;
+    // Each record: payload length, CRC32 of op and payload, op, payload
+    private static final int RECORD_HEADER_BYTES = 9;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final long MAX_LOG_BYTES = Integer.MAX_VALUE - 8;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Value("${job.store.dir:./job-store}")
+    private String storeDir;
+
+    @Value("${job.store.initial-bytes:16777216}") // 16MB, doubled when full
+    private long initialBytes;
+
+    // Compact once this share of the log is superseded or deleted records...
+    @Value("${job.store.compaction.garbage-ratio:0.5}")
+    private double compactionGarbageRatio;
+
+    // ...and the log is at least this large
+    @Value("${job.store.compaction.min-bytes:8388608}") // 8MB
+    private long compactionMinBytes;
+
+    // Appends, remapping and compaction take the write lock; lookups the read lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Path logFile;
+    private FileChannel channel;
+    private MappedByteBuffer log;
+    private int writePosition;
+    private long liveBytes;
+    private volatile boolean dirty;
+
+    // Guarded by lock
+    private final Map<String, IndexEntry> index = new HashMap<>();
+    private final NavigableSet<TimeKey> byCreatedAt = new TreeSet<>();
+    private final Map<String, NavigableSet<TimeKey>> byStatus = new HashMap<>();
+    private final Map<String, NavigableSet<TimeKey>> byProfession = new HashMap<>();
+    private final Map<String, NavigableSet<TimeKey>> byParent = new HashMap<>();
+
+    @PostConstruct
+    public void open() throws IOException {
+        Path dir = Paths.get(storeDir);
+        Files.createDirectories(dir);
+        logFile = dir.resolve(LOG_FILE);
+        // Left by a compaction that did not finish; the log it was copying from is still whole
+        Files.deleteIfExists(compactFile());
+
+        long start = System.nanoTime();
+        map(Math.max(initialBytes, Files.exists(logFile) ? Files.size(logFile) : 0));
+        int records = recover();
+        System.out.println("Job store: loaded " + index.size() + " jobs from " + records + " records ("
+                + writePosition + " bytes) in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        Gauge.builder("job.store.size", this, store -> store.writePosition)
+                .description("Bytes of the embedded job store log in use")
+                .baseUnit("bytes")
+                .tag("kind", "log")
+                .register(metrics.getRegistry());
+        Gauge.builder("job.store.size", this, store -> store.liveBytes)
+                .description("Bytes of the embedded job store log holding current job records")
+                .baseUnit("bytes")
+                .tag("kind", "live")
+                .register(metrics.getRegistry());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            log.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write appended records through to disk. Until then they survive a crash of the application but not of
+     * the machine.
+     */
+    @Scheduled(fixedDelayString = "${job.store.flush-ms:1000}")
+    public void flush() {
+        if (!dirty) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            dirty = false;
+            log.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${job.store.compaction.check-ms:60000}")
+    public void compactIfWorthIt() {
+        lock.writeLock().lock();
+        try {
+            if (worthCompacting()) {
+                compact();
+            }
+        } catch (IOException e) {
+            System.err.println("Job store compaction failed: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public JobStatus save(JobStatus jobStatus) {
+        lock.writeLock().lock();
+        try {
+            // What @PrePersist and @PreUpdate do for the JPA store
+            if (jobStatus.getJobId() == null || !index.containsKey(jobStatus.getJobId())) {
+                if (jobStatus.getJobId() == null) {
+                    jobStatus.setJobId(UUID.randomUUID().toString());
+                }
+                jobStatus.setCreatedAt(new Date());
+                jobStatus.setVersion(0L);
+            } else {
+                jobStatus.setVersion(jobStatus.getVersion() == null ? 1 : jobStatus.getVersion() + 1);
+            }
+
+            byte[] payload = encode(jobStatus);
+            int offset = append(PUT, payload);
+            indexPut(jobStatus, offset, RECORD_HEADER_BYTES + payload.length);
+            return jobStatus;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to save job " + jobStatus.getJobId(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<JobStatus> findById(String jobId) {
+        byte[] payload;
+        lock.readLock().lock();
+        try {
+            IndexEntry entry = index.get(jobId);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            payload = payloadOf(entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return Optional.of(decode(payload));
+    }
+
+    @Override
+    public boolean compareAndSetStatus(String jobId, String expectedStatus, String newStatus) {
+        lock.writeLock().lock();
+        try {
+            IndexEntry entry = index.get(jobId);
+            if (entry == null) {
+                return false;
+            }
+            JobStatus jobStatus = decode(payloadOf(entry));
+            if (!expectedStatus.equals(jobStatus.getStatus())) {
+                return false;
+            }
+            jobStatus.setStatus(newStatus);
+            save(jobStatus);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteById(String jobId) {
+        deleteAllById(List.of(jobId));
+    }
+
+    @Override
+    public void deleteAllById(Iterable<String> jobIds) {
+        lock.writeLock().lock();
+        try {
+            for (String jobId : jobIds) {
+                if (index.containsKey(jobId)) {
+                    append(DELETE, jobId.getBytes(StandardCharsets.UTF_8));
+                    indexRemove(jobId);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to delete jobs", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long count() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long countByStatus(String status) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<TimeKey> keys = byStatus.get(status);
+            return keys != null ? keys.size() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<JobStatus> findAllByOrderByCreatedAtDesc() {
+        return load(byCreatedAt::descendingSet, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<JobStatus> findByStatusOrderByCreatedAtDesc(String status) {
+        return load(() -> keys(byStatus, status).descendingSet(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<JobStatus> findByProfessionOrderByCreatedAtDesc(String profession) {
+        return load(() -> keys(byProfession, profession).descendingSet(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<JobStatus> findByCreatedAtBefore(Date date) {
+        return findByCreatedAtBeforeOrderByCreatedAtAscJobIdAsc(date, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<JobStatus> findByCreatedAtBeforeOrderByCreatedAtAscJobIdAsc(Date date, int limit) {
+        // "" sorts before every jobId, so jobs created at exactly date are excluded
+        return load(() -> byCreatedAt.headSet(new TimeKey(date.getTime(), ""), false), limit);
+    }
+
+    @Override
+    public List<JobStatus> findByParentJobIdOrderByCreatedAtAsc(String parentJobId) {
+        return load(() -> keys(byParent, parentJobId), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<JobStatusRepository.ChildOutcome> findOutcomesByParentJobIdOrderByCreatedAtAsc(String parentJobId) {
+        List<JobStatusRepository.ChildOutcome> outcomes = new ArrayList<>();
+        for (JobStatus child : findByParentJobIdOrderByCreatedAtAsc(parentJobId)) {
+            outcomes.add(new JobStatusRepository.ChildOutcome() {
+                public String getJobId() {
+                    return child.getJobId();
+                }
+
+                public String getStatus() {
+                    return child.getStatus();
+                }
+
+                public String getProfession() {
+                    return child.getProfession();
+                }
+
+                public int getTargetAge() {
+                    return child.getTargetAge();
+                }
+
+                public String getOriginalFilename() {
+                    return child.getOriginalFilename();
+                }
+
+                public String getGeneratedFilename() {
+                    return child.getGeneratedFilename();
+                }
+
+                public String getErrorMessage() {
+                    return child.getErrorMessage();
+                }
+            });
+        }
+        return outcomes;
+    }
+
+    @Override
+    public List<JobStatus> findByStatusAndChildCountIsNullOrderByCompletedAtDesc(String status, int limit) {
+        List<byte[]> payloads = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            List<IndexEntry> entries = new ArrayList<>();
+            for (TimeKey key : keys(byStatus, status)) {
+                IndexEntry entry = index.get(key.jobId());
+                if (!entry.parent()) {
+                    entries.add(entry);
+                }
+            }
+            entries.sort(Comparator.comparingLong(IndexEntry::completedAt).reversed());
+            for (IndexEntry entry : entries.subList(0, Math.min(limit, entries.size()))) {
+                payloads.add(payloadOf(entry));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return decodeAll(payloads);
+    }
+
+    @Override
+    public Double getAverageProcessingTime() {
+        long[] sumAndCount = timedJobs();
+        return sumAndCount[1] > 0 ? (double) sumAndCount[0] / sumAndCount[1] : null;
+    }
+
+    @Override
+    public long countTimedJobs() {
+        return timedJobs()[1];
+    }
+
+    @Override
+    public List<Object[]> getProfessionStatistics() {
+        List<Object[]> rows = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, NavigableSet<TimeKey>> profession : byProfession.entrySet()) {
+                long count = profession.getValue().stream().filter(key -> !index.get(key.jobId()).parent()).count();
+                if (count > 0) {
+                    rows.add(new Object[]{profession.getKey(), count});
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        rows.sort(Comparator.comparingLong((Object[] row) -> (Long) row[1]).reversed());
+        return rows;
+    }
+
+    /**
+     * Sum and count of processingTime over completed non-parent jobs that have one
+     */
+    private long[] timedJobs() {
+        long sum = 0;
+        long count = 0;
+        lock.readLock().lock();
+        try {
+            for (TimeKey key : keys(byStatus, "COMPLETED")) {
+                IndexEntry entry = index.get(key.jobId());
+                if (!entry.parent() && entry.processingTime() > 0) {
+                    sum += entry.processingTime();
+                    count++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new long[]{sum, count};
+    }
+
+    /**
+     * Copy out the records of the first limit keys under the read lock, then decode them outside it
+     */
+    private List<JobStatus> load(Supplier<NavigableSet<TimeKey>> keys, int limit) {
+        List<byte[]> payloads = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (TimeKey key : keys.get()) {
+                if (payloads.size() >= limit) {
+                    break;
+                }
+                payloads.add(payloadOf(index.get(key.jobId())));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return decodeAll(payloads);
+    }
+
+    private static NavigableSet<TimeKey> keys(Map<String, NavigableSet<TimeKey>> secondary, String value) {
+        NavigableSet<TimeKey> keys = secondary.get(value);
+        return keys != null ? keys : new TreeSet<>();
+    }
+
+    private byte[] payloadOf(IndexEntry entry) {
+        byte[] payload = new byte[entry.size() - RECORD_HEADER_BYTES];
+        log.get(entry.offset() + RECORD_HEADER_BYTES, payload);
+        return payload;
+    }
+
+    private List<JobStatus> decodeAll(List<byte[]> payloads) {
+        List<JobStatus> jobs = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            jobs.add(decode(payload));
+        }
+        return jobs;
+    }
+
+    /**
+     * Replay the log into the indexes. Returns the number of records read.
+     */
+    private int recover() {
+        if (log.getInt(0) == 0) {
+            log.putInt(0, MAGIC);
+        } else if (log.getInt(0) != MAGIC) {
+            throw new IllegalStateException(logFile + " is not a job store log");
+        }
+
+        int position = FILE_HEADER_BYTES;
+        int records = 0;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_BYTES <= log.capacity()) {
+            int length = log.getInt(position);
+            if (length <= 0 || length > log.capacity() - position - RECORD_HEADER_BYTES) {
+                break;
+            }
+            byte op = log.get(position + 8);
+            byte[] payload = new byte[length];
+            log.get(position + RECORD_HEADER_BYTES, payload);
+            crc.reset();
+            crc.update(op);
+            crc.update(payload);
+            if ((int) crc.getValue() != log.getInt(position + 4)) {
+                break;
+            }
+
+            if (op == PUT) {
+                indexPut(decode(payload), position, RECORD_HEADER_BYTES + length);
+            } else if (op == DELETE) {
+                indexRemove(new String(payload, StandardCharsets.UTF_8));
+            }
+            position += RECORD_HEADER_BYTES + length;
+            records++;
+        }
+        writePosition = position;
+
+        // Anything after the last good record is a torn write; clear it so it cannot run into the records
+        // appended from here on
+        int tornEnd = position;
+        for (int i = position; i < log.capacity(); i++) {
+            if (log.get(i) != 0) {
+                tornEnd = i + 1;
+            }
+        }
+        if (tornEnd > position) {
+            for (int i = position; i < tornEnd; i++) {
+                log.put(i, (byte) 0);
+            }
+            log.force();
+            System.err.println("Job store: discarded " + (tornEnd - position)
+                    + " bytes of incomplete records at offset " + position);
+        }
+        return records;
+    }
+
+    private int append(byte op, byte[] payload) throws IOException {
+        int size = RECORD_HEADER_BYTES + payload.length;
+        // Keep room for the zero length that ends the log
+        ensureCapacity(size + 4);
+
+        int offset = writePosition;
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(payload);
+        log.put(offset + RECORD_HEADER_BYTES, payload);
+        log.put(offset + 8, op);
+        log.putInt(offset + 4, (int) crc.getValue());
+        // Length last: until it is written, recovery sees the end of the log here
+        log.putInt(offset, payload.length);
+        writePosition += size;
+        dirty = true;
+        return offset;
+    }
+
+    private void ensureCapacity(int needed) throws IOException {
+        if ((long) writePosition + needed <= log.capacity()) {
+            return;
+        }
+        if (worthCompacting()) {
+            compact();
+            if ((long) writePosition + needed <= log.capacity()) {
+                return;
+            }
+        }
+
+        long capacity = log.capacity();
+        while (capacity < (long) writePosition + needed) {
+            capacity *= 2;
+        }
+        capacity = Math.min(capacity, MAX_LOG_BYTES);
+        if (capacity < (long) writePosition + needed) {
+            throw new IllegalStateException("Job store log is full: " + logFile);
+        }
+        map(capacity);
+    }
+
+    private boolean worthCompacting() {
+        long used = writePosition - FILE_HEADER_BYTES;
+        return writePosition >= compactionMinBytes && used - liveBytes >= compactionGarbageRatio * used;
+    }
+
+    /**
+     * Copy the live records, oldest first, to a new file and rename it over the log. Caller holds the write lock.
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        int before = writePosition;
+        long capacity = Math.max(initialBytes, Math.min(MAX_LOG_BYTES, FILE_HEADER_BYTES + liveBytes * 2));
+
+        Map<String, Integer> offsets = new HashMap<>();
+        int position = FILE_HEADER_BYTES;
+        try (FileChannel out = FileChannel.open(compactFile(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer compacted = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            compacted.putInt(0, MAGIC);
+            for (TimeKey key : byCreatedAt) {
+                IndexEntry entry = index.get(key.jobId());
+                compacted.put(position, log, entry.offset(), entry.size());
+                offsets.put(key.jobId(), position);
+                position += entry.size();
+            }
+            compacted.force();
+        }
+
+        Files.move(compactFile(), logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map(capacity);
+        writePosition = position;
+        offsets.forEach((jobId, offset) -> index.computeIfPresent(jobId, (id, entry) -> entry.movedTo(offset)));
+
+        System.out.println("Job store: compacted " + before + " to " + writePosition + " bytes in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private void map(long capacity) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private Path compactFile() {
+        return logFile.resolveSibling(LOG_FILE + ".compact");
+    }
+
+    private void indexPut(JobStatus job, int offset, int size) {
+        indexRemove(job.getJobId());
+
+        TimeKey key = new TimeKey(job.getCreatedAt().getTime(), job.getJobId());
+        long completedAt = job.getCompletedAt() != null ? job.getCompletedAt().getTime() : NO_DATE;
+        index.put(job.getJobId(), new IndexEntry(offset, size, key, job.getStatus(), job.getProfession(),
+                job.getParentJobId(), job.getChildCount() != null, completedAt, job.getProcessingTime()));
+        byCreatedAt.add(key);
+        byStatus.computeIfAbsent(job.getStatus(), s -> new TreeSet<>()).add(key);
+        byProfession.computeIfAbsent(job.getProfession(), p -> new TreeSet<>()).add(key);
+        if (job.getParentJobId() != null) {
+            byParent.computeIfAbsent(job.getParentJobId(), p -> new TreeSet<>()).add(key);
+        }
+        liveBytes += size;
+    }
+
+    private void indexRemove(String jobId) {
+        IndexEntry entry = index.remove(jobId);
+        if (entry == null) {
+            return;
+        }
+        byCreatedAt.remove(entry.key());
+        removeKey(byStatus, entry.status(), entry.key());
+        removeKey(byProfession, entry.profession(), entry.key());
+        if (entry.parentJobId() != null) {
+            removeKey(byParent, entry.parentJobId(), entry.key());
+        }
+        liveBytes -= entry.size();
+    }
+
+    private static void removeKey(Map<String, NavigableSet<TimeKey>> secondary, String value, TimeKey key) {
+        NavigableSet<TimeKey> keys = secondary.get(value);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            secondary.remove(value);
+        }
+    }
+
+    private static byte[] encode(JobStatus job) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, job.getJobId());
+        writeString(out, job.getStatus());
+        writeString(out, job.getImageUrl());
+        writeString(out, job.getBase64Image());
+        writeString(out, job.getErrorMessage());
+        writeString(out, job.getProfession());
+        out.writeInt(job.getTargetAge());
+        writeString(out, job.getOriginalFilename());
+        writeString(out, job.getGeneratedFilename());
+        writeDate(out, job.getCreatedAt());
+        writeDate(out, job.getStartedAt());
+        writeDate(out, job.getCompletedAt());
+        out.writeInt(job.getProcessingTime());
+        writeString(out, job.getParentJobId());
+        out.writeInt(job.getChildCount() != null ? job.getChildCount() : -1);
+        out.writeLong(job.getVersion() != null ? job.getVersion() : -1);
+        Map<String, String> metadata = job.getMetadata() != null ? job.getMetadata() : Map.of();
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static JobStatus decode(byte[] payload) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            JobStatus job = new JobStatus();
+            job.setJobId(readString(in));
+            job.setStatus(readString(in));
+            job.setImageUrl(readString(in));
+            job.setBase64Image(readString(in));
+            job.setErrorMessage(readString(in));
+            job.setProfession(readString(in));
+            job.setTargetAge(in.readInt());
+            job.setOriginalFilename(readString(in));
+            job.setGeneratedFilename(readString(in));
+            job.setCreatedAt(readDate(in));
+            job.setStartedAt(readDate(in));
+            job.setCompletedAt(readDate(in));
+            job.setProcessingTime(in.readInt());
+            job.setParentJobId(readString(in));
+            int childCount = in.readInt();
+            job.setChildCount(childCount >= 0 ? childCount : null);
+            long version = in.readLong();
+            job.setVersion(version >= 0 ? version : null);
+            int metadataSize = in.readInt();
+            Map<String, String> metadata = new HashMap<>();
+            for (int i = 0; i < metadataSize; i++) {
+                metadata.put(readString(in), readString(in));
+            }
+            job.setMetadata(metadata);
+            return job;
+        } catch (IOException e) {
+            throw new RuntimeException("Corrupt job store record", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDate(DataOutputStream out, Date value) throws IOException {
+        out.writeLong(value != null ? value.getTime() : NO_DATE);
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        long value = in.readLong();
+        return value != NO_DATE ? new Date(value) : null;
+    }
+
+    /**
+     * Position of a job in the secondary indexes: creation time, then jobId
+     */
+    private record TimeKey(long createdAt, String jobId) implements Comparable<TimeKey> {
+        @Override
+        public int compareTo(TimeKey other) {
+            int byTime = Long.compare(createdAt, other.createdAt);
+            return byTime != 0 ? byTime : jobId.compareTo(other.jobId);
+        }
+    }
+
+    /**
+     * Where a job's latest record is, plus the fields the queries filter and aggregate on
+     */
+    private record IndexEntry(int offset, int size, TimeKey key, String status, String profession,
+                              String parentJobId, boolean parent, long completedAt, int processingTime) {
+        IndexEntry movedTo(int newOffset) {
+            return new IndexEntry(newOffset, size, key, status, profession, parentJobId, parent, completedAt,
+                    processingTime);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicts when running and queued jobs will finish.
+ * Service times (worker start to stored image) are learned per mode (img2img, controlnet), backend
+ * (local, remote) and profession from completed jobs, falling back to mode+backend, then backend, while
+ * a key has few samples. A queued job waits for the remaining time of the running jobs plus the expected
+ * service time of every job the fair queue will start before it, spread over the WebUI's concurrency limit.
+ */
+@Service
+public class EtaEstimator {
+
+    @Autowired
+    private GenerationQueue generationQueue;
+
+    @Autowired
+    private JobStore jobStore;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    // Samples a key needs before it is trusted over its coarser fallback
+    @Value("${eta.min-samples:5}")
+    private int minSamples;
+
+    @Value("${eta.window:200}")
+    private int windowSize;
+
+    // Recently completed jobs loaded at startup, so estimates do not start from the defaults
+    @Value("${eta.seed-jobs:500}")
+    private int seedJobs;
+
+    @Value("${eta.poll.min-seconds:1}")
+    private int minPollSeconds;
+
+    @Value("${eta.poll.max-seconds:30}")
+    private int maxPollSeconds;
+
+    @Value("${generation.routing.local.estimate-seconds:20}")
+    private double localDefaultSeconds;
+
+    @Value("${generation.routing.remote.estimate-seconds:15}")
+    private double remoteDefaultSeconds;
+
+    private final ConcurrentHashMap<String, LatencyWindow> serviceTimes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TrackedJob> trackedJobs = new ConcurrentHashMap<>();
+
+    /**
+     * Start tracking a job that is about to be queued (local) or submitted (remote)
+     */
+    public void track(String jobId, String mode, String backend, String profession) {
+        TrackedJob job = new TrackedJob(mode, backend, profession.toLowerCase());
+        if ("remote".equals(backend)) {
+            job.serviceStartedAt = System.currentTimeMillis();
+        }
+        trackedJobs.put(jobId, job);
+    }
+
+    /**
+     * The router moved the job to another engine (spillover or fallback)
+     */
+    public void setBackend(String jobId, String backend) {
+        TrackedJob job = trackedJobs.get(jobId);
+        if (job != null) {
+            job.backend = backend;
+            job.serviceStartedAt = "remote".equals(backend) ? System.currentTimeMillis() : 0;
+        }
+    }
+
+    /**
+     * A worker took the job off the local queue
+     */
+    public void recordStarted(String jobId) {
+        TrackedJob job = trackedJobs.get(jobId);
+        if (job != null) {
+            job.serviceStartedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Stop tracking a finished job. A completed job's service time becomes a sample; the returned
+     * entries are meant for the job's metadata, so the sample survives restarts. Null when nothing was learned.
+     */
+    public Map<String, String> finished(String jobId, boolean completed) {
+        TrackedJob job = trackedJobs.remove(jobId);
+        if (job == null || !completed || job.serviceStartedAt == 0) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        double serviceSeconds = (now - job.serviceStartedAt) / 1000.0;
+        addSample(job.mode, job.backend, job.profession, serviceSeconds);
+        if (job.predictedCompletionAt > 0) {
+            metrics.recordEtaError(job.mode, job.backend, (now - job.predictedCompletionAt) / 1000.0);
+        }
+
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("eta.mode", job.mode);
+        metadata.put("eta.backend", job.backend);
+        metadata.put("eta.serviceSeconds", String.format(Locale.ROOT, "%.2f", serviceSeconds));
+        return metadata;
+    }
+
+    /**
+     * Current prediction for a tracked job, or null (finished, or started before this instance)
+     */
+    public Estimate estimate(String jobId) {
+        TrackedJob job = trackedJobs.get(jobId);
+        if (job == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        Integer queuePosition = null;
+        double waitSeconds = 0;
+        double remainingSeconds;
+        if (job.serviceStartedAt > 0) {
+            remainingSeconds = remainingService(job, (now - job.serviceStartedAt) / 1000.0);
+        } else {
+            List<String> ahead = generationQueue.getJobsAhead(jobId);
+            if (ahead != null) {
+                queuePosition = ahead.size();
+                waitSeconds = predictWait(ahead);
+            }
+            remainingSeconds = serviceTime(job).percentile(0.5, defaultSeconds(job.backend));
+        }
+
+        double totalSeconds = waitSeconds + remainingSeconds;
+        long completionAt = now + (long) (totalSeconds * 1000);
+        if (job.predictedCompletionAt == 0) {
+            job.predictedCompletionAt = completionAt;
+        }
+        return new Estimate(queuePosition, waitSeconds, totalSeconds, new Date(completionAt), pollAfter(totalSeconds));
+    }
+
+    /**
+     * Share (0-99) of the job's expected service time that has passed, or null while it is queued or untracked
+     */
+    public Integer serviceProgress(String jobId) {
+        TrackedJob job = trackedJobs.get(jobId);
+        if (job == null || job.serviceStartedAt == 0) {
+            return null;
+        }
+        double elapsedSeconds = (System.currentTimeMillis() - job.serviceStartedAt) / 1000.0;
+        double totalSeconds = elapsedSeconds + remainingService(job, elapsedSeconds);
+        return totalSeconds > 0 ? (int) Math.min(99, elapsedSeconds * 100 / totalSeconds) : 0;
+    }
+
+    /**
+     * Combined prediction for the children of a fan-out job: done when the last child is,
+     * worth polling again when the next one may be
+     */
+    public Estimate estimate(Collection<String> jobIds) {
+        Estimate combined = null;
+        double nextSeconds = Double.MAX_VALUE;
+        for (String jobId : jobIds) {
+            Estimate estimate = estimate(jobId);
+            if (estimate == null) {
+                continue;
+            }
+            nextSeconds = Math.min(nextSeconds, estimate.remainingSeconds());
+            if (combined == null || estimate.remainingSeconds() > combined.remainingSeconds()) {
+                combined = estimate;
+            }
+        }
+        if (combined == null) {
+            return null;
+        }
+        return new Estimate(combined.queuePosition(), combined.waitSeconds(), combined.remainingSeconds(),
+                combined.completionAt(), pollAfter(nextSeconds));
+    }
+
+    /**
+     * Learned service times, for the /routing endpoint
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        serviceTimes.forEach((key, window) -> {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("samples", window.count());
+            entry.put("p50Seconds", window.percentile(0.5, 0));
+            entry.put("p90Seconds", window.percentile(0.9, 0));
+            snapshot.put(key, entry);
+        });
+        return snapshot;
+    }
+
+    /**
+     * Load service times of recently completed jobs. Jobs finished before service times were recorded
+     * only have processingTime, which includes their queue wait; they count towards the backend-wide estimate.
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void seedFromCompletedJobs() {
+        try {
+            List<JobStatus> jobs = new ArrayList<>(
+                    jobStore.findByStatusAndChildCountIsNullOrderByCompletedAtDesc("COMPLETED", seedJobs));
+            // Oldest first, so the newest samples are the ones left in each window
+            Collections.reverse(jobs);
+            int seeded = 0;
+            for (JobStatus job : jobs) {
+                Map<String, String> metadata = job.getMetadata();
+                String backend = metadata.getOrDefault("eta.backend", metadata.getOrDefault("routing.engine", "local"));
+                String serviceSeconds = metadata.get("eta.serviceSeconds");
+                if (serviceSeconds != null) {
+                    addSample(metadata.get("eta.mode"), backend, job.getProfession().toLowerCase(), Double.parseDouble(serviceSeconds));
+                    seeded++;
+                } else if (job.getProcessingTime() > 0) {
+                    window(backend).add(job.getProcessingTime());
+                    seeded++;
+                }
+            }
+            System.out.println("ETA estimates seeded from " + seeded + " completed jobs");
+        } catch (Exception e) {
+            System.err.println("Failed to seed ETA estimates: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forget jobs whose outcome was never reported
+     */
+    @Scheduled(fixedRate = 3600000) // Run every hour
+    public void cleanStaleJobs() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        trackedJobs.values().removeIf(job -> job.trackedAt < cutoff);
+    }
+
+    private void addSample(String mode, String backend, String profession, double seconds) {
+        window(mode + "|" + backend + "|" + profession).add(seconds);
+        window(mode + "|" + backend).add(seconds);
+        window(backend).add(seconds);
+    }
+
+    private LatencyWindow window(String key) {
+        return serviceTimes.computeIfAbsent(key, k -> new LatencyWindow(windowSize));
+    }
+
+    /**
+     * The most specific distribution with enough samples
+     */
+    private LatencyWindow serviceTime(TrackedJob job) {
+        for (String key : List.of(job.mode + "|" + job.backend + "|" + job.profession, job.mode + "|" + job.backend)) {
+            LatencyWindow window = serviceTimes.get(key);
+            if (window != null && window.count() >= minSamples) {
+                return window;
+            }
+        }
+        return window(job.backend);
+    }
+
+    private double defaultSeconds(String backend) {
+        return "remote".equals(backend) ? remoteDefaultSeconds : localDefaultSeconds;
+    }
+
+    /**
+     * Median minus the time already spent; a job past its median is expected to take until the p90,
+     * and one past that a quarter of the median more
+     */
+    private double remainingService(TrackedJob job, double elapsedSeconds) {
+        LatencyWindow window = serviceTime(job);
+        double median = window.percentile(0.5, defaultSeconds(job.backend));
+        if (elapsedSeconds < median) {
+            return median - elapsedSeconds;
+        }
+        double p90 = window.percentile(0.9, median);
+        return Math.max(p90 - elapsedSeconds, median / 4);
+    }
+
+    private double predictWait(List<String> ahead) {
+        double work = 0;
+        for (String runningJobId : generationQueue.getRunningJobIds()) {
+            TrackedJob running = trackedJobs.get(runningJobId);
+            if (running != null && running.serviceStartedAt > 0) {
+                work += remainingService(running, (System.currentTimeMillis() - running.serviceStartedAt) / 1000.0);
+            } else {
+                work += localDefaultSeconds / 2;
+            }
+        }
+        for (String queuedJobId : ahead) {
+            TrackedJob queued = trackedJobs.get(queuedJobId);
+            work += queued != null
+                    ? serviceTime(queued).mean(localDefaultSeconds)
+                    : window("local").mean(localDefaultSeconds);
+        }
+        return work / Math.max(1, generationQueue.getConcurrency());
+    }
+
+    /**
+     * Check back a little before the predicted completion, within the configured bounds
+     */
+    private int pollAfter(double remainingSeconds) {
+        int seconds = (int) Math.ceil(remainingSeconds * 0.8);
+        return Math.max(minPollSeconds, Math.min(maxPollSeconds, seconds));
+    }
+
+    /**
+     * Prediction for one job (or a fan-out job's last child). queuePosition is null unless the job is
+     * queued locally; remainingSeconds includes the wait.
+     */
+    public record Estimate(Integer queuePosition, double waitSeconds, double remainingSeconds,
+                           Date completionAt, int pollAfterSeconds) {
+    }
+
+    private static class TrackedJob {
+        private final String mode;
+        private final String profession;
+        private final long trackedAt = System.currentTimeMillis();
+        private volatile String backend;
+        private volatile long serviceStartedAt;
+        private volatile long predictedCompletionAt;
+
+        TrackedJob(String mode, String backend, String profession) {
+            this.mode = mode;
+            this.backend = backend;
+            this.profession = profession;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters for each stage of the generation pipeline.
+ * Exposed in Prometheus format on /actuator/prometheus.
+ * Pipeline stages, queue waits and generation runs are Observations: each one records its timer and a span
+ * of the request's trace.
+ */
+@Component
+public class GenerationMetrics {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObservationRegistry observationRegistry;
+
+    private volatile Counter cacheHits;
+    private volatile Counter cacheMisses;
+
+    public Timer.Sample start() {
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * Run a local pipeline stage (upload_read, encode, decode, file_write, db_update, ...) as a generation.stage
+     * timer and span
+     */
+    public <T, E extends Throwable> T stage(String stage, Observation.CheckedCallable<T, E> work) throws E {
+        return Observation.createNotStarted("generation.stage", observationRegistry)
+                .contextualName(stage)
+                .lowCardinalityKeyValue("stage", stage)
+                .observeChecked(work);
+    }
+
+    /**
+     * Start timing a job's wait for a WebUI slot (generation.queue.wait); stopped when a worker takes it
+     */
+    public Observation startQueueWait(String tier, String jobId) {
+        return Observation.createNotStarted("generation.queue.wait", observationRegistry)
+                .contextualName("queue_wait")
+                .lowCardinalityKeyValue("tier", tier)
+                .highCardinalityKeyValue("job.id", jobId)
+                .start();
+    }
+
+    /**
+     * A job's turn on a queue worker (generation.execution), from leaving the queue to the generated image
+     */
+    public Observation execution(String tier, String jobId) {
+        return Observation.createNotStarted("generation.execution", observationRegistry)
+                .contextualName("generation")
+                .lowCardinalityKeyValue("tier", tier)
+                .highCardinalityKeyValue("job.id", jobId);
+    }
+
+    /**
+     * Record a WebUI HTTP call
+     */
+    public void recordWebUiCall(Timer.Sample sample, String endpoint, String mode, String backend, String outcome) {
+        sample.stop(Timer.builder("webui.request")
+                .description("Stable Diffusion WebUI HTTP call latency")
+                .tag("endpoint", endpoint)
+                .tag("mode", mode)
+                .tag("backend", backend)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    /**
+     * Count a failed WebUI call, classified by cause
+     */
+    public void recordWebUiError(String endpoint, String backend, Throwable error) {
+        Counter.builder("webui.errors")
+                .description("Failed Stable Diffusion WebUI calls by cause")
+                .tag("endpoint", endpoint)
+                .tag("backend", backend)
+                .tag("cause", classify(error))
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Record a finished Replicate prediction: total time from creation, how it ended and how many polls it took
+     */
+    public void recordRemotePrediction(long nanos, String outcome, int polls) {
+        Timer.builder("replicate.prediction")
+                .description("Replicate prediction time from creation to stored image")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("replicate.prediction.polls")
+                .description("Status polls per Replicate prediction")
+                .register(meterRegistry)
+                .record(polls);
+    }
+
+    /**
+     * Count a routing decision between the local WebUI and Replicate
+     */
+    public void recordRoutingDecision(String engine, String reason) {
+        Counter.builder("generation.routing.decisions")
+                .description("Jobs routed to each generation engine, by reason")
+                .tag("engine", engine)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Count a submitted generation by quality tier and kind (generate, controlnet, batch, bulk, refine)
+     */
+    public void recordTierRequest(String tier, String kind) {
+        Counter.builder("generation.tier.requests")
+                .description("Generation requests by quality tier")
+                .tag("tier", tier)
+                .tag("kind", kind)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Record one webhook delivery attempt (a batch of events to one subscription); outcome is success or failed
+     */
+    public void recordWebhookDelivery(String outcome, int events, long nanos) {
+        Timer.builder("webhook.delivery")
+                .description("Webhook delivery attempts, one batch of events each")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        Counter.builder("webhook.events")
+                .description("Job events sent to webhook subscribers, by delivery outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment(events);
+    }
+
+    /**
+     * Count events given up on after the last retry
+     */
+    public void recordWebhookDead(int events) {
+        Counter.builder("webhook.events.dead")
+                .description("Job events dropped after exhausting webhook retries")
+                .register(meterRegistry)
+                .increment(events);
+    }
+
+    /**
+     * Record the time from a job event being written to its delivery
+     */
+    public void recordWebhookLag(long millis) {
+        Timer.builder("webhook.lag")
+                .description("Time from a job event being recorded to its successful delivery")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Count a status response: full, not_modified (304), or for long polls woken / timed_out
+     */
+    public void recordStatusPoll(String outcome) {
+        Counter.builder("job.status.responses")
+                .description("Job status responses by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Count a submission whose Idempotency-Key was already taken: replayed (original job returned),
+     * race (lost to a concurrent duplicate, then replayed) or conflict (key reused for another request)
+     */
+    public void recordIdempotency(String outcome) {
+        Counter.builder("idempotency.duplicates")
+                .description("Submissions answered from an existing Idempotency-Key")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Record how far a job's first completion estimate was off (seconds); late = finished after the estimate
+     */
+    public void recordEtaError(String mode, String backend, double errorSeconds) {
+        DistributionSummary.builder("eta.error")
+                .description("Absolute error of the completion time predicted when the job was submitted")
+                .baseUnit("seconds")
+                .tag("mode", mode)
+                .tag("backend", backend)
+                .tag("direction", errorSeconds > 0 ? "late" : "early")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(Math.abs(errorSeconds));
+    }
+
+    /**
+     * Count an archive segment a job query had to decode (read) or could rule out from the index (skipped)
+     */
+    public void recordArchiveSegment(String outcome) {
+        Counter.builder("job.archive.segments")
+                .description("Archive segments considered by job queries")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Count an entry of a bulk upload: accepted (became a child job) or skipped, by reason
+     */
+    public void recordBulkEntry(String outcome) {
+        Counter.builder("generation.bulk.entries")
+                .description("Images received through bulk uploads")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Count a cancelled local generation by what it did to the work (dequeued, interrupted or deferred) and why
+     * (client or abandoned)
+     */
+    public void recordCancellation(String outcome, String reason) {
+        Counter.builder("generation.cancellations")
+                .description("Local generations cancelled while queued or running")
+                .tag("outcome", outcome)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Count a sample of the WebUI's in-progress image: updated (a new preview), unchanged, no_image or error
+     */
+    public void recordPreviewSample(String outcome) {
+        Counter.builder("generation.preview.samples")
+                .description("Samples of the in-progress image of the running generation")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Count a request checked against a per-client rate limit (generate or read)
+     */
+    public void recordRateLimit(String limit, boolean allowed) {
+        Counter.builder("ratelimit.requests")
+                .description("API requests checked against per-client rate limits")
+                .tag("limit", limit)
+                .tag("outcome", allowed ? "allowed" : "rejected")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void recordImageSize(String stage, long bytes) {
+        DistributionSummary.builder("generation.image.size")
+                .description("Image payload size per stage")
+                .baseUnit("bytes")
+                .tag("stage", stage)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    public void recordCacheLookup(boolean hit) {
+        // Called on every status poll, so the two counters are resolved once instead of per lookup
+        if (cacheHits == null) {
+            // Misses first: a thread that sees cacheHits set must also see cacheMisses
+            cacheMisses = cacheCounter("miss");
+            cacheHits = cacheCounter("hit");
+        }
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    /**
+     * Count a ControlNet annotation map lookup: hit_memory, hit_disk, shared (joined a detect already
+     * running for the same image) or miss
+     */
+    public void recordControlNetLookup(String module, String result) {
+        Counter.builder("controlnet.cache.lookups")
+                .description("ControlNet annotation map cache lookups")
+                .tag("module", module)
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Record the WebUI preprocessing time a cache hit did not have to spend
+     */
+    public void recordControlNetSaved(String module, long detectNanos) {
+        Timer.builder("controlnet.preprocess.saved")
+                .description("WebUI preprocessor time avoided by ControlNet cache hits")
+                .tag("module", module)
+                .register(meterRegistry)
+                .record(detectNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Counter cacheCounter(String result) {
+        return Counter.builder("job.cache.lookups")
+                .description("Job status cache lookups; hit rate = hit / total")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public MeterRegistry getRegistry() {
+        return meterRegistry;
+    }
+
+    private String classify(Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null && !(cause instanceof ResourceAccessException)
+                && !(cause instanceof HttpClientErrorException) && !(cause instanceof HttpServerErrorException)) {
+            cause = cause.getCause();
+        }
+
+        if (cause instanceof ResourceAccessException) {
+            return cause.getCause() instanceof SocketTimeoutException ? "timeout" : "connection";
+        }
+        if (cause instanceof HttpClientErrorException) {
+            return "http_4xx";
+        }
+        if (cause instanceof HttpServerErrorException) {
+            return "http_5xx";
+        }
+        if (cause instanceof ClassCastException || cause instanceof NullPointerException) {
+            return "invalid_response";
+        }
+        return "other";
+    }
+}
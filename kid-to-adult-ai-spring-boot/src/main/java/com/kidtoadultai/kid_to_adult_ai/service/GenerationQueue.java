@@ -0,0 +1,404 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.ai.AdaptiveConcurrencyLimit;
+import com.kidtoadultai.kid_to_adult_ai.ai.GenerationProfile;
+import com.kidtoadultai.kid_to_adult_ai.ai.StableDiffusionService;
+import io.micrometer.context.ContextSnapshot;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.observation.Observation;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.thread.Threading;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Holds generation work until a WebUI slot is free.
+ * Clients are served in weighted round-robin (WeightedFairQueue), so one client's backlog
+ * cannot push everyone else's jobs to the back. A job's quality tier sets its priority: drafts start
+ * ahead of standard jobs, high-quality renders after them, and each priority gets its share of every round
+ * (generation.queue.priority-shares), so a steady stream of drafts cannot starve the other tiers.
+ * Jobs can be cancelled while queued (removed from the queue) or while running. The WebUI can only interrupt
+ * the generation it is executing, so only that job is interrupted; a running job still waiting inside the WebUI
+ * behind it is deferred: its generation runs to the end there and the result is discarded.
+ * A worker runs each job in the trace context of the request that submitted it.
+ * Workers only take a job while the WebUI is under its adaptive concurrency limit (AdaptiveConcurrencyLimit).
+ */
+@Service
+public class GenerationQueue {
+
+    @Autowired
+    private StableDiffusionService stableDiffusionService;
+
+    @Autowired
+    private JobTrackingService jobTrackingService;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private WebhookService webhookService;
+
+    @Autowired
+    @Lazy
+    private EtaEstimator etaEstimator;
+
+    // Most generations sent to the WebUI at the same time; the WebUI's adaptive limit decides how many below that
+    @Value("${generation.queue.workers:1}")
+    private int workers;
+
+    // Jobs nobody polled for this long are cancelled (0 disables)
+    @Value("${generation.abandon.timeout.seconds:120}")
+    private long abandonTimeoutSeconds;
+
+    // Per-client turn sizes, e.g. "key:3f2a9c01d4e5b6a7=3"; unlisted clients get 1
+    @Value("${generation.queue.client-weights:}")
+    private String clientWeights;
+
+    // Items per round of priority levels, e.g. "10=4,0=2,-10=1"; unlisted priorities get 1
+    @Value("${generation.queue.priority-shares:10=4,0=2,-10=1}")
+    private String priorityShares;
+
+    public static final String DEFAULT_CLIENT = "anonymous";
+
+    private static final ContextSnapshotFactory CONTEXT_SNAPSHOTS = ContextSnapshotFactory.builder().build();
+
+    private final Map<String, Integer> weights = new HashMap<>();
+    private final Map<Integer, Integer> shares = new HashMap<>();
+    private final WeightedFairQueue<QueuedGeneration> queue =
+            new WeightedFairQueue<>(generation -> generation.clientId, client -> weights.getOrDefault(client, 1),
+                    generation -> generation.priority, priority -> shares.getOrDefault(priority, 1));
+    private final ConcurrentHashMap<String, QueuedGeneration> queuedJobs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, QueuedGeneration> runningJobs = new ConcurrentHashMap<>();
+    private final Set<String> cancelledJobs = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService workerPool;
+
+    @PostConstruct
+    public void start() {
+        for (String entry : clientWeights.split(",")) {
+            int separator = entry.lastIndexOf('=');
+            if (separator > 0) {
+                weights.put(entry.substring(0, separator).trim(), Integer.parseInt(entry.substring(separator + 1).trim()));
+            }
+        }
+        for (String entry : priorityShares.split(",")) {
+            int separator = entry.lastIndexOf('=');
+            if (separator > 0) {
+                shares.put(Integer.parseInt(entry.substring(0, separator).trim()), Integer.parseInt(entry.substring(separator + 1).trim()));
+            }
+        }
+
+        // Workers block on the WebUI for the whole generation; with spring.threads.virtual.enabled on Java 21+
+        // they run on virtual threads like the rest of the request and async work
+        ThreadFactory threadFactory = Threading.VIRTUAL.isActive(environment)
+                ? new VirtualThreadTaskExecutor("generation-worker-").getVirtualThreadFactory()
+                : new CustomizableThreadFactory("generation-worker-");
+        workerPool = Executors.newFixedThreadPool(workers, threadFactory);
+        for (int i = 0; i < workers; i++) {
+            workerPool.submit(this::runWorker);
+        }
+
+        Gauge.builder("generation.queue.depth", queue, WeightedFairQueue::size)
+                .description("Jobs waiting for a WebUI slot")
+                .register(metrics.getRegistry());
+        Gauge.builder("generation.inflight", runningJobs, Map::size)
+                .description("Jobs currently sent to the WebUI")
+                .register(metrics.getRegistry());
+    }
+
+    @PreDestroy
+    public void stop() {
+        workerPool.shutdownNow();
+    }
+
+    /**
+     * Queue a generation for the given job on behalf of clientId (null for DEFAULT_CLIENT),
+     * at the priority of the job's quality tier
+     */
+    public CompletableFuture<String> submit(String jobId, String clientId, GenerationProfile profile, Callable<String> task) {
+        return submit(jobId, clientId, profile, task, true);
+    }
+
+    /**
+     * Queue a generation whose client collects the result later instead of polling (bulk uploads).
+     * It is never cancelled as abandoned.
+     */
+    public CompletableFuture<String> submitUnattended(String jobId, String clientId, GenerationProfile profile,
+                                                      Callable<String> task) {
+        return submit(jobId, clientId, profile, task, false);
+    }
+
+    private CompletableFuture<String> submit(String jobId, String clientId, GenerationProfile profile, Callable<String> task,
+                                             boolean abandonable) {
+        QueuedGeneration generation = new QueuedGeneration(jobId, clientOrDefault(clientId), profile, task,
+                metrics.startQueueWait(profile.tier(), jobId));
+        generation.abandonable = abandonable;
+        queuedJobs.put(jobId, generation);
+        queue.add(generation);
+        return generation.result;
+    }
+
+    /**
+     * Queue several generations in iteration order, with no other job of the same client in between.
+     * Used for fan-out children that share one init image.
+     */
+    public Map<String, CompletableFuture<String>> submitAll(String clientId, GenerationProfile profile,
+                                                           Map<String, Callable<String>> tasks) {
+        Map<String, CompletableFuture<String>> results = new LinkedHashMap<>();
+        List<QueuedGeneration> generations = new ArrayList<>();
+        for (Map.Entry<String, Callable<String>> task : tasks.entrySet()) {
+            QueuedGeneration generation = new QueuedGeneration(task.getKey(), clientOrDefault(clientId), profile, task.getValue(),
+                    metrics.startQueueWait(profile.tier(), task.getKey()));
+            queuedJobs.put(generation.jobId, generation);
+            generations.add(generation);
+            results.put(generation.jobId, generation.result);
+        }
+        queue.addAll(generations);
+        return results;
+    }
+
+    private String clientOrDefault(String clientId) {
+        return clientId != null ? clientId : DEFAULT_CLIENT;
+    }
+
+    /**
+     * Cancel a queued or running job at the client's request
+     */
+    public Cancellation cancel(String jobId) {
+        return cancel(jobId, "client");
+    }
+
+    private Cancellation cancel(String jobId, String reason) {
+        Cancellation cancellation = Cancellation.NOT_FOUND;
+        QueuedGeneration queued = queuedJobs.remove(jobId);
+        QueuedGeneration running = runningJobs.get(jobId);
+        if (queued != null) {
+            queue.remove(queued);
+            queued.queueWait.error(new CancellationException("Cancelled while queued"));
+            queued.queueWait.stop();
+            cancelledJobs.add(jobId);
+            queued.result.cancel(false);
+            cancellation = Cancellation.DEQUEUED;
+        } else if (running != null) {
+            cancelledJobs.add(jobId);
+            // The WebUI works through requests one at a time, so the earliest started job is the one executing;
+            // /interrupt stops that one, and later jobs cannot be reached until they get their turn
+            if (isExecuting(running) && stableDiffusionService.interrupt()) {
+                cancellation = Cancellation.INTERRUPTED;
+            } else {
+                cancellation = Cancellation.DEFERRED;
+            }
+            running.result.cancel(false);
+        }
+
+        if (cancellation != Cancellation.NOT_FOUND) {
+            metrics.recordCancellation(cancellation.name().toLowerCase(), reason);
+        }
+        return cancellation;
+    }
+
+    /**
+     * Whether results for this job must be thrown away
+     */
+    public boolean isCancelled(String jobId) {
+        return cancelledJobs.contains(jobId);
+    }
+
+    /**
+     * Record that a client is still interested in the job
+     */
+    public void recordPoll(String jobId) {
+        QueuedGeneration generation = queuedJobs.get(jobId);
+        if (generation == null) {
+            generation = runningJobs.get(jobId);
+        }
+        if (generation != null) {
+            generation.lastPolledAt = System.currentTimeMillis();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getRunningCount() {
+        return runningJobs.size();
+    }
+
+    /**
+     * Generations that may run at once right now: the WebUI's concurrency limit
+     */
+    public int getConcurrency() {
+        return stableDiffusionService.getConcurrencyLimit().getLimit();
+    }
+
+    /**
+     * Queued jobs that will start before this one, in order, or null when the job is not queued
+     */
+    public List<String> getJobsAhead(String jobId) {
+        QueuedGeneration generation = queuedJobs.get(jobId);
+        List<QueuedGeneration> ahead = generation != null ? queue.ahead(generation) : null;
+        if (ahead == null) {
+            return null;
+        }
+        List<String> jobIds = new ArrayList<>(ahead.size());
+        ahead.forEach(other -> jobIds.add(other.jobId));
+        return jobIds;
+    }
+
+    public Set<String> getRunningJobIds() {
+        return new HashSet<>(runningJobs.keySet());
+    }
+
+    /**
+     * Whether the job is queued or running here (not yet finished, and not on Replicate)
+     */
+    public boolean isPending(String jobId) {
+        return queuedJobs.containsKey(jobId) || runningJobs.containsKey(jobId);
+    }
+
+    /**
+     * The running job the WebUI is working on right now (the earliest started), or null when none is running
+     */
+    public String getExecutingJobId() {
+        QueuedGeneration executing = null;
+        for (QueuedGeneration generation : runningJobs.values()) {
+            if (executing == null || generation.startedAt < executing.startedAt) {
+                executing = generation;
+            }
+        }
+        return executing != null ? executing.jobId : null;
+    }
+
+    /**
+     * Cancel jobs whose client stopped polling. Jobs with webhook subscribers are not polled and never abandoned,
+     * nor are unattended (bulk) jobs.
+     */
+    @Scheduled(fixedDelayString = "${generation.abandon.check.ms:15000}")
+    public void cancelAbandonedJobs() {
+        if (abandonTimeoutSeconds <= 0) {
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(abandonTimeoutSeconds);
+        List<QueuedGeneration> pending = new ArrayList<>(queuedJobs.values());
+        pending.addAll(runningJobs.values());
+
+        for (QueuedGeneration generation : pending) {
+            if (generation.abandonable && generation.lastPolledAt < cutoff && !webhookService.isWatched(generation.jobId)
+                    && cancel(generation.jobId, "abandoned") != Cancellation.NOT_FOUND) {
+                jobTrackingService.cancelJob(generation.jobId, "Cancelled: no status poll for " + abandonTimeoutSeconds + " seconds");
+                jobTrackingService.updateParentJob(generation.jobId);
+            }
+        }
+    }
+
+    /**
+     * Forget cancellation markers once late results can no longer arrive
+     */
+    @Scheduled(fixedRate = 3600000) // Run every hour
+    public void cleanCancelledJobs() {
+        cancelledJobs.removeIf(jobId -> !runningJobs.containsKey(jobId));
+    }
+
+    private boolean isExecuting(QueuedGeneration generation) {
+        for (QueuedGeneration other : runningJobs.values()) {
+            if (other.startedAt < generation.startedAt) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void runWorker() {
+        AdaptiveConcurrencyLimit concurrencyLimit = stableDiffusionService.getConcurrencyLimit();
+        while (!Thread.currentThread().isInterrupted()) {
+            // Take a slot of the WebUI's limit first, so jobs over it wait in the fair queue and stay cancellable
+            QueuedGeneration generation;
+            try {
+                concurrencyLimit.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                generation = queue.take();
+
+                // Publish as running before leaving the queued map so cancel() always finds the job
+                generation.startedAt = System.nanoTime();
+                runningJobs.put(generation.jobId, generation);
+                if (queuedJobs.remove(generation.jobId, generation)) {
+                    generation.queueWait.stop();
+                    etaEstimator.recordStarted(generation.jobId);
+                    execute(generation);
+                } else {
+                    runningJobs.remove(generation.jobId);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                concurrencyLimit.release();
+            }
+        }
+    }
+
+    private void execute(QueuedGeneration generation) {
+        // Dependent stages (image storage, status update) are submitted from here and inherit the context too
+        try (ContextSnapshot.Scope scope = generation.context.setThreadLocals()) {
+            Observation execution = metrics.execution(generation.tier, generation.jobId);
+            generation.result.complete(execution.observeChecked(generation.task::call));
+        } catch (Exception e) {
+            generation.result.completeExceptionally(e);
+        } finally {
+            runningJobs.remove(generation.jobId);
+        }
+    }
+
+    /**
+     * What cancelling a job did: NOT_FOUND (not queued or running here), DEQUEUED (removed before it started),
+     * INTERRUPTED (the WebUI stopped it) or DEFERRED (running but not yet executing on the WebUI, or the interrupt
+     * failed: it finishes there and its result is discarded)
+     */
+    public enum Cancellation {
+        NOT_FOUND, DEQUEUED, INTERRUPTED, DEFERRED
+    }
+
+    private static class QueuedGeneration {
+        private final String jobId;
+        private final String clientId;
+        private final String tier;
+        private final int priority;
+        private final Callable<String> task;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        // Trace context of the submitting thread
+        private final ContextSnapshot context = CONTEXT_SNAPSHOTS.captureAll();
+        private final Observation queueWait;
+        private volatile long lastPolledAt = System.currentTimeMillis();
+        private volatile long startedAt;
+        private volatile boolean abandonable = true;
+
+        QueuedGeneration(String jobId, String clientId, GenerationProfile profile, Callable<String> task, Observation queueWait) {
+            this.jobId = jobId;
+            this.clientId = clientId;
+            this.tier = profile.tier();
+            this.priority = profile.priority();
+            this.task = task;
+            this.queueWait = queueWait;
+        }
+    }
+}
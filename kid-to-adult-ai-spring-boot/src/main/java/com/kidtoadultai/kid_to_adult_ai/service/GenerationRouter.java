@@ -0,0 +1,243 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.ai.AIService;
+import com.kidtoadultai.kid_to_adult_ai.ai.GenerationProfile;
+import com.kidtoadultai.kid_to_adult_ai.ai.StableDiffusionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Chooses between the local WebUI and Replicate for each job.
+ * Jobs go local unless the predicted local completion time (queue depth x recent local service time)
+ * exceeds the SLO and Replicate, with the predictions already pending there, is expected to be faster,
+ * within a daily budget of remote predictions.
+ * A failed job is retried once on the other engine. Decisions are stored in the job's metadata.
+ * Only the standard tier goes remote: Replicate has no draft or high-quality settings.
+ */
+@Service
+public class GenerationRouter {
+
+    @Autowired
+    private StableDiffusionService stableDiffusionService;
+
+    @Autowired
+    @Lazy
+    private AIService aiService;
+
+    @Autowired
+    private GenerationQueue generationQueue;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private JobTrackingService jobTrackingService;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private EtaEstimator etaEstimator;
+
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor taskExecutor;
+
+    // Spill to Replicate when a local job is predicted to take longer than this
+    @Value("${generation.routing.slo-seconds:60}")
+    private double sloSeconds;
+
+    // Replicate predictions allowed per day, spillover and fallback combined (0 keeps everything local)
+    @Value("${generation.routing.remote.daily-budget:0}")
+    private int remoteDailyBudget;
+
+    // Service times assumed until real samples exist
+    @Value("${generation.routing.local.estimate-seconds:20}")
+    private double localEstimateSeconds;
+
+    @Value("${generation.routing.remote.estimate-seconds:15}")
+    private double remoteEstimateSeconds;
+
+    // Predictions Replicate runs at once for this account; more pending than this wait for each other
+    @Value("${generation.routing.remote.concurrency:4}")
+    private int remoteConcurrency;
+
+    private final LatencyWindow localLatency = new LatencyWindow(100);
+    private final LatencyWindow remoteLatency = new LatencyWindow(100);
+
+    private LocalDate budgetDay = LocalDate.now();
+    private int remoteUsedToday;
+
+    /**
+     * Route an img2img job; clientId is its fair-share key in the local queue.
+     * The future completes with the stored image URL.
+     */
+    public CompletableFuture<String> route(String jobId, String clientId, String base64Image, String profession, int targetAge,
+                                           GenerationProfile profile, long seed) {
+        double predictedLocal = predictLocalSeconds();
+        double predictedRemote = predictRemoteSeconds();
+        boolean remoteAllowed = GenerationProfile.STANDARD.equals(profile.tier());
+
+        String engine = "local";
+        String reason;
+        if (!remoteAllowed) {
+            reason = "tier_local_only";
+        } else if (predictedLocal <= sloSeconds) {
+            reason = "within_slo";
+        } else if (predictedRemote >= predictedLocal) {
+            reason = "remote_not_faster";
+        } else if (!aiService.isConfigured()) {
+            reason = "remote_not_configured";
+        } else if (!tryConsumeRemoteBudget()) {
+            reason = "remote_budget_exhausted";
+        } else {
+            engine = "remote";
+            reason = "spillover";
+        }
+
+        metrics.recordRoutingDecision(engine, reason);
+        etaEstimator.setBackend(jobId, engine);
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("routing.engine", engine);
+        metadata.put("routing.reason", reason);
+        metadata.put("routing.predictedLocalSeconds", String.format("%.1f", predictedLocal));
+        metadata.put("routing.predictedRemoteSeconds", String.format("%.1f", predictedRemote));
+        jobTrackingService.updateJobMetadata(jobId, metadata);
+
+        if ("remote".equals(engine)) {
+            return withFallback(jobId, runRemote(jobId, base64Image, profession, targetAge),
+                    "local", () -> runLocal(jobId, clientId, base64Image, profession, targetAge, profile, seed));
+        }
+        return withFallback(jobId, runLocal(jobId, clientId, base64Image, profession, targetAge, profile, seed),
+                "remote", () -> remoteAllowed && aiService.isConfigured() && tryConsumeRemoteBudget()
+                        ? runRemote(jobId, base64Image, profession, targetAge) : null);
+    }
+
+    /**
+     * Current routing inputs, for the /routing endpoint
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("sloSeconds", sloSeconds);
+        snapshot.put("predictedLocalSeconds", predictLocalSeconds());
+        snapshot.put("localQueueDepth", generationQueue.getQueueDepth());
+        snapshot.put("localRunning", generationQueue.getRunningCount());
+        snapshot.put("localConcurrency", stableDiffusionService.getConcurrencyLimit().getSnapshot());
+        snapshot.put("localP50Seconds", localLatency.percentile(0.5, localEstimateSeconds));
+        snapshot.put("localP90Seconds", localLatency.percentile(0.9, localEstimateSeconds));
+        snapshot.put("remotePending", aiService.getPendingCount());
+        snapshot.put("predictedRemoteSeconds", predictRemoteSeconds());
+        snapshot.put("remoteP50Seconds", remoteLatency.percentile(0.5, remoteEstimateSeconds));
+        snapshot.put("remoteP90Seconds", remoteLatency.percentile(0.9, remoteEstimateSeconds));
+        synchronized (this) {
+            snapshot.put("remoteUsedToday", budgetDay.equals(LocalDate.now()) ? remoteUsedToday : 0);
+        }
+        snapshot.put("remoteDailyBudget", remoteDailyBudget);
+        snapshot.put("serviceTimes", etaEstimator.getSnapshot());
+        return snapshot;
+    }
+
+    /**
+     * Predicted seconds until a job submitted now is done: the rounds of work ahead of it
+     * across the WebUI's concurrency limit, each taking the recent median local service time
+     */
+    private double predictLocalSeconds() {
+        int ahead = generationQueue.getQueueDepth() + generationQueue.getRunningCount();
+        int rounds = ahead / Math.max(1, generationQueue.getConcurrency()) + 1;
+        return rounds * localLatency.percentile(0.5, localEstimateSeconds);
+    }
+
+    /**
+     * Predicted seconds until a job sent to Replicate now is done: the rounds of predictions already pending there
+     * across its concurrency, each taking the recent median remote service time
+     */
+    private double predictRemoteSeconds() {
+        int rounds = aiService.getPendingCount() / Math.max(1, remoteConcurrency) + 1;
+        return rounds * remoteLatency.percentile(0.5, remoteEstimateSeconds);
+    }
+
+    private synchronized boolean tryConsumeRemoteBudget() {
+        LocalDate today = LocalDate.now();
+        if (!today.equals(budgetDay)) {
+            budgetDay = today;
+            remoteUsedToday = 0;
+        }
+        if (remoteUsedToday >= remoteDailyBudget) {
+            return false;
+        }
+        remoteUsedToday++;
+        return true;
+    }
+
+    private CompletableFuture<String> runLocal(String jobId, String clientId, String base64Image, String profession, int targetAge,
+                                               GenerationProfile profile, long seed) {
+        CompletableFuture<String> generated = generationQueue.submit(jobId, clientId, profile, () -> {
+            long start = System.nanoTime();
+            String result = stableDiffusionService.generateAdultVersionImg2Img(base64Image, profession, targetAge, profile, seed);
+            // The SLO prediction assumes standard jobs; drafts and high-quality renders would skew it
+            if (GenerationProfile.STANDARD.equals(profile.tier())) {
+                localLatency.add((System.nanoTime() - start) / 1e9);
+            }
+            return result;
+        });
+        // Save off the worker thread so the next queued job can start
+        return generated.thenApplyAsync(base64Result -> {
+            if (generationQueue.isCancelled(jobId)) {
+                throw new CancellationException("Job cancelled");
+            }
+            return imageStorageService.saveGeneratedImage(base64Result, jobId);
+        }, taskExecutor);
+    }
+
+    private CompletableFuture<String> runRemote(String jobId, String base64Image, String profession, int targetAge) {
+        long start = System.nanoTime();
+        return aiService.generateAdultImage(jobId, base64Image, profession, targetAge)
+                .whenComplete((imageUrl, error) -> {
+                    if (error == null) {
+                        remoteLatency.add((System.nanoTime() - start) / 1e9);
+                    }
+                });
+    }
+
+    /**
+     * Retry once on the other engine when the first attempt fails (not when it was cancelled).
+     * fallback returns null when the other engine is unavailable.
+     */
+    private CompletableFuture<String> withFallback(String jobId, CompletableFuture<String> attempt, String fallbackEngine,
+                                                   Supplier<CompletableFuture<String>> fallback) {
+        return attempt.handle((imageUrl, error) -> {
+            if (error == null) {
+                return CompletableFuture.completedFuture(imageUrl);
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof CancellationException || generationQueue.isCancelled(jobId)) {
+                return CompletableFuture.<String>failedFuture(cause);
+            }
+
+            CompletableFuture<String> retry = fallback.get();
+            if (retry == null) {
+                return CompletableFuture.<String>failedFuture(cause);
+            }
+
+            metrics.recordRoutingDecision(fallbackEngine, "fallback");
+            etaEstimator.setBackend(jobId, fallbackEngine);
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put("routing.engine", fallbackEngine);
+            metadata.put("routing.fallback", "first attempt failed: " + cause.getMessage());
+            jobTrackingService.updateJobMetadata(jobId, metadata);
+            return retry;
+        }).thenCompose(Function.identity());
+    }
+}
@@ -0,0 +1,414 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.ai.GenerationProfile;
+import com.kidtoadultai.kid_to_adult_ai.ai.GenerationProfiles;
+import com.kidtoadultai.kid_to_adult_ai.ai.ProfessionCatalog;
+import com.kidtoadultai.kid_to_adult_ai.dto.ImageResponse;
+import com.kidtoadultai.kid_to_adult_ai.model.IdempotencyRecord;
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.model.WebhookSubscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * The steps every generate endpoint shares: validation, the Idempotency-Key lookup and claim, the webhook
+ * callback, job creation and the 202 response with its estimate. What differs between endpoints (which jobs
+ * are created and what they run) comes in as a Plan. Also records each job's outcome when its work completes.
+ */
+@Service
+public class GenerationSubmissionService {
+
+    @Autowired
+    private JobTrackingService jobTrackingService;
+
+    @Autowired
+    private GenerationQueue generationQueue;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private EtaEstimator etaEstimator;
+
+    @Autowired
+    private GenerationProfiles generationProfiles;
+
+    @Autowired
+    private WebhookService webhookService;
+
+    @Autowired
+    private ProfessionCatalog professionCatalog;
+
+    // Boot's executor: a thread pool, or virtual threads when spring.threads.virtual.enabled=true
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor taskExecutor;
+
+    /**
+     * Check the request, answer a retry with its original job, otherwise create the job (the plan's first step),
+     * claim the Idempotency-Key for it and queue its work (the second step).
+     * The plan may throw ResponseStatusException to answer with that status.
+     */
+    public ResponseEntity<ImageResponse> submit(Submission submission, Plan plan) {
+        try {
+            for (String profession : submission.professions()) {
+                if (!professionCatalog.contains(profession)) {
+                    return error(HttpStatus.BAD_REQUEST, "Invalid profession: " + profession + ". Choose from: " + professionCatalog.getNames());
+                }
+            }
+            for (int targetAge : submission.ages()) {
+                if (targetAge < 20 || targetAge > 60) {
+                    return error(HttpStatus.BAD_REQUEST, "Age must be between 20 and 60");
+                }
+            }
+            if (submission.image() != null && submission.image().isEmpty()) {
+                return error(HttpStatus.BAD_REQUEST, "Please upload an image");
+            }
+
+            // Without a tier (Replicate) the job has no profile and no stored seed
+            GenerationProfile profile = null;
+            if (submission.tier() != null) {
+                profile = generationProfiles.get(submission.tier());
+                if (profile == null) {
+                    return error(HttpStatus.BAD_REQUEST, "Invalid tier: " + submission.tier() + ". Choose from: " + generationProfiles.getTiers());
+                }
+            }
+
+            String problem = submission.callbackUrl() != null ? webhookService.checkUrl(submission.callbackUrl()) : null;
+            if (problem != null) {
+                return error(HttpStatus.BAD_REQUEST, problem);
+            }
+
+            // A retry with the same Idempotency-Key gets the original job
+            String keyHash = idempotencyService.keyHash(submission.clientId(), submission.idempotencyKey());
+            String fingerprint = keyHash == null ? null : fingerprint(submission, profile);
+            ResponseEntity<ImageResponse> duplicate = findDuplicate(keyHash, fingerprint, submission.idempotencyKey());
+            if (duplicate != null) {
+                return duplicate;
+            }
+
+            // The job and, for a batch, its children all report to the same subscribers
+            WebhookSubscription callback = submission.callbackUrl() != null && webhookService.isEnabled()
+                    ? webhookService.createCallback(submission.callbackUrl()) : null;
+            Map<String, String> webhooks = webhookService.jobMetadata(submission.clientId(), callback);
+            JobStatus job = plan.create(profile, webhooks);
+
+            // Claimed before any work is queued, so a losing duplicate only has this job to discard
+            duplicate = claimIdempotencyKey(keyHash, fingerprint, job.getJobId());
+            if (duplicate != null) {
+                return duplicate;
+            }
+
+            Started started;
+            try {
+                started = plan.start(job, profile, webhooks);
+            } catch (Exception e) {
+                abandon(job, keyHash, e);
+                throw e;
+            }
+            if (profile != null) {
+                metrics.recordTierRequest(profile.tier(), submission.kind());
+            }
+
+            ImageResponse response = new ImageResponse();
+            response.setJobId(job.getJobId());
+            response.setProfession(job.getProfession());
+            response.setAge(job.getTargetAge());
+            response.setCreatedAt(job.getCreatedAt());
+            response.setMessage(started.message());
+            if (started.metadata() != null) {
+                response.setMetadata(new HashMap<>(started.metadata()));
+            }
+            // The callback's signing secret is only ever shown in the submission response
+            if (callback != null) {
+                if (response.getMetadata() == null) {
+                    response.setMetadata(new HashMap<>());
+                }
+                response.getMetadata().put("webhookSecret", callback.getSecret());
+            }
+            if (started.failed()) {
+                // Nothing was queued, so a retry with the same key may try again
+                if (keyHash != null) {
+                    idempotencyService.release(keyHash, job.getJobId());
+                }
+                response.setStatus("ERROR");
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            response.setStatus("PROCESSING");
+            List<String> jobIds = started.jobIds();
+            JobStatusResponses.applyEstimate(response, jobIds.size() == 1
+                    ? etaEstimator.estimate(jobIds.get(0)) : etaEstimator.estimate(jobIds));
+
+            return ResponseEntity.accepted()
+                    .header("Location", started.location() != null ? started.location() : "/api/stable-diffusion/status/" + job.getJobId())
+                    .body(response);
+
+        } catch (ResponseStatusException e) {
+            return error(e.getStatusCode(), e.getReason());
+        } catch (Exception e) {
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * Record a generated image once the queue completes the future; no thread is held while the job waits for the WebUI
+     */
+    public void processGenerationAsync(String jobId, CompletableFuture<String> future) {
+        processResultAsync(jobId, future, base64Image -> imageStorageService.saveGeneratedImage(base64Image, jobId));
+    }
+
+    /**
+     * Record a job's outcome once its future completes; storeImage turns the result into the image URL
+     */
+    public void processResultAsync(String jobId, CompletableFuture<String> future, Function<String, String> storeImage) {
+        future.whenCompleteAsync((result, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (generationQueue.isCancelled(jobId) || cause instanceof CancellationException) {
+                System.out.println("Discarding late result for cancelled job: " + jobId);
+                etaEstimator.finished(jobId, false);
+                return;
+            }
+
+            if (error != null) {
+                etaEstimator.finished(jobId, false);
+                jobTrackingService.updateJobStatus(jobId, "FAILED", "Generation failed: " + cause.getMessage());
+            } else {
+                try {
+                    // Save to database or storage
+                    String imageUrl = storeImage.apply(result);
+
+                    // The measured service time goes into the metadata for future estimates
+                    jobTrackingService.updateJobStatus(jobId, "COMPLETED", imageUrl,
+                            imageStorageService.getGeneratedFilename(jobId), etaEstimator.finished(jobId, true));
+
+                } catch (Exception e) {
+                    etaEstimator.finished(jobId, false);
+                    jobTrackingService.updateJobStatus(jobId, "FAILED", "Generation failed: " + e.getMessage());
+                }
+            }
+
+            jobTrackingService.updateParentJob(jobId);
+        }, taskExecutor);
+    }
+
+    /**
+     * Read the multipart upload and base64-encode it for the WebUI
+     */
+    public String encodeUpload(MultipartFile file) throws IOException {
+        byte[] imageBytes = metrics.stage("upload_read", file::getBytes);
+        metrics.recordImageSize("upload", imageBytes.length);
+
+        return metrics.stage("encode", () -> Base64.getEncoder().encodeToString(imageBytes));
+    }
+
+    /**
+     * A seed the WebUI accepts (32-bit unsigned); picked here rather than by the WebUI so it can be stored
+     */
+    public static long newSeed() {
+        return ThreadLocalRandom.current().nextLong(1L << 32);
+    }
+
+    /**
+     * Job metadata for a generation at a tier; the seed is stored so a draft can be refined into the same picture
+     */
+    public static Map<String, String> generationMetadata(GenerationProfile profile, long seed) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("generation.tier", profile.tier());
+        metadata.put("generation.seed", String.valueOf(seed));
+        return metadata;
+    }
+
+    /**
+     * SHA-256 (hex) over the content of the parts, in order
+     */
+    public static String sha256Hex(MultipartFile... parts) throws IOException {
+        MessageDigest digest = sha256();
+        for (MultipartFile part : parts) {
+            try (InputStream in = new DigestInputStream(part.getInputStream(), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Identifies what a submission asked for, to tell a retry from a different request reusing the key.
+     * The photo counts by content, so a different photo with the same name and size is a different request.
+     */
+    private static String fingerprint(Submission submission, GenerationProfile profile) throws IOException {
+        StringBuilder fingerprint = new StringBuilder(submission.kind());
+        if (profile != null) {
+            fingerprint.append(':').append(profile.tier());
+        }
+        fingerprint.append('|').append(String.join(",", submission.professions()).toLowerCase())
+                .append('|').append(submission.ages())
+                .append('|').append(submission.detail());
+        MultipartFile image = submission.image();
+        if (image != null) {
+            fingerprint.append('|').append(image.getOriginalFilename())
+                    .append('|').append(image.getSize())
+                    .append('|').append(sha256Hex(image));
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * The response for a submission whose Idempotency-Key is already registered, or null for a new key
+     */
+    private ResponseEntity<ImageResponse> findDuplicate(String keyHash, String fingerprint, String idempotencyKey) {
+        if (keyHash == null) {
+            return null;
+        }
+        if (idempotencyKey.length() > IdempotencyService.MAX_KEY_LENGTH) {
+            return error(HttpStatus.BAD_REQUEST, "Idempotency-Key must be at most " + IdempotencyService.MAX_KEY_LENGTH + " characters");
+        }
+
+        IdempotencyRecord record = idempotencyService.find(keyHash);
+        return record != null ? replay(record, fingerprint, "replayed") : null;
+    }
+
+    /**
+     * Register the key for a job that was just created and has no work queued yet.
+     * If a concurrent duplicate registered first, this job is discarded and the original returned.
+     */
+    private ResponseEntity<ImageResponse> claimIdempotencyKey(String keyHash, String fingerprint, String jobId) {
+        if (keyHash == null) {
+            return null;
+        }
+
+        IdempotencyRecord winner = idempotencyService.register(keyHash, fingerprint, jobId);
+        if (jobId.equals(winner.getJobId())) {
+            return null;
+        }
+        jobTrackingService.discardJob(jobId);
+        return replay(winner, fingerprint, "race");
+    }
+
+    /**
+     * The plan's start failed, so the job has no work queued (a batch at most part of it): withdraw what was
+     * queued, fail the job and free the Idempotency-Key, so a retry with the same key starts over
+     */
+    private void abandon(JobStatus job, String keyHash, Exception cause) {
+        String reason = "Could not be started: "
+                + (cause instanceof ResponseStatusException e ? e.getReason() : cause.getMessage());
+        try {
+            List<String> jobIds = new ArrayList<>();
+            jobIds.add(job.getJobId());
+            if (job.getChildCount() != null) {
+                for (JobStatus child : jobTrackingService.getChildJobs(job.getJobId())) {
+                    if ("PROCESSING".equals(child.getStatus())) {
+                        jobIds.add(child.getJobId());
+                    }
+                }
+            }
+            // The parent first, so its children failing here cannot finish it a second time
+            for (String jobId : jobIds) {
+                generationQueue.cancel(jobId);
+                etaEstimator.finished(jobId, false);
+                jobTrackingService.updateJobStatus(jobId, "FAILED", reason);
+            }
+        } finally {
+            if (keyHash != null) {
+                idempotencyService.release(keyHash, job.getJobId());
+            }
+        }
+    }
+
+    private ResponseEntity<ImageResponse> replay(IdempotencyRecord record, String fingerprint, String outcome) {
+        if (!record.getFingerprint().equals(fingerprint)) {
+            metrics.recordIdempotency("conflict");
+            return error(HttpStatus.UNPROCESSABLE_CONTENT, "Idempotency-Key was already used for a different request");
+        }
+        metrics.recordIdempotency(outcome);
+
+        String jobId = record.getJobId();
+        JobStatus jobStatus = jobTrackingService.getJobStatus(jobId);
+
+        ImageResponse response = new ImageResponse();
+        response.setJobId(jobId);
+        response.setStatus(jobStatus != null ? jobStatus.getStatus() : "DELETED");
+        response.setMessage("Duplicate submission; returning the original job. Use the jobId to check status.");
+        if (jobStatus != null) {
+            response.setProfession(jobStatus.getProfession());
+            response.setAge(jobStatus.getTargetAge());
+            response.setCreatedAt(jobStatus.getCreatedAt());
+        }
+
+        return ResponseEntity.accepted()
+                .header("Location", "/api/stable-diffusion/status/" + jobId)
+                .header("Idempotent-Replayed", "true")
+                .body(response);
+    }
+
+    private static ResponseEntity<ImageResponse> error(HttpStatusCode status, String message) {
+        return ResponseEntity.status(status).body(new ImageResponse("ERROR", message));
+    }
+
+    /**
+     * A generate request as the endpoint received it. kind names the endpoint in metrics and fingerprints; tier is
+     * null for Replicate. Every profession must be in the catalog and every age within 20-60; image, when given,
+     * must not be empty. detail is whatever else tells two requests apart for the Idempotency-Key.
+     */
+    public record Submission(String kind, String tier, Collection<String> professions, Collection<Integer> ages,
+                             MultipartFile image, String detail, String clientId, String idempotencyKey,
+                             String callbackUrl) {
+    }
+
+    /**
+     * What an endpoint creates and runs. create makes the job the Idempotency-Key is claimed for (a batch's
+     * parent) before any work exists; start queues the work. profile is null without a tier.
+     */
+    public interface Plan {
+        JobStatus create(GenerationProfile profile, Map<String, String> webhooks) throws Exception;
+
+        Started start(JobStatus job, GenerationProfile profile, Map<String, String> webhooks) throws Exception;
+    }
+
+    /**
+     * What start queued: the jobs the estimate covers, the response message and metadata, and where to poll
+     * (null for /status). failed when nothing could be queued; the response is then a 400 and the Idempotency-Key
+     * is released.
+     */
+    public record Started(List<String> jobIds, String message, Map<String, Object> metadata, String location,
+                          boolean failed) {
+
+        public static Started job(String jobId, String message) {
+            return new Started(List.of(jobId), message, null, null, false);
+        }
+    }
+}
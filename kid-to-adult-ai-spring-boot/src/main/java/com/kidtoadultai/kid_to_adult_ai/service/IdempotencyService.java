@@ -0,0 +1,144 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.IdempotencyRecord;
+import com.kidtoadultai.kid_to_adult_ai.repository.IdempotencyRecordRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps Idempotency-Key headers to the job they created, so a retried submission returns the original job.
+ * Keys are scoped to the client and expire after idempotency.ttl-hours. Recent keys are answered from
+ * memory; the idempotency_key table is the source of truth, and its primary key decides which of two
+ * concurrent duplicates (on any node) wins.
+ */
+@Service
+public class IdempotencyService {
+
+    public static final int MAX_KEY_LENGTH = 255;
+
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Value("${idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    private final ConcurrentHashMap<String, IdempotencyRecord> recent = new ConcurrentHashMap<>();
+
+    /**
+     * Storage key for a client's Idempotency-Key; null when the request has none
+     */
+    public String keyHash(String clientId, String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((clientId + "\n" + idempotencyKey).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (Exception e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * The unexpired record for keyHash, or null
+     */
+    public IdempotencyRecord find(String keyHash) {
+        IdempotencyRecord record = recent.get(keyHash);
+        if (record == null) {
+            record = idempotencyRecordRepository.findById(keyHash).orElse(null);
+            if (record != null) {
+                recent.put(keyHash, record);
+            }
+        }
+
+        if (record != null && isExpired(record)) {
+            recent.remove(keyHash, record);
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * Register jobId under keyHash unless another request already did.
+     * Returns the winning record: the new one, or the one registered first.
+     */
+    public IdempotencyRecord register(String keyHash, String fingerprint, String jobId) {
+        IdempotencyRecord record = newRecord(keyHash, fingerprint, jobId);
+
+        // Same-node duplicates are settled here without a database round trip
+        IdempotencyRecord existing = recent.putIfAbsent(keyHash, record);
+        if (existing != null) {
+            if (!isExpired(existing) || !recent.replace(keyHash, existing, record)) {
+                return recent.getOrDefault(keyHash, existing);
+            }
+        }
+
+        try {
+            idempotencyRecordRepository.saveAndFlush(record);
+            return record;
+        } catch (DataIntegrityViolationException e) {
+            IdempotencyRecord winner = idempotencyRecordRepository.findById(keyHash).orElse(null);
+            if (winner != null && isExpired(winner)) {
+                // Expired but not cleaned up yet; take the key over once
+                idempotencyRecordRepository.delete(winner);
+                try {
+                    IdempotencyRecord retry = newRecord(keyHash, fingerprint, jobId);
+                    idempotencyRecordRepository.saveAndFlush(retry);
+                    recent.put(keyHash, retry);
+                    return retry;
+                } catch (DataIntegrityViolationException again) {
+                    winner = idempotencyRecordRepository.findById(keyHash).orElse(null);
+                }
+            }
+            if (winner == null) {
+                throw new RuntimeException("Failed to register Idempotency-Key", e);
+            }
+            recent.put(keyHash, winner);
+            return winner;
+        }
+    }
+
+    /**
+     * Free keyHash if it is still registered for jobId (a job that could not be started),
+     * so a retry with the same key is taken as a new request instead of replaying that job
+     */
+    @Transactional
+    public void release(String keyHash, String jobId) {
+        recent.computeIfPresent(keyHash, (key, record) -> jobId.equals(record.getJobId()) ? null : record);
+        idempotencyRecordRepository.deleteByKeyHashAndJobId(keyHash, jobId);
+    }
+
+    /**
+     * Drop expired keys from memory and the database
+     */
+    @Transactional
+    @Scheduled(fixedRate = 3600000) // Run every hour
+    public void cleanExpiredKeys() {
+        recent.values().removeIf(this::isExpired);
+        long deleted = idempotencyRecordRepository.deleteByExpiresAtBefore(new Date());
+        if (deleted > 0) {
+            System.out.println("Removed " + deleted + " expired idempotency keys");
+        }
+    }
+
+    private IdempotencyRecord newRecord(String keyHash, String fingerprint, String jobId) {
+        Date expiresAt = new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(ttlHours));
+        return new IdempotencyRecord(keyHash, jobId, fingerprint, expiresAt);
+    }
+
+    private boolean isExpired(IdempotencyRecord record) {
+        return record.getExpiresAt().getTime() < System.currentTimeMillis();
+    }
+}
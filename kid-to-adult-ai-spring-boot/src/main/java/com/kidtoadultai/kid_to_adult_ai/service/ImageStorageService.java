@@ -0,0 +1,80 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+
+/**
+ * Writes generated images to the upload directory served by ImageController
+ */
+@Service
+public class ImageStorageService {
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Value("${image.upload.dir:./uploads}")
+    private String uploadDir;
+
+    /**
+     * Decode a base64 data URL and save it as generated_{jobId}.png.
+     * Returns the public URL of the image.
+     */
+    public String saveGeneratedImage(String base64Image, String jobId) {
+        try {
+            // Remove data URL prefix
+            byte[] imageBytes = metrics.stage("image_decode",
+                    () -> Base64.getDecoder().decode(base64Image.substring(base64Image.indexOf(",") + 1)));
+            metrics.recordImageSize("generated", imageBytes.length);
+
+            // Save to file
+            String fileName = getGeneratedFilename(jobId);
+            Path filePath = Paths.get(uploadDir, fileName);
+            metrics.stage("file_write", () -> {
+                Files.createDirectories(filePath.getParent());
+                return Files.write(filePath, imageBytes);
+            });
+
+            return "/api/images/" + fileName;
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to save image", e);
+        }
+    }
+
+    /**
+     * Stream image bytes (e.g. a remote download) into generated_{jobId}.png without buffering them.
+     * Returns the public URL of the image.
+     */
+    public String saveGeneratedImage(InputStream imageStream, String jobId) {
+        try {
+            String fileName = getGeneratedFilename(jobId);
+            Path filePath = Paths.get(uploadDir, fileName);
+            long bytes = metrics.stage("file_write", () -> {
+                Files.createDirectories(filePath.getParent());
+                return Files.copy(imageStream, filePath, StandardCopyOption.REPLACE_EXISTING);
+            });
+            metrics.recordImageSize("generated", bytes);
+
+            return "/api/images/" + fileName;
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to save image", e);
+        }
+    }
+
+    public String getGeneratedFilename(String jobId) {
+        return "generated_" + jobId + ".png";
+    }
+
+    public Path resolve(String fileName) {
+        return Paths.get(uploadDir, fileName);
+    }
+}
@@ -0,0 +1,96 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets in a map, guarded by striped locks so clients only contend when their keys share a stripe
+ */
+@Component
+@ConditionalOnProperty(name = "ratelimit.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryRateLimitStore implements RateLimitStore {
+
+    private static final int STRIPES = 64;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final LongSupplier nanoTime;
+
+    public InMemoryRateLimitStore() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * With the clock refills are measured on, so tests can set it
+     */
+    InMemoryRateLimitStore(LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public long tryAcquire(String key, long capacity, double refillPerSecond) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            long now = nanoTime.getAsLong();
+            TokenBucket bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(capacity, now));
+            return bucket.take(capacity, refillPerSecond, now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop buckets nobody used for a while; a returning client starts with a full bucket anyway
+     */
+    @Scheduled(fixedRate = 600000) // Run every 10 minutes
+    public void evictIdleBuckets() {
+        long now = nanoTime.getAsLong();
+        for (String key : buckets.keySet()) {
+            ReentrantLock lock = lockFor(key);
+            lock.lock();
+            try {
+                TokenBucket bucket = buckets.get(key);
+                if (bucket != null && now - bucket.updatedAt > IDLE_NANOS) {
+                    buckets.remove(key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private ReentrantLock lockFor(String key) {
+        return locks[(key.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    private static class TokenBucket {
+        private double tokens;
+        private long updatedAt;
+
+        TokenBucket(long capacity, long now) {
+            this.tokens = capacity;
+            this.updatedAt = now;
+        }
+
+        long take(long capacity, double refillPerSecond, long now) {
+            tokens = Math.min(capacity, tokens + (now - updatedAt) / 1e9 * refillPerSecond);
+            updatedAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / refillPerSecond * 1000);
+        }
+    }
+}
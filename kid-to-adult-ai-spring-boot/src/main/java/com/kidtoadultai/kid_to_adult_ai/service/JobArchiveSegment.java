@@ -0,0 +1,230 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * File format of the job archive: an immutable, gzip-compressed segment that stores a batch of jobs
+ * column by column (all job ids, then all statuses, ...). Status and profession are dictionary-encoded,
+ * so the repetitive columns cost a byte per job before compression.
+ */
+final class JobArchiveSegment {
+
+    private static final int MAGIC = 0x4B4A4131; // "KJA1"
+
+    private JobArchiveSegment() {
+    }
+
+    static void write(Path file, List<JobStatus> jobs) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(file), 65536)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(jobs.size());
+
+            writeStrings(out, jobs, JobStatus::getJobId);
+            writeDictionary(out, jobs, JobStatus::getStatus);
+            writeDictionary(out, jobs, JobStatus::getProfession);
+            for (JobStatus job : jobs) {
+                out.writeInt(job.getTargetAge());
+            }
+            writeStrings(out, jobs, JobStatus::getOriginalFilename);
+            writeStrings(out, jobs, JobStatus::getGeneratedFilename);
+            writeStrings(out, jobs, JobStatus::getImageUrl);
+            writeStrings(out, jobs, JobStatus::getBase64Image);
+            writeStrings(out, jobs, JobStatus::getErrorMessage);
+            writeDates(out, jobs, JobStatus::getCreatedAt);
+            writeDates(out, jobs, JobStatus::getStartedAt);
+            writeDates(out, jobs, JobStatus::getCompletedAt);
+            for (JobStatus job : jobs) {
+                out.writeInt(job.getProcessingTime());
+            }
+            writeStrings(out, jobs, JobStatus::getParentJobId);
+            for (JobStatus job : jobs) {
+                out.writeInt(job.getChildCount() != null ? job.getChildCount() : -1);
+            }
+            for (JobStatus job : jobs) {
+                out.writeLong(job.getVersion() != null ? job.getVersion() : -1);
+            }
+            for (JobStatus job : jobs) {
+                out.writeInt(job.getMetadata().size());
+                for (Map.Entry<String, String> entry : job.getMetadata().entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode a segment, keeping the jobs that match the filter, in stored (creation) order
+     */
+    static List<JobStatus> read(Path file, Predicate<JobStatus> filter) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file), 65536)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a job archive segment: " + file);
+            }
+            int count = in.readInt();
+            JobStatus[] jobs = new JobStatus[count];
+            for (int i = 0; i < count; i++) {
+                jobs[i] = new JobStatus();
+            }
+
+            for (JobStatus job : jobs) {
+                job.setJobId(readString(in));
+            }
+            String[] statuses = readDictionary(in, count);
+            String[] professions = readDictionary(in, count);
+            for (int i = 0; i < count; i++) {
+                jobs[i].setStatus(statuses[i]);
+                jobs[i].setProfession(professions[i]);
+            }
+            for (JobStatus job : jobs) {
+                job.setTargetAge(in.readInt());
+            }
+            for (JobStatus job : jobs) {
+                job.setOriginalFilename(readString(in));
+            }
+            for (JobStatus job : jobs) {
+                job.setGeneratedFilename(readString(in));
+            }
+            for (JobStatus job : jobs) {
+                job.setImageUrl(readString(in));
+            }
+            for (JobStatus job : jobs) {
+                job.setBase64Image(readString(in));
+            }
+            for (JobStatus job : jobs) {
+                job.setErrorMessage(readString(in));
+            }
+            for (JobStatus job : jobs) {
+                job.setCreatedAt(readDate(in));
+            }
+            for (JobStatus job : jobs) {
+                job.setStartedAt(readDate(in));
+            }
+            for (JobStatus job : jobs) {
+                job.setCompletedAt(readDate(in));
+            }
+            for (JobStatus job : jobs) {
+                job.setProcessingTime(in.readInt());
+            }
+            for (JobStatus job : jobs) {
+                job.setParentJobId(readString(in));
+            }
+            for (JobStatus job : jobs) {
+                int childCount = in.readInt();
+                job.setChildCount(childCount >= 0 ? childCount : null);
+            }
+            for (JobStatus job : jobs) {
+                long version = in.readLong();
+                job.setVersion(version >= 0 ? version : null);
+            }
+            for (JobStatus job : jobs) {
+                int entries = in.readInt();
+                Map<String, String> metadata = new HashMap<>();
+                for (int e = 0; e < entries; e++) {
+                    metadata.put(readString(in), readString(in));
+                }
+                job.setMetadata(metadata);
+            }
+
+            List<JobStatus> matches = new ArrayList<>();
+            for (JobStatus job : jobs) {
+                if (filter.test(job)) {
+                    matches.add(job);
+                }
+            }
+            return matches;
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<JobStatus> jobs, Function<JobStatus, String> column) throws IOException {
+        for (JobStatus job : jobs) {
+            writeString(out, column.apply(job));
+        }
+    }
+
+    /**
+     * Distinct values once, then one code per job
+     */
+    private static void writeDictionary(DataOutputStream out, List<JobStatus> jobs, Function<JobStatus, String> column) throws IOException {
+        Map<String, Integer> codes = new LinkedHashMap<>();
+        for (JobStatus job : jobs) {
+            codes.putIfAbsent(column.apply(job), codes.size());
+        }
+        out.writeInt(codes.size());
+        for (String value : codes.keySet()) {
+            writeString(out, value);
+        }
+        for (JobStatus job : jobs) {
+            writeCode(out, codes.get(column.apply(job)), codes.size());
+        }
+    }
+
+    private static String[] readDictionary(DataInputStream in, int count) throws IOException {
+        String[] dictionary = new String[in.readInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = readString(in);
+        }
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = dictionary[readCode(in, dictionary.length)];
+        }
+        return values;
+    }
+
+    private static void writeCode(DataOutputStream out, int code, int dictionarySize) throws IOException {
+        if (dictionarySize <= 256) {
+            out.writeByte(code);
+        } else {
+            out.writeInt(code);
+        }
+    }
+
+    private static int readCode(DataInputStream in, int dictionarySize) throws IOException {
+        return dictionarySize <= 256 ? in.readUnsignedByte() : in.readInt();
+    }
+
+    private static void writeDates(DataOutputStream out, List<JobStatus> jobs, Function<JobStatus, Date> column) throws IOException {
+        for (JobStatus job : jobs) {
+            Date date = column.apply(job);
+            out.writeLong(date != null ? date.getTime() : Long.MIN_VALUE);
+        }
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        return millis != Long.MIN_VALUE ? new Date(millis) : null;
+    }
+
+    // Length-prefixed UTF-8 (writeUTF is limited to 64KB); -1 for null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,287 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import jakarta.annotation.PostConstruct;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Cold storage for old jobs. Jobs older than job.archive.after-days are moved out of job_status into
+ * append-only segment files (JobArchiveSegment) under job.archive.dir, oldest first.
+ * index.json holds a small summary per segment (time range, counts by status and profession): enough to
+ * answer statistics without opening a segment, and to skip segments that cannot match a job query.
+ */
+@Service
+public class JobArchiveService {
+
+    private static final String INDEX_FILE = "index.json";
+
+    @Autowired
+    private JobStore jobStore;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private JsonMapper jsonMapper;
+
+    @Value("${job.archive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${job.archive.after-days:7}")
+    private long afterDays;
+
+    @Value("${job.archive.dir:./job-archive}")
+    private String archiveDir;
+
+    // Jobs per segment
+    @Value("${job.archive.batch-size:1000}")
+    private int batchSize;
+
+    // Replaced as a whole on every archive run, so readers never see a half-updated list
+    private volatile List<SegmentSummary> segments = List.of();
+    private final ReentrantLock archiveLock = new ReentrantLock();
+
+    @PostConstruct
+    public void start() {
+        Path dir = Paths.get(archiveDir);
+        Path index = dir.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            return;
+        }
+
+        try {
+            segments = List.of(jsonMapper.readValue(index.toFile(), SegmentSummary[].class));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to read job archive index " + index, e);
+        }
+
+        // A segment written by a run that died before updating the index: its jobs are still in the table
+        Set<String> indexed = new HashSet<>();
+        segments.forEach(segment -> indexed.add(segment.getFile()));
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".seg") && !indexed.contains(name) || name.endsWith(".tmp")) {
+                    Files.delete(file);
+                    System.out.println("Removed unindexed archive file: " + name);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to scan job archive: " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Move jobs older than job.archive.after-days into new segments, one batch per segment
+     */
+    @Scheduled(cron = "${job.archive.cron:0 30 1 * * ?}") // Daily at 1:30 AM, before the purge
+    public void archiveOldJobs() {
+        if (!enabled || !archiveLock.tryLock()) {
+            return;
+        }
+        try {
+            Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(afterDays));
+            int archived = 0;
+            int segmentCount = 0;
+            List<JobStatus> batch;
+            do {
+                batch = transactionTemplate.execute(status -> loadBatch(cutoff));
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                // Jobs at or below the archive's last (createdAt, jobId) are already in a segment:
+                // an earlier run stopped between writing it and deleting the rows
+                List<JobStatus> fresh = new ArrayList<>();
+                for (JobStatus job : batch) {
+                    if (!isArchived(job)) {
+                        fresh.add(job);
+                    }
+                }
+                if (!fresh.isEmpty()) {
+                    appendSegment(fresh);
+                    archived += fresh.size();
+                    segmentCount++;
+                }
+
+                List<String> jobIds = batch.stream().map(JobStatus::getJobId).toList();
+                transactionTemplate.executeWithoutResult(status -> jobStore.deleteAllById(jobIds));
+                eventPublisher.publishEvent(new JobsArchivedEvent(jobIds));
+            } while (batch.size() == batchSize);
+
+            if (archived > 0) {
+                System.out.println("Archived " + archived + " jobs older than " + afterDays + " days into " + segmentCount + " segments");
+            }
+        } catch (Exception e) {
+            System.err.println("Job archiving failed: " + e.getMessage());
+        } finally {
+            archiveLock.unlock();
+        }
+    }
+
+    /**
+     * Archived jobs matching the filters (null = any), newest first.
+     * status and profession are case-insensitive; from is inclusive, to exclusive.
+     */
+    public List<JobStatus> findJobs(String status, String profession, Date from, Date to) {
+        List<JobStatus> jobs = new ArrayList<>();
+        for (SegmentSummary segment : segments) {
+            if (!segment.mayContain(status, profession, from, to)) {
+                metrics.recordArchiveSegment("skipped");
+                continue;
+            }
+            metrics.recordArchiveSegment("read");
+            try {
+                jobs.addAll(JobArchiveSegment.read(Paths.get(archiveDir, segment.getFile()), job ->
+                        (status == null || status.equalsIgnoreCase(job.getStatus()))
+                                && (profession == null || profession.equalsIgnoreCase(job.getProfession()))
+                                && (from == null || !job.getCreatedAt().before(from))
+                                && (to == null || job.getCreatedAt().before(to))));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read archive segment " + segment.getFile(), e);
+            }
+        }
+        Collections.reverse(jobs);
+        return jobs;
+    }
+
+    /**
+     * Totals over all segments, from the index alone
+     */
+    public SegmentSummary getSummary() {
+        SegmentSummary total = new SegmentSummary();
+        for (SegmentSummary segment : segments) {
+            total.add(segment);
+        }
+        return total;
+    }
+
+    private List<JobStatus> loadBatch(Date cutoff) {
+        List<JobStatus> jobs = jobStore.findByCreatedAtBeforeOrderByCreatedAtAscJobIdAsc(cutoff, batchSize);
+        // Metadata is lazy; load it while the session is open
+        jobs.forEach(job -> job.getMetadata().size());
+        return jobs;
+    }
+
+    private boolean isArchived(JobStatus job) {
+        List<SegmentSummary> current = segments;
+        if (current.isEmpty()) {
+            return false;
+        }
+        SegmentSummary last = current.get(current.size() - 1);
+        long createdAt = job.getCreatedAt().getTime();
+        return createdAt < last.getLastCreatedAt()
+                || createdAt == last.getLastCreatedAt() && job.getJobId().compareTo(last.getLastJobId()) <= 0;
+    }
+
+    /**
+     * Write the segment, then publish it in the index; both via rename so a crash leaves no partial file in use
+     */
+    private void appendSegment(List<JobStatus> jobs) throws IOException {
+        Path dir = Paths.get(archiveDir);
+        Files.createDirectories(dir);
+
+        SegmentSummary summary = SegmentSummary.of(jobs);
+        String name = String.format("jobs-%tY%<tm%<td-%d.seg", new Date(summary.getFirstCreatedAt()), summary.getLastCreatedAt());
+        Path tmp = dir.resolve(name + ".tmp");
+        JobArchiveSegment.write(tmp, jobs);
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        summary.setFile(name);
+        summary.setBytes(Files.size(dir.resolve(name)));
+
+        List<SegmentSummary> updated = new ArrayList<>(segments);
+        updated.add(summary);
+        Path indexTmp = dir.resolve(INDEX_FILE + ".tmp");
+        jsonMapper.writeValue(indexTmp.toFile(), updated);
+        Files.move(indexTmp, dir.resolve(INDEX_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        segments = List.copyOf(updated);
+    }
+
+    /**
+     * Index entry of one segment. Profession and processing-time figures leave out fan-out parents,
+     * like the statistics queries on job_status.
+     */
+    @Data
+    public static class SegmentSummary {
+        private String file;
+        private long bytes;
+        private long rows;
+        private long firstCreatedAt;
+        private long lastCreatedAt;
+        private String lastJobId;
+        private Map<String, Long> statusCounts = new HashMap<>();
+        private Map<String, Long> professionCounts = new HashMap<>();
+        // Every distinct profession value, lower case, parents included; for skipping segments
+        private Set<String> professions = new HashSet<>();
+        private long processingTimeSum;
+        private long processingTimeCount;
+
+        static SegmentSummary of(List<JobStatus> jobs) {
+            SegmentSummary summary = new SegmentSummary();
+            summary.setRows(jobs.size());
+            summary.setFirstCreatedAt(jobs.get(0).getCreatedAt().getTime());
+            summary.setLastCreatedAt(jobs.get(jobs.size() - 1).getCreatedAt().getTime());
+            summary.setLastJobId(jobs.get(jobs.size() - 1).getJobId());
+            for (JobStatus job : jobs) {
+                summary.statusCounts.merge(job.getStatus(), 1L, Long::sum);
+                summary.professions.add(job.getProfession().toLowerCase());
+                if (job.getChildCount() == null) {
+                    summary.professionCounts.merge(job.getProfession(), 1L, Long::sum);
+                    if ("COMPLETED".equals(job.getStatus()) && job.getProcessingTime() > 0) {
+                        summary.processingTimeSum += job.getProcessingTime();
+                        summary.processingTimeCount++;
+                    }
+                }
+            }
+            return summary;
+        }
+
+        void add(SegmentSummary other) {
+            bytes += other.bytes;
+            rows += other.rows;
+            other.statusCounts.forEach((status, count) -> statusCounts.merge(status, count, Long::sum));
+            other.professionCounts.forEach((profession, count) -> professionCounts.merge(profession, count, Long::sum));
+            processingTimeSum += other.processingTimeSum;
+            processingTimeCount += other.processingTimeCount;
+        }
+
+        public long countByStatus(String status) {
+            return statusCounts.getOrDefault(status, 0L);
+        }
+
+        boolean mayContain(String status, String profession, Date from, Date to) {
+            boolean statusMatch = status == null || statusCounts.keySet().stream().anyMatch(status::equalsIgnoreCase);
+            return statusMatch
+                    && (profession == null || professions.contains(profession.toLowerCase()))
+                    && (from == null || lastCreatedAt >= from.getTime())
+                    && (to == null || firstCreatedAt < to.getTime());
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+/**
+ * Published by JobTrackingService whenever a job's stored state changes.
+ * parentJobId is set for fan-out children, whose parent's combined status changes with them.
+ */
+public record JobChangedEvent(String jobId, String parentJobId) {
+}
@@ -0,0 +1,171 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.dto.ImageResponse;
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Status bodies of jobs and fan-out parents, shared by the status, batch and submission endpoints
+ */
+@Component
+public class JobStatusResponses {
+
+    @Autowired
+    private JobTrackingService jobTrackingService;
+
+    @Autowired
+    private GenerationQueue generationQueue;
+
+    @Autowired
+    private EtaEstimator etaEstimator;
+
+    public ImageResponse buildStatus(JobStatus jobStatus) {
+        ImageResponse response = new ImageResponse();
+        response.setJobId(jobStatus.getJobId());
+        response.setStatus(jobStatus.getStatus());
+        response.setProfession(jobStatus.getProfession());
+        response.setAge(jobStatus.getTargetAge());
+        response.setCreatedAt(jobStatus.getCreatedAt());
+        // Add appropriate message based on status
+        switch (jobStatus.getStatus()) {
+            case "PROCESSING":
+                EtaEstimator.Estimate estimate = etaEstimator.estimate(jobStatus.getJobId());
+                if (estimate != null && estimate.queuePosition() != null) {
+                    response.setMessage("Waiting for a free slot (" + estimate.queuePosition() + " jobs ahead). Please wait...");
+                } else {
+                    response.setMessage("Image is being generated. Please wait...");
+                }
+                response.setProgress(estimate != null ? progressOf(jobStatus, estimate) : 50);
+                applyEstimate(response, estimate);
+                break;
+            case "COMPLETED":
+                response.setMessage("Image generation completed successfully!");
+                response.setImageUrl(jobStatus.getImageUrl());
+                response.setProgress(100);
+                if (jobStatus.getCompletedAt() != null) {
+                    response.setCompletedAt(jobStatus.getCompletedAt());
+                }
+                break;
+            case "FAILED":
+                response.setMessage("Image generation failed: " + jobStatus.getErrorMessage());
+                response.setProgress(0);
+                break;
+            case "CANCELLED":
+                response.setMessage("Image generation was cancelled: " + jobStatus.getErrorMessage());
+                response.setProgress(0);
+                break;
+            default:
+                response.setMessage("Unknown status");
+        }
+
+        return response;
+    }
+
+    /**
+     * Combined status of a fan-out parent; progress is the share of children that finished
+     */
+    public ImageResponse getFanOutStatus(JobStatus parent, List<JobStatus> children) {
+        List<Map<String, Object>> childSummaries = new ArrayList<>();
+        int finished = 0;
+        int completed = 0;
+        String firstImageUrl = null;
+        for (JobStatus child : children) {
+            // The client polls the parent only, so keep the children from being cancelled as abandoned
+            generationQueue.recordPoll(child.getJobId());
+
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("jobId", child.getJobId());
+            summary.put("profession", child.getProfession());
+            summary.put("age", child.getTargetAge());
+            summary.put("status", child.getStatus());
+            if (child.getImageUrl() != null) {
+                summary.put("imageUrl", child.getImageUrl());
+            }
+            childSummaries.add(summary);
+
+            if (!"PROCESSING".equals(child.getStatus())) {
+                finished++;
+            }
+            if ("COMPLETED".equals(child.getStatus())) {
+                completed++;
+                if (firstImageUrl == null) {
+                    firstImageUrl = child.getImageUrl();
+                }
+            }
+        }
+
+        // A bulk upload still being read may get more children
+        String status = "PROCESSING".equals(parent.getStatus())
+                ? jobTrackingService.isReceiving(parent.getJobId()) ? "PROCESSING" : jobTrackingService.aggregateStatus(children)
+                : parent.getStatus();
+
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("children", childSummaries);
+        metadata.put("totalChildren", children.size());
+        metadata.put("completedChildren", completed);
+
+        ImageResponse response = new ImageResponse();
+        response.setJobId(parent.getJobId());
+        response.setStatus(status);
+        response.setProfession(parent.getProfession());
+        response.setAge(parent.getTargetAge());
+        response.setCreatedAt(parent.getCreatedAt());
+        response.setCompletedAt(parent.getCompletedAt());
+        response.setImageUrl(firstImageUrl);
+        response.setProgress(children.isEmpty() ? 0 : finished * 100 / children.size());
+        response.setMessage(finished + " of " + children.size() + " images finished, " + completed + " completed");
+        response.setMetadata(metadata);
+        if ("PROCESSING".equals(status)) {
+            List<String> pending = new ArrayList<>();
+            for (JobStatus child : children) {
+                if ("PROCESSING".equals(child.getStatus())) {
+                    pending.add(child.getJobId());
+                }
+            }
+            applyEstimate(response, etaEstimator.estimate(pending));
+        }
+        return response;
+    }
+
+    /**
+     * Add the predicted wait, completion time and suggested poll interval to a response
+     */
+    public static void applyEstimate(ImageResponse response, EtaEstimator.Estimate estimate) {
+        if (estimate == null) {
+            return;
+        }
+        response.setQueuePosition(estimate.queuePosition());
+        response.setEstimatedWaitSeconds((int) Math.ceil(estimate.waitSeconds()));
+        response.setEstimatedSecondsRemaining((int) Math.ceil(estimate.remainingSeconds()));
+        response.setEstimatedCompletionAt(estimate.completionAt());
+        response.setPollAfterSeconds(estimate.pollAfterSeconds());
+    }
+
+    /**
+     * If-None-Match holds a comma-separated list of tags, possibly weak (W/"..."), or *
+     */
+    public static boolean matchesETag(String ifNoneMatch, String eTag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Share of the job's predicted total time that has passed, kept below 100 until it is done
+     */
+    private static int progressOf(JobStatus jobStatus, EtaEstimator.Estimate estimate) {
+        double elapsed = Math.max(0, System.currentTimeMillis() - jobStatus.getCreatedAt().getTime()) / 1000.0;
+        double total = elapsed + estimate.remainingSeconds();
+        return total > 0 ? (int) Math.min(99, elapsed * 100 / total) : 0;
+    }
+}
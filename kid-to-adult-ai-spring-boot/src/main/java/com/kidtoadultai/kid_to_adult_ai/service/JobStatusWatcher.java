@@ -0,0 +1,68 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import io.micrometer.core.instrument.Gauge;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wakes long-polling status requests when their job changes.
+ * Listeners run after the change has committed, so a woken request reads the new state.
+ */
+@Service
+public class JobStatusWatcher {
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    private final ConcurrentHashMap<String, Set<Runnable>> watchers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void registerGauge() {
+        Gauge.builder("job.status.waiting", this, JobStatusWatcher::getWatcherCount)
+                .description("Status requests parked in a long poll")
+                .register(metrics.getRegistry());
+    }
+
+    /**
+     * Run listener once on the next change of jobId. Call unwatch when the listener is no longer needed.
+     */
+    public void watch(String jobId, Runnable listener) {
+        // Added inside compute, so unwatch or a notification cannot drop the set between lookup and add
+        watchers.compute(jobId, (id, listeners) -> {
+            Set<Runnable> updated = listeners != null ? listeners : ConcurrentHashMap.newKeySet();
+            updated.add(listener);
+            return updated;
+        });
+    }
+
+    public void unwatch(String jobId, Runnable listener) {
+        watchers.computeIfPresent(jobId, (id, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    public int getWatcherCount() {
+        return watchers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onJobChanged(JobChangedEvent event) {
+        notify(event.jobId());
+        if (event.parentJobId() != null) {
+            notify(event.parentJobId());
+        }
+    }
+
+    private void notify(String jobId) {
+        Set<Runnable> listeners = watchers.remove(jobId);
+        if (listeners != null) {
+            listeners.forEach(Runnable::run);
+        }
+    }
+}
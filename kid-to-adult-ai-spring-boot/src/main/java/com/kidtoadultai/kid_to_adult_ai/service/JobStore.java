@@ -0,0 +1,75 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.repository.JobStatusRepository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Where job rows live. JpaJobStore keeps them in the job_status table; EmbeddedJobStore in an append-only
+ * log file on the local disk, for single-node installs without a database server (job.store=embedded).
+ * Methods mirror the JobStatusRepository queries they replace.
+ */
+public interface JobStore {
+
+    /**
+     * Insert (no jobId yet: one is generated, createdAt set and version 0) or update (version bumped)
+     */
+    JobStatus save(JobStatus jobStatus);
+
+    Optional<JobStatus> findById(String jobId);
+
+    /**
+     * Set the job's status to newStatus only if it is still expectedStatus. False when the job is gone or
+     * another caller changed the status first, so of two concurrent callers exactly one wins
+     */
+    boolean compareAndSetStatus(String jobId, String expectedStatus, String newStatus);
+
+    void deleteById(String jobId);
+
+    void deleteAllById(Iterable<String> jobIds);
+
+    long count();
+
+    long countByStatus(String status);
+
+    List<JobStatus> findAllByOrderByCreatedAtDesc();
+
+    List<JobStatus> findByStatusOrderByCreatedAtDesc(String status);
+
+    List<JobStatus> findByProfessionOrderByCreatedAtDesc(String profession);
+
+    List<JobStatus> findByCreatedAtBefore(Date date);
+
+    /**
+     * The oldest jobs created before date, at most limit, ties broken by jobId
+     */
+    List<JobStatus> findByCreatedAtBeforeOrderByCreatedAtAscJobIdAsc(Date date, int limit);
+
+    List<JobStatus> findByParentJobIdOrderByCreatedAtAsc(String parentJobId);
+
+    /**
+     * Like findByParentJobIdOrderByCreatedAtAsc, but always the stored state, also where a persistence
+     * context would hand back entities it loaded earlier
+     */
+    List<JobStatusRepository.ChildOutcome> findOutcomesByParentJobIdOrderByCreatedAtAsc(String parentJobId);
+
+    /**
+     * The most recently completed jobs with the given status that are not fan-out parents, at most limit
+     */
+    List<JobStatus> findByStatusAndChildCountIsNullOrderByCompletedAtDesc(String status, int limit);
+
+    /**
+     * Average processingTime of completed non-parent jobs that have one, or null when there are none
+     */
+    Double getAverageProcessingTime();
+
+    long countTimedJobs();
+
+    /**
+     * (profession, count) of non-parent jobs, most frequent first
+     */
+    List<Object[]> getProfessionStatistics();
+}
@@ -2,7 +2,11 @@ package com.kidtoadultai.kid_to_adult_ai.service;
 
 import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
 import com.kidtoadultai.kid_to_adult_ai.repository.JobStatusRepository;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -15,11 +19,32 @@ import java.util.concurrent.TimeUnit;
 public class JobTrackingService {
 
     @Autowired
-    private JobStatusRepository jobStatusRepository;
+    private JobStore jobStore;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private JobArchiveService jobArchiveService;
+
+    @Autowired
+    private WebhookService webhookService;
+
+    @Autowired
+    private Tracer tracer;
+
+    @Autowired
+    private TraceRecorder traceRecorder;
 
     // In-memory cache for quick access (optional)
     private final ConcurrentHashMap<String, JobStatus> jobCache = new ConcurrentHashMap<>();
 
+    // Bulk parents whose upload is still being read; they cannot finish before it ends
+    private final Set<String> receivingParents = ConcurrentHashMap.newKeySet();
+
     // Cache expiration time (1 hour)
     private static final long CACHE_EXPIRY_MS = TimeUnit.HOURS.toMillis(1);
 
@@ -28,22 +53,149 @@ public class JobTrackingService {
      */
     @Transactional
     public JobStatus createJob(String profession, int targetAge, String originalFilename) {
-        String jobId = UUID.randomUUID().toString();
+        return createJob(profession, targetAge, originalFilename, null);
+    }
+
+    /**
+     * Create a child job of a fan-out request
+     */
+    @Transactional
+    public JobStatus createJob(String profession, int targetAge, String originalFilename, String parentJobId) {
+        return createJob(profession, targetAge, originalFilename, parentJobId, null);
+    }
 
+    /**
+     * Create a job with initial metadata (generation settings), so they are stored with the first insert
+     */
+    @Transactional
+    public JobStatus createJob(String profession, int targetAge, String originalFilename, String parentJobId,
+                               Map<String, String> metadata) {
+        // jobId is generated on persist; assigning it here makes JPA treat the entity as detached
         JobStatus jobStatus = new JobStatus();
-        jobStatus.setJobId(jobId);
         jobStatus.setStatus("PROCESSING");
         jobStatus.setProfession(profession);
         jobStatus.setTargetAge(targetAge);
         jobStatus.setOriginalFilename(originalFilename);
         jobStatus.setStartedAt(new Date());
+        jobStatus.setParentJobId(parentJobId);
+        if (metadata != null) {
+            jobStatus.getMetadata().putAll(metadata);
+        }
+        Span span = recordTrace(jobStatus);
+
+        JobStatus savedJob = metrics.stage("db_create", () -> jobStore.save(jobStatus));
+        // The request's span gets the job id; a fan-out request is tagged with its parent job
+        if (span != null && parentJobId == null) {
+            span.tag("job.id", savedJob.getJobId());
+        }
+        jobCache.put(savedJob.getJobId(), savedJob);
+        webhookService.record(savedJob, "job.queued", null);
+
+        return savedJob;
+    }
+
+    /**
+     * Create the parent job of a fan-out request.
+     * It does no generation itself; its status follows its children.
+     */
+    @Transactional
+    public JobStatus createParentJob(Collection<String> professions, Collection<Integer> ages,
+                                     String originalFilename, int childCount) {
+        return createParentJob(professions, ages, originalFilename, childCount, null);
+    }
+
+    /**
+     * Create the parent job of a fan-out request with initial metadata
+     */
+    @Transactional
+    public JobStatus createParentJob(Collection<String> professions, Collection<Integer> ages,
+                                     String originalFilename, int childCount, Map<String, String> metadata) {
+        JobStatus jobStatus = new JobStatus();
+        jobStatus.setStatus("PROCESSING");
+        jobStatus.setProfession(String.join(",", professions));
+        jobStatus.setTargetAge(ages.iterator().next());
+        jobStatus.setOriginalFilename(originalFilename);
+        jobStatus.setStartedAt(new Date());
+        jobStatus.setChildCount(childCount);
+        if (metadata != null) {
+            jobStatus.getMetadata().putAll(metadata);
+        }
+        Span span = recordTrace(jobStatus);
 
-        JobStatus savedJob = jobStatusRepository.save(jobStatus);
-        jobCache.put(jobId, savedJob);
+        JobStatus savedJob = metrics.stage("db_create", () -> jobStore.save(jobStatus));
+        if (span != null) {
+            span.tag("job.id", savedJob.getJobId());
+        }
+        jobCache.put(savedJob.getJobId(), savedJob);
+        webhookService.record(savedJob, "job.queued", null);
 
         return savedJob;
     }
 
+    /**
+     * Keep a fan-out parent open while children are still being added (a bulk upload being read).
+     * Call right after createParentJob, before its first child exists.
+     */
+    public void beginParentIngest(String parentJobId) {
+        receivingParents.add(parentJobId);
+    }
+
+    public boolean isReceiving(String parentJobId) {
+        return receivingParents.contains(parentJobId);
+    }
+
+    /**
+     * Close an open parent once all of its children exist: record what it ended up with, then
+     * finish it if every child is already done
+     */
+    @Transactional
+    public void finishParentIngest(String parentJobId, Collection<String> professions, Collection<Integer> ages,
+                                   int childCount, Map<String, String> metadata) {
+        Optional<JobStatus> optionalJob = jobStore.findById(parentJobId);
+
+        if (optionalJob.isPresent()) {
+            JobStatus jobStatus = optionalJob.get();
+            if (!professions.isEmpty()) {
+                jobStatus.setProfession(String.join(",", professions));
+                jobStatus.setTargetAge(ages.iterator().next());
+            }
+            jobStatus.setChildCount(childCount);
+            if (metadata != null) {
+                jobStatus.getMetadata().putAll(metadata);
+            }
+
+            JobStatus updatedJob = metrics.stage("db_update", () -> jobStore.save(jobStatus));
+            jobCache.put(parentJobId, updatedJob);
+            eventPublisher.publishEvent(new JobChangedEvent(parentJobId, null));
+        }
+
+        receivingParents.remove(parentJobId);
+        finishParentJob(parentJobId);
+    }
+
+    /**
+     * Store the id of the trace creating the job (GET /trace/{jobId}); returns the current span, or null
+     */
+    private Span recordTrace(JobStatus jobStatus) {
+        Span span = tracer.currentSpan();
+        if (span != null) {
+            jobStatus.getMetadata().put("trace.id", span.context().traceId());
+            traceRecorder.markJobTrace(span.context().traceId());
+        }
+        return span;
+    }
+
+    /**
+     * A copy of the job's stored metadata, read from the database (cached jobs may not have it loaded),
+     * or null when the job does not exist
+     */
+    @Transactional(readOnly = true)
+    public Map<String, String> getJobMetadata(String jobId) {
+        return jobStore.findById(jobId)
+                .map(jobStatus -> (Map<String, String>) new HashMap<>(jobStatus.getMetadata()))
+                .orElse(null);
+    }
+
     /**
      * Update job status when completed successfully
      */
@@ -51,9 +203,9 @@ public class JobTrackingService {
     public void updateJobStatus(String jobId, String status, String imageUrl,
                                 String generatedFilename, Map<String, String> metadata) {
 
-        Optional<JobStatus> optionalJob = jobStatusRepository.findById(jobId);
+        Optional<JobStatus> optionalJob = jobStore.findById(jobId);
 
-        if (optionalJob.isPresent()) {
+        if (optionalJob.isPresent() && !isLateResult(optionalJob.get(), status)) {
             JobStatus jobStatus = optionalJob.get();
             jobStatus.setStatus(status);
             jobStatus.setImageUrl(imageUrl);
@@ -70,8 +222,10 @@ public class JobTrackingService {
                 jobStatus.getMetadata().putAll(metadata);
             }
 
-            JobStatus updatedJob = jobStatusRepository.save(jobStatus);
+            JobStatus updatedJob = metrics.stage("db_update", () -> jobStore.save(jobStatus));
             jobCache.put(jobId, updatedJob);
+            webhookService.record(updatedJob, eventTypeOf(status), null);
+            eventPublisher.publishEvent(new JobChangedEvent(jobId, updatedJob.getParentJobId()));
         }
     }
 
@@ -80,31 +234,210 @@ public class JobTrackingService {
      */
     @Transactional
     public void updateJobStatus(String jobId, String status, String errorMessage) {
-        Optional<JobStatus> optionalJob = jobStatusRepository.findById(jobId);
+        Optional<JobStatus> optionalJob = jobStore.findById(jobId);
 
-        if (optionalJob.isPresent()) {
+        if (optionalJob.isPresent() && !isLateResult(optionalJob.get(), status)) {
             JobStatus jobStatus = optionalJob.get();
             jobStatus.setStatus(status);
             jobStatus.setErrorMessage(errorMessage);
             jobStatus.setCompletedAt(new Date());
 
-            JobStatus updatedJob = jobStatusRepository.save(jobStatus);
+            JobStatus updatedJob = metrics.stage("db_update", () -> jobStore.save(jobStatus));
             jobCache.put(jobId, updatedJob);
+            webhookService.record(updatedJob, eventTypeOf(status), null);
+            eventPublisher.publishEvent(new JobChangedEvent(jobId, updatedJob.getParentJobId()));
         }
     }
 
+    /**
+     * Merge entries into a job's metadata without changing its status
+     */
+    @Transactional
+    public void updateJobMetadata(String jobId, Map<String, String> metadata) {
+        Optional<JobStatus> optionalJob = jobStore.findById(jobId);
+
+        if (optionalJob.isPresent()) {
+            JobStatus jobStatus = optionalJob.get();
+            jobStatus.getMetadata().putAll(metadata);
+
+            JobStatus updatedJob = metrics.stage("db_update", () -> jobStore.save(jobStatus));
+            jobCache.put(jobId, updatedJob);
+        }
+    }
+
+    /**
+     * Remove a job that was created but never started, e.g. a duplicate submission that lost the race
+     */
+    @Transactional
+    public void discardJob(String jobId) {
+        webhookService.discard(jobId);
+        jobStore.deleteById(jobId);
+        jobCache.remove(jobId);
+    }
+
+    /**
+     * A worker (or Replicate) started generating the job; only recorded for jobs with webhook subscribers
+     */
+    @Transactional
+    public void recordJobStarted(String jobId) {
+        recordJobEvent(jobId, "job.started", null);
+    }
+
+    /**
+     * The job passed a progress milestone (percent); only recorded for jobs with webhook subscribers
+     */
+    @Transactional
+    public void recordJobProgress(String jobId, int progress) {
+        recordJobEvent(jobId, "job.progress", progress);
+    }
+
+    private void recordJobEvent(String jobId, String eventType, Integer progress) {
+        if (!webhookService.isWatched(jobId)) {
+            return;
+        }
+        jobStore.findById(jobId)
+                .filter(jobStatus -> "PROCESSING".equals(jobStatus.getStatus()))
+                .ifPresent(jobStatus -> webhookService.record(jobStatus, eventType, progress));
+    }
+
+    private static String eventTypeOf(String status) {
+        switch (status) {
+            case "COMPLETED":
+                return "job.completed";
+            case "FAILED":
+                return "job.failed";
+            case "DELETED":
+                return "job.deleted";
+            default:
+                return "job.cancelled";
+        }
+    }
+
+    /**
+     * Mark a job as cancelled. Returns false if it already finished.
+     */
+    @Transactional
+    public boolean cancelJob(String jobId, String reason) {
+        Optional<JobStatus> optionalJob = jobStore.findById(jobId);
+
+        if (optionalJob.isPresent() && "PROCESSING".equals(optionalJob.get().getStatus())) {
+            updateJobStatus(jobId, "CANCELLED", reason);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Finish the fan-out parent of the given job once all of its children are done.
+     * Call after the child's own update has committed, so concurrent children see each other's results.
+     */
+    @Transactional
+    public void updateParentJob(String childJobId) {
+        JobStatus child = getJobStatus(childJobId);
+        if (child == null || child.getParentJobId() == null) {
+            return;
+        }
+
+        finishParentJob(child.getParentJobId());
+    }
+
+    private void finishParentJob(String parentJobId) {
+        if (receivingParents.contains(parentJobId)) {
+            return;
+        }
+
+        List<JobStatus> children = getChildJobs(parentJobId);
+        String outcome = aggregateStatus(children);
+        if ("PROCESSING".equals(outcome)) {
+            return;
+        }
+
+        JobStatus parent = getJobStatus(parentJobId);
+        if (parent == null || !"PROCESSING".equals(parent.getStatus())) {
+            return;
+        }
+
+        // Children finishing together can all get here; only the one that moves the parent on records it
+        if (!jobStore.compareAndSetStatus(parentJobId, "PROCESSING", outcome)) {
+            return;
+        }
+
+        int completed = 0;
+        for (JobStatus job : children) {
+            if ("COMPLETED".equals(job.getStatus())) {
+                completed++;
+            }
+        }
+
+        if ("COMPLETED".equals(outcome)) {
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put("completedChildren", String.valueOf(completed));
+            updateJobStatus(parentJobId, outcome, null, null, metadata);
+        } else {
+            updateJobStatus(parentJobId, outcome, "No child job completed");
+        }
+    }
+
+    /**
+     * Children of a fan-out job, in creation order
+     */
+    public List<JobStatus> getChildJobs(String parentJobId) {
+        return jobStore.findByParentJobIdOrderByCreatedAtAsc(parentJobId);
+    }
+
+    /**
+     * Current outcome of each child of a fan-out job, in creation order; unlike getChildJobs always read
+     * from the database, also within a long-lived persistence context
+     */
+    public List<JobStatusRepository.ChildOutcome> getChildOutcomes(String parentJobId) {
+        return jobStore.findOutcomesByParentJobIdOrderByCreatedAtAsc(parentJobId);
+    }
+
+    /**
+     * Combined status of fan-out children: PROCESSING while any child is, COMPLETED if at least
+     * one produced an image, CANCELLED if all were withdrawn, FAILED otherwise
+     */
+    public String aggregateStatus(List<JobStatus> children) {
+        boolean anyCompleted = false;
+        boolean allWithdrawn = true;
+        for (JobStatus child : children) {
+            String status = child.getStatus();
+            if ("PROCESSING".equals(status)) {
+                return "PROCESSING";
+            }
+            anyCompleted |= "COMPLETED".equals(status);
+            allWithdrawn &= "CANCELLED".equals(status) || "DELETED".equals(status);
+        }
+
+        if (anyCompleted) {
+            return "COMPLETED";
+        }
+        return allWithdrawn ? "CANCELLED" : "FAILED";
+    }
+
+    /**
+     * A result arriving after the job was cancelled or deleted must not overwrite it
+     */
+    private boolean isLateResult(JobStatus jobStatus, String newStatus) {
+        boolean withdrawn = "CANCELLED".equals(jobStatus.getStatus()) || "DELETED".equals(jobStatus.getStatus());
+        boolean outcome = "COMPLETED".equals(newStatus) || "FAILED".equals(newStatus);
+        return withdrawn && outcome;
+    }
+
     /**
      * Get job status by ID
      */
     public JobStatus getJobStatus(String jobId) {
         // Check cache first
         JobStatus cachedJob = jobCache.get(jobId);
+        metrics.recordCacheLookup(cachedJob != null);
         if (cachedJob != null) {
             return cachedJob;
         }
 
         // If not in cache, get from database
-        Optional<JobStatus> optionalJob = jobStatusRepository.findById(jobId);
+        Optional<JobStatus> optionalJob = jobStore.findById(jobId);
 
         if (optionalJob.isPresent()) {
             JobStatus job = optionalJob.get();
@@ -119,35 +452,39 @@ public class JobTrackingService {
      * Get all jobs (for admin purposes)
      */
     public List<JobStatus> getAllJobs() {
-        return jobStatusRepository.findAllByOrderByCreatedAtDesc();
+        return jobStore.findAllByOrderByCreatedAtDesc();
     }
 
     /**
      * Get jobs by status
      */
     public List<JobStatus> getJobsByStatus(String status) {
-        return jobStatusRepository.findByStatusOrderByCreatedAtDesc(status);
+        return jobStore.findByStatusOrderByCreatedAtDesc(status);
     }
 
     /**
      * Get jobs by profession
      */
     public List<JobStatus> getJobsByProfession(String profession) {
-        return jobStatusRepository.findByProfessionOrderByCreatedAtDesc(profession);
+        return jobStore.findByProfessionOrderByCreatedAtDesc(profession);
     }
 
     /**
-     * Delete old jobs (older than 30 days)
+     * Delete old jobs (older than 30 days) when they are not kept in the archive
      */
     @Transactional
     @Scheduled(cron = "0 0 2 * * ?") // Run daily at 2 AM
     public void cleanupOldJobs() {
+        if (jobArchiveService.isEnabled()) {
+            return;
+        }
+
         Date thirtyDaysAgo = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30));
 
-        List<JobStatus> oldJobs = jobStatusRepository.findByCreatedAtBefore(thirtyDaysAgo);
+        List<JobStatus> oldJobs = jobStore.findByCreatedAtBefore(thirtyDaysAgo);
 
         if (!oldJobs.isEmpty()) {
-            jobStatusRepository.deleteAll(oldJobs);
+            jobStore.deleteAllById(oldJobs.stream().map(JobStatus::getJobId).toList());
 
             // Also remove from cache
             oldJobs.forEach(job -> jobCache.remove(job.getJobId()));
@@ -156,6 +493,14 @@ public class JobTrackingService {
         }
     }
 
+    /**
+     * Archived jobs are gone from job_status; stop serving them from the cache
+     */
+    @EventListener
+    public void onJobsArchived(JobsArchivedEvent event) {
+        event.jobIds().forEach(jobCache::remove);
+    }
+
     /**
      * Clean expired cache entries
      */
@@ -174,31 +519,46 @@ public class JobTrackingService {
     }
 
     /**
-     * Get statistics
+     * Get statistics, optionally including archived jobs (from the archive index, no segment is read)
      */
-    public Map<String, Object> getStatistics() {
+    public Map<String, Object> getStatistics(boolean includeArchived) {
         Map<String, Object> stats = new HashMap<>();
+        JobArchiveService.SegmentSummary archived = includeArchived
+                ? jobArchiveService.getSummary() : new JobArchiveService.SegmentSummary();
 
-        long totalJobs = jobStatusRepository.count();
-        long completedJobs = jobStatusRepository.countByStatus("COMPLETED");
-        long failedJobs = jobStatusRepository.countByStatus("FAILED");
-        long processingJobs = jobStatusRepository.countByStatus("PROCESSING");
+        long totalJobs = jobStore.count() + archived.getRows();
+        long completedJobs = jobStore.countByStatus("COMPLETED") + archived.countByStatus("COMPLETED");
+        long failedJobs = jobStore.countByStatus("FAILED") + archived.countByStatus("FAILED");
+        long processingJobs = jobStore.countByStatus("PROCESSING") + archived.countByStatus("PROCESSING");
+        long cancelledJobs = jobStore.countByStatus("CANCELLED") + archived.countByStatus("CANCELLED");
 
         stats.put("totalJobs", totalJobs);
         stats.put("completedJobs", completedJobs);
         stats.put("failedJobs", failedJobs);
         stats.put("processingJobs", processingJobs);
+        stats.put("cancelledJobs", cancelledJobs);
+        stats.put("archivedJobs", archived.getRows());
 
         if (completedJobs > 0) {
-            Double avgProcessingTime = jobStatusRepository.getAverageProcessingTime();
-            stats.put("averageProcessingTime", avgProcessingTime != null ?
-                    String.format("%.2f seconds", avgProcessingTime) : "N/A");
+            Double avgProcessingTime = jobStore.getAverageProcessingTime();
+            long timedJobs = avgProcessingTime != null ? jobStore.countTimedJobs() : 0;
+            double totalTime = (avgProcessingTime != null ? avgProcessingTime * timedJobs : 0) + archived.getProcessingTimeSum();
+            timedJobs += archived.getProcessingTimeCount();
+            stats.put("averageProcessingTime", timedJobs > 0 ?
+                    String.format("%.2f seconds", totalTime / timedJobs) : "N/A");
         }
 
         // Get top professions
-        List<Object[]> professionStats = jobStatusRepository.getProfessionStatistics();
+        Map<String, Long> professionCounts = new HashMap<>(archived.getProfessionCounts());
+        for (Object[] row : jobStore.getProfessionStatistics()) {
+            professionCounts.merge((String) row[0], ((Number) row[1]).longValue(), Long::sum);
+        }
+        List<Object[]> professionStats = new ArrayList<>();
+        professionCounts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> professionStats.add(new Object[]{entry.getKey(), entry.getValue()}));
         stats.put("professionStats", professionStats);
 
         return stats;
     }
-}
\ No newline at end of file
+}
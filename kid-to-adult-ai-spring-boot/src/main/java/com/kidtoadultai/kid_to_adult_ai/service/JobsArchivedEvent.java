@@ -0,0 +1,9 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import java.util.List;
+
+/**
+ * Published by JobArchiveService after the given jobs were moved out of job_status
+ */
+public record JobsArchivedEvent(List<String> jobIds) {
+}
@@ -0,0 +1,115 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.repository.JobStatusRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Jobs in the job_status table (the default)
+ */
+@Component
+@ConditionalOnProperty(name = "job.store", havingValue = "jpa", matchIfMissing = true)
+public class JpaJobStore implements JobStore {
+
+    @Autowired
+    private JobStatusRepository jobStatusRepository;
+
+    @Override
+    public JobStatus save(JobStatus jobStatus) {
+        return jobStatusRepository.save(jobStatus);
+    }
+
+    @Override
+    public Optional<JobStatus> findById(String jobId) {
+        return jobStatusRepository.findById(jobId);
+    }
+
+    @Override
+    @Transactional
+    public boolean compareAndSetStatus(String jobId, String expectedStatus, String newStatus) {
+        return jobStatusRepository.updateStatusIf(jobId, expectedStatus, newStatus) == 1;
+    }
+
+    @Override
+    public void deleteById(String jobId) {
+        jobStatusRepository.deleteById(jobId);
+    }
+
+    @Override
+    public void deleteAllById(Iterable<String> jobIds) {
+        jobStatusRepository.deleteAllById(jobIds);
+    }
+
+    @Override
+    public long count() {
+        return jobStatusRepository.count();
+    }
+
+    @Override
+    public long countByStatus(String status) {
+        return jobStatusRepository.countByStatus(status);
+    }
+
+    @Override
+    public List<JobStatus> findAllByOrderByCreatedAtDesc() {
+        return jobStatusRepository.findAllByOrderByCreatedAtDesc();
+    }
+
+    @Override
+    public List<JobStatus> findByStatusOrderByCreatedAtDesc(String status) {
+        return jobStatusRepository.findByStatusOrderByCreatedAtDesc(status);
+    }
+
+    @Override
+    public List<JobStatus> findByProfessionOrderByCreatedAtDesc(String profession) {
+        return jobStatusRepository.findByProfessionOrderByCreatedAtDesc(profession);
+    }
+
+    @Override
+    public List<JobStatus> findByCreatedAtBefore(Date date) {
+        return jobStatusRepository.findByCreatedAtBefore(date);
+    }
+
+    @Override
+    public List<JobStatus> findByCreatedAtBeforeOrderByCreatedAtAscJobIdAsc(Date date, int limit) {
+        return jobStatusRepository.findByCreatedAtBeforeOrderByCreatedAtAscJobIdAsc(date, PageRequest.of(0, limit));
+    }
+
+    @Override
+    public List<JobStatus> findByParentJobIdOrderByCreatedAtAsc(String parentJobId) {
+        return jobStatusRepository.findByParentJobIdOrderByCreatedAtAsc(parentJobId);
+    }
+
+    @Override
+    public List<JobStatusRepository.ChildOutcome> findOutcomesByParentJobIdOrderByCreatedAtAsc(String parentJobId) {
+        return jobStatusRepository.findOutcomesByParentJobIdOrderByCreatedAtAsc(parentJobId);
+    }
+
+    @Override
+    public List<JobStatus> findByStatusAndChildCountIsNullOrderByCompletedAtDesc(String status, int limit) {
+        return jobStatusRepository.findByStatusAndChildCountIsNullOrderByCompletedAtDesc(status, PageRequest.of(0, limit));
+    }
+
+    @Override
+    public Double getAverageProcessingTime() {
+        return jobStatusRepository.getAverageProcessingTime();
+    }
+
+    @Override
+    public long countTimedJobs() {
+        return jobStatusRepository.countTimedJobs();
+    }
+
+    @Override
+    public List<Object[]> getProfessionStatistics() {
+        return jobStatusRepository.getProfessionStatistics();
+    }
+}
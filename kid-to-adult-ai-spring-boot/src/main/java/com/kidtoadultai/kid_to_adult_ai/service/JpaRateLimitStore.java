@@ -0,0 +1,90 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.RateLimitBucket;
+import com.kidtoadultai.kid_to_adult_ai.repository.RateLimitBucketRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets in the rate_limit_bucket table, so every node behind a load balancer enforces the same limit.
+ * Each acquire locks the client's row (SELECT ... FOR UPDATE) for the read-modify-write. A client's first
+ * request inserts the row; when two first requests race, the loser's insert fails on the primary key and it
+ * takes its token from the winner's row under the lock instead.
+ */
+@Component
+@ConditionalOnProperty(name = "ratelimit.store", havingValue = "jpa")
+public class JpaRateLimitStore implements RateLimitStore {
+
+    @Autowired
+    private RateLimitBucketRepository bucketRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Override
+    public long tryAcquire(String key, long capacity, double refillPerSecond) {
+        Long waitMillis = transactionTemplate.execute(status -> bucketRepository.findForUpdate(key)
+                .map(bucket -> take(bucket, capacity, refillPerSecond))
+                .orElse(null));
+        if (waitMillis != null) {
+            return waitMillis;
+        }
+
+        try {
+            return transactionTemplate.execute(status -> {
+                RateLimitBucket bucket = new RateLimitBucket(key, capacity, System.currentTimeMillis());
+                long wait = consume(bucket, capacity, refillPerSecond);
+                bucketRepository.saveAndFlush(bucket);
+                return wait;
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Another request created the row first; it exists now, so the locked path applies
+            return transactionTemplate.execute(status -> take(bucketRepository.findForUpdate(key)
+                    .orElseThrow(() -> new IllegalStateException("Rate limit bucket vanished: " + key, e)),
+                    capacity, refillPerSecond));
+        }
+    }
+
+    private long take(RateLimitBucket bucket, long capacity, double refillPerSecond) {
+        long waitMillis = consume(bucket, capacity, refillPerSecond);
+        bucketRepository.save(bucket);
+        return waitMillis;
+    }
+
+    /**
+     * Refill the bucket up to now and take a token; returns 0, or the milliseconds until a token is available
+     */
+    private static long consume(RateLimitBucket bucket, long capacity, double refillPerSecond) {
+        long now = System.currentTimeMillis();
+        double tokens = Math.min(capacity, bucket.getTokens() + (now - bucket.getUpdatedAtMillis()) / 1000.0 * refillPerSecond);
+        long waitMillis = 0;
+        if (tokens >= 1) {
+            tokens -= 1;
+        } else {
+            waitMillis = (long) Math.ceil((1 - tokens) / refillPerSecond * 1000);
+        }
+
+        bucket.setTokens(tokens);
+        bucket.setUpdatedAtMillis(now);
+        return waitMillis;
+    }
+
+    /**
+     * Delete buckets idle for an hour; they would have refilled completely
+     */
+    @Transactional
+    @Scheduled(fixedRate = 3600000) // Run every hour
+    public void evictIdleBuckets() {
+        long deleted = bucketRepository.deleteByUpdatedAtMillisBefore(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        if (deleted > 0) {
+            System.out.println("Evicted " + deleted + " idle rate limit buckets");
+        }
+    }
+}
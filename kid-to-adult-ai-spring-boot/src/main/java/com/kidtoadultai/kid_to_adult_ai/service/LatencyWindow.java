@@ -0,0 +1,46 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import java.util.Arrays;
+
+/**
+ * The most recent samples (seconds) for percentile and mean estimates
+ */
+class LatencyWindow {
+    private final double[] samples;
+    private int count;
+    private int next;
+
+    LatencyWindow(int size) {
+        this.samples = new double[size];
+    }
+
+    synchronized void add(double seconds) {
+        samples[next] = seconds;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    synchronized double percentile(double p, double fallback) {
+        if (count == 0) {
+            return fallback;
+        }
+        double[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return sorted[Math.max(0, (int) Math.ceil(p * count) - 1)];
+    }
+
+    synchronized double mean(double fallback) {
+        if (count == 0) {
+            return fallback;
+        }
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += samples[i];
+        }
+        return sum / count;
+    }
+}
@@ -0,0 +1,7 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+/**
+ * Published by WebhookService when it writes outbox rows; the dispatcher wakes once they have committed.
+ */
+public record OutboxUpdatedEvent(int events) {
+}
@@ -0,0 +1,319 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.ai.StableDiffusionService;
+import io.micrometer.core.instrument.Gauge;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Low-resolution previews of the generation the WebUI is working on.
+ * While someone watches the executing job (fetched its preview lately, or holds a preview stream), the WebUI's
+ * progress is sampled with its in-progress image every preview.sample-ms; a changed image is shrunk to a small
+ * JPEG, kept as the job's latest preview and pushed to its streams. Nothing is sampled for unwatched jobs, and
+ * the single sampler bounds the extra load on the WebUI however many clients watch. The sampler has its own
+ * thread, so a slow WebUI does not hold up other scheduled tasks, and leaves the writes to streams to the task
+ * executor, so a slow client does not hold up the sampler.
+ * Previews exist for local jobs only and are dropped when the job leaves the WebUI.
+ */
+@Service
+public class PreviewService {
+
+    @Autowired
+    private StableDiffusionService stableDiffusionService;
+
+    @Autowired
+    private GenerationQueue generationQueue;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor taskExecutor;
+
+    @Value("${preview.enabled:true}")
+    private boolean enabled;
+
+    @Value("${preview.sample-ms:1000}")
+    private long sampleMs;
+
+    // Longest side of a preview, in pixels
+    @Value("${preview.max-size:192}")
+    private int maxSize;
+
+    @Value("${preview.jpeg-quality:0.6}")
+    private float jpegQuality;
+
+    // A job stays watched this long after its preview was last fetched
+    @Value("${preview.interest-seconds:15}")
+    private long interestSeconds;
+
+    @Value("${preview.stream.timeout-minutes:10}")
+    private long streamTimeoutMinutes;
+
+    private final ConcurrentHashMap<String, Preview> previews = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> lastFetched = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Stream>> streams = new ConcurrentHashMap<>();
+    private long sequence;
+    private ScheduledExecutorService sampler;
+
+    @PostConstruct
+    public void start() {
+        Gauge.builder("generation.preview.streams", this, service -> service.streams.values().stream().mapToInt(Set::size).sum())
+                .description("Open preview streams")
+                .register(metrics.getRegistry());
+
+        sampler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("preview-sampler-"));
+        sampler.scheduleWithFixedDelay(this::runSampler, sampleMs, sampleMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        sampler.shutdownNow();
+    }
+
+    /**
+     * Latest preview of the job, or null before the first one; marks the job as watched
+     */
+    public Preview getPreview(String jobId) {
+        lastFetched.put(jobId, System.currentTimeMillis());
+        return previews.get(jobId);
+    }
+
+    /**
+     * Push the job's previews as server-sent "preview" events, starting with the latest one.
+     * The stream ends when the job leaves the WebUI.
+     */
+    public SseEmitter stream(String jobId) {
+        SseEmitter emitter = new SseEmitter(TimeUnit.MINUTES.toMillis(streamTimeoutMinutes));
+        Stream stream = new Stream(emitter);
+        Runnable remove = () -> streams.computeIfPresent(jobId, (id, open) -> {
+            open.remove(stream);
+            return open.isEmpty() ? null : open;
+        });
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(error -> remove.run());
+        streams.compute(jobId, (id, open) -> {
+            Set<Stream> updated = open != null ? open : ConcurrentHashMap.<Stream>newKeySet();
+            updated.add(stream);
+            return updated;
+        });
+
+        Preview latest = previews.get(jobId);
+        if (latest != null) {
+            stream.push(latest);
+        }
+        return emitter;
+    }
+
+    private void runSampler() {
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule
+            System.err.println("Preview sampling failed: " + e.getMessage());
+        }
+    }
+
+    void sample() {
+        forgetFinishedJobs();
+        if (!enabled) {
+            return;
+        }
+
+        String jobId = generationQueue.getExecutingJobId();
+        if (jobId == null || !isWatched(jobId)) {
+            return;
+        }
+
+        String image;
+        double progress;
+        try {
+            Map<String, Object> response = stableDiffusionService.getProgress(true);
+            image = (String) response.get("current_image");
+            progress = response.get("progress") instanceof Number number ? number.doubleValue() : 0;
+        } catch (RuntimeException e) {
+            metrics.recordPreviewSample("error");
+            return;
+        }
+        // The WebUI may have moved on to the next job while we asked
+        if (!jobId.equals(generationQueue.getExecutingJobId())) {
+            return;
+        }
+        if (image == null || image.isEmpty()) {
+            metrics.recordPreviewSample("no_image");
+            return;
+        }
+
+        Preview previous = previews.get(jobId);
+        // The WebUI only renders a new preview every few steps; skip re-encoding the same one
+        if (previous != null && previous.sourceHash() == image.hashCode()) {
+            metrics.recordPreviewSample("unchanged");
+            return;
+        }
+
+        Preview preview;
+        try {
+            preview = new Preview(shrink(image), nextSequence(), progress, new Date(), image.hashCode());
+        } catch (IOException | IllegalArgumentException e) {
+            metrics.recordPreviewSample("error");
+            System.err.println("Failed to build preview for job " + jobId + ": " + e.getMessage());
+            return;
+        }
+        previews.put(jobId, preview);
+        metrics.recordPreviewSample("updated");
+
+        Set<Stream> open = streams.get(jobId);
+        if (open != null) {
+            open.forEach(stream -> stream.push(preview));
+        }
+    }
+
+    private boolean isWatched(String jobId) {
+        Long fetchedAt = lastFetched.get(jobId);
+        return streams.containsKey(jobId)
+                || (fetchedAt != null && fetchedAt > System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(interestSeconds));
+    }
+
+    /**
+     * Drop previews of jobs that left the WebUI, end their streams and forget stale interest.
+     * Streams of pending jobs count as polls.
+     */
+    private void forgetFinishedJobs() {
+        Set<String> running = generationQueue.getRunningJobIds();
+        previews.keySet().retainAll(running);
+
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(interestSeconds);
+        lastFetched.entrySet().removeIf(entry -> entry.getValue() < cutoff);
+
+        for (String jobId : new ArrayList<>(streams.keySet())) {
+            if (generationQueue.isPending(jobId)) {
+                // Someone is watching, so the job is not abandoned
+                generationQueue.recordPoll(jobId);
+            } else {
+                Set<Stream> open = streams.remove(jobId);
+                if (open != null) {
+                    open.forEach(stream -> stream.emitter.complete());
+                }
+            }
+        }
+    }
+
+    private void send(SseEmitter emitter, Preview preview) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("progress", preview.progress());
+        data.put("updatedAt", preview.updatedAt());
+        data.put("image", "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(preview.jpeg()));
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("preview")
+                    .id(String.valueOf(preview.sequence()))
+                    .data(data));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; the emitter's callbacks remove it
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * An open preview stream. Its writes run on the task executor one at a time, and a client that reads
+     * slowly skips to the newest preview instead of having every one queued for it.
+     */
+    private class Stream {
+
+        private final SseEmitter emitter;
+        // Preview waiting to be written; non-null while a write is scheduled or running
+        private final AtomicReference<Preview> pending = new AtomicReference<>();
+
+        Stream(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void push(Preview preview) {
+            if (pending.getAndSet(preview) == null) {
+                taskExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            Preview preview = pending.get();
+            while (true) {
+                send(emitter, preview);
+                if (pending.compareAndSet(preview, null)) {
+                    return;
+                }
+                preview = pending.get();
+            }
+        }
+    }
+
+    private synchronized long nextSequence() {
+        return ++sequence;
+    }
+
+    /**
+     * Decode the WebUI's base64 PNG and re-encode it as a JPEG no larger than maxSize on its longest side
+     */
+    private byte[] shrink(String base64Image) throws IOException {
+        int comma = base64Image.indexOf(',');
+        String data = base64Image.startsWith("data:") && comma > 0 ? base64Image.substring(comma + 1) : base64Image;
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(data)));
+        if (image == null) {
+            throw new IOException("Unreadable image");
+        }
+
+        double scale = Math.min(1.0, (double) maxSize / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage small = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = small.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality);
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(jpeg)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(small, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return jpeg.toByteArray();
+    }
+
+    /**
+     * A job's latest preview; sequence grows with every new preview and is its ETag
+     */
+    public record Preview(byte[] jpeg, long sequence, double progress, Date updatedAt, int sourceHash) {
+    }
+}
@@ -0,0 +1,15 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+/**
+ * Token-bucket state behind RateLimitFilter.
+ * InMemoryRateLimitStore suits a single node; JpaRateLimitStore shares buckets between nodes
+ * through the database (ratelimit.store=jpa).
+ */
+public interface RateLimitStore {
+
+    /**
+     * Take one token from the bucket for key, creating it full if needed.
+     * Returns 0 when a token was taken, otherwise the milliseconds until one is available.
+     */
+    long tryAcquire(String key, long capacity, double refillPerSecond);
+}
@@ -0,0 +1,197 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.exporter.FinishedSpan;
+import io.micrometer.tracing.exporter.SpanReporter;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local span exporter: keeps the spans of the last tracing.recorder.max-traces job traces in memory
+ * (GET /trace/{jobId}) and, with tracing.export.file set, appends every request trace to that file as
+ * Zipkin v2 JSON, one span per line, for offline analysis.
+ * Only traces started by an API request are recorded. A trace's spans are held until its server span ends and
+ * dropped if the trace started elsewhere (scheduled tasks, background polling). Of the request traces, only
+ * those that created a job (markJobTrace) are kept in memory, so status polls cannot push them out. Spans that
+ * end after the request, like a job's queue wait, generation and storage, are added as they finish.
+ */
+@Component
+public class TraceRecorder implements SpanReporter {
+
+    @Autowired
+    private JsonMapper jsonMapper;
+
+    @Value("${spring.application.name:kid_to_adult_ai}")
+    private String serviceName;
+
+    @Value("${tracing.recorder.max-traces:500}")
+    private int maxTraces;
+
+    // Blank = memory only
+    @Value("${tracing.export.file:}")
+    private String exportFile;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Traces whose request has not finished yet, or whose origin is unknown
+    private Map<String, List<RecordedSpan>> pending;
+    // Job traces, oldest first
+    private Map<String, List<RecordedSpan>> traces;
+    // Traces that created a job and whose request has not finished yet
+    private Set<String> jobTraceIds;
+    private BufferedWriter writer;
+
+    @PostConstruct
+    public void start() {
+        pending = boundedMap(maxTraces);
+        traces = boundedMap(maxTraces);
+        jobTraceIds = Collections.newSetFromMap(boundedMap(maxTraces));
+        if (exportFile.isBlank()) {
+            return;
+        }
+        try {
+            Path file = Paths.get(exportFile);
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            System.out.println("Exporting request traces to " + file.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Failed to open trace export file " + exportFile + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void report(FinishedSpan finished) {
+        RecordedSpan span = RecordedSpan.of(finished, serviceName);
+        lock.lock();
+        try {
+            List<RecordedSpan> kept = traces.get(span.traceId());
+            if (kept != null) {
+                kept.add(span);
+                export(List.of(span));
+                return;
+            }
+
+            List<RecordedSpan> buffered = pending.computeIfAbsent(span.traceId(), id -> new ArrayList<>());
+            buffered.add(span);
+            if (finished.getKind() == Span.Kind.SERVER) {
+                pending.remove(span.traceId());
+                if (jobTraceIds.remove(span.traceId())) {
+                    traces.put(span.traceId(), buffered);
+                }
+                export(buffered);
+            } else if (span.parentId() == null) {
+                pending.remove(span.traceId());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keep traceId in memory once its request ends; called for the trace stored in a job's trace.id
+     */
+    public void markJobTrace(String traceId) {
+        lock.lock();
+        try {
+            jobTraceIds.add(traceId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The recorded spans of a trace in start order, or null when it is not (or no longer) held
+     */
+    public List<RecordedSpan> getTrace(String traceId) {
+        lock.lock();
+        try {
+            List<RecordedSpan> spans = traces.get(traceId);
+            if (spans == null) {
+                return null;
+            }
+            List<RecordedSpan> sorted = new ArrayList<>(spans);
+            sorted.sort(Comparator.comparingLong(RecordedSpan::timestamp));
+            return sorted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to close trace export file: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void export(List<RecordedSpan> spans) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            for (RecordedSpan span : spans) {
+                writer.write(jsonMapper.writeValueAsString(span));
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to export spans: " + e.getMessage());
+        }
+    }
+
+    private static <V> Map<String, V> boundedMap(int maxEntries) {
+        return new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * A finished span in Zipkin's v2 JSON model (timestamp and duration in microseconds)
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record RecordedSpan(String traceId, String id, String parentId, String name, String kind,
+                               long timestamp, long duration, Map<String, String> localEndpoint,
+                               Map<String, String> tags) {
+
+        static RecordedSpan of(FinishedSpan span, String defaultServiceName) {
+            long start = ChronoUnit.MICROS.between(Instant.EPOCH, span.getStartTimestamp());
+            long end = ChronoUnit.MICROS.between(Instant.EPOCH, span.getEndTimestamp());
+            Map<String, String> tags = new TreeMap<>(span.getTags());
+            if (span.getError() != null) {
+                tags.put("error", String.valueOf(span.getError().getMessage()));
+            }
+            String serviceName = span.getLocalServiceName() != null ? span.getLocalServiceName() : defaultServiceName;
+            return new RecordedSpan(span.getTraceId(), span.getSpanId(), span.getParentId(), span.getName(),
+                    span.getKind() != null ? span.getKind().name() : null, start, Math.max(1, end - start),
+                    Map.of("serviceName", serviceName), tags);
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.OutboxEvent;
+import com.kidtoadultai.kid_to_adult_ai.model.WebhookSubscription;
+import com.kidtoadultai.kid_to_adult_ai.repository.OutboxEventRepository;
+import com.kidtoadultai.kid_to_adult_ai.repository.WebhookSubscriptionRepository;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.InetNameResolver;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Promise;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ReactorClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.RestTemplate;
+import reactor.netty.http.client.HttpClient;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers the job event outbox to webhook subscribers.
+ * A dispatcher thread wakes when new events commit (or every webhook.dispatch.interval-ms for retries),
+ * claims due events (skipping rows another node holds), and POSTs them per subscription in batches of up to
+ * webhook.batch.max-events: {"events":[...]}, oldest first. Each request is signed like Replicate's webhooks
+ * (webhook-id, webhook-timestamp, webhook-signature = v1,base64 HMAC-SHA256 of "id.timestamp.body" with the
+ * subscription secret). Failed batches are retried with exponential backoff until webhook.max-attempts;
+ * later events of the subscription wait for them, so each subscriber sees its events in order.
+ * started and progress events come from a poll of the completion estimates of watched jobs.
+ */
+@Service
+public class WebhookDispatcher {
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private WebhookSubscriptionRepository subscriptionRepository;
+
+    @Autowired
+    private WebhookService webhookService;
+
+    @Autowired
+    private JobTrackingService jobTrackingService;
+
+    @Autowired
+    private EtaEstimator etaEstimator;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor taskExecutor;
+
+    // Fallback poll for retries and events written by other nodes
+    @Value("${webhook.dispatch.interval-ms:1000}")
+    private long intervalMs;
+
+    // After a wake-up, wait this long for more events to share the batch
+    @Value("${webhook.batch.linger-ms:20}")
+    private long lingerMs;
+
+    @Value("${webhook.batch.max-events:50}")
+    private int maxBatchEvents;
+
+    // Events claimed per dispatch round
+    @Value("${webhook.dispatch.claim-size:500}")
+    private int claimSize;
+
+    @Value("${webhook.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${webhook.retry.initial-seconds:2}")
+    private long retryInitialSeconds;
+
+    @Value("${webhook.retry.max-seconds:3600}")
+    private long retryMaxSeconds;
+
+    @Value("${webhook.timeout-ms:5000}")
+    private long timeoutMs;
+
+    // Percentages at which job.progress is sent, e.g. 25,50,75
+    @Value("${webhook.progress.milestones:25,50,75}")
+    private List<Integer> progressMilestones;
+
+    private final Semaphore wakeups = new Semaphore(0);
+    // Last progress milestone sent per job (0 = started)
+    private final ConcurrentHashMap<String, Integer> reportedProgress = new ConcurrentHashMap<>();
+
+    private RestTemplate restTemplate;
+    private Thread dispatcherThread;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        HttpClient httpClient = HttpClient.create().resolver(new AllowedAddressResolverGroup());
+        ReactorClientHttpRequestFactory requestFactory = new ReactorClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectTimeout(Duration.ofMillis(timeoutMs));
+        requestFactory.setReadTimeout(Duration.ofMillis(timeoutMs));
+        restTemplate = new RestTemplate(requestFactory);
+
+        if (!webhookService.isEnabled()) {
+            return;
+        }
+        running = true;
+        dispatcherThread = new CustomizableThreadFactory("webhook-dispatcher-").newThread(this::runDispatcher);
+        dispatcherThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (dispatcherThread != null) {
+            dispatcherThread.interrupt();
+        }
+    }
+
+    /**
+     * New events are visible to the dispatcher once their transaction commits
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOutboxUpdated(OutboxUpdatedEvent event) {
+        wakeups.release();
+    }
+
+    /**
+     * Send job.started when a watched job starts generating, then job.progress at each milestone
+     */
+    @Scheduled(fixedDelayString = "${webhook.progress.check-ms:1000}")
+    public void checkProgress() {
+        Set<String> watched = webhookService.getWatchedJobs();
+        reportedProgress.keySet().retainAll(watched);
+        for (String jobId : watched) {
+            Integer progress = etaEstimator.serviceProgress(jobId);
+            if (progress == null) {
+                continue;
+            }
+            try {
+                Integer reported = reportedProgress.get(jobId);
+                if (reported == null) {
+                    jobTrackingService.recordJobStarted(jobId);
+                    reportedProgress.put(jobId, 0);
+                    reported = 0;
+                }
+                int milestone = reported;
+                for (int candidate : progressMilestones) {
+                    if (candidate > milestone && candidate <= progress) {
+                        milestone = candidate;
+                    }
+                }
+                if (milestone > reported) {
+                    jobTrackingService.recordJobProgress(jobId, milestone);
+                    reportedProgress.put(jobId, milestone);
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to record progress of job " + jobId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void runDispatcher() {
+        while (running) {
+            try {
+                int claimed = dispatchDue();
+                if (claimed < claimSize) {
+                    if (wakeups.tryAcquire(intervalMs, TimeUnit.MILLISECONDS) && lingerMs > 0) {
+                        Thread.sleep(lingerMs);
+                    }
+                    wakeups.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("Webhook dispatch failed: " + e.getMessage());
+                try {
+                    Thread.sleep(intervalMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Claim due events and deliver them, one concurrent sender per subscription. Returns the number claimed.
+     */
+    private int dispatchDue() {
+        List<OutboxEvent> claimed = transactionTemplate.execute(status -> claim());
+        if (claimed.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, List<OutboxEvent>> bySubscription = new LinkedHashMap<>();
+        for (OutboxEvent event : claimed) {
+            bySubscription.computeIfAbsent(event.getSubscriptionId(), id -> new ArrayList<>()).add(event);
+        }
+        Map<String, WebhookSubscription> subscriptions = new HashMap<>();
+        subscriptionRepository.findAllById(bySubscription.keySet())
+                .forEach(subscription -> subscriptions.put(subscription.getId(), subscription));
+
+        List<CompletableFuture<Void>> deliveries = new ArrayList<>();
+        bySubscription.forEach((subscriptionId, events) -> {
+            WebhookSubscription subscription = subscriptions.get(subscriptionId);
+            if (subscription == null) {
+                // Unsubscribed after the events were written
+                delete(events);
+                return;
+            }
+            deliveries.add(CompletableFuture.runAsync(() -> {
+                // Batches of one subscription go out in order; a failed batch holds back the ones after it
+                for (int from = 0; from < events.size(); from += maxBatchEvents) {
+                    List<OutboxEvent> batch = events.subList(from, Math.min(events.size(), from + maxBatchEvents));
+                    if (!deliver(subscription, batch)) {
+                        reschedule(events.subList(from + batch.size(), events.size()), null);
+                        break;
+                    }
+                }
+            }, taskExecutor));
+        });
+        CompletableFuture.allOf(deliveries.toArray(new CompletableFuture[0])).join();
+        return claimed.size();
+    }
+
+    /**
+     * Lease due events to this dispatcher by moving their next attempt past the delivery timeout
+     */
+    private List<OutboxEvent> claim() {
+        Date now = new Date();
+        List<OutboxEvent> due = outboxEventRepository.findDueForUpdate(now, PageRequest.of(0, claimSize));
+        Date leaseUntil = new Date(now.getTime() + 2 * timeoutMs + TimeUnit.SECONDS.toMillis(30));
+        for (OutboxEvent event : due) {
+            event.setNextAttemptAt(leaseUntil);
+        }
+        outboxEventRepository.saveAll(due);
+        return due;
+    }
+
+    /**
+     * POST one signed batch; on success the events are deleted, otherwise rescheduled. False when it failed.
+     */
+    boolean deliver(WebhookSubscription subscription, List<OutboxEvent> batch) {
+        StringBuilder body = new StringBuilder("{\"events\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            body.append(i > 0 ? "," : "").append(batch.get(i).getPayload());
+        }
+        body.append("]}");
+
+        String messageId = "msg_" + batch.get(0).getId() + "_" + batch.get(batch.size() - 1).getId();
+        String timestamp = String.valueOf(System.currentTimeMillis() / 1000);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("webhook-id", messageId);
+        headers.set("webhook-timestamp", timestamp);
+        headers.set("webhook-signature", "v1," + sign(subscription.getSecret(), messageId + "." + timestamp + "." + body));
+
+        // Catches address literals; names are checked again by the resolver when the connection is opened
+        String unreachable = webhookService.checkUrl(subscription.getUrl());
+        if (unreachable != null) {
+            metrics.recordWebhookDelivery("blocked", batch.size(), 0);
+            reschedule(batch, unreachable);
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try {
+            restTemplate.exchange(subscription.getUrl(), HttpMethod.POST, new HttpEntity<>(body.toString(), headers), Void.class);
+            metrics.recordWebhookDelivery("success", batch.size(), System.nanoTime() - start);
+            long now = System.currentTimeMillis();
+            batch.forEach(event -> metrics.recordWebhookLag(now - event.getCreatedAt().getTime()));
+            delete(batch);
+            return true;
+        } catch (Exception e) {
+            String outcome = causedByPrivateAddress(e) ? "blocked" : "failed";
+            metrics.recordWebhookDelivery(outcome, batch.size(), System.nanoTime() - start);
+            reschedule(batch, e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean causedByPrivateAddress(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof WebhookService.PrivateAddressException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolves webhook hosts for the connection itself, refusing private addresses there: a name that passed
+     * checkUrl and is then rebound to an internal address (DNS rebinding) is never connected to
+     */
+    private class AllowedAddressResolverGroup extends AddressResolverGroup<InetSocketAddress> {
+
+        @Override
+        protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+            return new InetNameResolver(executor) {
+                @Override
+                protected void doResolve(String host, Promise<InetAddress> promise) {
+                    try {
+                        promise.setSuccess(webhookService.resolveAllowed(host).get(0));
+                    } catch (UnknownHostException e) {
+                        promise.setFailure(e);
+                    }
+                }
+
+                @Override
+                protected void doResolveAll(String host, Promise<List<InetAddress>> promise) {
+                    try {
+                        promise.setSuccess(webhookService.resolveAllowed(host));
+                    } catch (UnknownHostException e) {
+                        promise.setFailure(e);
+                    }
+                }
+            }.asAddressResolver();
+        }
+    }
+
+    private void delete(List<OutboxEvent> events) {
+        List<Long> ids = events.stream().map(OutboxEvent::getId).toList();
+        transactionTemplate.executeWithoutResult(status -> outboxEventRepository.deleteByIds(ids));
+    }
+
+    /**
+     * Back off after a failed attempt; error is null for events that were only held back behind a failed batch
+     */
+    private void reschedule(List<OutboxEvent> events, String error) {
+        if (events.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        int dead = 0;
+        for (OutboxEvent event : events) {
+            if (error != null) {
+                event.setAttempts(event.getAttempts() + 1);
+                event.setLastError(error.length() > 1000 ? error.substring(0, 1000) : error);
+            }
+            if (event.getAttempts() >= maxAttempts) {
+                event.setStatus("DEAD");
+                dead++;
+            } else {
+                event.setNextAttemptAt(new Date(now.getTime() + backoffMillis(Math.max(1, event.getAttempts()))));
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> outboxEventRepository.saveAll(events));
+        if (dead > 0) {
+            metrics.recordWebhookDead(dead);
+            System.err.println("Gave up delivering " + dead + " webhook events to subscription " + events.get(0).getSubscriptionId());
+        }
+    }
+
+    /**
+     * Exponential from webhook.retry.initial-seconds, capped, with +-20% jitter so receivers are not hit in waves
+     */
+    private long backoffMillis(int attempts) {
+        double seconds = Math.min(retryMaxSeconds, retryInitialSeconds * Math.pow(2, attempts - 1));
+        return (long) (seconds * 1000 * ThreadLocalRandom.current().nextDouble(0.8, 1.2));
+    }
+
+    private static String sign(String secret, String content) {
+        try {
+            byte[] key = Base64.getDecoder().decode(secret.substring(secret.indexOf('_') + 1));
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return Base64.getEncoder().encodeToString(mac.doFinal(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to sign webhook", e);
+        }
+    }
+}
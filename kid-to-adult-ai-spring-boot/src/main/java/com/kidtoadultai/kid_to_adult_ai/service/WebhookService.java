@@ -0,0 +1,352 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.model.OutboxEvent;
+import com.kidtoadultai.kid_to_adult_ai.model.WebhookSubscription;
+import com.kidtoadultai.kid_to_adult_ai.repository.OutboxEventRepository;
+import com.kidtoadultai.kid_to_adult_ai.repository.WebhookSubscriptionRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Webhook subscriptions and the job event outbox.
+ * A subscription belongs to an API key (every job submitted with that key) or to a single job (callbackUrl).
+ * Jobs are linked to their subscriptions when created, through the webhook.subscriptions metadata entry.
+ * Lifecycle events are written to job_event_outbox in the transaction that changes the job, one row per
+ * subscription, and delivered by WebhookDispatcher.
+ */
+@Service
+public class WebhookService {
+
+    public static final String SUBSCRIPTIONS_KEY = "webhook.subscriptions";
+
+    public static final List<String> EVENT_TYPES = List.of(
+            "job.queued", "job.started", "job.progress", "job.completed", "job.failed", "job.cancelled", "job.deleted");
+
+    @Autowired
+    private WebhookSubscriptionRepository subscriptionRepository;
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private JsonMapper jsonMapper;
+
+    @Value("${webhook.enabled:true}")
+    private boolean enabled;
+
+    // Single-job callbacks are removed this long after creation, once nothing is pending for them
+    @Value("${webhook.callback.ttl-hours:72}")
+    private long callbackTtlHours;
+
+    // Undeliverable events are kept this long for inspection
+    @Value("${webhook.dead.retention-days:7}")
+    private long deadRetentionDays;
+
+    // Hosts exempt from the private-address check, e.g. a receiver on this machine during development
+    @Value("${webhook.allowed-private-hosts:}")
+    private Set<String> allowedPrivateHosts;
+
+    private final SecureRandom random = new SecureRandom();
+
+    // Jobs with subscriptions that have not finished; lets started/progress events skip the database for other jobs
+    private final Set<String> watchedJobs = ConcurrentHashMap.newKeySet();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Why url cannot receive webhooks, or null when it can.
+     * Anyone may set a callbackUrl, so the host must resolve to public addresses only: loopback, private,
+     * link-local (cloud metadata) and similar ranges would let callers make this server POST to internal services.
+     * The dispatcher checks again before each delivery and resolves the host through resolveAllowed when it
+     * connects, so a name rebound to an internal address after this check is not contacted either.
+     */
+    public String checkUrl(String url) {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            return "Invalid webhook URL: " + e.getMessage();
+        }
+        if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme()) || uri.getHost() == null) {
+            return "Webhook URL must be an absolute http or https URL";
+        }
+
+        String host = uri.getHost();
+        if (allowedPrivateHosts.contains(host.toLowerCase())) {
+            return null;
+        }
+        try {
+            resolveAllowed(host);
+            return null;
+        } catch (PrivateAddressException e) {
+            return e.getMessage();
+        } catch (UnknownHostException e) {
+            return "Webhook host cannot be resolved: " + host;
+        }
+    }
+
+    /**
+     * The addresses of host that webhooks may be sent to; fails when any of them is private,
+     * unless host is one of webhook.allowed-private-hosts
+     */
+    public List<InetAddress> resolveAllowed(String host) throws UnknownHostException {
+        List<InetAddress> addresses = List.of(InetAddress.getAllByName(host));
+        if (!allowedPrivateHosts.contains(host.toLowerCase())) {
+            for (InetAddress address : addresses) {
+                if (isPrivate(address)) {
+                    throw new PrivateAddressException();
+                }
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * A webhook host resolved to an address webhooks must not be sent to
+     */
+    public static class PrivateAddressException extends UnknownHostException {
+        PrivateAddressException() {
+            super("Webhook URL must not point to a loopback, private or link-local address");
+        }
+    }
+
+    private static boolean isPrivate(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isLinkLocalAddress()
+                || address.isSiteLocalAddress() || address.isMulticastAddress()) {
+            return true;
+        }
+        if (bytes.length == 4) {
+            // 0.0.0.0/8 and carrier-grade NAT 100.64.0.0/10
+            return bytes[0] == 0 || (bytes[0] == 100 && (bytes[1] & 0xc0) == 64);
+        }
+        // IPv6 unique local addresses fc00::/7
+        return (bytes[0] & 0xfe) == 0xfc;
+    }
+
+    /**
+     * Why events is not a valid filter (comma separated event types, blank for all), or null
+     */
+    public String checkEvents(String events) {
+        if (events == null || events.isBlank()) {
+            return null;
+        }
+        for (String event : events.split(",")) {
+            if (!EVENT_TYPES.contains(event.trim())) {
+                return "Unknown event type: " + event.trim() + ". Choose from: " + EVENT_TYPES;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Subscribe an API key's jobs to url. The returned subscription holds the signing secret.
+     */
+    @Transactional
+    public WebhookSubscription subscribe(String clientId, String url, String events) {
+        return subscriptionRepository.save(newSubscription(clientId, url, events));
+    }
+
+    /**
+     * A subscription for a single job's callbackUrl, all events
+     */
+    @Transactional
+    public WebhookSubscription createCallback(String url) {
+        return subscriptionRepository.save(newSubscription(null, url, null));
+    }
+
+    public List<WebhookSubscription> getSubscriptions(String clientId) {
+        return subscriptionRepository.findByClientIdOrderByCreatedAtAsc(clientId);
+    }
+
+    public long countPending(String subscriptionId) {
+        return outboxEventRepository.countBySubscriptionIdAndStatus(subscriptionId, "PENDING");
+    }
+
+    public long countDead(String subscriptionId) {
+        return outboxEventRepository.countBySubscriptionIdAndStatus(subscriptionId, "DEAD");
+    }
+
+    /**
+     * Remove one of the client's subscriptions and drop its undelivered events.
+     * Returns false when the client has no such subscription.
+     */
+    @Transactional
+    public boolean unsubscribe(String clientId, String subscriptionId) {
+        Optional<WebhookSubscription> subscription = subscriptionRepository.findById(subscriptionId);
+        if (subscription.isEmpty() || !Objects.equals(clientId, subscription.get().getClientId())) {
+            return false;
+        }
+        outboxEventRepository.deleteBySubscriptionId(subscriptionId);
+        subscriptionRepository.delete(subscription.get());
+        return true;
+    }
+
+    /**
+     * Metadata that links a new job to the client's subscriptions and its own callback (may be null).
+     * Empty when neither exists. Only API key clients can have subscriptions.
+     */
+    public Map<String, String> jobMetadata(String clientId, WebhookSubscription callback) {
+        Map<String, String> metadata = new HashMap<>();
+        if (!enabled) {
+            return metadata;
+        }
+
+        List<String> subscriptionIds = new ArrayList<>();
+        if (clientId != null && clientId.startsWith("key:")) {
+            getSubscriptions(clientId).forEach(subscription -> subscriptionIds.add(subscription.getId()));
+        }
+        if (callback != null) {
+            subscriptionIds.add(callback.getId());
+        }
+        if (!subscriptionIds.isEmpty()) {
+            metadata.put(SUBSCRIPTIONS_KEY, String.join(",", subscriptionIds));
+        }
+        return metadata;
+    }
+
+    /**
+     * Whether job events for this job may have subscribers; false means record() would do nothing
+     */
+    public boolean isWatched(String jobId) {
+        return watchedJobs.contains(jobId);
+    }
+
+    /**
+     * Unfinished jobs with subscribers, as known to this instance
+     */
+    public Set<String> getWatchedJobs() {
+        return new HashSet<>(watchedJobs);
+    }
+
+    /**
+     * Write an event for each of the job's subscriptions that accepts it.
+     * Must run inside the transaction that made the change, so the event exists exactly when the change does.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(JobStatus job, String eventType, Integer progress) {
+        String subscriptionIds = enabled ? job.getMetadata().get(SUBSCRIPTIONS_KEY) : null;
+        if (subscriptionIds == null) {
+            return;
+        }
+
+        if ("PROCESSING".equals(job.getStatus())) {
+            watchedJobs.add(job.getJobId());
+        } else {
+            watchedJobs.remove(job.getJobId());
+        }
+
+        Date now = new Date();
+        String payload = jsonMapper.writeValueAsString(payload(job, eventType, progress, now));
+        int written = 0;
+        for (WebhookSubscription subscription : subscriptionRepository.findAllById(Arrays.asList(subscriptionIds.split(",")))) {
+            if (!subscription.accepts(eventType)) {
+                continue;
+            }
+            OutboxEvent event = new OutboxEvent();
+            event.setSubscriptionId(subscription.getId());
+            event.setJobId(job.getJobId());
+            event.setEventType(eventType);
+            event.setPayload(payload);
+            event.setStatus("PENDING");
+            event.setNextAttemptAt(now);
+            event.setCreatedAt(now);
+            outboxEventRepository.save(event);
+            written++;
+        }
+
+        if (written > 0) {
+            eventPublisher.publishEvent(new OutboxUpdatedEvent(written));
+        }
+    }
+
+    /**
+     * Drop the events of a job that is being removed before it ran (a duplicate submission)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void discard(String jobId) {
+        if (watchedJobs.remove(jobId)) {
+            outboxEventRepository.deleteByJobId(jobId);
+        }
+    }
+
+    /**
+     * Remove expired single-job callbacks and old undeliverable events
+     */
+    @Transactional
+    @Scheduled(fixedRate = 3600000) // Run every hour
+    public void cleanup() {
+        long now = System.currentTimeMillis();
+        int dead = outboxEventRepository.deleteDeadBefore(new Date(now - TimeUnit.DAYS.toMillis(deadRetentionDays)));
+        int callbacks = subscriptionRepository.deleteExpiredCallbacks(new Date(now - TimeUnit.HOURS.toMillis(callbackTtlHours)));
+        if (dead + callbacks > 0) {
+            System.out.println("Webhook cleanup: removed " + dead + " undeliverable events and " + callbacks + " expired callbacks");
+        }
+    }
+
+    private WebhookSubscription newSubscription(String clientId, String url, String events) {
+        byte[] key = new byte[24];
+        random.nextBytes(key);
+
+        WebhookSubscription subscription = new WebhookSubscription();
+        subscription.setClientId(clientId);
+        subscription.setUrl(url);
+        subscription.setSecret("whsec_" + Base64.getEncoder().encodeToString(key));
+        subscription.setEvents(events == null || events.isBlank() ? null : events.replace(" ", ""));
+        subscription.setCreatedAt(new Date());
+        return subscription;
+    }
+
+    private Map<String, Object> payload(JobStatus job, String eventType, Integer progress, Date now) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("jobId", job.getJobId());
+        data.put("status", job.getStatus());
+        data.put("profession", job.getProfession());
+        data.put("age", job.getTargetAge());
+        if (job.getParentJobId() != null) {
+            data.put("parentJobId", job.getParentJobId());
+        }
+        if (job.getChildCount() != null) {
+            data.put("childCount", job.getChildCount());
+        }
+        if (progress != null) {
+            data.put("progress", progress);
+        }
+        if (job.getImageUrl() != null) {
+            data.put("imageUrl", job.getImageUrl());
+        }
+        if (job.getErrorMessage() != null) {
+            data.put("errorMessage", job.getErrorMessage());
+        }
+        if (job.getCompletedAt() != null) {
+            data.put("completedAt", job.getCompletedAt());
+        }
+
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("id", "evt_" + UUID.randomUUID());
+        event.put("type", eventType);
+        event.put("createdAt", now);
+        event.put("data", data);
+        return event;
+    }
+}
@@ -0,0 +1,205 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToIntFunction;
+
+/**
+ * Blocking queue that serves clients in weighted round-robin instead of arrival order.
+ * Each client with queued work gets up to its weight in items per turn, so a client with a deep
+ * backlog delays a newcomer by at most one turn of every other client. Items of one client stay FIFO.
+ * Items also carry a priority, and the round-robin runs within a level. Levels take turns in rounds: each
+ * non-empty level gets up to its share of items per round, the highest level first, so a steady stream of
+ * higher-priority work slows the lower levels down without starving them.
+ */
+class WeightedFairQueue<T> {
+
+    private final Function<T, String> clientOf;
+    private final ToIntFunction<String> weightOf;
+    private final ToIntFunction<T> priorityOf;
+    private final IntUnaryOperator shareOf;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // Non-empty levels, highest priority first
+    private final TreeMap<Integer, Level<T>> levels = new TreeMap<>(Comparator.reverseOrder());
+    // Items served per priority in the current round of levels
+    private final Map<Integer, Integer> servedInRound = new HashMap<>();
+    private int size;
+
+    WeightedFairQueue(Function<T, String> clientOf, ToIntFunction<String> weightOf) {
+        this(clientOf, weightOf, item -> 0, priority -> 1);
+    }
+
+    WeightedFairQueue(Function<T, String> clientOf, ToIntFunction<String> weightOf, ToIntFunction<T> priorityOf,
+                      IntUnaryOperator shareOf) {
+        this.clientOf = clientOf;
+        this.weightOf = weightOf;
+        this.priorityOf = priorityOf;
+        this.shareOf = shareOf;
+    }
+
+    void add(T item) {
+        addAll(Collections.singletonList(item));
+    }
+
+    /**
+     * Add items in order without another item of the same client and priority in between
+     */
+    void addAll(Collection<T> items) {
+        lock.lock();
+        try {
+            for (T item : items) {
+                String client = clientOf.apply(item);
+                Level<T> level = levels.computeIfAbsent(priorityOf.applyAsInt(item), p -> new Level<>());
+                ArrayDeque<T> queue = level.perClient.computeIfAbsent(client, c -> new ArrayDeque<>());
+                if (queue.isEmpty()) {
+                    level.rotation.addLast(client);
+                }
+                queue.addLast(item);
+                size++;
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the next item; the caller holds the lock and the queue is not empty
+     */
+    private T poll() {
+        Map.Entry<Integer, Level<T>> next = nextLevel();
+        Level<T> level = next.getValue();
+        String client = level.rotation.peekFirst();
+        ArrayDeque<T> queue = level.perClient.get(client);
+        T item = queue.pollFirst();
+        size--;
+        level.servedInTurn++;
+        servedInRound.merge(next.getKey(), 1, Integer::sum);
+
+        if (queue.isEmpty()) {
+            level.perClient.remove(client);
+            level.rotation.pollFirst();
+            level.servedInTurn = 0;
+            if (level.rotation.isEmpty()) {
+                levels.remove(next.getKey());
+            }
+        } else if (level.servedInTurn >= Math.max(1, weightOf.applyAsInt(client))) {
+            level.rotation.addLast(level.rotation.pollFirst());
+            level.servedInTurn = 0;
+        }
+        return item;
+    }
+
+    /**
+     * The highest level with some of its share left in this round; once every level used its share,
+     * the next round starts
+     */
+    private Map.Entry<Integer, Level<T>> nextLevel() {
+        for (Map.Entry<Integer, Level<T>> entry : levels.entrySet()) {
+            if (servedInRound.getOrDefault(entry.getKey(), 0) < Math.max(1, shareOf.applyAsInt(entry.getKey()))) {
+                return entry;
+            }
+        }
+        servedInRound.clear();
+        return levels.firstEntry();
+    }
+
+    boolean remove(T item) {
+        lock.lock();
+        try {
+            String client = clientOf.apply(item);
+            int priority = priorityOf.applyAsInt(item);
+            Level<T> level = levels.get(priority);
+            ArrayDeque<T> queue = level != null ? level.perClient.get(client) : null;
+            if (queue == null || !queue.remove(item)) {
+                return false;
+            }
+            size--;
+            if (queue.isEmpty()) {
+                level.perClient.remove(client);
+                if (client.equals(level.rotation.peekFirst())) {
+                    level.servedInTurn = 0;
+                }
+                level.rotation.remove(client);
+                if (level.rotation.isEmpty()) {
+                    levels.remove(priority);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The items take() will return before this one, in order (a replay of the rounds on a copy, so nothing
+     * is removed), or null when the item is not queued. Items added later may still overtake it.
+     */
+    List<T> ahead(T item) {
+        lock.lock();
+        try {
+            Level<T> level = levels.get(priorityOf.applyAsInt(item));
+            ArrayDeque<T> targetQueue = level != null ? level.perClient.get(clientOf.apply(item)) : null;
+            if (targetQueue == null || !targetQueue.contains(item)) {
+                return null;
+            }
+
+            WeightedFairQueue<T> replay = new WeightedFairQueue<>(clientOf, weightOf, priorityOf, shareOf);
+            levels.forEach((priority, original) -> replay.levels.put(priority, original.copy()));
+            replay.servedInRound.putAll(servedInRound);
+            replay.size = size;
+
+            List<T> ahead = new ArrayList<>();
+            for (T next = replay.poll(); !next.equals(item); next = replay.poll()) {
+                ahead.add(next);
+            }
+            return ahead;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The queued items of one priority, served in weighted round-robin
+     */
+    private static class Level<T> {
+        private final Map<String, ArrayDeque<T>> perClient = new HashMap<>();
+        // Clients with queued work, in service order; the head is being served
+        private final ArrayDeque<String> rotation = new ArrayDeque<>();
+        private int servedInTurn;
+
+        Level<T> copy() {
+            Level<T> copy = new Level<>();
+            perClient.forEach((client, queue) -> copy.perClient.put(client, new ArrayDeque<>(queue)));
+            copy.rotation.addAll(rotation);
+            copy.servedInTurn = servedInTurn;
+            return copy;
+        }
+    }
+}
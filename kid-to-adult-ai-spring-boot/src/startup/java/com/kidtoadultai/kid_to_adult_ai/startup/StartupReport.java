@@ -0,0 +1,195 @@
+package com.kidtoadultai.kid_to_adult_ai.startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures time-to-first-request of the packaged app: from process launch until /actuator/health answers 200.
+ * Usage: StartupReport app.jar
+ *
+ * The jar is extracted (java -Djarmode=tools extract) and a training run per variant writes an AppCDS archive.
+ * Each mode is then started startup.runs times and the median/min reported:
+ *   jar         java -jar on the fat jar
+ *   extracted   the extracted layout, no archive
+ *   cds         extracted + AppCDS archive
+ *   aot         extracted + -Dspring.aot.enabled=true (needs a build with process-aot, i.e. -Pstartup)
+ *   aot+cds     both
+ *   aot+cds+c1  both, plus -XX:TieredStopAtLevel=1 (faster start, lower peak throughput)
+ *
+ * Settings: -Dstartup.modes, -Dstartup.runs, -Dstartup.java, -Dstartup.app.args (defaults boot on H2),
+ * -Dstartup.timeout.s, -Dstartup.report.
+ */
+public final class StartupReport {
+
+    private static final String DEFAULT_APP_ARGS = "--spring.datasource.url=jdbc:h2:mem:startup"
+            + " --spring.datasource.username=sa --spring.datasource.password="
+            + " --spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect"
+            + " --spring.jpa.show-sql=false --logging.level.root=WARN";
+
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    private final String java = System.getProperty("startup.java", "java");
+    private final List<String> appArgs = Arrays.asList(System.getProperty("startup.app.args", DEFAULT_APP_ARGS).trim().split("\\s+"));
+    private final long timeoutMillis = TimeUnit.SECONDS.toMillis(Long.getLong("startup.timeout.s", 180));
+    private final Path workDir;
+
+    private StartupReport(Path workDir) {
+        this.workDir = workDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path jar = Paths.get(args[0]).toAbsolutePath();
+        Path reportFile = Paths.get(System.getProperty("startup.report", "target/startup-report.txt"));
+        List<String> modes = Arrays.asList(System.getProperty("startup.modes", "jar,extracted,cds,aot,aot+cds,aot+cds+c1").split(","));
+        int runs = Integer.getInteger("startup.runs", 3);
+
+        StartupReport startup = new StartupReport(jar.getParent().resolve("startup"));
+        Path extractedJar = startup.extract(jar);
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%nstartup       %s, %d runs per mode, %s%n", jar.getFileName(), runs, Runtime.version()));
+        report.append(String.format("%-12s %10s %10s%n", "mode", "median", "min"));
+        for (String mode : modes) {
+            List<String> jvmArgs = startup.jvmArgs(mode);
+            Path target = "jar".equals(mode) ? jar : extractedJar;
+            if (mode.contains("cds")) {
+                startup.train(target, mode.contains("aot"));
+            }
+
+            List<Long> samples = new ArrayList<>();
+            for (int run = 1; run <= runs; run++) {
+                samples.add(startup.timeToFirstRequest(target, jvmArgs, mode.replace('+', '-') + "-" + run));
+            }
+            Collections.sort(samples);
+            report.append(String.format("%-12s %7d ms %7d ms%n", mode, samples.get(samples.size() / 2), samples.get(0)));
+        }
+
+        System.out.print(report);
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        Files.writeString(reportFile, report);
+        System.out.println("Report written to " + reportFile.toAbsolutePath());
+    }
+
+    private List<String> jvmArgs(String mode) {
+        List<String> jvmArgs = new ArrayList<>();
+        if (mode.contains("cds")) {
+            jvmArgs.add("-XX:SharedArchiveFile=" + archive(mode.contains("aot")));
+        }
+        if (mode.contains("aot")) {
+            jvmArgs.add("-Dspring.aot.enabled=true");
+        }
+        if (mode.contains("c1")) {
+            jvmArgs.add("-XX:TieredStopAtLevel=1");
+        }
+        return jvmArgs;
+    }
+
+    private Path archive(boolean aot) {
+        return workDir.resolve(aot ? "app-aot.jsa" : "app.jsa");
+    }
+
+    /**
+     * Unpack into the layout CDS needs (application jar plus lib/), returns the application jar
+     */
+    private Path extract(Path jar) throws Exception {
+        deleteRecursively(workDir);
+        Path destination = workDir.resolve("app");
+        run(List.of(java, "-Djarmode=tools", "-jar", jar.toString(), "extract", "--destination", destination.toString()),
+                workDir.resolve("extract.log"));
+        return destination.resolve(jar.getFileName());
+    }
+
+    /**
+     * Training run: start the context, exit after refresh and dump the loaded classes into an archive
+     */
+    private void train(Path jar, boolean aot) throws Exception {
+        Path archive = archive(aot);
+        if (Files.exists(archive)) {
+            return;
+        }
+        List<String> command = new ArrayList<>(List.of(java, "-XX:ArchiveClassesAtExit=" + archive, "-Dspring.context.exit=onRefresh"));
+        if (aot) {
+            command.add("-Dspring.aot.enabled=true");
+        }
+        command.addAll(List.of("-jar", jar.toString(), "--server.port=0"));
+        command.addAll(appArgs);
+        run(command, workDir.resolve(archive.getFileName() + ".log"));
+    }
+
+    private long timeToFirstRequest(Path jar, List<String> jvmArgs, String name) throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(jvmArgs);
+        command.addAll(List.of("-jar", jar.toString(), "--server.port=" + port));
+        command.addAll(appArgs);
+
+        HttpRequest health = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/actuator/health"))
+                .timeout(Duration.ofSeconds(5)).GET().build();
+        long start = System.nanoTime();
+        Process process = start(command, workDir.resolve(name + ".log"));
+        try {
+            while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException(name + " exited with " + process.exitValue() + ", see " + workDir.resolve(name + ".log"));
+                }
+                try {
+                    if (http.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+                } catch (IOException e) {
+                    // Not listening yet
+                }
+                Thread.sleep(20);
+            }
+            throw new IllegalStateException(name + " did not answer within " + timeoutMillis + " ms");
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private void run(List<String> command, Path log) throws Exception {
+        Process process = start(command, log);
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException(String.join(" ", command) + " failed, see " + log);
+        }
+    }
+
+    private Process start(List<String> command, Path log) throws IOException {
+        Files.createDirectories(log.getParent());
+        return new ProcessBuilder(command)
+                .directory(workDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.kidtoadultai.kid_to_adult_ai.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimitTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private long now;
+
+    private AdaptiveConcurrencyLimit limit(int initialLimit) {
+        // Smoothing 1 applies growth in one step, so each sample's effect is exact
+        return new AdaptiveConcurrencyLimit(true, 1, initialLimit, 8, 0.5, 1.0, () -> now);
+    }
+
+    private void call(AdaptiveConcurrencyLimit limit, long seconds) {
+        AdaptiveConcurrencyLimit.Call call = limit.startCall();
+        now += seconds * SECOND;
+        limit.onSuccess(call, "img2img");
+    }
+
+    @Test
+    void growsWhileCallsTakeTheirNoLoadTime() {
+        AdaptiveConcurrencyLimit limit = limit(1);
+
+        call(limit, 1);
+        assertEquals(2, limit.getLimit());
+
+        // limit x 1 + sqrt(limit) = 3.41
+        call(limit, 1);
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    void doesNotGrowWhileMostPermitsAreIdle() {
+        AdaptiveConcurrencyLimit limit = limit(4);
+
+        // One call in flight out of four permits
+        call(limit, 1);
+        assertEquals(4, limit.getLimit());
+
+        // Two calls in flight keep half of the limit busy
+        AdaptiveConcurrencyLimit.Call first = limit.startCall();
+        AdaptiveConcurrencyLimit.Call second = limit.startCall();
+        now += SECOND;
+        limit.onSuccess(first, "img2img");
+        assertEquals(6, limit.getLimit());
+        limit.onSuccess(second, "img2img");
+    }
+
+    @Test
+    void shrinksWhenCallsTakeLongerThanTheirNoLoadTime() {
+        AdaptiveConcurrencyLimit limit = limit(4);
+        call(limit, 1);
+
+        // No-load moves to 1.6s, so the limit becomes 4 x 0.4 + 2
+        call(limit, 4);
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    void backsOffOnDroppedCallsDownToTheMinimum() {
+        AdaptiveConcurrencyLimit limit = limit(4);
+
+        limit.onDropped(limit.startCall());
+        assertEquals(2, limit.getLimit());
+        limit.onDropped(limit.startCall());
+        limit.onDropped(limit.startCall());
+        assertEquals(1, limit.getLimit());
+    }
+
+    @Test
+    void ignoredCallsLeaveTheLimitAlone() {
+        AdaptiveConcurrencyLimit limit = limit(4);
+
+        limit.onIgnored(limit.startCall());
+        assertEquals(4, limit.getLimit());
+        assertEquals(0, limit.getSnapshot().get("inFlight"));
+    }
+
+    @Test
+    void interruptDiscardsOnlyTheOldestCall() {
+        AdaptiveConcurrencyLimit limit = limit(4);
+        AdaptiveConcurrencyLimit.Call running = limit.startCall();
+        AdaptiveConcurrencyLimit.Call queued = limit.startCall();
+
+        limit.onInterrupt();
+        limit.onDropped(running);
+        assertEquals(4, limit.getLimit());
+
+        limit.onDropped(queued);
+        assertEquals(2, limit.getLimit());
+        assertEquals(0, limit.getSnapshot().get("inFlight"));
+    }
+
+    @Test
+    void staysAtTheMaximumWhenNotAdaptive() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(false, 1, 1, 8, 0.5, 0.2, () -> now);
+        assertEquals(8, limit.getLimit());
+
+        limit.onDropped(limit.startCall());
+        assertEquals(8, limit.getLimit());
+    }
+
+    @Test
+    void acquireWaitsForAReleasedPermit() throws Exception {
+        AdaptiveConcurrencyLimit limit = limit(1);
+        limit.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                limit.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limit.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    @Test
+    void acquireCanBeInterrupted() throws Exception {
+        AdaptiveConcurrencyLimit limit = limit(1);
+        limit.acquire();
+
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                limit.acquire();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        waiter.start();
+        waiter.interrupt();
+        waiter.join(5000);
+
+        assertTrue(interrupted.get());
+        assertEquals(1, limit.getSnapshot().get("permitsHeld"));
+    }
+}
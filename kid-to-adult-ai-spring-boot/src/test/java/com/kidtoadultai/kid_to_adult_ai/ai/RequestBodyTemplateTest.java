@@ -0,0 +1,133 @@
+package com.kidtoadultai.kid_to_adult_ai.ai;
+
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestBodyTemplateTest {
+
+    private static final JsonMapper JSON = JsonMapper.builder().build();
+
+    private static final String PROMPT = "portrait of a \"doctor\", age 35,\nwhite coat, caf\u00e9 lighting \\ 4k";
+    private static final String NEGATIVE_PROMPT = "blurry, lowres";
+    private static final String IMAGE = "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mP8z8BQDwAEhQGAhKmMIQAAAABJRU5ErkJggg==";
+
+    /**
+     * A ControlNet body as StableDiffusionService builds it, with the per-call fields taken from values
+     */
+    private static Map<String, Object> controlNetBody(Map<String, Object> values) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("prompt", values.get("prompt"));
+        requestBody.put("negative_prompt", values.get("negative_prompt"));
+        requestBody.put("steps", 30);
+        requestBody.put("width", 512);
+        requestBody.put("height", 512);
+        requestBody.put("cfg_scale", 7.5);
+        requestBody.put("sampler_index", "DPM++ 2M Karras");
+        requestBody.put("seed", values.get("seed"));
+        requestBody.put("batch_size", 1);
+
+        Map<String, Object> controlNetUnit = new HashMap<>();
+        controlNetUnit.put("input_image", values.get("image"));
+        controlNetUnit.put("module", "depth");
+        controlNetUnit.put("model", "control_v11f1p_sd15_depth [cfd03158]");
+        controlNetUnit.put("weight", 1.0);
+        controlNetUnit.put("guidance_start", 0.0);
+        controlNetUnit.put("guidance_end", 1.0);
+        requestBody.put("alwayson_scripts", Map.of("ControlNet", Map.of("args", List.of(controlNetUnit))));
+        return requestBody;
+    }
+
+    private static Map<String, Object> img2ImgBody(Map<String, Object> values) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("prompt", values.get("prompt"));
+        requestBody.put("negative_prompt", values.get("negative_prompt"));
+        requestBody.put("init_images", List.of(values.get("image")));
+        requestBody.put("denoising_strength", values.get("denoising_strength"));
+        requestBody.put("steps", 50);
+        requestBody.put("width", 512);
+        requestBody.put("height", 512);
+        requestBody.put("cfg_scale", 7.5);
+        requestBody.put("sampler_index", "DPM++ 2M Karras");
+        requestBody.put("seed", values.get("seed"));
+        requestBody.put("batch_size", 1);
+        return requestBody;
+    }
+
+    private static Map<String, Object> slots(String... names) {
+        Map<String, Object> slots = new HashMap<>();
+        for (String name : names) {
+            slots.put(name, RequestBodyTemplate.slot(name));
+        }
+        return slots;
+    }
+
+    /**
+     * Per-call values as the service passes them: prompts as compiled JSON, the image as base64
+     */
+    private static Map<String, Object> renderValues(long seed, double denoisingStrength) {
+        return Map.of(
+                "prompt", JSON.writeValueAsString(PROMPT).getBytes(StandardCharsets.UTF_8),
+                "negative_prompt", JSON.writeValueAsString(NEGATIVE_PROMPT).getBytes(StandardCharsets.UTF_8),
+                "image", IMAGE,
+                "seed", seed,
+                "denoising_strength", denoisingStrength);
+    }
+
+    /**
+     * The same values as plain objects, the way the map body used to be serialized
+     */
+    private static Map<String, Object> jacksonValues(long seed, double denoisingStrength) {
+        return Map.of(
+                "prompt", PROMPT,
+                "negative_prompt", NEGATIVE_PROMPT,
+                "image", IMAGE,
+                "seed", seed,
+                "denoising_strength", denoisingStrength);
+    }
+
+    @Test
+    void controlNetBodyMatchesTheJacksonBody() {
+        RequestBodyTemplate template = RequestBodyTemplate.compile(controlNetBody(slots("prompt", "negative_prompt", "image", "seed")));
+
+        for (long seed : new long[]{-1, 0, 4_294_967_295L, Long.MAX_VALUE}) {
+            byte[] expected = JSON.writeValueAsBytes(controlNetBody(jacksonValues(seed, 0)));
+            assertArrayEquals(expected, template.render(renderValues(seed, 0)));
+        }
+    }
+
+    @Test
+    void img2ImgBodyMatchesTheJacksonBody() {
+        RequestBodyTemplate template = RequestBodyTemplate.compile(
+                img2ImgBody(slots("prompt", "negative_prompt", "image", "seed", "denoising_strength")));
+
+        for (double strength : new double[]{0.75, 0.5, 0.1, 1.0}) {
+            byte[] expected = JSON.writeValueAsBytes(img2ImgBody(jacksonValues(42, strength)));
+            assertArrayEquals(expected, template.render(renderValues(42, strength)));
+        }
+    }
+
+    @Test
+    void stringsThatNeedEscapingAreEscaped() {
+        RequestBodyTemplate template = RequestBodyTemplate.compile(Map.of("image", RequestBodyTemplate.slot("image")));
+        String image = "data:image/png;base64,\"quoted\"\\\n\u00e9";
+
+        byte[] rendered = template.render(Map.of("image", image));
+
+        assertArrayEquals(JSON.writeValueAsBytes(Map.of("image", image)), rendered);
+        assertEquals(image, JSON.readValue(rendered, Map.class).get("image"));
+    }
+
+    @Test
+    void missingValueIsRejected() {
+        RequestBodyTemplate template = RequestBodyTemplate.compile(slots("prompt", "seed"));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> template.render(Map.of("prompt", "a doctor")));
+        assertTrue(e.getMessage().contains("seed"));
+    }
+}
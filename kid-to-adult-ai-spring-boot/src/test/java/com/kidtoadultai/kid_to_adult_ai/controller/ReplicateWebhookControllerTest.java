@@ -0,0 +1,137 @@
+package com.kidtoadultai.kid_to_adult_ai.controller;
+
+import com.kidtoadultai.kid_to_adult_ai.ai.AIService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicateWebhookControllerTest {
+
+    private static final String SECRET = secret((byte) 1);
+    private static final String BODY = "{\"id\":\"pred-1\",\"status\":\"succeeded\"}";
+
+    // Predictions handed to AIService
+    private final List<Map<String, Object>> delivered = new ArrayList<>();
+
+    private ReplicateWebhookController controller(String secret) {
+        AIService aiService = new AIService() {
+            @Override
+            public void onWebhook(Map<String, Object> prediction) {
+                delivered.add(prediction);
+            }
+        };
+        ReplicateWebhookController controller = new ReplicateWebhookController();
+        ReflectionTestUtils.setField(controller, "aiService", aiService);
+        ReflectionTestUtils.setField(controller, "jsonMapper", JsonMapper.builder().build());
+        ReflectionTestUtils.setField(controller, "webhookSecret", secret);
+        return controller;
+    }
+
+    private static String secret(byte fill) {
+        byte[] key = new byte[32];
+        Arrays.fill(key, fill);
+        return "whsec_" + Base64.getEncoder().encodeToString(key);
+    }
+
+    private static String now() {
+        return String.valueOf(System.currentTimeMillis() / 1000);
+    }
+
+    private static String sign(String secret, String id, String timestamp, String body) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(Base64.getDecoder().decode(secret.substring("whsec_".length())), "HmacSHA256"));
+        byte[] signature = mac.doFinal((id + "." + timestamp + "." + body).getBytes(StandardCharsets.UTF_8));
+        return "v1," + Base64.getEncoder().encodeToString(signature);
+    }
+
+    private int receive(ReplicateWebhookController controller, String id, String timestamp, String signature, String body) {
+        ResponseEntity<Void> response = controller.receiveWebhook(id, timestamp, signature, body);
+        return response.getStatusCode().value();
+    }
+
+    @Test
+    void signedDeliveryIsAccepted() throws Exception {
+        String timestamp = now();
+
+        assertEquals(204, receive(controller(SECRET), "msg_1", timestamp, sign(SECRET, "msg_1", timestamp, BODY), BODY));
+
+        assertEquals(1, delivered.size());
+        assertEquals("pred-1", delivered.get(0).get("id"));
+    }
+
+    @Test
+    void anyOfSeveralSignaturesMayMatch() throws Exception {
+        // While a secret is rotated the header carries one signature per active secret
+        String timestamp = now();
+        String header = sign(secret((byte) 2), "msg_1", timestamp, BODY) + " " + sign(SECRET, "msg_1", timestamp, BODY);
+
+        assertEquals(204, receive(controller(SECRET), "msg_1", timestamp, header, BODY));
+        assertEquals(1, delivered.size());
+    }
+
+    @Test
+    void signatureOfAnotherSecretIsRejected() throws Exception {
+        String timestamp = now();
+
+        assertEquals(401, receive(controller(SECRET), "msg_1", timestamp, sign(secret((byte) 2), "msg_1", timestamp, BODY), BODY));
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    void changedBodyOrIdIsRejected() throws Exception {
+        String timestamp = now();
+        String signature = sign(SECRET, "msg_1", timestamp, BODY);
+        ReplicateWebhookController controller = controller(SECRET);
+
+        assertEquals(401, receive(controller, "msg_1", timestamp, signature, BODY.replace("succeeded", "failed")));
+        assertEquals(401, receive(controller, "msg_2", timestamp, signature, BODY));
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    void timestampOutsideTheAllowedSkewIsRejected() throws Exception {
+        ReplicateWebhookController controller = controller(SECRET);
+        String old = String.valueOf(System.currentTimeMillis() / 1000 - 6 * 60);
+        String future = String.valueOf(System.currentTimeMillis() / 1000 + 6 * 60);
+        String recent = String.valueOf(System.currentTimeMillis() / 1000 - 4 * 60);
+
+        assertEquals(401, receive(controller, "msg_1", old, sign(SECRET, "msg_1", old, BODY), BODY));
+        assertEquals(401, receive(controller, "msg_1", future, sign(SECRET, "msg_1", future, BODY), BODY));
+        assertEquals(401, receive(controller, "msg_1", "yesterday", sign(SECRET, "msg_1", "yesterday", BODY), BODY));
+        assertTrue(delivered.isEmpty());
+
+        assertEquals(204, receive(controller, "msg_1", recent, sign(SECRET, "msg_1", recent, BODY), BODY));
+    }
+
+    @Test
+    void missingHeadersAreRejected() throws Exception {
+        String timestamp = now();
+        String signature = sign(SECRET, "msg_1", timestamp, BODY);
+        ReplicateWebhookController controller = controller(SECRET);
+
+        assertEquals(401, receive(controller, null, timestamp, signature, BODY));
+        assertEquals(401, receive(controller, "msg_1", null, signature, BODY));
+        assertEquals(401, receive(controller, "msg_1", timestamp, null, BODY));
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    void receiverIsOffWithoutASecret() throws Exception {
+        String timestamp = now();
+
+        assertEquals(404, receive(controller(""), "msg_1", timestamp, sign(SECRET, "msg_1", timestamp, BODY), BODY));
+        assertTrue(delivered.isEmpty());
+    }
+}
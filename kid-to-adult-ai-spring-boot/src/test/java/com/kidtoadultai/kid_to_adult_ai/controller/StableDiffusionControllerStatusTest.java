@@ -0,0 +1,238 @@
+package com.kidtoadultai.kid_to_adult_ai.controller;
+
+import com.kidtoadultai.kid_to_adult_ai.dto.ImageResponse;
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import com.kidtoadultai.kid_to_adult_ai.service.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StableDiffusionControllerStatusTest {
+
+    private final Map<String, JobStatus> jobs = new ConcurrentHashMap<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final JobStatusWatcher watcher = new JobStatusWatcher();
+    private StableDiffusionController controller;
+
+    @BeforeEach
+    void setUp() {
+        GenerationMetrics metrics = new GenerationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", registry);
+        ReflectionTestUtils.setField(metrics, "observationRegistry", ObservationRegistry.NOOP);
+        ReflectionTestUtils.setField(watcher, "metrics", metrics);
+
+        JobTrackingService jobTrackingService = new JobTrackingService() {
+            @Override
+            public JobStatus getJobStatus(String jobId) {
+                return jobs.get(jobId);
+            }
+
+            @Override
+            public List<JobStatus> getChildJobs(String parentJobId) {
+                return jobs.values().stream()
+                        .filter(job -> parentJobId.equals(job.getParentJobId()))
+                        .sorted(Comparator.comparing(JobStatus::getJobId))
+                        .toList();
+            }
+        };
+        GenerationQueue generationQueue = new GenerationQueue() {
+            @Override
+            public void recordPoll(String jobId) {
+            }
+        };
+        // Bodies only need to show which state was served
+        JobStatusResponses jobStatusResponses = new JobStatusResponses() {
+            @Override
+            public ImageResponse buildStatus(JobStatus jobStatus) {
+                return new ImageResponse(jobStatus.getJobId(), jobStatus.getStatus(), null, null);
+            }
+
+            @Override
+            public ImageResponse getFanOutStatus(JobStatus parent, List<JobStatus> children) {
+                return new ImageResponse(parent.getJobId(), parent.getStatus(), children.size() + " children", null);
+            }
+        };
+
+        controller = new StableDiffusionController();
+        ReflectionTestUtils.setField(controller, "jobTrackingService", jobTrackingService);
+        ReflectionTestUtils.setField(controller, "generationQueue", generationQueue);
+        ReflectionTestUtils.setField(controller, "metrics", metrics);
+        ReflectionTestUtils.setField(controller, "jobStatusWatcher", watcher);
+        ReflectionTestUtils.setField(controller, "jobStatusResponses", jobStatusResponses);
+        ReflectionTestUtils.setField(controller, "maxLongPollSeconds", 60L);
+    }
+
+    private JobStatus job(String jobId, String status, long version) {
+        JobStatus job = new JobStatus();
+        job.setJobId(jobId);
+        job.setStatus(status);
+        job.setVersion(version);
+        job.setMetadata(new HashMap<>());
+        jobs.put(jobId, job);
+        return job;
+    }
+
+    /**
+     * Store a new state of the job and fire the change event, as JobTrackingService does after a commit
+     */
+    private void update(String jobId, String status) {
+        JobStatus job = jobs.get(jobId);
+        job.setStatus(status);
+        job.setVersion(job.getVersion() + 1);
+        watcher.onJobChanged(new JobChangedEvent(jobId, job.getParentJobId()));
+    }
+
+    private double responses(String outcome) {
+        return registry.get("job.status.responses").tag("outcome", outcome).counter().count();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ResponseEntity<ImageResponse> resultOf(DeferredResult<ResponseEntity<ImageResponse>> result) {
+        assertTrue(result.hasResult(), "long poll has not answered");
+        return (ResponseEntity<ImageResponse>) result.getResult();
+    }
+
+    @Test
+    void statusCarriesTheVersionAsETag() {
+        job("job-1", "PROCESSING", 3);
+
+        ResponseEntity<ImageResponse> response = controller.getStatus("job-1", null);
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("\"3\"", response.getHeaders().getETag());
+        assertEquals("no-cache", response.getHeaders().getCacheControl());
+        assertEquals("PROCESSING", response.getBody().getStatus());
+        assertEquals(1.0, responses("full"));
+    }
+
+    @Test
+    void matchingIfNoneMatchGetsNotModifiedWithoutABody() {
+        job("job-1", "PROCESSING", 3);
+
+        for (String ifNoneMatch : List.of("\"3\"", "W/\"3\"", "\"1\", \"3\"", "*")) {
+            ResponseEntity<ImageResponse> response = controller.getStatus("job-1", ifNoneMatch);
+
+            assertEquals(304, response.getStatusCode().value(), ifNoneMatch);
+            assertEquals("\"3\"", response.getHeaders().getETag());
+            assertNull(response.getBody());
+        }
+        assertEquals(4.0, responses("not_modified"));
+    }
+
+    @Test
+    void staleETagGetsTheNewState() {
+        job("job-1", "PROCESSING", 3);
+        update("job-1", "COMPLETED");
+
+        ResponseEntity<ImageResponse> response = controller.getStatus("job-1", "\"3\"");
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("\"4\"", response.getHeaders().getETag());
+        assertEquals("COMPLETED", response.getBody().getStatus());
+    }
+
+    @Test
+    void fanOutETagChangesWithAnyChild() {
+        JobStatus parent = job("parent", "PROCESSING", 1);
+        parent.setChildCount(2);
+        job("parent-a", "PROCESSING", 0).setParentJobId("parent");
+        job("parent-b", "PROCESSING", 0).setParentJobId("parent");
+
+        String before = controller.getStatus("parent", null).getHeaders().getETag();
+        assertEquals("\"1.0\"", before);
+        assertEquals(304, controller.getStatus("parent", before).getStatusCode().value());
+
+        update("parent-b", "COMPLETED");
+
+        ResponseEntity<ImageResponse> response = controller.getStatus("parent", before);
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("\"1.1\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    void unknownJobIsNotFound() {
+        assertEquals(404, controller.getStatus("missing", null).getStatusCode().value());
+        assertEquals(404, resultOf(controller.waitForStatus("missing", "30s", null)).getStatusCode().value());
+    }
+
+    @Test
+    void longPollWaitsForTheNextChange() {
+        job("job-1", "PROCESSING", 3);
+
+        DeferredResult<ResponseEntity<ImageResponse>> result = controller.waitForStatus("job-1", "30s", "\"3\"");
+        assertFalse(result.hasResult());
+        assertEquals(1, watcher.getWatcherCount());
+
+        update("job-1", "COMPLETED");
+
+        ResponseEntity<ImageResponse> response = resultOf(result);
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("\"4\"", response.getHeaders().getETag());
+        assertEquals("COMPLETED", response.getBody().getStatus());
+        assertEquals(1.0, responses("woken"));
+        // A notification removes the job's listeners
+        assertEquals(0, watcher.getWatcherCount());
+    }
+
+    @Test
+    void longPollIsWokenByAChildOfTheJob() {
+        JobStatus parent = job("parent", "PROCESSING", 1);
+        parent.setChildCount(1);
+        job("parent-a", "PROCESSING", 0).setParentJobId("parent");
+        String eTag = controller.getStatus("parent", null).getHeaders().getETag();
+
+        DeferredResult<ResponseEntity<ImageResponse>> result = controller.waitForStatus("parent", "30s", eTag);
+        assertFalse(result.hasResult());
+
+        update("parent-a", "COMPLETED");
+
+        assertEquals("\"1.1\"", resultOf(result).getHeaders().getETag());
+    }
+
+    @Test
+    void longPollAnswersAtOnceWhenTheClientIsBehind() {
+        job("job-1", "PROCESSING", 5);
+
+        ResponseEntity<ImageResponse> response = resultOf(controller.waitForStatus("job-1", "30s", "\"4\""));
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("\"5\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    void longPollAnswersAtOnceForAFinishedJob() {
+        job("job-1", "COMPLETED", 7);
+
+        assertEquals(304, resultOf(controller.waitForStatus("job-1", "30s", "\"7\"")).getStatusCode().value());
+        assertEquals(200, resultOf(controller.waitForStatus("job-1", "30s", null)).getStatusCode().value());
+    }
+
+    @Test
+    void longPollWithoutETagWaitsForAProcessingJob() {
+        job("job-1", "PROCESSING", 0);
+
+        DeferredResult<ResponseEntity<ImageResponse>> result = controller.waitForStatus("job-1", "10s", null);
+        assertFalse(result.hasResult());
+
+        update("job-1", "FAILED");
+
+        assertEquals("FAILED", resultOf(result).getBody().getStatus());
+    }
+
+    @Test
+    void longPollIsCappedAndValidated() {
+        job("job-1", "PROCESSING", 0);
+
+        assertEquals(60_000L, ReflectionTestUtils.getField(controller.waitForStatus("job-1", "10m", null), "timeoutValue"));
+        assertEquals(400, resultOf(controller.waitForStatus("job-1", "soon", null)).getStatusCode().value());
+    }
+}
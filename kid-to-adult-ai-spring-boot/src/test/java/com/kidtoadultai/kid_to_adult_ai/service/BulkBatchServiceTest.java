@@ -0,0 +1,207 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkBatchServiceTest {
+
+    private static final byte[] JPEG = image(0xFF, 0xD8, 0xFF, 0xE0);
+    private static final byte[] PNG = image(0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n');
+
+    @TempDir
+    Path dir;
+
+    private final JobStatus batch = new JobStatus();
+    private final List<BulkBatchService.BulkEntry> entries = new ArrayList<>();
+    // Spooled bytes of each entry, read while the file still exists
+    private final List<byte[]> contents = new ArrayList<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private BulkBatchService service;
+
+    @BeforeEach
+    void setUp() {
+        batch.setJobId("batch-1");
+        batch.setStatus("PROCESSING");
+        JobTrackingService jobTrackingService = new JobTrackingService() {
+            @Override
+            public JobStatus getJobStatus(String jobId) {
+                return batch.getJobId().equals(jobId) ? batch : null;
+            }
+        };
+
+        GenerationMetrics metrics = new GenerationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", registry);
+        ReflectionTestUtils.setField(metrics, "observationRegistry", ObservationRegistry.NOOP);
+
+        service = new BulkBatchService();
+        ReflectionTestUtils.setField(service, "jobTrackingService", jobTrackingService);
+        ReflectionTestUtils.setField(service, "metrics", metrics);
+        ReflectionTestUtils.setField(service, "bulkDir", dir.toString());
+        ReflectionTestUtils.setField(service, "maxImages", 500);
+        ReflectionTestUtils.setField(service, "maxImageBytes", 1024L);
+    }
+
+    private BulkBatchService.IngestReport read(byte[] archive) throws Exception {
+        return read(archive, entry -> null);
+    }
+
+    private BulkBatchService.IngestReport read(byte[] archive, BulkBatchService.EntryConsumer consumer) throws Exception {
+        BulkBatchService.IngestReport report = new BulkBatchService.IngestReport();
+        service.readArchive(new ByteArrayInputStream(archive), "batch-1", entry -> {
+            entries.add(entry);
+            contents.add(Files.readAllBytes(entry.file()));
+            return consumer.accept(entry);
+        }, report);
+        return report;
+    }
+
+    @Test
+    void imagesAreSpooledAndArchiverFilesIgnored() throws Exception {
+        byte[] archive = zip(
+                "photos/", null,
+                "photos/a.jpg", JPEG,
+                "photos/b.png", PNG,
+                "__MACOSX/photos/._a.jpg", JPEG,
+                "photos/.DS_Store", new byte[16]);
+
+        BulkBatchService.IngestReport report = read(archive);
+
+        assertEquals(2, report.getAccepted());
+        assertEquals(0, report.getSkippedCount());
+        assertFalse(report.isTruncated());
+        assertEquals(List.of("photos/a.jpg", "photos/b.png"), entries.stream().map(BulkBatchService.BulkEntry::name).toList());
+        assertEquals(List.of(0, 1), entries.stream().map(BulkBatchService.BulkEntry::index).toList());
+        assertArrayEquals(JPEG, contents.get(0));
+        assertArrayEquals(PNG, contents.get(1));
+        assertEquals(dir.resolve("batch-1").resolve("0.img"), entries.get(0).file());
+    }
+
+    @Test
+    void nonImagesAreSkippedWithAReason() throws Exception {
+        byte[] archive = zip(
+                "notes.txt", "not an image at all".getBytes(),
+                "tiny.jpg", new byte[]{(byte) 0xFF},
+                "a.jpg", JPEG);
+
+        BulkBatchService.IngestReport report = read(archive);
+
+        assertEquals(1, report.getAccepted());
+        assertEquals(2, report.getSkippedCount());
+        assertEquals(Map.of("entry", "notes.txt", "reason", "not a JPEG, PNG or WebP image"), report.getSkipped().get(0));
+        assertEquals("tiny.jpg", report.getSkipped().get(1).get("entry"));
+        // Skipped entries keep their position, so indexes follow the archive
+        assertEquals(2, entries.get(0).index());
+        assertEquals(2.0, registry.get("generation.bulk.entries").tag("outcome", "skipped").counter().count());
+    }
+
+    @Test
+    void oversizedImageIsSkippedAndRemoved() throws Exception {
+        byte[] big = Arrays.copyOf(JPEG, 2048);
+        byte[] archive = zip("big.jpg", big, "small.jpg", JPEG);
+
+        BulkBatchService.IngestReport report = read(archive);
+
+        assertEquals(1, report.getAccepted());
+        assertEquals(Map.of("entry", "big.jpg", "reason", "larger than 1024 bytes"), report.getSkipped().get(0));
+        assertEquals(List.of("small.jpg"), entries.stream().map(BulkBatchService.BulkEntry::name).toList());
+        assertFalse(Files.exists(dir.resolve("batch-1").resolve("0.img")));
+    }
+
+    @Test
+    void readingStopsAtMaxImages() throws Exception {
+        ReflectionTestUtils.setField(service, "maxImages", 2);
+        byte[] archive = zip("1.jpg", JPEG, "2.jpg", JPEG, "3.jpg", JPEG, "4.jpg", JPEG);
+
+        BulkBatchService.IngestReport report = read(archive);
+
+        assertEquals(2, report.getAccepted());
+        assertTrue(report.isTruncated());
+        assertEquals(2, entries.size());
+    }
+
+    @Test
+    void readingStopsOnceTheBatchIsCancelled() throws Exception {
+        byte[] archive = zip("1.jpg", JPEG, "2.jpg", JPEG, "3.jpg", JPEG);
+
+        BulkBatchService.IngestReport report = read(archive, entry -> {
+            batch.setStatus("CANCELLED");
+            return null;
+        });
+
+        assertEquals(1, report.getAccepted());
+        assertTrue(report.isTruncated());
+    }
+
+    @Test
+    void entryRejectedByTheConsumerIsSkippedAndRemoved() throws Exception {
+        byte[] archive = zip("a.jpg", JPEG, "b.jpg", JPEG);
+
+        BulkBatchService.IngestReport report = read(archive, entry -> entry.index() == 0 ? "unknown profession" : null);
+
+        assertEquals(1, report.getAccepted());
+        assertEquals(Map.of("entry", "a.jpg", "reason", "unknown profession"), report.getSkipped().get(0));
+        assertFalse(Files.exists(entries.get(0).file()));
+        assertTrue(Files.exists(entries.get(1).file()));
+    }
+
+    @Test
+    void reportedSkipsAreCapped() throws Exception {
+        Object[] namesAndBytes = new Object[2 * 105];
+        for (int i = 0; i < 105; i++) {
+            namesAndBytes[2 * i] = i + ".txt";
+            namesAndBytes[2 * i + 1] = "text".getBytes();
+        }
+
+        BulkBatchService.IngestReport report = read(zip(namesAndBytes));
+
+        assertEquals(105, report.getSkippedCount());
+        assertEquals(100, report.getSkipped().size());
+    }
+
+    /**
+     * A ZIP of name, bytes pairs; null bytes make a directory entry
+     */
+    private static byte[] zip(Object... namesAndBytes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < namesAndBytes.length; i += 2) {
+                zip.putNextEntry(new ZipEntry((String) namesAndBytes[i]));
+                if (namesAndBytes[i + 1] != null) {
+                    zip.write((byte[]) namesAndBytes[i + 1]);
+                }
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The given leading bytes followed by some payload
+     */
+    private static byte[] image(int... header) {
+        byte[] image = new byte[64];
+        for (int i = 0; i < header.length; i++) {
+            image[i] = (byte) header[i];
+        }
+        for (int i = header.length; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        return image;
+    }
+}
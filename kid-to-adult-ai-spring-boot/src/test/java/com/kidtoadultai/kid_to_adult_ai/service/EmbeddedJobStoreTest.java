@@ -0,0 +1,178 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddedJobStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedJobStore store;
+    private MeterRegistry registry;
+
+    @AfterEach
+    void closeStore() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    private EmbeddedJobStore reopen() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+        registry = new SimpleMeterRegistry();
+        GenerationMetrics metrics = new GenerationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", registry);
+        ReflectionTestUtils.setField(metrics, "observationRegistry", ObservationRegistry.NOOP);
+
+        store = new EmbeddedJobStore();
+        ReflectionTestUtils.setField(store, "metrics", metrics);
+        ReflectionTestUtils.setField(store, "storeDir", dir.toString());
+        ReflectionTestUtils.setField(store, "initialBytes", 1L << 20);
+        ReflectionTestUtils.setField(store, "compactionGarbageRatio", 0.5);
+        ReflectionTestUtils.setField(store, "compactionMinBytes", 1L);
+        store.open();
+        return store;
+    }
+
+    private static JobStatus job(String profession, String status) {
+        JobStatus job = new JobStatus();
+        job.setStatus(status);
+        job.setProfession(profession);
+        job.setTargetAge(30);
+        job.setOriginalFilename(profession + ".jpg");
+        job.setMetadata(Map.of("generation.tier", "standard"));
+        return job;
+    }
+
+    private double logBytes() {
+        return registry.get("job.store.size").tag("kind", "log").gauge().value();
+    }
+
+    @Test
+    void reopenedStoreHasTheLatestVersionOfEveryJob() throws Exception {
+        reopen();
+        JobStatus doctor = store.save(job("doctor", "PROCESSING"));
+        JobStatus pilot = store.save(job("pilot", "PROCESSING"));
+        doctor.setStatus("COMPLETED");
+        store.save(doctor);
+        store.deleteById(pilot.getJobId());
+
+        reopen();
+        assertEquals(1, store.count());
+        JobStatus loaded = store.findById(doctor.getJobId()).orElseThrow();
+        assertEquals("COMPLETED", loaded.getStatus());
+        assertEquals(1L, loaded.getVersion());
+        assertEquals("standard", loaded.getMetadata().get("generation.tier"));
+        assertTrue(store.findById(pilot.getJobId()).isEmpty());
+        assertEquals(1, store.countByStatus("COMPLETED"));
+    }
+
+    @Test
+    void tornWriteIsDiscardedAndLaterAppendsSurvive() throws Exception {
+        reopen();
+        JobStatus first = store.save(job("doctor", "COMPLETED"));
+        JobStatus torn = store.save(job("pilot", "PROCESSING"));
+        store.close();
+
+        // Corrupt the second record's payload, as if the crash hit while it was being written
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve("jobs.log").toFile(), "rw")) {
+            file.seek(8);
+            long second = 8 + 9 + file.readInt();
+            file.seek(second + 9 + 5);
+            int value = file.read();
+            file.seek(second + 9 + 5);
+            file.write(value ^ 0xFF);
+        }
+        store = null;
+
+        reopen();
+        assertEquals(1, store.count());
+        assertTrue(store.findById(torn.getJobId()).isEmpty());
+        JobStatus next = store.save(job("chef", "PROCESSING"));
+
+        reopen();
+        assertEquals(2, store.count());
+        assertTrue(store.findById(first.getJobId()).isPresent());
+        assertTrue(store.findById(next.getJobId()).isPresent());
+    }
+
+    @Test
+    void compactionReclaimsSupersededRecords() throws Exception {
+        reopen();
+        JobStatus doctor = store.save(job("doctor", "PROCESSING"));
+        JobStatus pilot = store.save(job("pilot", "PROCESSING"));
+        for (int i = 0; i < 30; i++) {
+            doctor.setErrorMessage("progress " + i);
+            store.save(doctor);
+        }
+        store.deleteById(pilot.getJobId());
+
+        double before = logBytes();
+        store.compactIfWorthIt();
+        assertTrue(logBytes() < before / 10, "log shrank from " + before + " to " + logBytes());
+        assertEquals("progress 29", store.findById(doctor.getJobId()).orElseThrow().getErrorMessage());
+
+        // Appends after compaction land behind the copied records
+        JobStatus chef = store.save(job("chef", "PROCESSING"));
+
+        reopen();
+        assertEquals(List.of(chef.getJobId(), doctor.getJobId()),
+                store.findAllByOrderByCreatedAtDesc().stream().map(JobStatus::getJobId).toList());
+        assertEquals(30L, store.findById(doctor.getJobId()).orElseThrow().getVersion());
+    }
+
+    @Test
+    void compareAndSetStatusLetsOneConcurrentCallerWin() throws Exception {
+        reopen();
+        JobStatus parent = store.save(job("doctor", "PROCESSING"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger wins = new AtomicInteger();
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String outcome = i % 2 == 0 ? "COMPLETED" : "FAILED";
+                results.add(executor.submit(() -> {
+                    start.await();
+                    if (store.compareAndSetStatus(parent.getJobId(), "PROCESSING", outcome)) {
+                        wins.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+
+            assertEquals(1, wins.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        JobStatus loaded = store.findById(parent.getJobId()).orElseThrow();
+        assertNotEquals("PROCESSING", loaded.getStatus());
+        assertEquals(1L, loaded.getVersion());
+        assertFalse(store.compareAndSetStatus("missing", "PROCESSING", "COMPLETED"));
+    }
+}
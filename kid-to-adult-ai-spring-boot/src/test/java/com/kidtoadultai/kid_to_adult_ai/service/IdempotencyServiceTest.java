@@ -0,0 +1,172 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.IdempotencyRecord;
+import com.kidtoadultai.kid_to_adult_ai.repository.IdempotencyRecordRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyServiceTest {
+
+    // The idempotency_key table: inserts fail on an existing primary key
+    private final ConcurrentHashMap<String, IdempotencyRecord> table = new ConcurrentHashMap<>();
+    private final AtomicInteger inserts = new AtomicInteger();
+
+    private IdempotencyService node() {
+        IdempotencyService service = new IdempotencyService();
+        ReflectionTestUtils.setField(service, "idempotencyRecordRepository", repository());
+        ReflectionTestUtils.setField(service, "ttlHours", 24L);
+        return service;
+    }
+
+    @Test
+    void keysAreScopedToTheClient() {
+        IdempotencyService service = node();
+
+        assertNull(service.keyHash("ip:10.0.0.1", null));
+        assertNull(service.keyHash("ip:10.0.0.1", " "));
+        assertEquals(service.keyHash("ip:10.0.0.1", "key"), service.keyHash("ip:10.0.0.1", "key"));
+        assertNotEquals(service.keyHash("ip:10.0.0.1", "key"), service.keyHash("ip:10.0.0.2", "key"));
+    }
+
+    @Test
+    void duplicateOnTheSameNodeGetsTheFirstJob() {
+        IdempotencyService service = node();
+
+        assertEquals("job-1", service.register("k", "fp", "job-1").getJobId());
+        assertEquals("job-1", service.register("k", "fp", "job-2").getJobId());
+        assertEquals("job-1", service.find("k").getJobId());
+        assertEquals(1, inserts.get());
+    }
+
+    @Test
+    void concurrentDuplicatesOnOneNodeAgreeOnOneWinner() throws Exception {
+        IdempotencyService service = node();
+        Set<String> winners = race(16, i -> service);
+
+        assertEquals(1, winners.size());
+        assertEquals(winners.iterator().next(), table.get("k").getJobId());
+        assertEquals(1, inserts.get());
+    }
+
+    @Test
+    void concurrentDuplicatesOnSeparateNodesAreSettledByThePrimaryKey() throws Exception {
+        List<IdempotencyService> nodes = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            nodes.add(node());
+        }
+        Set<String> winners = race(16, nodes::get);
+
+        assertEquals(1, winners.size());
+        assertEquals(winners.iterator().next(), table.get("k").getJobId());
+    }
+
+    @Test
+    void expiredKeyIsTakenOver() {
+        table.put("k", new IdempotencyRecord("k", "old-job", "fp", new Date(System.currentTimeMillis() - 1000)));
+        IdempotencyService service = node();
+
+        assertNull(service.find("k"));
+        assertEquals("new-job", service.register("k", "fp", "new-job").getJobId());
+        assertEquals("new-job", table.get("k").getJobId());
+    }
+
+    @Test
+    void findReadsKeysRegisteredByAnotherNode() {
+        node().register("k", "fp", "job-1");
+
+        assertEquals("job-1", node().find("k").getJobId());
+        assertNull(node().find("other"));
+    }
+
+    @Test
+    void releasedKeyIsFreeForARetry() {
+        IdempotencyService service = node();
+        service.register("k", "fp", "job-1");
+
+        service.release("k", "job-1");
+
+        assertNull(service.find("k"));
+        assertNull(node().find("k"));
+        assertEquals("job-2", service.register("k", "fp", "job-2").getJobId());
+    }
+
+    @Test
+    void releaseLeavesAKeyHeldByAnotherJob() {
+        IdempotencyService service = node();
+        service.register("k", "fp", "job-1");
+
+        service.release("k", "job-2");
+
+        assertEquals("job-1", service.find("k").getJobId());
+        assertEquals("job-1", table.get("k").getJobId());
+    }
+
+    /**
+     * Register the same key for threads jobs at once; returns the job ids the callers were given
+     */
+    private Set<String> race(int threads, IntFunction<IdempotencyService> nodeOf) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                IdempotencyService node = nodeOf.apply(i);
+                String jobId = "job-" + i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return node.register("k", "fp", jobId).getJobId();
+                }));
+            }
+            start.countDown();
+
+            Set<String> winners = new HashSet<>();
+            for (Future<String> result : results) {
+                winners.add(result.get(10, TimeUnit.SECONDS));
+            }
+            return winners;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private IdempotencyRecordRepository repository() {
+        return (IdempotencyRecordRepository) Proxy.newProxyInstance(
+                IdempotencyRecordRepository.class.getClassLoader(),
+                new Class<?>[]{IdempotencyRecordRepository.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "saveAndFlush":
+                            IdempotencyRecord record = (IdempotencyRecord) args[0];
+                            if (table.putIfAbsent(record.getKeyHash(), record) != null) {
+                                throw new DataIntegrityViolationException("duplicate key " + record.getKeyHash());
+                            }
+                            inserts.incrementAndGet();
+                            return record;
+                        case "findById":
+                            return Optional.ofNullable(table.get((String) args[0]));
+                        case "delete":
+                            IdempotencyRecord deleted = (IdempotencyRecord) args[0];
+                            table.remove(deleted.getKeyHash(), deleted);
+                            return null;
+                        case "deleteByKeyHashAndJobId":
+                            IdempotencyRecord held = table.get((String) args[0]);
+                            return held != null && held.getJobId().equals(args[1]) && table.remove(args[0], held) ? 1L : 0L;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,69 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryRateLimitStoreTest {
+
+    private long now = TimeUnit.DAYS.toNanos(1);
+
+    private final InMemoryRateLimitStore store = new InMemoryRateLimitStore(() -> now);
+
+    private void advanceMillis(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    void startsFullAndAllowsABurstOfCapacity() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, store.tryAcquire("client", 3, 1.0));
+        }
+        assertEquals(1000, store.tryAcquire("client", 3, 1.0));
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() {
+        for (int i = 0; i < 3; i++) {
+            store.tryAcquire("client", 3, 1.0);
+        }
+
+        advanceMillis(500);
+        assertEquals(500, store.tryAcquire("client", 3, 1.0));
+        advanceMillis(500);
+        assertEquals(0, store.tryAcquire("client", 3, 1.0));
+        assertEquals(1000, store.tryAcquire("client", 3, 1.0));
+    }
+
+    @Test
+    void refillStopsAtCapacity() {
+        store.tryAcquire("client", 3, 1.0);
+        advanceMillis(TimeUnit.HOURS.toMillis(1));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, store.tryAcquire("client", 3, 1.0));
+        }
+        assertTrue(store.tryAcquire("client", 3, 1.0) > 0);
+    }
+
+    @Test
+    void keysHaveTheirOwnBuckets() {
+        assertEquals(0, store.tryAcquire("a", 1, 1.0));
+        assertTrue(store.tryAcquire("a", 1, 1.0) > 0);
+        assertEquals(0, store.tryAcquire("b", 1, 1.0));
+    }
+
+    @Test
+    void idleBucketsAreEvicted() {
+        // One token per 1000 seconds: eleven idle minutes do not refill it
+        store.tryAcquire("client", 1, 0.001);
+        advanceMillis(TimeUnit.MINUTES.toMillis(11));
+        assertTrue(store.tryAcquire("client", 1, 0.001) > 0);
+
+        advanceMillis(TimeUnit.MINUTES.toMillis(11));
+        store.evictIdleBuckets();
+        assertEquals(0, store.tryAcquire("client", 1, 0.001));
+    }
+}
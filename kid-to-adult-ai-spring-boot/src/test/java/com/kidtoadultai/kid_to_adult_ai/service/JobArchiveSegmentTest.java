@@ -0,0 +1,122 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.JobStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobArchiveSegmentTest {
+
+    @TempDir
+    Path dir;
+
+    private static JobStatus fullJob() {
+        JobStatus job = new JobStatus();
+        job.setJobId("job-1");
+        job.setStatus("COMPLETED");
+        job.setProfession("astronaut");
+        job.setTargetAge(35);
+        job.setOriginalFilename("kid.jpg");
+        job.setGeneratedFilename("adult.png");
+        job.setImageUrl("/api/images/adult.png");
+        job.setBase64Image("aGVsbG8=");
+        job.setErrorMessage("first attempt timed out: \u00fc");
+        job.setCreatedAt(new Date(1_700_000_000_000L));
+        job.setStartedAt(new Date(1_700_000_001_000L));
+        job.setCompletedAt(new Date(1_700_000_021_000L));
+        job.setProcessingTime(20);
+        job.setParentJobId("parent-1");
+        job.setChildCount(4);
+        job.setVersion(7L);
+        job.setMetadata(new HashMap<>(Map.of("generation.tier", "high", "seed", "42")));
+        return job;
+    }
+
+    private static JobStatus sparseJob() {
+        JobStatus job = new JobStatus();
+        job.setJobId("job-2");
+        job.setStatus("FAILED");
+        job.setTargetAge(20);
+        job.setCreatedAt(new Date(1_700_000_100_000L));
+        job.setMetadata(new HashMap<>());
+        return job;
+    }
+
+    @Test
+    void roundTripKeepsEveryFieldIncludingNulls() throws IOException {
+        Path file = dir.resolve("segment.kja");
+        List<JobStatus> jobs = List.of(fullJob(), sparseJob());
+
+        JobArchiveSegment.write(file, jobs);
+        List<JobStatus> read = JobArchiveSegment.read(file, job -> true);
+
+        assertEquals(jobs, read);
+        assertNull(read.get(1).getProfession());
+        assertNull(read.get(1).getCompletedAt());
+        assertNull(read.get(1).getChildCount());
+        assertNull(read.get(1).getVersion());
+    }
+
+    @Test
+    void filterKeepsMatchesInStoredOrder() throws IOException {
+        Path file = dir.resolve("segment.kja");
+        List<JobStatus> jobs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            JobStatus job = sparseJob();
+            job.setJobId("job-" + i);
+            job.setStatus(i % 3 == 0 ? "COMPLETED" : "FAILED");
+            jobs.add(job);
+        }
+
+        JobArchiveSegment.write(file, jobs);
+        List<JobStatus> completed = JobArchiveSegment.read(file, job -> "COMPLETED".equals(job.getStatus()));
+
+        assertEquals(List.of("job-0", "job-3", "job-6", "job-9"), completed.stream().map(JobStatus::getJobId).toList());
+    }
+
+    @Test
+    void largeDictionaryRoundTrips() throws IOException {
+        // More than 256 distinct values switch the dictionary codes from bytes to ints
+        Path file = dir.resolve("segment.kja");
+        List<JobStatus> jobs = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            JobStatus job = sparseJob();
+            job.setJobId("job-" + i);
+            job.setProfession("profession-" + i);
+            jobs.add(job);
+        }
+
+        JobArchiveSegment.write(file, jobs);
+
+        assertEquals(jobs, JobArchiveSegment.read(file, job -> true));
+    }
+
+    @Test
+    void otherFileIsRejected() throws IOException {
+        Path file = dir.resolve("other.gz");
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(0x12345678);
+            out.writeInt(0);
+        }
+
+        IOException e = assertThrows(IOException.class, () -> JobArchiveSegment.read(file, job -> true));
+        assertTrue(e.getMessage().startsWith("Not a job archive segment"));
+    }
+
+    @Test
+    void emptySegmentReadsAsEmpty() throws IOException {
+        Path file = dir.resolve("segment.kja");
+
+        JobArchiveSegment.write(file, List.of());
+
+        assertTrue(JobArchiveSegment.read(file, job -> true).isEmpty());
+    }
+}
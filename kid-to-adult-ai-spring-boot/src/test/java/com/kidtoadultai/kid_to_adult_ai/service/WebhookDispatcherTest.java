@@ -0,0 +1,273 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import com.kidtoadultai.kid_to_adult_ai.model.OutboxEvent;
+import com.kidtoadultai.kid_to_adult_ai.model.WebhookSubscription;
+import com.kidtoadultai.kid_to_adult_ai.repository.OutboxEventRepository;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookDispatcherTest {
+
+    private static final String SECRET = "whsec_" + Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+
+    // What the receiver got: headers of interest and the body of each request
+    private final List<Map<String, String>> received = new CopyOnWriteArrayList<>();
+    private final List<OutboxEvent> saved = new ArrayList<>();
+    private final List<Long> deleted = new ArrayList<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private volatile int responseStatus = 204;
+    private HttpServer server;
+
+    @BeforeEach
+    void startReceiver() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/hook", exchange -> {
+            Map<String, String> request = new HashMap<>();
+            request.put("id", exchange.getRequestHeaders().getFirst("webhook-id"));
+            request.put("timestamp", exchange.getRequestHeaders().getFirst("webhook-timestamp"));
+            request.put("signature", exchange.getRequestHeaders().getFirst("webhook-signature"));
+            request.put("body", new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            received.add(request);
+            exchange.sendResponseHeaders(responseStatus, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopReceiver() {
+        server.stop(0);
+    }
+
+    private WebhookDispatcher dispatcher(String allowedPrivateHost) {
+        return dispatcher(new WebhookService(), allowedPrivateHost);
+    }
+
+    private WebhookDispatcher dispatcher(WebhookService webhookService, String allowedPrivateHost) {
+        ReflectionTestUtils.setField(webhookService, "enabled", false);
+        ReflectionTestUtils.setField(webhookService, "allowedPrivateHosts", allowedPrivateHost != null ? Set.of(allowedPrivateHost) : Set.of());
+
+        GenerationMetrics metrics = new GenerationMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", registry);
+        ReflectionTestUtils.setField(metrics, "observationRegistry", ObservationRegistry.NOOP);
+
+        WebhookDispatcher dispatcher = new WebhookDispatcher();
+        ReflectionTestUtils.setField(dispatcher, "webhookService", webhookService);
+        ReflectionTestUtils.setField(dispatcher, "metrics", metrics);
+        ReflectionTestUtils.setField(dispatcher, "outboxEventRepository", repository());
+        ReflectionTestUtils.setField(dispatcher, "transactionTemplate", new TransactionTemplate(transactionManager()));
+        ReflectionTestUtils.setField(dispatcher, "timeoutMs", 5000L);
+        ReflectionTestUtils.setField(dispatcher, "maxAttempts", 8);
+        ReflectionTestUtils.setField(dispatcher, "retryInitialSeconds", 2L);
+        ReflectionTestUtils.setField(dispatcher, "retryMaxSeconds", 60L);
+        // Webhooks disabled: builds the client without starting the dispatcher thread
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    private WebhookSubscription subscription() {
+        return subscription("127.0.0.1");
+    }
+
+    private WebhookSubscription subscription(String host) {
+        WebhookSubscription subscription = new WebhookSubscription();
+        subscription.setId("sub-1");
+        subscription.setUrl("http://" + host + ":" + server.getAddress().getPort() + "/hook");
+        subscription.setSecret(SECRET);
+        return subscription;
+    }
+
+    private static OutboxEvent event(long id, int attempts) {
+        OutboxEvent event = new OutboxEvent();
+        event.setId(id);
+        event.setSubscriptionId("sub-1");
+        event.setJobId("job-" + id);
+        event.setEventType("job.completed");
+        event.setPayload("{\"id\":" + id + "}");
+        event.setStatus("PENDING");
+        event.setAttempts(attempts);
+        event.setCreatedAt(new Date());
+        event.setNextAttemptAt(new Date());
+        return event;
+    }
+
+    @Test
+    void batchIsSignedWithTheSubscriptionSecret() throws Exception {
+        WebhookDispatcher dispatcher = dispatcher("127.0.0.1");
+
+        assertTrue(dispatcher.deliver(subscription(), List.of(event(1, 0), event(2, 0))));
+
+        assertEquals(1, received.size());
+        Map<String, String> request = received.get(0);
+        assertEquals("msg_1_2", request.get("id"));
+        assertEquals("{\"events\":[{\"id\":1},{\"id\":2}]}", request.get("body"));
+        String signed = request.get("id") + "." + request.get("timestamp") + "." + request.get("body");
+        assertEquals("v1," + hmac(signed), request.get("signature"));
+        assertEquals(List.of(1L, 2L), deleted);
+        assertTrue(saved.isEmpty());
+    }
+
+    @Test
+    void signatureDoesNotVerifyWithAnotherSecret() throws Exception {
+        WebhookDispatcher dispatcher = dispatcher("127.0.0.1");
+        WebhookSubscription subscription = subscription();
+        subscription.setSecret("whsec_" + Base64.getEncoder().encodeToString(new byte[32]));
+
+        assertTrue(dispatcher.deliver(subscription, List.of(event(1, 0))));
+
+        Map<String, String> request = received.get(0);
+        String signed = request.get("id") + "." + request.get("timestamp") + "." + request.get("body");
+        assertNotEquals("v1," + hmac(signed), request.get("signature"));
+    }
+
+    @Test
+    void failedBatchBacksOffExponentially() {
+        responseStatus = 500;
+        WebhookDispatcher dispatcher = dispatcher("127.0.0.1");
+        OutboxEvent first = event(1, 0);
+        OutboxEvent third = event(2, 2);
+
+        long before = System.currentTimeMillis();
+        assertFalse(dispatcher.deliver(subscription(), List.of(first, third)));
+        long after = System.currentTimeMillis();
+
+        assertEquals(1, first.getAttempts());
+        assertEquals(3, third.getAttempts());
+        assertNotNull(first.getLastError());
+        assertEquals("PENDING", first.getStatus());
+        // 2s x 2^(attempts - 1), +-20%
+        assertDelay(first, before, after, 2000);
+        assertDelay(third, before, after, 8000);
+        assertEquals(List.of(first, third), saved);
+        assertTrue(deleted.isEmpty());
+    }
+
+    @Test
+    void backoffIsCappedAtTheMaximum() {
+        responseStatus = 503;
+        WebhookDispatcher dispatcher = dispatcher("127.0.0.1");
+        OutboxEvent event = event(1, 6);
+
+        long before = System.currentTimeMillis();
+        dispatcher.deliver(subscription(), List.of(event));
+        long after = System.currentTimeMillis();
+
+        // 2s x 2^6 = 128s, capped at 60s
+        assertDelay(event, before, after, 60_000);
+    }
+
+    @Test
+    void lastAttemptMarksTheEventDead() {
+        responseStatus = 500;
+        WebhookDispatcher dispatcher = dispatcher("127.0.0.1");
+        OutboxEvent event = event(1, 7);
+
+        assertFalse(dispatcher.deliver(subscription(), List.of(event)));
+
+        assertEquals(8, event.getAttempts());
+        assertEquals("DEAD", event.getStatus());
+        assertEquals(1.0, registry.get("webhook.events.dead").counter().count());
+    }
+
+    @Test
+    void privateAddressIsNotContacted() {
+        WebhookDispatcher dispatcher = dispatcher(null);
+        OutboxEvent event = event(1, 0);
+
+        assertFalse(dispatcher.deliver(subscription(), List.of(event)));
+
+        assertTrue(received.isEmpty());
+        assertEquals(1, event.getAttempts());
+        assertTrue(event.getLastError().contains("loopback"));
+        assertEquals(1.0, registry.get("webhook.events").tag("outcome", "blocked").counter().count());
+    }
+
+    @Test
+    void allowedHostNameIsResolvedAndContacted() {
+        WebhookDispatcher dispatcher = dispatcher("localhost");
+
+        assertTrue(dispatcher.deliver(subscription("localhost"), List.of(event(1, 0))));
+
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    void hostReboundToAPrivateAddressIsNotContacted() {
+        // The check before the delivery sees a public address; when the connection is opened the name points here
+        AtomicInteger lookups = new AtomicInteger();
+        WebhookService rebinding = new WebhookService() {
+            @Override
+            public List<InetAddress> resolveAllowed(String host) throws UnknownHostException {
+                if (lookups.incrementAndGet() == 1) {
+                    return List.of(InetAddress.getByAddress(host, new byte[]{93, (byte) 184, (byte) 215, 14}));
+                }
+                return super.resolveAllowed(host);
+            }
+        };
+        WebhookDispatcher dispatcher = dispatcher(rebinding, null);
+        OutboxEvent event = event(1, 0);
+
+        assertFalse(dispatcher.deliver(subscription("localhost"), List.of(event)));
+
+        assertTrue(lookups.get() > 1);
+        assertTrue(received.isEmpty());
+        assertEquals(1, event.getAttempts());
+        assertTrue(event.getLastError().contains("loopback"), event.getLastError());
+        assertEquals(1.0, registry.get("webhook.events").tag("outcome", "blocked").counter().count());
+    }
+
+    private static void assertDelay(OutboxEvent event, long before, long after, long nominalMillis) {
+        long at = event.getNextAttemptAt().getTime();
+        assertTrue(at >= before + nominalMillis * 8 / 10, "retry too early: " + (at - before) + "ms");
+        assertTrue(at <= after + nominalMillis * 12 / 10, "retry too late: " + (at - after) + "ms");
+    }
+
+    private static String hmac(String content) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(Base64.getDecoder().decode(SECRET.substring("whsec_".length())), "HmacSHA256"));
+        return Base64.getEncoder().encodeToString(mac.doFinal(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private OutboxEventRepository repository() {
+        return (OutboxEventRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{OutboxEventRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "saveAll" -> {
+                        ((Iterable<OutboxEvent>) args[0]).forEach(saved::add);
+                        yield args[0];
+                    }
+                    case "deleteByIds" -> {
+                        deleted.addAll((List<Long>) args[0]);
+                        yield ((List<Long>) args[0]).size();
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private PlatformTransactionManager transactionManager() {
+        return (PlatformTransactionManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PlatformTransactionManager.class},
+                (proxy, method, args) -> "getTransaction".equals(method.getName()) ? new SimpleTransactionStatus() : null);
+    }
+}
@@ -0,0 +1,136 @@
+package com.kidtoadultai.kid_to_adult_ai.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeightedFairQueueTest {
+
+    private record Item(String client, String name, int priority) {
+    }
+
+    private static Item item(String name) {
+        return new Item(name.substring(0, 1), name, 0);
+    }
+
+    // Items per round of the draft, standard and high levels, as configured by default
+    private static final Map<Integer, Integer> SHARES = Map.of(10, 4, 0, 2, -10, 1);
+
+    private static WeightedFairQueue<Item> queue(Map<String, Integer> weights) {
+        return new WeightedFairQueue<>(Item::client, client -> weights.getOrDefault(client, 1), Item::priority,
+                priority -> SHARES.getOrDefault(priority, 1));
+    }
+
+    private static List<String> drain(WeightedFairQueue<Item> queue) throws InterruptedException {
+        List<String> names = new ArrayList<>();
+        while (queue.size() > 0) {
+            names.add(queue.take().name());
+        }
+        return names;
+    }
+
+    @Test
+    void servesClientsInWeightedRoundRobin() throws InterruptedException {
+        WeightedFairQueue<Item> queue = queue(Map.of("a", 2));
+        queue.addAll(List.of(item("a1"), item("a2"), item("a3"), item("a4")));
+        queue.addAll(List.of(item("b1"), item("b2")));
+
+        assertEquals(List.of("a1", "a2", "b1", "a3", "a4", "b2"), drain(queue));
+    }
+
+    @Test
+    void newcomerWaitsAtMostOneTurnBehindABacklog() throws InterruptedException {
+        WeightedFairQueue<Item> queue = queue(Map.of());
+        queue.addAll(List.of(item("a1"), item("a2"), item("a3"), item("a4")));
+        assertEquals("a1", queue.take().name());
+
+        queue.add(item("b1"));
+        assertEquals(List.of("a2", "b1", "a3", "a4"), drain(queue));
+    }
+
+    @Test
+    void higherPriorityIsServedFirst() throws InterruptedException {
+        WeightedFairQueue<Item> queue = queue(Map.of());
+        queue.addAll(List.of(item("a1"), item("a2"), item("b1")));
+        queue.add(new Item("c", "draft", 10));
+        queue.add(new Item("a", "high", -10));
+
+        // high gets its share of the first round, ahead of the standard level's second turn
+        assertEquals(List.of("draft", "a1", "b1", "high", "a2"), drain(queue));
+    }
+
+    @Test
+    void lowerPriorityIsNotStarvedBySteadyHigherLoad() throws InterruptedException {
+        WeightedFairQueue<Item> queue = queue(Map.of());
+        queue.add(new Item("a", "high", -10));
+        queue.add(new Item("a", "standard", 0));
+        for (int i = 0; i < 4; i++) {
+            queue.add(new Item("c", "draft", 10));
+        }
+
+        // A new draft arrives for every one taken, so the draft level never runs empty
+        List<String> served = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            Item next = queue.take();
+            served.add(next.name());
+            if (next.name().equals("draft")) {
+                queue.add(new Item("c", "draft", 10));
+            }
+        }
+
+        assertEquals(List.of("draft", "draft", "draft", "draft", "standard", "high",
+                "draft", "draft", "draft", "draft", "draft", "draft"), served);
+    }
+
+    @Test
+    void aheadCountsTheSharesOfOtherLevels() {
+        WeightedFairQueue<Item> queue = queue(Map.of());
+        Item high = new Item("a", "high", -10);
+        queue.add(high);
+        for (int i = 1; i <= 6; i++) {
+            queue.add(new Item("c", "draft" + i, 10));
+        }
+
+        assertEquals(List.of("draft1", "draft2", "draft3", "draft4"), names(queue.ahead(high)));
+    }
+
+    @Test
+    void removeWithdrawsAQueuedItem() throws InterruptedException {
+        WeightedFairQueue<Item> queue = queue(Map.of());
+        Item b1 = item("b1");
+        queue.addAll(List.of(item("a1"), b1, item("a2")));
+
+        assertTrue(queue.remove(b1));
+        assertFalse(queue.remove(b1));
+        assertEquals(2, queue.size());
+        assertEquals(List.of("a1", "a2"), drain(queue));
+    }
+
+    @Test
+    void aheadReplaysTheServiceOrder() throws InterruptedException {
+        WeightedFairQueue<Item> queue = queue(Map.of("a", 2));
+        Item a3 = item("a3");
+        Item b1 = item("b1");
+        queue.addAll(List.of(item("a1"), item("a2"), a3));
+        queue.add(b1);
+
+        assertEquals(List.of("a1", "a2"), names(queue.ahead(b1)));
+        assertEquals(List.of("a1", "a2", "b1"), names(queue.ahead(a3)));
+
+        queue.add(new Item("c", "draft", 10));
+        assertEquals(List.of("draft", "a1", "a2"), names(queue.ahead(b1)));
+
+        queue.take();
+        assertNull(queue.ahead(new Item("c", "draft", 10)));
+        // Nothing is removed by asking
+        assertEquals(List.of("a1", "a2", "b1", "a3"), drain(queue));
+    }
+
+    private static List<String> names(List<Item> items) {
+        return items.stream().map(Item::name).toList();
+    }
+}